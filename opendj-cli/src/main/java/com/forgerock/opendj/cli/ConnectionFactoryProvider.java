@@ -426,20 +426,51 @@ public final class ConnectionFactoryProvider {
                         e);
             }
 
-            Options options = Options.defaultOptions();
-            if (sslContext != null) {
-                options.set(SSL_CONTEXT, sslContext)
-                    .set(SSL_USE_STARTTLS, useStartTLSArg.isPresent());
-            }
-            options.set(CONNECT_TIMEOUT, new Duration((long) getConnectTimeout(), TimeUnit.MILLISECONDS));
-            if (usePreAuthentication) {
-                options.set(AUTHN_BIND_REQUEST, getBindRequest());
-            }
-            connFactory = new LDAPConnectionFactory(hostNameArg.getValue(), portArg.getIntValue(), options);
+            connFactory = newConnectionFactory(sslContext, useStartTLSArg.isPresent(),
+                    usePreAuthentication ? getBindRequest() : null);
         }
         return connFactory;
     }
 
+    /**
+     * Returns a new factory of unauthenticated connections to the server, which uses the provided SSL context
+     * instead of the one built from the command line arguments. The connections are secured with SSL if an SSL
+     * context is provided, StartTLS is never used.
+     * <p>
+     * This allows tools to perform StartTLS themselves, or to control how TLS sessions are negotiated.
+     *
+     * @param sslContext
+     *            The SSL context used to secure the connections with SSL, or {@code null} for plain connections.
+     * @return A new connection factory, which must be closed once it is no longer used.
+     */
+    public ConnectionFactory newUnauthenticatedConnectionFactory(final SSLContext sslContext) {
+        return newConnectionFactory(sslContext, false, null);
+    }
+
+    private ConnectionFactory newConnectionFactory(final SSLContext sslContext, final boolean useStartTLS,
+            final BindRequest bindRequest) {
+        Options options = Options.defaultOptions();
+        if (sslContext != null) {
+            options.set(SSL_CONTEXT, sslContext)
+                .set(SSL_USE_STARTTLS, useStartTLS);
+        }
+        options.set(CONNECT_TIMEOUT, new Duration((long) getConnectTimeout(), TimeUnit.MILLISECONDS));
+        if (bindRequest != null) {
+            options.set(AUTHN_BIND_REQUEST, bindRequest);
+        }
+        return new LDAPConnectionFactory(hostNameArg.getValue(), getPort(), options);
+    }
+
+    /**
+     * Returns the SSL context built from the command line arguments, if SSL or StartTLS is used. This method must be
+     * called after one of the connection factories has been built.
+     *
+     * @return The SSL context, or {@code null} if neither SSL nor StartTLS is used.
+     */
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
     /**
      * Verifies if the connection arguments are not conflicting together or if they are readable.
      *
@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2010 Sun Microsystems, Inc.
- * Portions Copyright 2015 ForgeRock AS.
+ * Portions Copyright 2015-2016 ForgeRock AS.
  */
 package com.forgerock.opendj.util;
 
@@ -22,6 +22,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 
 import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.forgerock.util.Reject;
 
 /**
@@ -390,6 +391,62 @@ public final class StringPrepProfile {
         }
     }
 
+    /**
+     * A lazily populated table recording, for each BMP character, whether NFKD
+     * normalization leaves it unchanged. Strings made only of such characters
+     * are already in NFKD form and do not need to go through the
+     * {@link Normalizer}.
+     */
+    private static final class NormalizationTable {
+        private static final byte UNKNOWN = 0;
+        private static final byte STABLE = 1;
+        private static final byte UNSTABLE = 2;
+
+        /**
+         * Races when populating the table are benign: every thread computes
+         * the same value for a given character.
+         */
+        private static final byte[] TABLE = new byte[Character.MAX_VALUE + 1];
+
+        /** Returns the NFKD form of the provided characters. */
+        private static CharSequence normalize(final CharSequence value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (!isStable(value.charAt(i))) {
+                    return Normalizer.normalize(value, Form.NFKD);
+                }
+            }
+            return value;
+        }
+
+        private static boolean isStable(final char c) {
+            byte state = TABLE[c];
+            if (state == UNKNOWN) {
+                state = computeIsStable(c) ? STABLE : UNSTABLE;
+                TABLE[c] = state;
+            }
+            return state == STABLE;
+        }
+
+        private static boolean computeIsStable(final char c) {
+            if (Character.isSurrogate(c)) {
+                return false;
+            }
+            switch (Character.getType(c)) {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+                // Combining marks may need to be reordered.
+                return false;
+            default:
+                return Normalizer.isNormalized(String.valueOf(c), Form.NFKD);
+            }
+        }
+
+        private NormalizationTable() {
+            // Prevent instantiation.
+        }
+    }
+
     /**
      * Defines SPACE character.
      */
@@ -442,9 +499,11 @@ public final class StringPrepProfile {
                 // Map the attribute value.
                 MappingTable.map(buffer, sequence.subSequence(i, length), trim, foldCase);
                 // Normalize the attribute value.
-                String normalizedForm = Normalizer.normalize(buffer, Form.NFKD);
-                buffer.setLength(0);
-                buffer.append(normalizedForm);
+                final CharSequence normalizedForm = NormalizationTable.normalize(buffer);
+                if (normalizedForm != buffer) {
+                    buffer.setLength(0);
+                    buffer.append(normalizedForm);
+                }
                 break;
             }
 
@@ -487,6 +546,109 @@ public final class StringPrepProfile {
         }
     }
 
+    /**
+     * Prepares an attribute or assertion value as per stringprep algorithm
+     * defined in RFC 4518, appending the UTF-8 encoding of the prepared form
+     * directly to the provided builder. Purely ASCII values are prepared
+     * without decoding them into characters.
+     *
+     * @param builder
+     *            The builder to which the UTF-8 encoding of the prepared form
+     *            of the string should be appended.
+     * @param sequence
+     *            The {@link org.forgerock.opendj.ldap.ByteSequence} that needs
+     *            preparation.
+     * @param trim
+     *            Indicates whether leading and trailing spaces should be
+     *            omitted from the string representation.
+     * @param foldCase
+     *            Indicates whether the case will be folded during mapping.
+     * @see <a href="http://www.rfc-editor.org/rfc/rfc4518.txt">
+     *      Internationalized String Preparation</a>
+     */
+    public static void prepareUnicode(final ByteStringBuilder builder, final ByteSequence sequence,
+            final boolean trim, final boolean foldCase) {
+        Reject.ifNull(builder, sequence);
+
+        final int start = builder.length();
+        final int length = sequence.length();
+        for (int i = 0; i < length; i++) {
+            final byte b = sequence.byteAt(i);
+            if ((b & 0x7F) != b) {
+                prepareNonAscii(builder, start, sequence.subSequence(i, length), trim, foldCase);
+                return;
+            }
+
+            switch (b) {
+            case ' ':
+                if (canMapToSpace(builder, start, trim)) {
+                    builder.appendByte(' ');
+                }
+                break;
+            default:
+                // Perform mapping.
+                if (b >= '\u0009' && b < '\u000E') {
+                    // These characters are mapped to a SPACE.
+                    if (canMapToSpace(builder, start, trim)) {
+                        builder.appendByte(SPACE_CHAR);
+                    }
+                } else if ((b >= '\u0000' && b <= '\u0008') || (b >= '\u000E' && b <= '\u001F')
+                        || b == '\u007F') {
+                    // These characters are mapped to nothing and hence not
+                    // copied over..
+                    break;
+                } else if (foldCase && b >= 'A' && b <= 'Z') {
+                    // If case-folding is allowed then map to the lower case.
+                    builder.appendByte(b + 32);
+                } else {
+                    builder.appendByte(b);
+                }
+                break;
+            }
+        }
+        if (trim) {
+            // Strip off any trailing spaces.
+            int end = builder.length();
+            while (end > start + 1 && builder.byteAt(end - 1) == SPACE_CHAR) {
+                end--;
+            }
+            builder.setLength(end);
+        }
+    }
+
+    /**
+     * Slow path of {@link #prepareUnicode(ByteStringBuilder, ByteSequence, boolean, boolean)}:
+     * the ASCII prefix already appended to the builder is moved back into a
+     * character buffer so that mapping and normalization see the whole value.
+     */
+    private static void prepareNonAscii(final ByteStringBuilder builder, final int start,
+            final ByteSequence remaining, final boolean trim, final boolean foldCase) {
+        final StringBuilder buffer = new StringBuilder(builder.length() - start + remaining.length());
+        for (int i = start; i < builder.length(); i++) {
+            buffer.append((char) builder.byteAt(i));
+        }
+        builder.setLength(start);
+
+        MappingTable.map(buffer, remaining, trim, foldCase);
+        final CharSequence normalized = NormalizationTable.normalize(buffer);
+
+        int end = normalized.length();
+        if (trim) {
+            // Strip off any trailing spaces.
+            while (end > 1 && normalized.charAt(end - 1) == SPACE_CHAR) {
+                end--;
+            }
+        }
+        builder.appendUtf8(normalized.subSequence(0, end).toString());
+    }
+
+    private static boolean canMapToSpace(final ByteStringBuilder builder, final int start, final boolean trim) {
+        final int buffLen = builder.length() - start;
+        final boolean doNotMap = (trim && buffLen == 0)
+                || (buffLen > 0 && builder.byteAt(builder.length() - 1) == SPACE_CHAR);
+        return !doNotMap;
+    }
+
     /**
      * Do not map this character into a space if:
      * <ol>
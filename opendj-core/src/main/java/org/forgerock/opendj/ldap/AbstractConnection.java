@@ -377,6 +377,11 @@ public abstract class AbstractConnection implements Connection {
         return searchAsync(request, null, resultHandler);
     }
 
+    @Override
+    public SearchResultPublisher searchPublisher(final SearchRequest request) {
+        return new SearchResultPublisherImpl(this, request);
+    }
+
     @Override
     public SearchResultEntry searchSingleEntry(final SearchRequest request) throws LdapException {
         final SingleEntryHandler handler = new SingleEntryHandler();
@@ -591,6 +591,16 @@ public abstract class AbstractConnectionWrapper<C extends Connection> implements
         return connection.searchAsync(request, intermediateResponseHandler, entryHandler);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The default implementation is to delegate.
+     */
+    @Override
+    public SearchResultPublisher searchPublisher(final SearchRequest request) {
+        return connection.searchPublisher(request);
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -588,6 +588,9 @@ public final class ByteString implements ByteSequence {
     /** The start index of the range of bytes to expose through this byte string. */
     final int offset;
 
+    /** The cached hash code, or {@code 0} if it has not been computed yet. */
+    private int hashCode;
+
     /**
      * Creates a new byte string that wraps a subsequence of the provided byte
      * array.
@@ -732,7 +735,13 @@ public final class ByteString implements ByteSequence {
      */
     @Override
     public int hashCode() {
-        return hashCode(buffer, offset, length);
+        // Byte strings are immutable so the hash code can be cached, in the same way as String does.
+        int h = hashCode;
+        if (h == 0) {
+            h = hashCode(buffer, offset, length);
+            hashCode = h;
+        }
+        return h;
     }
 
     @Override
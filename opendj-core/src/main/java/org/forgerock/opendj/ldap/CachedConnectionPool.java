@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2009-2010 Sun Microsystems, Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.ldap;
 
@@ -529,6 +529,11 @@ final class CachedConnectionPool implements ConnectionPool {
             return checkState().searchAsync(request, intermediateResponseHandler, entryHandler);
         }
 
+        @Override
+        public SearchResultPublisher searchPublisher(final SearchRequest request) {
+            return checkState().searchPublisher(request);
+        }
+
         @Override
         public SearchResultEntry searchSingleEntry(final SearchRequest request) throws LdapException {
             return checkState().searchSingleEntry(request);
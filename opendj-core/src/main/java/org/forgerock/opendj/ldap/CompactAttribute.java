@@ -0,0 +1,532 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import org.forgerock.util.Reject;
+
+/**
+ * An implementation of the {@code Attribute} interface which is optimized for
+ * attributes having a very large number of values, such as the members of
+ * large static groups.
+ * <p>
+ * Attributes having no more values than a configurable threshold are stored
+ * exactly like a {@link LinkedAttribute} and iterate over their values in
+ * insertion order. Once the threshold is exceeded, the values are sorted
+ * according to their normalized form and packed together with their
+ * normalized form into a few arrays, which avoids allocating several objects
+ * per value. Membership checks and removals then use a binary search over the
+ * normalized values, and iteration returns the values in the order of their
+ * normalized form. Recently added values are kept in a small sorted map and
+ * merged into the packed arrays in batches, so that adding values does not
+ * require the arrays to be copied each time.
+ * <p>
+ * All operations are supported by this implementation.
+ */
+public final class CompactAttribute extends AbstractAttribute {
+    /**
+     * A sequence of values sorted according to their normalized form. The
+     * normalized and user provided forms of the values are each packed into a
+     * single byte array. Value runs are never modified once built.
+     */
+    static final class ValueRun {
+        private final byte[] normalizedBytes;
+        private final int[] normalizedOffsets;
+        private final byte[] rawBytes;
+        private final int[] rawOffsets;
+        private final int size;
+
+        private ValueRun(final byte[] normalizedBytes, final int[] normalizedOffsets, final byte[] rawBytes,
+                final int[] rawOffsets, final int size) {
+            this.normalizedBytes = normalizedBytes;
+            this.normalizedOffsets = normalizedOffsets;
+            this.rawBytes = rawBytes;
+            this.rawOffsets = rawOffsets;
+            this.size = size;
+        }
+
+        /**
+         * Compares the normalized form of the value at {@code index} with the
+         * normalized form of the value at {@code otherIndex} in {@code other}.
+         */
+        int compareNormalized(final int index, final ValueRun other, final int otherIndex) {
+            final int offset = normalizedOffsets[index];
+            final int otherOffset = other.normalizedOffsets[otherIndex];
+            return ByteString.compareTo(normalizedBytes, offset, normalizedOffsets[index + 1] - offset,
+                    other.normalizedBytes, otherOffset, other.normalizedOffsets[otherIndex + 1] - otherOffset);
+        }
+
+        private int compareNormalized(final int index, final ByteString normalizedValue) {
+            final int offset = normalizedOffsets[index];
+            return -normalizedValue.compareTo(normalizedBytes, offset, normalizedOffsets[index + 1] - offset);
+        }
+
+        /**
+         * Returns the index of the value having the provided normalized form,
+         * or {@code (-(insertion point) - 1)} if there is none.
+         */
+        private int indexOf(final ByteString normalizedValue) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final int cmp = compareNormalized(middle, normalizedValue);
+                if (cmp < 0) {
+                    low = middle + 1;
+                } else if (cmp > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        ByteString normalizedValue(final int index) {
+            final int offset = normalizedOffsets[index];
+            return ByteString.wrap(normalizedBytes, offset, normalizedOffsets[index + 1] - offset);
+        }
+
+        ByteString rawValue(final int index) {
+            final int offset = rawOffsets[index];
+            return ByteString.wrap(rawBytes, offset, rawOffsets[index + 1] - offset);
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /** Builds value runs from values which are appended in sorted order. */
+    private static final class Builder {
+        private final ByteStringBuilder normalizedBytes;
+        private int[] normalizedOffsets;
+        private final ByteStringBuilder rawBytes;
+        private int[] rawOffsets;
+        private int size;
+
+        private Builder(final int capacity) {
+            normalizedBytes = new ByteStringBuilder(capacity * 16);
+            rawBytes = new ByteStringBuilder(capacity * 16);
+            normalizedOffsets = new int[capacity + 1];
+            rawOffsets = new int[capacity + 1];
+        }
+
+        private void append(final ByteSequence normalizedValue, final ByteSequence rawValue) {
+            if (size + 1 == normalizedOffsets.length) {
+                normalizedOffsets = Arrays.copyOf(normalizedOffsets, (size + 1) * 2);
+                rawOffsets = Arrays.copyOf(rawOffsets, (size + 1) * 2);
+            }
+            normalizedBytes.appendBytes(normalizedValue);
+            rawBytes.appendBytes(rawValue);
+            size++;
+            normalizedOffsets[size] = normalizedBytes.length();
+            rawOffsets[size] = rawBytes.length();
+        }
+
+        private void append(final ValueRun run, final int index) {
+            append(run.normalizedValue(index), run.rawValue(index));
+        }
+
+        private ValueRun build() {
+            return new ValueRun(normalizedBytes.trimToSize().getBackingArray(), normalizedOffsets,
+                    rawBytes.trimToSize().getBackingArray(), rawOffsets, size);
+        }
+    }
+
+    /**
+     * The default number of values above which attributes created using
+     * {@link #FACTORY} switch to the compact representation.
+     */
+    public static final int DEFAULT_COMPACT_THRESHOLD = 100;
+
+    /**
+     * An attribute factory which can be used to create new compact attributes
+     * using the {@link #DEFAULT_COMPACT_THRESHOLD default threshold}.
+     */
+    public static final AttributeFactory FACTORY = newFactory(DEFAULT_COMPACT_THRESHOLD);
+
+    /**
+     * Returns an attribute factory which can be used to create new compact
+     * attributes switching to the compact representation once they have more
+     * than {@code threshold} values.
+     *
+     * @param threshold
+     *            The number of values above which attributes switch to the
+     *            compact representation.
+     * @return The attribute factory.
+     * @throws IllegalArgumentException
+     *             If {@code threshold} is negative.
+     */
+    public static AttributeFactory newFactory(final int threshold) {
+        Reject.ifTrue(threshold < 0, "threshold must not be negative");
+        return new AttributeFactory() {
+            @Override
+            public Attribute newAttribute(final AttributeDescription attributeDescription) {
+                return new CompactAttribute(attributeDescription, threshold);
+            }
+        };
+    }
+
+    /**
+     * Returns {@code true} if the provided attribute is a compact attribute
+     * which has switched to the compact representation.
+     */
+    static boolean isCompact(final Attribute attribute) {
+        return attribute instanceof CompactAttribute && ((CompactAttribute) attribute).linkedValues == null;
+    }
+
+    /**
+     * Returns the values of the provided attribute sorted according to their
+     * normalized form. The packed values of compact attributes are returned
+     * without being copied, unless values have been added or removed since
+     * they were packed. The provided attribute is never modified.
+     */
+    static ValueRun sortedValuesOf(final Attribute attribute) {
+        if (isCompact(attribute)) {
+            return ((CompactAttribute) attribute).mergedValues();
+        }
+        return sortValues(attribute, attribute);
+    }
+
+    private static ValueRun sortValues(final Attribute attribute, final Iterable<ByteString> values) {
+        final TreeMap<ByteString, ByteString> sortedValues = new TreeMap<>();
+        for (final ByteString value : values) {
+            sortedValues.put(normalizeValue(attribute, value), value);
+        }
+        final Builder builder = new Builder(sortedValues.size());
+        for (final Map.Entry<ByteString, ByteString> value : sortedValues.entrySet()) {
+            builder.append(value.getKey(), value.getValue());
+        }
+        return builder.build();
+    }
+
+    private final AttributeDescription attributeDescription;
+    private final int threshold;
+
+    /** The values while there are no more than {@link #threshold} of them, {@code null} afterwards. */
+    private LinkedAttribute linkedValues;
+
+    /** The packed values, some of which may have been removed since the run was built. */
+    private ValueRun values;
+    private BitSet removedValues;
+    private int removedValueCount;
+    /** The values which have been added since the packed values were built, keyed by their normalized form. */
+    private TreeMap<ByteString, ByteString> pendingValues;
+    private int modCount;
+
+    /**
+     * Creates a new attribute having the same attribute description and
+     * attribute values as {@code attribute}. The threshold of
+     * {@code attribute} is used if it is a compact attribute, otherwise the
+     * {@link #DEFAULT_COMPACT_THRESHOLD default threshold} is used.
+     *
+     * @param attribute
+     *            The attribute to be copied.
+     * @throws NullPointerException
+     *             If {@code attribute} was {@code null}.
+     */
+    public CompactAttribute(final Attribute attribute) {
+        this(attribute.getAttributeDescription(), attribute instanceof CompactAttribute
+                ? ((CompactAttribute) attribute).threshold : DEFAULT_COMPACT_THRESHOLD);
+        if (isCompact(attribute)) {
+            // Packed values are never modified so they can be shared.
+            final CompactAttribute other = (CompactAttribute) attribute;
+            switchToCompactValues(other.values);
+            removedValues.or(other.removedValues);
+            removedValueCount = other.removedValueCount;
+            pendingValues.putAll(other.pendingValues);
+        } else if (attribute.size() > threshold) {
+            switchToCompactValues(sortValues(this, attribute));
+        } else {
+            linkedValues.addAll(attribute);
+        }
+    }
+
+    /**
+     * Creates a new attribute having the specified attribute description and no
+     * attribute values, using the {@link #DEFAULT_COMPACT_THRESHOLD default
+     * threshold}.
+     *
+     * @param attributeDescription
+     *            The attribute description.
+     * @throws NullPointerException
+     *             If {@code attributeDescription} was {@code null}.
+     */
+    public CompactAttribute(final AttributeDescription attributeDescription) {
+        this(attributeDescription, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /**
+     * Creates a new attribute having the specified attribute description and no
+     * attribute values, which will switch to the compact representation once it
+     * has more than {@code threshold} values.
+     *
+     * @param attributeDescription
+     *            The attribute description.
+     * @param threshold
+     *            The number of values above which the attribute switches to the
+     *            compact representation.
+     * @throws NullPointerException
+     *             If {@code attributeDescription} was {@code null}.
+     * @throws IllegalArgumentException
+     *             If {@code threshold} is negative.
+     */
+    public CompactAttribute(final AttributeDescription attributeDescription, final int threshold) {
+        Reject.ifNull(attributeDescription);
+        Reject.ifTrue(threshold < 0, "threshold must not be negative");
+        this.attributeDescription = attributeDescription;
+        this.threshold = threshold;
+        this.linkedValues = new LinkedAttribute(attributeDescription);
+    }
+
+    /**
+     * Creates a new attribute having the specified attribute description and no
+     * attribute values, using the {@link #DEFAULT_COMPACT_THRESHOLD default
+     * threshold}. The attribute description will be decoded using the default
+     * schema.
+     *
+     * @param attributeDescription
+     *            The attribute description.
+     * @throws org.forgerock.i18n.LocalizedIllegalArgumentException
+     *             If {@code attributeDescription} could not be decoded using
+     *             the default schema.
+     * @throws NullPointerException
+     *             If {@code attributeDescription} was {@code null}.
+     */
+    public CompactAttribute(final String attributeDescription) {
+        this(AttributeDescription.valueOf(attributeDescription));
+    }
+
+    @Override
+    public boolean add(final ByteString value) {
+        Reject.ifNull(value);
+        if (linkedValues != null) {
+            if (!linkedValues.add(value)) {
+                return false;
+            }
+            if (linkedValues.size() > threshold) {
+                switchToCompactValues(sortValues(this, linkedValues));
+            }
+            return true;
+        }
+
+        final ByteString normalizedValue = normalizeValue(this, value);
+        if (indexOfValue(normalizedValue) >= 0 || pendingValues.containsKey(normalizedValue)) {
+            return false;
+        }
+        pendingValues.put(normalizedValue, value);
+        modCount++;
+        if (pendingValues.size() > Math.max(threshold, values.size() >> 3)) {
+            mergePendingValues();
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        linkedValues = new LinkedAttribute(attributeDescription);
+        values = null;
+        removedValues = null;
+        removedValueCount = 0;
+        pendingValues = null;
+        modCount++;
+    }
+
+    @Override
+    public boolean contains(final Object value) {
+        Reject.ifNull(value);
+        if (linkedValues != null) {
+            return linkedValues.contains(value);
+        }
+        final ByteString normalizedValue = normalizeValue(this, ByteString.valueOfObject(value));
+        return indexOfValue(normalizedValue) >= 0 || pendingValues.containsKey(normalizedValue);
+    }
+
+    @Override
+    public ByteString firstValue() {
+        if (linkedValues != null) {
+            return linkedValues.firstValue();
+        }
+        return iterator().next();
+    }
+
+    @Override
+    public AttributeDescription getAttributeDescription() {
+        return attributeDescription;
+    }
+
+    @Override
+    public Iterator<ByteString> iterator() {
+        if (linkedValues != null) {
+            return linkedValues.iterator();
+        }
+        return new Iterator<ByteString>() {
+            private final ValueRun iteratedValues = values;
+            private Map.Entry<ByteString, ByteString> nextPendingValue = pendingValues.firstEntry();
+            private int nextIndex = nextIndex(0);
+            /** The index of the last value returned, or -1 if it was a pending value. */
+            private int lastIndex = -1;
+            /** The normalized form of the last value returned if it was a pending value. */
+            private ByteString lastPendingKey;
+            private boolean canRemove;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return nextIndex < iteratedValues.size() || nextPendingValue != null;
+            }
+
+            @Override
+            public ByteString next() {
+                checkForComodification();
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                canRemove = true;
+                if (nextPendingValue == null || (nextIndex < iteratedValues.size()
+                        && iteratedValues.compareNormalized(nextIndex, nextPendingValue.getKey()) < 0)) {
+                    lastIndex = nextIndex;
+                    nextIndex = nextIndex(nextIndex + 1);
+                    return iteratedValues.rawValue(lastIndex);
+                }
+                final ByteString value = nextPendingValue.getValue();
+                lastIndex = -1;
+                lastPendingKey = nextPendingValue.getKey();
+                nextPendingValue = pendingValues.higherEntry(lastPendingKey);
+                return value;
+            }
+
+            @Override
+            public void remove() {
+                checkForComodification();
+                if (!canRemove) {
+                    throw new IllegalStateException();
+                }
+                canRemove = false;
+                if (lastIndex < 0) {
+                    // The next pending value is looked up by key, so it is not affected by the removal.
+                    pendingValues.remove(lastPendingKey);
+                } else {
+                    removedValues.set(lastIndex);
+                    removedValueCount++;
+                }
+                expectedModCount = ++modCount;
+            }
+
+            private void checkForComodification() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+
+            private int nextIndex(final int fromIndex) {
+                final int index = removedValues.nextClearBit(fromIndex);
+                return Math.min(index, iteratedValues.size());
+            }
+        };
+    }
+
+    @Override
+    public boolean remove(final Object value) {
+        Reject.ifNull(value);
+        if (linkedValues != null) {
+            return linkedValues.remove(value);
+        }
+        final ByteString normalizedValue = normalizeValue(this, ByteString.valueOfObject(value));
+        if (pendingValues.remove(normalizedValue) != null) {
+            modCount++;
+            return true;
+        }
+        final int index = indexOfValue(normalizedValue);
+        if (index < 0) {
+            return false;
+        }
+        removedValues.set(index);
+        removedValueCount++;
+        modCount++;
+        if (removedValueCount > values.size() >> 1) {
+            mergePendingValues();
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        if (linkedValues != null) {
+            return linkedValues.size();
+        }
+        return values.size() - removedValueCount + pendingValues.size();
+    }
+
+    /** Returns the index of the packed value having the provided normalized form if it has not been removed. */
+    private int indexOfValue(final ByteString normalizedValue) {
+        final int index = values.indexOf(normalizedValue);
+        return index >= 0 && !removedValues.get(index) ? index : -1;
+    }
+
+    /**
+     * Rebuilds the packed values by merging the pending values and dropping
+     * the removed values.
+     */
+    private void mergePendingValues() {
+        if (!pendingValues.isEmpty() || removedValueCount != 0) {
+            switchToCompactValues(mergedValues());
+        }
+    }
+
+    /**
+     * Returns the values of this attribute as a single value run, by merging
+     * the pending values and dropping the removed values in a single linear
+     * pass. This attribute is left unchanged.
+     */
+    private ValueRun mergedValues() {
+        if (pendingValues.isEmpty() && removedValueCount == 0) {
+            return values;
+        }
+        final Builder builder = new Builder(size());
+        final Iterator<Map.Entry<ByteString, ByteString>> pendingIterator = pendingValues.entrySet().iterator();
+        Map.Entry<ByteString, ByteString> pendingValue = pendingIterator.hasNext() ? pendingIterator.next() : null;
+        int index = removedValues.nextClearBit(0);
+        while (index < values.size() || pendingValue != null) {
+            if (pendingValue == null
+                    || (index < values.size() && values.compareNormalized(index, pendingValue.getKey()) < 0)) {
+                builder.append(values, index);
+                index = removedValues.nextClearBit(index + 1);
+            } else {
+                builder.append(pendingValue.getKey(), pendingValue.getValue());
+                pendingValue = pendingIterator.hasNext() ? pendingIterator.next() : null;
+            }
+        }
+        return builder.build();
+    }
+
+    private void switchToCompactValues(final ValueRun newValues) {
+        linkedValues = null;
+        values = newValues;
+        removedValues = new BitSet();
+        removedValueCount = 0;
+        pendingValues = new TreeMap<>();
+        modCount++;
+    }
+}
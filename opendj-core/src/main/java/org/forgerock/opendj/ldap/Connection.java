@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2009-2010 Sun Microsystems, Inc.
- * Portions Copyright 2011-2014 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 
 package org.forgerock.opendj.ldap;
@@ -1355,6 +1355,33 @@ public interface Connection extends Closeable {
     LdapPromise<Result> searchAsync(SearchRequest request, IntermediateResponseHandler intermediateResponseHandler,
         SearchResultHandler entryHandler);
 
+    /**
+     * Returns a publisher which will search the Directory Server using the
+     * provided search request once it has been subscribed to, and which will
+     * deliver the search result entries at the rate requested by its
+     * subscriber.
+     * <p>
+     * Connections to a remote Directory Server stop reading responses while
+     * the subscriber is not requesting entries, if the transport supports it,
+     * so that slow subscribers exert back pressure on the Directory Server.
+     * Note that this also delays the responses to the other requests sent on
+     * the connection. Otherwise, the entries are buffered until they are
+     * requested. Search result references are delivered in order with the
+     * entries, regardless of the number of requested entries.
+     *
+     * @param request
+     *            The search request.
+     * @return A publisher of the search result entries.
+     * @throws UnsupportedOperationException
+     *             If this connection does not support search operations.
+     * @throws IllegalStateException
+     *             If this connection has already been closed, i.e. if
+     *             {@code isClosed() == true}.
+     * @throws NullPointerException
+     *             If {@code request} was {@code null}.
+     */
+    SearchResultPublisher searchPublisher(SearchRequest request);
+
     /**
      * Searches the Directory Server for a single entry using the provided
      * search request.
@@ -75,6 +75,24 @@ public final class Connections {
     public static final Option<ScheduledExecutorService> LOAD_BALANCER_SCHEDULER =
             Option.of(ScheduledExecutorService.class, null);
 
+    /**
+     * Specifies the DN of the entry whose immediate subordinates are the shard keys of a sharded request
+     * load-balancer. When set, requests targeting an entry below a shard key are routed according to the shard key,
+     * so that each connection factory holds complete subtrees, and searches which span several shards are sent to
+     * all the connection factories in parallel. By default, requests are routed according to their own target DN
+     * and searches are never sent to more than one connection factory.
+     *
+     * @see #newShardedRequestLoadBalancer(Collection, Options)
+     */
+    public static final Option<DN> LOAD_BALANCER_SHARD_BASE_DN = Option.of(DN.class, null);
+
+    /**
+     * Specifies the maximum number of entries which will be held by the connection factories returned by
+     * {@link #newEntryCacheConnectionFactory(ConnectionFactory, DN, Options)}. The least recently used entries are
+     * evicted when the limit is reached. The default is to cache up to 10000 entries.
+     */
+    public static final Option<Integer> ENTRY_CACHE_MAX_SIZE = Option.withDefault(10000);
+
     /**
      * Creates a new connection pool which creates new connections as needed
      * using the provided connection factory, but will reuse previously
@@ -529,6 +547,13 @@ public final class Connections {
      * the factories are configured using the same ordering, otherwise requests will not be routed consistently
      * across the client applications.
      * <p/>
+     * When the {@link #LOAD_BALANCER_SHARD_BASE_DN} option is set, each connection factory is expected to hold only
+     * the subtrees of the shard keys which are routed to it, as well as the shard base entry and its superiors.
+     * Searches whose scope includes entries from more than one shard are then sent to all the connection factories in
+     * parallel, without failing over, and the returned entries are merged into a single stream. Size limits and server
+     * side sort controls are enforced across all the shards, whereas simple paged results searches visit the shards
+     * one after the other.
+     * <p/>
      * The implementation periodically attempts to connect to failed connection factories in order to determine if they
      * have become available again.
      *
@@ -542,18 +567,27 @@ public final class Connections {
      * @see #LOAD_BALANCER_EVENT_LISTENER
      * @see #LOAD_BALANCER_MONITORING_INTERVAL
      * @see #LOAD_BALANCER_SCHEDULER
+     * @see #LOAD_BALANCER_SHARD_BASE_DN
      */
     public static ConnectionFactory newShardedRequestLoadBalancer(
             final Collection<? extends ConnectionFactory> factories, final Options options) {
+        final DN shardBaseDN = options.get(LOAD_BALANCER_SHARD_BASE_DN);
         return new RequestLoadBalancer("ShardedRequestLoadBalancer",
                                        factories,
                                        options,
-                                       newShardedRequestLoadBalancerFunction(factories));
+                                       newShardedRequestLoadBalancerFunction(factories, shardBaseDN),
+                                       shardBaseDN);
     }
 
     // Package private for testing.
     static Function<Request, Integer, NeverThrowsException> newShardedRequestLoadBalancerFunction(
             final Collection<? extends ConnectionFactory> factories) {
+        return newShardedRequestLoadBalancerFunction(factories, null);
+    }
+
+    // Package private for testing.
+    static Function<Request, Integer, NeverThrowsException> newShardedRequestLoadBalancerFunction(
+            final Collection<? extends ConnectionFactory> factories, final DN shardBaseDN) {
         return new Function<Request, Integer, NeverThrowsException>() {
             private final int maxIndex = factories.size();
 
@@ -570,19 +604,19 @@ public final class Connections {
                 // reduce the average number of branches. A better solution would be to use a visitor, but a visitor
                 // would only apply to the core operations, not extended operations or SASL binds.
                 if (request instanceof SearchRequest) {
-                    return ((SearchRequest) request).getName().hashCode();
+                    return hashCodeOfDn(((SearchRequest) request).getName());
                 } else if (request instanceof ModifyRequest) {
-                    return ((ModifyRequest) request).getName().hashCode();
+                    return hashCodeOfDn(((ModifyRequest) request).getName());
                 } else if (request instanceof SimpleBindRequest) {
                     return hashCodeOfDnString(((SimpleBindRequest) request).getName());
                 } else if (request instanceof AddRequest) {
-                    return ((AddRequest) request).getName().hashCode();
+                    return hashCodeOfDn(((AddRequest) request).getName());
                 } else if (request instanceof DeleteRequest) {
-                    return ((DeleteRequest) request).getName().hashCode();
+                    return hashCodeOfDn(((DeleteRequest) request).getName());
                 } else if (request instanceof CompareRequest) {
-                    return ((CompareRequest) request).getName().hashCode();
+                    return hashCodeOfDn(((CompareRequest) request).getName());
                 } else if (request instanceof ModifyDNRequest) {
-                    return ((ModifyDNRequest) request).getName().hashCode();
+                    return hashCodeOfDn(((ModifyDNRequest) request).getName());
                 } else if (request instanceof PasswordModifyExtendedRequest) {
                     return hashCodeOfAuthzid(((PasswordModifyExtendedRequest) request).getUserIdentityAsString());
                 } else if (request instanceof PlainSASLBindRequest) {
@@ -607,18 +641,60 @@ public final class Connections {
 
             private int hashCodeOfDnString(final String dnString) {
                 try {
-                    return DN.valueOf(dnString).hashCode();
+                    return hashCodeOfDn(DN.valueOf(dnString));
                 } catch (final IllegalArgumentException ignored) {
                     return distributeRequestAtRandom();
                 }
             }
 
+            private int hashCodeOfDn(final DN dn) {
+                // Route all the entries below a shard key to the same shard.
+                if (shardBaseDN != null && dn.size() > shardBaseDN.size() + 1
+                        && dn.isSubordinateOrEqualTo(shardBaseDN)) {
+                    return dn.parent(dn.size() - shardBaseDN.size() - 1).hashCode();
+                }
+                return dn.hashCode();
+            }
+
             private int distributeRequestAtRandom() {
                 return ThreadLocalRandom.current().nextInt(0, maxIndex);
             }
         };
     }
 
+    /**
+     * Creates a new connection factory whose connections serve base object searches, including
+     * {@link Connection#readEntry(DN, String...) readEntry}, and compare requests targeting the entries at or below
+     * the provided base DN from an in-memory cache shared by all the connections. Other requests are sent using
+     * connections obtained from the provided connection factory.
+     * <p>
+     * The cache is kept up to date by a persistent search against the base DN, which is performed using a dedicated
+     * connection obtained from the provided connection factory: each entry change notification invalidates the
+     * changed entries. The whole cache is invalidated whenever the persistent search fails, for example when its
+     * connection is lost, and the persistent search is restarted the next time an entry is read. The Directory
+     * Server must therefore support the persistent search and entry change notification controls.
+     * <p>
+     * Entries are read with all their user and operational attributes using the identity of the connections
+     * returned by the provided factory. Requests which contain controls, as well as all the requests sent using a
+     * connection which has been re-authenticated, are not served from the cache.
+     *
+     * @param factory
+     *            The connection factory which will be used for reading entries and for the persistent search.
+     * @param baseDN
+     *            The base DN of the entries which will be cached.
+     * @param options
+     *            The configuration options for the entry cache.
+     * @return The new caching connection factory.
+     * @see #ENTRY_CACHE_MAX_SIZE
+     */
+    public static ConnectionFactory newEntryCacheConnectionFactory(final ConnectionFactory factory, final DN baseDN,
+            final Options options) {
+        Reject.ifNull(factory, baseDN, options);
+        final int maxEntries = options.get(ENTRY_CACHE_MAX_SIZE);
+        Reject.ifFalse(maxEntries > 0, "The maximum number of cached entries must be positive");
+        return new EntryCacheConnectionFactory(factory, baseDN, maxEntries);
+    }
+
     /**
      * Creates a new connection factory which forwards connection requests to
      * the provided factory, but whose {@code toString} method will always
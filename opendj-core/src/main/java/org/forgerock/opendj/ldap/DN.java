@@ -308,15 +308,18 @@ public final class DN implements Iterable<RDN>, Comparable<DN> {
         return schemaLocalMap;
     }
 
+    /*
+     * DNs only reference their parent and their RDN, which caches its own normalized form: DNs belonging to the same
+     * subtree share the representation of their common ancestors rather than each holding a copy of their whole
+     * normalized form. Comparisons are performed RDN by RDN, starting from the root, and stop as soon as both DNs
+     * reach the same ancestor.
+     */
     private final RDN rdn;
     private DN parent;
     private final int size;
 
-    /**
-     * The normalized byte string representation of this DN, which is not
-     * a valid DN and is not reversible to a valid DN.
-     */
-    private ByteString normalizedDN;
+    /** The cached hash code, or {@code 0} if it has not been computed yet. */
+    private int hashCode;
 
     /**
      * The RFC 4514 string representation of this DN. A value of {@code null}
@@ -435,9 +438,35 @@ public final class DN implements Iterable<RDN>, Comparable<DN> {
         return child(new RDN(attributeType, attributeValue));
     }
 
+    /**
+     * Compares this DN with the provided DN. The ordering is the same as the ordering of the
+     * {@link #toNormalizedByteString() normalized byte string} representations of the DNs, which provides a natural
+     * hierarchical ordering.
+     *
+     * @param dn
+     *            The DN to be compared.
+     * @return A negative integer, zero, or a positive integer as this DN is less than, equal to, or greater than the
+     *         provided DN.
+     */
     @Override
     public int compareTo(final DN dn) {
-        return toNormalizedByteString().compareTo(dn.toNormalizedByteString());
+        if (this == dn) {
+            return 0;
+        }
+        // Compare the ancestors having the same depth first: if they are equal then the shortest DN sorts first.
+        final int result = compareSameSize(parent(Math.max(size - dn.size, 0)), dn.parent(Math.max(dn.size - size, 0)));
+        return result != 0 ? result : size - dn.size;
+    }
+
+    private static int compareSameSize(final DN dn1, final DN dn2) {
+        if (dn1 == dn2 || dn1.rdn == null) {
+            return 0;
+        }
+        final int result = compareSameSize(dn1.parent, dn2.parent);
+        if (result != 0) {
+            return result;
+        }
+        return dn1.rdn.toNormalizedByteString().compareTo(dn2.rdn.toNormalizedByteString());
     }
 
     @Override
@@ -447,14 +476,27 @@ public final class DN implements Iterable<RDN>, Comparable<DN> {
         }
         if (obj instanceof DN) {
             DN otherDN = (DN) obj;
-            return toNormalizedByteString().equals(otherDN.toNormalizedByteString());
+            if (size != otherDN.size || hashCode() != otherDN.hashCode()) {
+                return false;
+            }
+            for (DN dn1 = this, dn2 = otherDN; dn1 != dn2 && dn1.rdn != null; dn1 = dn1.parent, dn2 = dn2.parent) {
+                if (!dn1.rdn.toNormalizedByteString().equals(dn2.rdn.toNormalizedByteString())) {
+                    return false;
+                }
+            }
+            return true;
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return toNormalizedByteString().hashCode();
+        int h = hashCode;
+        if (h == 0 && rdn != null) {
+            h = 31 * parent.hashCode() + rdn.toNormalizedByteString().hashCode();
+            hashCode = h;
+        }
+        return h;
     }
 
     /**
@@ -896,18 +938,19 @@ public final class DN implements Iterable<RDN>, Comparable<DN> {
      * @return The normalized string representation of this DN.
      */
     public ByteString toNormalizedByteString() {
-        if (normalizedDN == null) {
-            if (rdn == null) {
-                normalizedDN = ByteString.empty();
-            } else {
-                final ByteString normalizedParent = parent.toNormalizedByteString();
-                final ByteStringBuilder builder = new ByteStringBuilder(normalizedParent.length() + 16);
-                builder.appendBytes(normalizedParent);
-                rdn.toNormalizedByteString(builder);
-                normalizedDN = builder.toByteString();
-            }
+        if (rdn == null) {
+            return ByteString.empty();
+        }
+        // The normalized form is not cached in order to avoid duplicating the normalized form of the ancestors.
+        return toNormalizedByteString(new ByteStringBuilder()).toByteString();
+    }
+
+    private ByteStringBuilder toNormalizedByteString(final ByteStringBuilder builder) {
+        if (rdn != null) {
+            parent.toNormalizedByteString(builder);
+            rdn.toNormalizedByteString(builder);
         }
-        return normalizedDN;
+        return builder;
     }
 
     /**
@@ -28,6 +28,7 @@ import java.util.Set;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.opendj.ldap.CompactAttribute.ValueRun;
 import org.forgerock.opendj.ldap.controls.PermissiveModifyRequestControl;
 import org.forgerock.opendj.ldap.requests.ModifyRequest;
 import org.forgerock.opendj.ldap.requests.Requests;
@@ -601,6 +602,9 @@ public final class Entries {
                     addedValues.removeAll(oldValues);
                     diffAddValues(request, addedValues.size() == ato.size() ? ato
                             : new LinkedAttribute(adto, addedValues));
+                } else if (CompactAttribute.isCompact(afrom) || CompactAttribute.isCompact(ato)) {
+                    // Merge the sorted values of large attributes rather than copying them.
+                    diffSortedValues(request, afrom, ato);
                 } else {
                     // Compare multi-valued attributes using matching rules.
                     final Attribute deletedValues = new LinkedAttribute(afrom);
@@ -1002,6 +1006,36 @@ public final class Entries {
         }
     }
 
+    private static void diffSortedValues(final ModifyRequest request, final Attribute afrom, final Attribute ato) {
+        final ValueRun fromValues = CompactAttribute.sortedValuesOf(afrom);
+        final ValueRun toValues = CompactAttribute.sortedValuesOf(ato);
+        final Attribute deletedValues = new LinkedAttribute(afrom.getAttributeDescription());
+        final Attribute addedValues = new LinkedAttribute(ato.getAttributeDescription());
+
+        int i = 0;
+        int j = 0;
+        while (i < fromValues.size() && j < toValues.size()) {
+            final int cmp = fromValues.compareNormalized(i, toValues, j);
+            if (cmp < 0) {
+                deletedValues.add(fromValues.rawValue(i++));
+            } else if (cmp > 0) {
+                addedValues.add(toValues.rawValue(j++));
+            } else {
+                i++;
+                j++;
+            }
+        }
+        while (i < fromValues.size()) {
+            deletedValues.add(fromValues.rawValue(i++));
+        }
+        while (j < toValues.size()) {
+            addedValues.add(toValues.rawValue(j++));
+        }
+
+        diffDeleteValues(request, deletedValues);
+        diffAddValues(request, addedValues);
+    }
+
     private static boolean diffFirstValuesAreDifferent(final DiffOptions diffOptions,
             final Attribute afrom, final Attribute ato) {
         if (diffOptions.useExactMatching) {
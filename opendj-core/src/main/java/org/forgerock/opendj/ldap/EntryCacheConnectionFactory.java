@@ -0,0 +1,479 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static com.forgerock.opendj.ldap.CoreMessages.ERR_NO_SEARCH_RESULT_ENTRIES;
+import static org.forgerock.opendj.ldap.Attributes.singletonAttribute;
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.requests.Requests.newSearchRequest;
+import static org.forgerock.opendj.ldap.requests.Requests.newSingleEntrySearchRequest;
+import static org.forgerock.opendj.ldap.responses.Responses.newCompareResult;
+import static org.forgerock.opendj.ldap.responses.Responses.newResult;
+import static org.forgerock.opendj.ldap.responses.Responses.newSearchResultEntry;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.asPromise;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.controls.EntryChangeNotificationResponseControl;
+import org.forgerock.opendj.ldap.controls.PersistentSearchChangeType;
+import org.forgerock.opendj.ldap.controls.PersistentSearchRequestControl;
+import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.CompareRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.BindResult;
+import org.forgerock.opendj.ldap.responses.CompareResult;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldif.ConnectionEntryReader;
+import org.forgerock.util.Function;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.ResultHandler;
+
+/**
+ * A connection factory whose connections serve base object searches and
+ * compare requests targeting the entries below a base DN from an in-memory
+ * cache shared by all the connections.
+ * <p>
+ * The cache is kept up to date by a persistent search which is performed
+ * using a dedicated connection: each change notification invalidates the
+ * changed entry, as well as its subordinates for modify DN operations. The
+ * whole cache is invalidated and no entry is cached while the persistent
+ * search is not active, and the persistent search is restarted on demand.
+ * <p>
+ * Entries are read with all their user and operational attributes using the
+ * identity of the connections returned by the underlying factory. Requests
+ * which contain controls, as well as all the requests sent using a connection
+ * which has been re-authenticated, are not served from the cache.
+ */
+final class EntryCacheConnectionFactory implements ConnectionFactory {
+    private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+    /** Keeps the cached entries up to date for as long as its persistent search is active. */
+    private final class ChangeMonitor implements SearchResultHandler, ResultHandler<Result>,
+            ExceptionHandler<LdapException> {
+        /** Guarded by stateLock. */
+        private Connection connection;
+        private LdapPromise<Result> search;
+
+        private void start() {
+            factory.getConnectionAsync().thenOnResult(new ResultHandler<Connection>() {
+                @Override
+                public void handleResult(final Connection newConnection) {
+                    synchronized (stateLock) {
+                        if (monitor != ChangeMonitor.this) {
+                            newConnection.close();
+                            return;
+                        }
+                        connection = newConnection;
+                    }
+                    final SearchRequest request = newSearchRequest(baseDN, SearchScope.WHOLE_SUBTREE,
+                            Filter.objectClassPresent(), "1.1").addControl(PersistentSearchRequestControl.newControl(
+                                    true, true, true, PersistentSearchChangeType.values()));
+                    final LdapPromise<Result> newSearch = newConnection.searchAsync(request, ChangeMonitor.this);
+                    synchronized (stateLock) {
+                        search = newSearch;
+                        isActive = monitor == ChangeMonitor.this;
+                    }
+                    newSearch.thenOnResult(ChangeMonitor.this).thenOnException(ChangeMonitor.this);
+                }
+            }).thenOnException(this);
+        }
+
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            PersistentSearchChangeType changeType = null;
+            DN previousName = null;
+            try {
+                final EntryChangeNotificationResponseControl control =
+                        entry.getControl(EntryChangeNotificationResponseControl.DECODER, new DecodeOptions());
+                if (control != null) {
+                    changeType = control.getChangeType();
+                    previousName = control.getPreviousName();
+                }
+            } catch (final DecodeException e) {
+                logger.traceException(e);
+            }
+            synchronized (stateLock) {
+                if (monitor != this) {
+                    return false;
+                }
+                changeCount++;
+                if (changeType == PersistentSearchChangeType.MODIFY_DN) {
+                    // The subordinate entries have been renamed as well.
+                    invalidateSubtree(previousName != null ? previousName : entry.getName());
+                }
+                entries.remove(entry.getName());
+            }
+            return true;
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            return true;
+        }
+
+        /** Invoked if the persistent search completes, which is not expected. */
+        @Override
+        public void handleResult(final Result result) {
+            stop();
+        }
+
+        @Override
+        public void handleException(final LdapException exception) {
+            logger.traceException(exception);
+            stop();
+        }
+
+        private void stop() {
+            final Connection stoppedConnection;
+            final LdapPromise<Result> stoppedSearch;
+            synchronized (stateLock) {
+                if (monitor == this) {
+                    monitor = null;
+                    isActive = false;
+                    changeCount++;
+                    entries.clear();
+                }
+                stoppedConnection = connection;
+                stoppedSearch = search;
+                connection = null;
+                search = null;
+            }
+            if (stoppedSearch != null) {
+                stoppedSearch.cancel(true);
+            }
+            closeSilently(stoppedConnection);
+        }
+    }
+
+    /** A connection which serves the requests it can from the entry cache. */
+    private final class CachingConnection extends AbstractConnectionWrapper<Connection> {
+        private volatile boolean isCacheBypassed;
+
+        private CachingConnection(final Connection connection) {
+            super(connection);
+        }
+
+        @Override
+        public BindResult bind(final BindRequest request) throws LdapException {
+            isCacheBypassed = true;
+            return super.bind(request);
+        }
+
+        @Override
+        public BindResult bind(final String name, final char[] password) throws LdapException {
+            isCacheBypassed = true;
+            return super.bind(name, password);
+        }
+
+        @Override
+        public LdapPromise<BindResult> bindAsync(final BindRequest request) {
+            isCacheBypassed = true;
+            return super.bindAsync(request);
+        }
+
+        @Override
+        public LdapPromise<BindResult> bindAsync(final BindRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler) {
+            isCacheBypassed = true;
+            return super.bindAsync(request, intermediateResponseHandler);
+        }
+
+        @Override
+        public CompareResult compare(final CompareRequest request) throws LdapException {
+            return isCacheable(request) ? blockingGetOrThrow(compareAsync(request)) : super.compare(request);
+        }
+
+        @Override
+        public CompareResult compare(final String name, final String attributeDescription,
+                final String assertionValue) throws LdapException {
+            return compare(Requests.newCompareRequest(name, attributeDescription, assertionValue));
+        }
+
+        @Override
+        public LdapPromise<CompareResult> compareAsync(final CompareRequest request) {
+            return compareAsync(request, null);
+        }
+
+        @Override
+        public LdapPromise<CompareResult> compareAsync(final CompareRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler) {
+            if (!isCacheable(request)) {
+                return super.compareAsync(request, intermediateResponseHandler);
+            }
+            return asPromise(getEntryAsync(connection, request.getName()).then(
+                    new Function<Entry, CompareResult, LdapException>() {
+                        @Override
+                        public CompareResult apply(final Entry entry) {
+                            final Attribute assertion =
+                                    singletonAttribute(request.getAttributeDescription(), request.getAssertionValue());
+                            return newCompareResult(entry.containsAttribute(assertion, null)
+                                    ? ResultCode.COMPARE_TRUE : ResultCode.COMPARE_FALSE);
+                        }
+                    }));
+        }
+
+        @Override
+        public SearchResultEntry readEntry(final DN name, final String... attributeDescriptions)
+                throws LdapException {
+            return searchSingleEntry(newSingleEntrySearchRequest(name, SearchScope.BASE_OBJECT,
+                    Filter.objectClassPresent(), attributeDescriptions));
+        }
+
+        @Override
+        public SearchResultEntry readEntry(final String name, final String... attributeDescriptions)
+                throws LdapException {
+            return readEntry(DN.valueOf(name), attributeDescriptions);
+        }
+
+        @Override
+        public LdapPromise<SearchResultEntry> readEntryAsync(final DN name,
+                final Collection<String> attributeDescriptions) {
+            final SearchRequest request =
+                    newSingleEntrySearchRequest(name, SearchScope.BASE_OBJECT, Filter.objectClassPresent());
+            if (attributeDescriptions != null) {
+                request.getAttributes().addAll(attributeDescriptions);
+            }
+            return searchSingleEntryAsync(request);
+        }
+
+        @Override
+        public ConnectionEntryReader search(final SearchRequest request) {
+            return isCacheable(request) ? new ConnectionEntryReader(this, request) : super.search(request);
+        }
+
+        @Override
+        public Result search(final SearchRequest request, final SearchResultHandler handler) throws LdapException {
+            return isCacheable(request) ? blockingGetOrThrow(searchAsync(request, handler))
+                                        : super.search(request, handler);
+        }
+
+        @Override
+        public LdapPromise<Result> searchAsync(final SearchRequest request, final SearchResultHandler resultHandler) {
+            return searchAsync(request, null, resultHandler);
+        }
+
+        @Override
+        public LdapPromise<Result> searchAsync(final SearchRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final SearchResultHandler entryHandler) {
+            if (!isCacheable(request)) {
+                return super.searchAsync(request, intermediateResponseHandler, entryHandler);
+            }
+            return asPromise(getEntryAsync(connection, request.getName()).then(
+                    new Function<Entry, Result, LdapException>() {
+                        @Override
+                        public Result apply(final Entry entry) {
+                            final SearchResultEntry matchingEntry = filter(request, entry);
+                            if (matchingEntry != null && entryHandler != null) {
+                                entryHandler.handleEntry(matchingEntry);
+                            }
+                            return newResult(ResultCode.SUCCESS);
+                        }
+                    }));
+        }
+
+        @Override
+        public SearchResultEntry searchSingleEntry(final SearchRequest request) throws LdapException {
+            return isCacheable(request) ? blockingGetOrThrow(searchSingleEntryAsync(request))
+                                        : super.searchSingleEntry(request);
+        }
+
+        @Override
+        public LdapPromise<SearchResultEntry> searchSingleEntryAsync(final SearchRequest request) {
+            if (!isCacheable(request)) {
+                return super.searchSingleEntryAsync(request);
+            }
+            return asPromise(getEntryAsync(connection, request.getName()).then(
+                    new Function<Entry, SearchResultEntry, LdapException>() {
+                        @Override
+                        public SearchResultEntry apply(final Entry entry) throws LdapException {
+                            final SearchResultEntry matchingEntry = filter(request, entry);
+                            if (matchingEntry == null) {
+                                throw newLdapException(ResultCode.CLIENT_SIDE_NO_RESULTS_RETURNED,
+                                        ERR_NO_SEARCH_RESULT_ENTRIES.get().toString());
+                            }
+                            return matchingEntry;
+                        }
+                    }));
+        }
+
+        @Override
+        public String toString() {
+            return "EntryCacheConnection(" + connection + ')';
+        }
+
+        private boolean isCacheable(final SearchRequest request) {
+            return !isCacheBypassed
+                    && request.getScope() == SearchScope.BASE_OBJECT
+                    && request.getControls().isEmpty()
+                    && request.getName().isSubordinateOrEqualTo(baseDN);
+        }
+
+        private boolean isCacheable(final CompareRequest request) {
+            return !isCacheBypassed
+                    && request.getControls().isEmpty()
+                    && request.getName().isSubordinateOrEqualTo(baseDN);
+        }
+
+        private SearchResultEntry filter(final SearchRequest request, final Entry entry) {
+            if (!request.getFilter().matcher().matches(entry).toBoolean()) {
+                return null;
+            }
+            final AttributeFilter attributeFilter =
+                    new AttributeFilter(request.getAttributes()).typesOnly(request.isTypesOnly());
+            return newSearchResultEntry(attributeFilter.filteredCopyOf(entry));
+        }
+    }
+
+    private final ConnectionFactory factory;
+    private final DN baseDN;
+    private final int maxEntries;
+    private final Object stateLock = new Object();
+
+    /** The cached entries, in least recently used order. Guarded by stateLock. */
+    private final LinkedHashMap<DN, Entry> entries;
+
+    /** The active change monitor or the one being started. Guarded by stateLock. */
+    private ChangeMonitor monitor;
+
+    /** Whether entries may be cached, which is when the persistent search is active. Guarded by stateLock. */
+    private boolean isActive;
+
+    /**
+     * Incremented each time that cached entries are invalidated, so that entries read concurrently with a change are
+     * not cached. Guarded by stateLock.
+     */
+    private long changeCount;
+
+    /** Guarded by stateLock. */
+    private boolean isClosed;
+
+    EntryCacheConnectionFactory(final ConnectionFactory factory, final DN baseDN, final int maxEntries) {
+        this.factory = factory;
+        this.baseDN = baseDN;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<DN, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<DN, Entry> eldest) {
+                return size() > EntryCacheConnectionFactory.this.maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        final ChangeMonitor stoppedMonitor;
+        synchronized (stateLock) {
+            isClosed = true;
+            stoppedMonitor = monitor;
+        }
+        if (stoppedMonitor != null) {
+            stoppedMonitor.stop();
+        }
+        factory.close();
+    }
+
+    @Override
+    public Connection getConnection() throws LdapException {
+        final Connection connection = factory.getConnection();
+        startMonitoringIfNeeded();
+        return new CachingConnection(connection);
+    }
+
+    @Override
+    public Promise<Connection, LdapException> getConnectionAsync() {
+        return factory.getConnectionAsync().then(new Function<Connection, Connection, LdapException>() {
+            @Override
+            public Connection apply(final Connection connection) {
+                startMonitoringIfNeeded();
+                return new CachingConnection(connection);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "EntryCacheConnectionFactory(" + baseDN + ", " + factory + ')';
+    }
+
+    /** Returns the named entry from the cache, reading it using the provided connection if needed. */
+    private LdapPromise<Entry> getEntryAsync(final Connection connection, final DN name) {
+        final long initialChangeCount;
+        synchronized (stateLock) {
+            final Entry entry = entries.get(name);
+            if (entry != null) {
+                return newSuccessfulLdapPromise(entry);
+            }
+            initialChangeCount = changeCount;
+        }
+        startMonitoringIfNeeded();
+        final SearchRequest request =
+                newSingleEntrySearchRequest(name, SearchScope.BASE_OBJECT, Filter.objectClassPresent(), "*", "+");
+        return asPromise(connection.searchSingleEntryAsync(request).then(
+                new Function<SearchResultEntry, Entry, LdapException>() {
+                    @Override
+                    public Entry apply(final SearchResultEntry entry) {
+                        synchronized (stateLock) {
+                            if (isActive && changeCount == initialChangeCount) {
+                                entries.put(name, entry);
+                            }
+                        }
+                        return entry;
+                    }
+                }));
+    }
+
+    private void startMonitoringIfNeeded() {
+        final ChangeMonitor newMonitor;
+        synchronized (stateLock) {
+            if (isClosed || monitor != null) {
+                return;
+            }
+            newMonitor = new ChangeMonitor();
+            monitor = newMonitor;
+        }
+        newMonitor.start();
+    }
+
+    /** Must be invoked while holding the state lock. */
+    private void invalidateSubtree(final DN dn) {
+        for (final Iterator<DN> i = entries.keySet().iterator(); i.hasNext();) {
+            if (i.next().isSubordinateOrEqualTo(dn)) {
+                i.remove();
+            }
+        }
+    }
+
+    private static <T> T blockingGetOrThrow(final LdapPromise<T> promise) throws LdapException {
+        try {
+            return promise.getOrThrow();
+        } catch (final InterruptedException e) {
+            throw newLdapException(ResultCode.CLIENT_SIDE_USER_CANCELLED, e);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static com.forgerock.opendj.ldap.CoreMessages.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.util.Reject;
+
+/**
+ * A compact binary encoding of entries, which is much smaller than their LDIF
+ * or LDAP representation and much faster to decode. It is intended for
+ * entries which are cached, spilled to temporary files or persisted in
+ * snapshots.
+ * <p>
+ * The attribute types defined by the schema of the codec are numbered in the
+ * order of their OIDs, and the attribute descriptions of the encoded entries
+ * refer to their attribute type using this number, so that decoding does not
+ * need to parse them. Attribute descriptions which have options, which do not
+ * use the primary name of their attribute type or whose attribute type is not
+ * defined by the schema are encoded as strings. Values are prefixed by their
+ * length, and may be followed by their normalized form, so that decoded
+ * attributes do not need to normalize their values again.
+ * <p>
+ * Since the numbers depend on the schema, encoded entries must be decoded
+ * using a codec created with the same schema as the codec which encoded them,
+ * otherwise they may be decoded with the wrong attribute types. A persisted
+ * format should therefore record the {@link #getSchemaFingerprint() schema
+ * fingerprint} of the codec in its header, and check it before decoding the
+ * entries, which only start with a byte of format flags. Codecs are immutable
+ * and may be shared between threads.
+ * <p>
+ * The codec does not allocate buffers of its own: entries are appended to a
+ * byte string builder provided by the caller, which may be cleared and reused
+ * for the next entry, and the values of decoded entries share the bytes of
+ * the provided byte string rather than copying them:
+ *
+ * <pre>
+ * EntryCodec codec = new EntryCodec(schema);
+ * ByteStringBuilder builder = new ByteStringBuilder();
+ * codec.encode(entry, builder.clear());
+ * ...
+ * Entry decodedEntry = codec.decode(builder.toByteString());
+ * </pre>
+ */
+public final class EntryCodec {
+    /** Format flag indicating that each value is followed by its normalized form. */
+    private static final int FLAG_NORMALIZED_VALUES = 0x01;
+    /** The number of the attribute types which are not defined by the schema. */
+    private static final int UNKNOWN_ATTRIBUTE_TYPE = 0;
+
+    private final Schema schema;
+    private final boolean storeNormalizedValues;
+    /** Maps the OID of each attribute type of the schema to its number. */
+    private final Map<String, Integer> attributeTypeNumbers;
+    /** The attribute description without options of each numbered attribute type, indexed by its number. */
+    private final AttributeDescription[] attributeDescriptions;
+    /** The hash code of the list of the OIDs of the numbered attribute types, in the order of their numbers. */
+    private final int schemaFingerprint;
+
+    /**
+     * Creates a new entry codec for the provided schema, which does not store
+     * normalized values.
+     *
+     * @param schema
+     *            The schema whose attribute types will be numbered.
+     * @throws NullPointerException
+     *             If {@code schema} was {@code null}.
+     */
+    public EntryCodec(final Schema schema) {
+        this(schema, false);
+    }
+
+    /**
+     * Creates a new entry codec for the provided schema.
+     *
+     * @param schema
+     *            The schema whose attribute types will be numbered.
+     * @param storeNormalizedValues
+     *            Indicates whether the normalized form of the values should
+     *            be encoded along with them. This makes encoded entries larger,
+     *            but decoded attributes will not have to normalize their values
+     *            when they are compared or modified.
+     * @throws NullPointerException
+     *             If {@code schema} was {@code null}.
+     */
+    public EntryCodec(final Schema schema, final boolean storeNormalizedValues) {
+        Reject.ifNull(schema);
+        this.schema = schema;
+        this.storeNormalizedValues = storeNormalizedValues;
+
+        final List<AttributeType> attributeTypes = new ArrayList<>(schema.getAttributeTypes());
+        Collections.sort(attributeTypes, new Comparator<AttributeType>() {
+            @Override
+            public int compare(final AttributeType t1, final AttributeType t2) {
+                return t1.getOID().compareTo(t2.getOID());
+            }
+        });
+        this.attributeTypeNumbers = new HashMap<>(attributeTypes.size() * 2);
+        this.attributeDescriptions = new AttributeDescription[attributeTypes.size() + 1];
+        final List<String> oids = new ArrayList<>(attributeTypes.size());
+        int number = UNKNOWN_ATTRIBUTE_TYPE + 1;
+        for (final AttributeType attributeType : attributeTypes) {
+            attributeTypeNumbers.put(attributeType.getOID(), number);
+            attributeDescriptions[number++] = AttributeDescription.create(attributeType);
+            oids.add(attributeType.getOID());
+        }
+        // The hash code of lists and strings is specified, hence does not depend on the JVM.
+        this.schemaFingerprint = oids.hashCode();
+    }
+
+    /**
+     * Returns the schema used by this codec for numbering attribute types and
+     * decoding entries.
+     *
+     * @return The schema used by this codec.
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns a fingerprint of the numbering of the attribute types of the
+     * schema of this codec. Codecs whose fingerprints differ number attribute
+     * types differently, and cannot decode the entries encoded by each other.
+     * The fingerprint does not depend on the JVM, and is intended to be
+     * recorded once in the header of persisted formats rather than with each
+     * encoded entry.
+     *
+     * @return The fingerprint of the numbering of the attribute types.
+     */
+    public int getSchemaFingerprint() {
+        return schemaFingerprint;
+    }
+
+    /**
+     * Indicates whether this codec encodes the normalized form of the values
+     * along with them.
+     *
+     * @return {@code true} if this codec encodes normalized values.
+     */
+    public boolean isStoringNormalizedValues() {
+        return storeNormalizedValues;
+    }
+
+    /**
+     * Appends the encoded form of the provided entry to the provided byte
+     * string builder.
+     *
+     * @param entry
+     *            The entry to be encoded.
+     * @param builder
+     *            The byte string builder to which the encoded entry will be
+     *            appended.
+     * @return The provided byte string builder.
+     * @throws NullPointerException
+     *             If {@code entry} or {@code builder} was {@code null}.
+     */
+    public ByteStringBuilder encode(final Entry entry, final ByteStringBuilder builder) {
+        Reject.ifNull(entry, builder);
+        builder.appendByte(storeNormalizedValues ? FLAG_NORMALIZED_VALUES : 0);
+        appendString(builder, entry.getName().toString());
+        builder.appendCompactUnsigned(entry.getAttributeCount());
+        for (final Attribute attribute : entry.getAllAttributes()) {
+            final AttributeDescription attributeDescription = attribute.getAttributeDescription();
+            final int number = getAttributeTypeNumber(attributeDescription);
+            if (number != UNKNOWN_ATTRIBUTE_TYPE
+                    && attributeDescriptions[number].toString().equals(attributeDescription.toString())) {
+                builder.appendCompactUnsigned(number << 1);
+            } else {
+                // The description cannot be rebuilt from the number of its attribute type.
+                builder.appendCompactUnsigned((number << 1) | 1);
+                appendString(builder, attributeDescription.toString());
+            }
+            builder.appendCompactUnsigned(attribute.size());
+            for (final ByteString value : attribute) {
+                appendBytes(builder, value);
+                if (storeNormalizedValues) {
+                    appendBytes(builder, AbstractAttribute.normalizeValue(attribute, value));
+                }
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Decodes the entry whose encoded form is the content of the provided byte
+     * sequence. The values of the decoded entry share the bytes of the provided
+     * byte sequence if it is a {@link ByteString}.
+     *
+     * @param encodedEntry
+     *            The encoded entry.
+     * @return The decoded entry.
+     * @throws DecodeException
+     *             If the encoded entry is malformed, or refers to attribute
+     *             types which are not defined by the schema of this codec.
+     * @throws NullPointerException
+     *             If {@code encodedEntry} was {@code null}.
+     */
+    public Entry decode(final ByteSequence encodedEntry) throws DecodeException {
+        return decode(encodedEntry.asReader());
+    }
+
+    /**
+     * Decodes the entry whose encoded form is available at the current position
+     * of the provided reader, and moves the reader past it. This allows several
+     * entries to be decoded from a single buffer. The values of the decoded
+     * entry share the bytes of the sequence read if it is a {@link ByteString}.
+     *
+     * @param reader
+     *            The reader from which the encoded entry will be read.
+     * @return The decoded entry.
+     * @throws DecodeException
+     *             If the encoded entry is malformed, or refers to attribute
+     *             types which are not defined by the schema of this codec.
+     * @throws NullPointerException
+     *             If {@code reader} was {@code null}.
+     */
+    public Entry decode(final ByteSequenceReader reader) throws DecodeException {
+        Reject.ifNull(reader);
+        try {
+            final int flags = reader.readByte();
+            if ((flags & ~FLAG_NORMALIZED_VALUES) != 0) {
+                throw DecodeException.error(ERR_ENTRY_CODEC_UNSUPPORTED_FORMAT.get(flags));
+            }
+            final boolean hasNormalizedValues = (flags & FLAG_NORMALIZED_VALUES) != 0;
+            final Entry entry = new LinkedHashMapEntry(DN.valueOf(readString(reader), schema));
+            for (int attributeCount = reader.readCompactUnsignedInt(); attributeCount > 0; attributeCount--) {
+                final LinkedAttribute attribute = new LinkedAttribute(readAttributeDescription(reader));
+                for (int valueCount = reader.readCompactUnsignedInt(); valueCount > 0; valueCount--) {
+                    final ByteString value = readBytes(reader);
+                    if (hasNormalizedValues) {
+                        attribute.addNormalizedValue(value, readBytes(reader));
+                    } else {
+                        attribute.add(value);
+                    }
+                }
+                entry.addAttribute(attribute);
+            }
+            return entry;
+        } catch (final LocalizedIllegalArgumentException e) {
+            throw DecodeException.error(ERR_ENTRY_CODEC_MALFORMED.get(e.getMessageObject()), e);
+        } catch (final IndexOutOfBoundsException | IllegalStateException e) {
+            throw DecodeException.error(ERR_ENTRY_CODEC_MALFORMED.get(e), e);
+        }
+    }
+
+    private int getAttributeTypeNumber(final AttributeDescription attributeDescription) {
+        final AttributeType attributeType = attributeDescription.getAttributeType();
+        if (attributeType.isPlaceHolder()) {
+            return UNKNOWN_ATTRIBUTE_TYPE;
+        }
+        final Integer number = attributeTypeNumbers.get(attributeType.getOID());
+        return number != null ? number : UNKNOWN_ATTRIBUTE_TYPE;
+    }
+
+    private AttributeDescription readAttributeDescription(final ByteSequenceReader reader) throws DecodeException {
+        final int header = reader.readCompactUnsignedInt();
+        final int number = header >>> 1;
+        if (number >= attributeDescriptions.length) {
+            throw DecodeException.error(ERR_ENTRY_CODEC_UNKNOWN_ATTRIBUTE_TYPE.get(number));
+        }
+        if ((header & 1) != 0) {
+            return AttributeDescription.valueOf(readString(reader), schema);
+        } else if (number == UNKNOWN_ATTRIBUTE_TYPE) {
+            throw DecodeException.error(ERR_ENTRY_CODEC_UNKNOWN_ATTRIBUTE_TYPE.get(number));
+        }
+        return attributeDescriptions[number];
+    }
+
+    private static void appendString(final ByteStringBuilder builder, final String s) {
+        appendBytes(builder, ByteString.valueOfUtf8(s));
+    }
+
+    private static void appendBytes(final ByteStringBuilder builder, final ByteSequence bytes) {
+        builder.appendCompactUnsigned(bytes.length());
+        builder.appendBytes(bytes);
+    }
+
+    private static String readString(final ByteSequenceReader reader) {
+        return reader.readStringUtf8(reader.readCompactUnsignedInt());
+    }
+
+    private static ByteString readBytes(final ByteSequenceReader reader) {
+        return reader.readByteString(reader.readCompactUnsignedInt());
+    }
+}
@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2009-2010 Sun Microsystems, Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 
 package org.forgerock.opendj.ldap;
@@ -791,6 +791,10 @@ public final class LDAPConnectionFactory extends CommonLDAPOptions implements Co
         /** Timestamp of last response received (any response, not just heart beats). */
         private volatile long lastResponseTimestamp = timeService.now();
 
+        /** Number of search publishers which need reads to be suspended, guarded by readSuspensionLock. */
+        private volatile int readSuspensions;
+        private final Object readSuspensionLock = new Object();
+
         private ConnectionImpl(final LDAPConnectionImpl connectionImpl) {
             this.connectionImpl = connectionImpl;
             connectionImpl.addConnectionEventListener(this);
@@ -992,18 +996,44 @@ public final class LDAPConnectionFactory extends CommonLDAPOptions implements Co
                                                   }));
         }
 
+        @Override
+        public SearchResultPublisher searchPublisher(final SearchRequest request) {
+            return new SearchResultPublisherImpl(this, request) {
+                @Override
+                void suspendReads() {
+                    synchronized (readSuspensionLock) {
+                        if (readSuspensions++ == 0) {
+                            connectionImpl.suspendReads();
+                        }
+                    }
+                }
+
+                @Override
+                void resumeReads() {
+                    synchronized (readSuspensionLock) {
+                        if (--readSuspensions == 0) {
+                            // Responses could not be received while reads were suspended.
+                            lastResponseTimestamp = timeService.now();
+                            connectionImpl.resumeReads();
+                        }
+                    }
+                }
+            };
+        }
+
         @Override
         public String toString() {
             return connectionImpl.toString();
         }
 
         private void checkForHeartBeat() {
-            if (sync.isHeld()) {
+            if (sync.isHeld() && readSuspensions == 0) {
                 /*
                  * A heart beat or bind/startTLS is still in progress, but it should have completed by now. Let's
                  * avoid aggressively terminating the connection, because the heart beat may simply have been delayed
                  * by a sudden surge of activity. Therefore, only flag the connection as failed if no activity has been
-                 * seen on the connection since the heart beat was sent.
+                 * seen on the connection since the heart beat was sent. Responses cannot be received while reads are
+                 * suspended by a slow search result subscriber, so the check is skipped until they are resumed.
                  */
                 final long currentTimeMillis = timeService.now();
                 if (lastResponseTimestamp < (currentTimeMillis - heartBeatTimeoutMS)) {
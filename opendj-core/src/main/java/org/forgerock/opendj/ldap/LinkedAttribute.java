@@ -684,6 +684,40 @@ public final class LinkedAttribute extends AbstractAttribute {
         return pimpl.size(this);
     }
 
+    /**
+     * Adds a value whose normalized form has already been computed, for example by an {@link EntryCodec} which
+     * stores normalized values, so that it does not need to be normalized again.
+     *
+     * @param value
+     *            The value to be added.
+     * @param normalizedValue
+     *            The value normalized using the equality matching rule of this attribute.
+     * @return {@code true} if this attribute changed as a result of this call.
+     */
+    boolean addNormalizedValue(final ByteString value, final ByteString normalizedValue) {
+        if (pimpl == ZERO_VALUE_IMPL) {
+            singleValue = value;
+            normalizedSingleValue = normalizedValue;
+            pimpl = SINGLE_VALUE_IMPL;
+            return true;
+        } else if (pimpl == SINGLE_VALUE_IMPL) {
+            if (normalizedSingleValue().equals(normalizedValue)) {
+                return false;
+            }
+            multipleValues = new LinkedHashMap<>(2);
+            multipleValues.put(normalizedSingleValue, singleValue);
+            multipleValues.put(normalizedValue, value);
+            singleValue = null;
+            normalizedSingleValue = null;
+            pimpl = MULTI_VALUE_IMPL;
+            return true;
+        } else if (multipleValues.containsKey(normalizedValue)) {
+            return false;
+        }
+        multipleValues.put(normalizedValue, value);
+        return true;
+    }
+
     /** Lazily computes the normalized single value. */
     private ByteString normalizedSingleValue() {
         if (normalizedSingleValue == null) {
@@ -291,6 +291,21 @@ abstract class LoadBalancer implements ConnectionFactory {
         throw newLdapException(CLIENT_SIDE_CONNECT_ERROR, "No operational connection factories available", lastFailure);
     }
 
+    /**
+     * Returns the connection factories of this load-balancer, in the order in which they were provided. Unlike
+     * {@link #getMonitoredConnectionFactory(int)}, the returned connection factories do not fail over to the next
+     * connection factory when they are unavailable.
+     *
+     * @return The connection factories of this load-balancer.
+     */
+    final List<ConnectionFactory> getConnectionFactories() {
+        final List<ConnectionFactory> factories = new ArrayList<>(monitoredFactories.size());
+        for (final MonitoredConnectionFactory factory : monitoredFactories) {
+            factories.add(factory.factory);
+        }
+        return factories;
+    }
+
     final String getLoadBalancerName() {
         return loadBalancerName;
     }
@@ -17,7 +17,12 @@
 package org.forgerock.opendj.ldap;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
@@ -31,12 +36,21 @@ import com.forgerock.opendj.util.StaticUtils;
 
 /**
  * An interface for determining whether entries match a {@code Filter}.
+ * <p>
+ * Matchers evaluate an optimized form of their filter: nested AND and OR
+ * filters are flattened, duplicate sub-filters are removed, sub-filters whose
+ * result is known in advance are folded into constants, and the remaining
+ * sub-filters are evaluated cheapest first, so that presence and equality
+ * checks can short-circuit more expensive substring, approximate and
+ * extensible matches. Like LDAP servers, matchers assume that every entry has
+ * an object class, so {@code (objectClass=*)} always matches.
  */
 public final class Matcher {
     private static final class AndMatcherImpl extends MatcherImpl {
         private final List<MatcherImpl> subMatchers;
 
         private AndMatcherImpl(final List<MatcherImpl> subMatchers) {
+            super(totalCost(subMatchers));
             this.subMatchers = subMatchers;
         }
 
@@ -67,7 +81,8 @@ public final class Matcher {
 
         private AssertionMatcherImpl(final AttributeDescription attributeDescription,
                 final MatchingRule rule, final MatchingRuleUse ruleUse, final Assertion assertion,
-                final boolean dnAttributes) {
+                final boolean dnAttributes, final int cost) {
+            super(cost);
             this.attributeDescription = attributeDescription;
             this.rule = rule;
             this.ruleUse = ruleUse;
@@ -133,6 +148,10 @@ public final class Matcher {
     }
 
     private static class FalseMatcherImpl extends MatcherImpl {
+        private FalseMatcherImpl() {
+            super(CONSTANT_COST);
+        }
+
         @Override
         public ConditionResult matches(final Entry entry) {
             return ConditionResult.FALSE;
@@ -140,6 +159,13 @@ public final class Matcher {
     }
 
     private static abstract class MatcherImpl {
+        /** The relative cost of evaluating this matcher, which is used for ordering the sub-matchers of AND and OR. */
+        private final int cost;
+
+        private MatcherImpl(final int cost) {
+            this.cost = cost;
+        }
+
         public abstract ConditionResult matches(Entry entry);
     }
 
@@ -147,6 +173,7 @@ public final class Matcher {
         private final MatcherImpl subFilter;
 
         private NotMatcherImpl(final MatcherImpl subFilter) {
+            super(subFilter.cost);
             this.subFilter = subFilter;
         }
 
@@ -160,6 +187,7 @@ public final class Matcher {
         private final List<MatcherImpl> subMatchers;
 
         private OrMatcherImpl(final List<MatcherImpl> subMatchers) {
+            super(totalCost(subMatchers));
             this.subMatchers = subMatchers;
         }
 
@@ -181,6 +209,7 @@ public final class Matcher {
         private final AttributeDescription attribute;
 
         private PresentMatcherImpl(final AttributeDescription attribute) {
+            super(PRESENT_COST);
             this.attribute = attribute;
         }
 
@@ -192,6 +221,10 @@ public final class Matcher {
     }
 
     private static class TrueMatcherImpl extends MatcherImpl {
+        private TrueMatcherImpl() {
+            super(CONSTANT_COST);
+        }
+
         @Override
         public ConditionResult matches(final Entry entry) {
             return ConditionResult.TRUE;
@@ -199,6 +232,10 @@ public final class Matcher {
     }
 
     private static class UndefinedMatcherImpl extends MatcherImpl {
+        private UndefinedMatcherImpl() {
+            super(CONSTANT_COST);
+        }
+
         @Override
         public ConditionResult matches(final Entry entry) {
             return ConditionResult.UNDEFINED;
@@ -217,10 +254,25 @@ public final class Matcher {
             }
 
             final List<MatcherImpl> subMatchers = new ArrayList<>(subFilters.size());
-            for (final Filter f : subFilters) {
-                subMatchers.add(f.accept(this, schema));
+            for (final Filter f : flatten(subFilters, AND_SUB_FILTERS)) {
+                final MatcherImpl subMatcher = f.accept(this, schema);
+                if (subMatcher == FALSE) {
+                    return FALSE;
+                } else if (subMatcher instanceof AndMatcherImpl) {
+                    subMatchers.addAll(((AndMatcherImpl) subMatcher).subMatchers);
+                } else if (subMatcher != TRUE) {
+                    subMatchers.add(subMatcher);
+                }
+            }
+            switch (subMatchers.size()) {
+            case 0:
+                return TRUE;
+            case 1:
+                return subMatchers.get(0);
+            default:
+                Collections.sort(subMatchers, COST_COMPARATOR);
+                return new AndMatcherImpl(subMatchers);
             }
-            return new AndMatcherImpl(subMatchers);
         }
 
         @Override
@@ -252,7 +304,7 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The assertion value %s is invalid", assertionValue, de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, null, assertion, false);
+            return new AssertionMatcherImpl(ad, rule, null, assertion, false, APPROXIMATE_COST);
         }
 
         @Override
@@ -284,7 +336,7 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The assertion value %s is invalid", assertionValue, de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, null, assertion, false);
+            return new AssertionMatcherImpl(ad, rule, null, assertion, false, EQUALITY_COST);
         }
 
         @Override
@@ -360,7 +412,8 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The assertion value %s is invalid", assertionValue, de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, ruleUse, assertion, dnAttributes);
+            final int cost = ad == null || dnAttributes ? EXTENSIBLE_COST * 2 : EXTENSIBLE_COST;
+            return new AssertionMatcherImpl(ad, rule, ruleUse, assertion, dnAttributes, cost);
         }
 
         @Override
@@ -393,7 +446,7 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The assertion value %s is invalid", assertionValue, de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, null, assertion, false);
+            return new AssertionMatcherImpl(ad, rule, null, assertion, false, ORDERING_COST);
         }
 
         @Override
@@ -425,12 +478,19 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The assertion value %s is invalid", assertionValue , de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, null, assertion, false);
+            return new AssertionMatcherImpl(ad, rule, null, assertion, false, ORDERING_COST);
         }
 
         @Override
         public MatcherImpl visitNotFilter(final Schema schema, final Filter subFilter) {
             final MatcherImpl subMatcher = subFilter.accept(this, schema);
+            if (subMatcher == TRUE) {
+                return FALSE;
+            } else if (subMatcher == FALSE) {
+                return TRUE;
+            } else if (subMatcher == UNDEFINED) {
+                return UNDEFINED;
+            }
             return new NotMatcherImpl(subMatcher);
         }
 
@@ -442,10 +502,25 @@ public final class Matcher {
             }
 
             final List<MatcherImpl> subMatchers = new ArrayList<>(subFilters.size());
-            for (final Filter f : subFilters) {
-                subMatchers.add(f.accept(this, schema));
+            for (final Filter f : flatten(subFilters, OR_SUB_FILTERS)) {
+                final MatcherImpl subMatcher = f.accept(this, schema);
+                if (subMatcher == TRUE) {
+                    return TRUE;
+                } else if (subMatcher instanceof OrMatcherImpl) {
+                    subMatchers.addAll(((OrMatcherImpl) subMatcher).subMatchers);
+                } else if (subMatcher != FALSE) {
+                    subMatchers.add(subMatcher);
+                }
+            }
+            switch (subMatchers.size()) {
+            case 0:
+                return FALSE;
+            case 1:
+                return subMatchers.get(0);
+            default:
+                Collections.sort(subMatchers, COST_COMPARATOR);
+                return new OrMatcherImpl(subMatchers);
             }
-            return new OrMatcherImpl(subMatchers);
         }
 
         @Override
@@ -460,6 +535,10 @@ public final class Matcher {
                 return UNDEFINED;
             }
 
+            if (ad.isObjectClass()) {
+                // All entries have an object class.
+                return TRUE;
+            }
             return new PresentMatcherImpl(ad);
         }
 
@@ -493,7 +572,7 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The substring assertion values contain an invalid value", de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, null, assertion, false);
+            return new AssertionMatcherImpl(ad, rule, null, assertion, false, SUBSTRING_COST);
         }
 
         @Override
@@ -508,12 +587,84 @@ public final class Matcher {
 
     private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+    /*
+     * Relative costs of evaluating each type of filter. Presence checks only look up the attribute whereas assertions
+     * normalize every attribute value, and substring, approximate and extensible assertions are more expensive to
+     * evaluate than equality and ordering assertions.
+     */
+    private static final int CONSTANT_COST = 0;
+    private static final int PRESENT_COST = 1;
+    private static final int EQUALITY_COST = 2;
+    private static final int ORDERING_COST = 3;
+    private static final int SUBSTRING_COST = 4;
+    private static final int APPROXIMATE_COST = 5;
+    private static final int EXTENSIBLE_COST = 6;
+
+    private static final Comparator<MatcherImpl> COST_COMPARATOR = new Comparator<MatcherImpl>() {
+        @Override
+        public int compare(final MatcherImpl m1, final MatcherImpl m2) {
+            return Integer.compare(m1.cost, m2.cost);
+        }
+    };
+
+    /** Returns the sub-filters of AND filters and {@code null} for other filters. */
+    private static final FilterVisitor<List<Filter>, Void> AND_SUB_FILTERS =
+            new AbstractFilterVisitor<List<Filter>, Void>() {
+                @Override
+                public List<Filter> visitAndFilter(final Void p, final List<Filter> subFilters) {
+                    return subFilters;
+                }
+            };
+
+    /** Returns the sub-filters of OR filters and {@code null} for other filters. */
+    private static final FilterVisitor<List<Filter>, Void> OR_SUB_FILTERS =
+            new AbstractFilterVisitor<List<Filter>, Void>() {
+                @Override
+                public List<Filter> visitOrFilter(final Void p, final List<Filter> subFilters) {
+                    return subFilters;
+                }
+            };
+
     private static final MatcherImpl FALSE = new FalseMatcherImpl();
     private static final MatcherImpl TRUE = new TrueMatcherImpl();
     private static final MatcherImpl UNDEFINED = new UndefinedMatcherImpl();
 
     private static final FilterVisitor<MatcherImpl, Schema> VISITOR = new Visitor();
 
+    /**
+     * Returns the provided sub-filters without duplicates, replacing the
+     * sub-filters of the same type as their parent with their own sub-filters.
+     */
+    private static Collection<Filter> flatten(final List<Filter> subFilters,
+            final FilterVisitor<List<Filter>, Void> sameTypeSubFilters) {
+        final Map<String, Filter> uniqueSubFilters = new LinkedHashMap<>();
+        flatten(subFilters, sameTypeSubFilters, uniqueSubFilters);
+        return uniqueSubFilters.values();
+    }
+
+    private static void flatten(final List<Filter> subFilters,
+            final FilterVisitor<List<Filter>, Void> sameTypeSubFilters, final Map<String, Filter> uniqueSubFilters) {
+        for (final Filter subFilter : subFilters) {
+            final List<Filter> nestedSubFilters = subFilter.accept(sameTypeSubFilters, null);
+            if (nestedSubFilters != null) {
+                flatten(nestedSubFilters, sameTypeSubFilters, uniqueSubFilters);
+            } else {
+                final String key = subFilter.toString();
+                if (!uniqueSubFilters.containsKey(key)) {
+                    uniqueSubFilters.put(key, subFilter);
+                }
+            }
+        }
+    }
+
+    private static int totalCost(final List<MatcherImpl> subMatchers) {
+        int cost = 0;
+        for (final MatcherImpl subMatcher : subMatchers) {
+            cost += subMatcher.cost;
+        }
+        return cost;
+    }
+
     private static ConditionResult matches(final Attribute a, final MatchingRule rule,
             final Assertion assertion) {
         ConditionResult r = ConditionResult.FALSE;
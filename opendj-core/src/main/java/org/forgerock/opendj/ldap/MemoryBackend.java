@@ -15,6 +15,7 @@
  */
 package org.forgerock.opendj.ldap;
 
+import static com.forgerock.opendj.util.StaticUtils.DEFAULT_SCHEDULER;
 import static org.forgerock.opendj.ldap.Attributes.singletonAttribute;
 import static org.forgerock.opendj.ldap.Entries.modifyEntry;
 import static org.forgerock.opendj.ldap.LdapException.newLdapException;
@@ -23,12 +24,36 @@ import static org.forgerock.opendj.ldap.responses.Responses.newCompareResult;
 import static org.forgerock.opendj.ldap.responses.Responses.newResult;
 import static org.forgerock.opendj.ldap.responses.Responses.newSearchResultEntry;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.controls.AssertionRequestControl;
 import org.forgerock.opendj.ldap.controls.PostReadRequestControl;
 import org.forgerock.opendj.ldap.controls.PostReadResponseControl;
@@ -53,6 +78,9 @@ import org.forgerock.opendj.ldap.responses.ExtendedResult;
 import org.forgerock.opendj.ldap.responses.Result;
 import org.forgerock.opendj.ldap.schema.Schema;
 import org.forgerock.opendj.ldif.EntryReader;
+import org.forgerock.util.Reject;
+
+import com.forgerock.opendj.util.ReferenceCountedObject;
 
 /**
  * A simple in memory back-end which can be used for testing. It is not intended
@@ -63,14 +91,18 @@ import org.forgerock.opendj.ldif.EntryReader;
  * not modifyDN nor extended operations
  * <li>assertion, pre-, and post- read controls, subtree delete control, and
  * permissive modify control
- * <li>thread safety - supports concurrent operations
+ * <li>thread safety - supports concurrent operations, updates to unrelated
+ * entries do not block each other
+ * <li>consistent searches - each search, including all the pages of a paged
+ * search, reads the content of the backend as it was when it started, without
+ * blocking updates
+ * <li>optional persistence to a local directory, see {@link #open(File)}
  * </ul>
  * It does not support the following:
  * <ul>
  * <li>high performance
  * <li>secure password storage
  * <li>schema checking
- * <li>persistence
  * <li>indexing
  * </ul>
  * This class can be used in conjunction with the factories defined in
@@ -90,12 +122,179 @@ import org.forgerock.opendj.ldif.EntryReader;
  * LDAPListener listener = new LDAPListener(1389, Connections
  *         .&lt;LDAPClientContext&gt; newServerConnectionFactory(backend));
  * </pre>
+ *
+ * To create a memory backend whose content survives restarts, compacting its
+ * change log every 10 minutes:
+ *
+ * <pre>
+ * MemoryBackend backend = new MemoryBackend().open(new File("db"), 10, TimeUnit.MINUTES);
+ * </pre>
  */
 public final class MemoryBackend implements RequestHandler<RequestContext> {
+    private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+    /** Periodically replaces the change log with a new snapshot, as long as the backend is open. */
+    private final class CompactionTask implements Runnable {
+        @Override
+        public void run() {
+            try {
+                final MemoryBackendStore currentStore;
+                backendLock.readLock().lock();
+                try {
+                    currentStore = store;
+                } finally {
+                    backendLock.readLock().unlock();
+                }
+                if (currentStore != null && currentStore.getChangeLogSize() > 0) {
+                    compact();
+                }
+            } catch (final IOException | IllegalStateException e) {
+                logger.warn(LocalizableMessage.raw("Unable to compact the memory backend: %s", e.getMessage()), e);
+            }
+        }
+    }
+
+    /**
+     * A version of an entry, linked to the previous versions which may still
+     * be read by searches. The entry is {@code null} if this version
+     * corresponds to the removal of the entry.
+     */
+    private static final class EntryVersion {
+        private final DN dn;
+        private final Entry entry;
+        private final Update update;
+        private volatile EntryVersion previous;
+
+        private EntryVersion(final DN dn, final Entry entry, final Update update, final EntryVersion previous) {
+            this.dn = dn;
+            this.entry = entry;
+            this.update = update;
+            this.previous = previous;
+        }
+
+        /** Returns the entry as it was in the provided version, or {@code null} if it did not exist. */
+        private Entry getEntry(final long version) {
+            for (EntryVersion v = this; v != null; v = v.previous) {
+                if (v.update.version <= version) {
+                    return v.entry;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** The entry versions created by an operation, which become visible atomically when it is committed. */
+    private static final class Update {
+        private final List<EntryVersion> versions = new ArrayList<>(1);
+        private volatile long version = UNCOMMITTED;
+    }
+
+    /**
+     * The state of a paged search between two pages. The base DN, scope and
+     * filter of the search are kept so that the cookie cannot be replayed
+     * against a different search.
+     */
+    private static final class PagedSearch {
+        private final DN baseDN;
+        private final SearchScope scope;
+        private final String filter;
+        private final long version;
+        private final DN lastDN;
+        private final long creationTime = System.currentTimeMillis();
+
+        private PagedSearch(final DN baseDN, final SearchScope scope, final String filter, final long version,
+                final DN lastDN) {
+            this.baseDN = baseDN;
+            this.scope = scope;
+            this.filter = filter;
+            this.version = version;
+            this.lastDN = lastDN;
+        }
+
+        private boolean isSameSearch(final DN baseDN, final SearchScope scope, final String filter) {
+            return this.baseDN.equals(baseDN) && this.scope.equals(scope) && this.filter.equals(filter);
+        }
+
+        private boolean isExpired(final long now) {
+            return now - creationTime >= PAGED_SEARCH_TIMEOUT_MILLIS;
+        }
+    }
+
+    /** Iterates over the entries of a version. */
+    private final class EntryIterator implements Iterator<Entry> {
+        private final Iterator<EntryVersion> versions = entries.values().iterator();
+        private final long version;
+        private Entry next;
+        private DN lastDN;
+
+        private EntryIterator(final long version) {
+            this.version = version;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && versions.hasNext()) {
+                next = versions.next().getEntry(version);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Entry entry = next;
+            next = null;
+            lastDN = entry.getName();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (lastDN == null) {
+                throw new IllegalStateException();
+            }
+            removeEntry(lastDN);
+            lastDN = null;
+        }
+    }
+
+    /** The number of entry locks, which must be a power of two. */
+    private static final int ENTRY_LOCK_STRIPES = 256;
+    /** The version of the updates which have not been committed yet. */
+    private static final long UNCOMMITTED = Long.MAX_VALUE;
+    /** Reads the most recent committed version of entries. */
+    private static final long LATEST = UNCOMMITTED - 1;
+    /** The time after which the snapshot read by an abandoned paged search can be reclaimed. */
+    private static final long PAGED_SEARCH_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
     private final DecodeOptions decodeOptions;
-    private final ConcurrentSkipListMap<DN, Entry> entries = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<DN, EntryVersion> entries = new ConcurrentSkipListMap<>();
     private final Schema schema;
-    private final Object writeLock = new Object();
+    /** The version of the most recently committed update. Updated while holding the snapshots lock. */
+    private volatile long committedVersion;
+    /** The number of searches reading each version, which must not be reclaimed. */
+    private final NavigableMap<Long, Integer> snapshots = new TreeMap<>();
+    /** Versions which may be reclaimed once no search reads an older version, in commit order. */
+    private final Queue<EntryVersion> obsoleteVersions = new ArrayDeque<>();
+    private final Map<Long, PagedSearch> pagedSearches = new ConcurrentHashMap<>();
+    private final AtomicLong nextPagedSearchId = new AtomicLong();
+    /**
+     * Updates of individual entries share this lock and then lock the stripes
+     * of the updated entry and of its parent, so that adding or removing an
+     * entry is serialized with the removal or the addition of its parent and
+     * children. Updates spanning multiple entries, such as subtree deletes,
+     * acquire it exclusively.
+     */
+    private final ReadWriteLock backendLock = new ReentrantReadWriteLock();
+    private final Lock[] entryLocks = new Lock[ENTRY_LOCK_STRIPES];
+    /** Ensures that snapshots are written one at a time. */
+    private final Object compactionLock = new Object();
+    /** The persistent store, or {@code null} if this backend is not persistent. Guarded by backendLock. */
+    private MemoryBackendStore store;
+    private ReferenceCountedObject<ScheduledExecutorService>.Reference scheduler;
+    private ScheduledFuture<?> compactionFuture;
 
     /**
      * Creates a new empty memory backend which will use the default schema.
@@ -127,6 +326,7 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
     public MemoryBackend(final Schema schema) {
         this.schema = schema;
         this.decodeOptions = new DecodeOptions().setSchema(schema);
+        initEntryLocks();
     }
 
     /**
@@ -144,9 +344,16 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
     public MemoryBackend(final Schema schema, final EntryReader reader) throws IOException {
         this.schema = schema;
         this.decodeOptions = new DecodeOptions().setSchema(schema);
+        initEntryLocks();
         load(reader, false);
     }
 
+    private void initEntryLocks() {
+        for (int i = 0; i < entryLocks.length; i++) {
+            entryLocks[i] = new ReentrantLock();
+        }
+    }
+
     /**
      * Clears the contents of this memory backend so that it does not contain
      * any entries.
@@ -154,8 +361,88 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      * @return This memory backend.
      */
     public MemoryBackend clear() {
-        synchronized (writeLock) {
-            entries.clear();
+        backendLock.writeLock().lock();
+        try {
+            if (store != null) {
+                try {
+                    store.logClear();
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            final Update update = new Update();
+            removeAll(update, entries);
+            commit(update);
+        } finally {
+            backendLock.writeLock().unlock();
+        }
+        return this;
+    }
+
+    /**
+     * Stops persisting the changes made to this memory backend, if it has been
+     * opened. The content of the backend is not affected.
+     *
+     * @throws IOException
+     *             If an error occurred while closing the change log.
+     * @see #open(File)
+     */
+    public void close() throws IOException {
+        final MemoryBackendStore closedStore;
+        backendLock.writeLock().lock();
+        try {
+            closedStore = store;
+            store = null;
+            if (compactionFuture != null) {
+                compactionFuture.cancel(false);
+                compactionFuture = null;
+                scheduler.release();
+                scheduler = null;
+            }
+        } finally {
+            backendLock.writeLock().unlock();
+        }
+        if (closedStore != null) {
+            // Wait for any pending compaction.
+            synchronized (compactionLock) {
+                closedStore.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a new snapshot of the content of this memory backend and removes
+     * the change log entries which are no longer needed. Writers are not
+     * blocked while the snapshot is written.
+     *
+     * @return This memory backend.
+     * @throws IOException
+     *             If an error occurred while writing the snapshot.
+     * @throws IllegalStateException
+     *             If this memory backend has not been opened.
+     * @see #open(File)
+     */
+    public MemoryBackend compact() throws IOException {
+        synchronized (compactionLock) {
+            final MemoryBackendStore currentStore;
+            final int snapshotGeneration;
+            final long version;
+            backendLock.writeLock().lock();
+            try {
+                if (store == null) {
+                    throw new IllegalStateException("The memory backend has not been opened");
+                }
+                currentStore = store;
+                snapshotGeneration = currentStore.rotate();
+                version = acquireSnapshot();
+            } finally {
+                backendLock.writeLock().unlock();
+            }
+            try {
+                currentStore.writeSnapshot(snapshotGeneration, getEntries(version));
+            } finally {
+                releaseSnapshot(version);
+            }
         }
         return this;
     }
@@ -191,7 +478,7 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      * @return The named entry.
      */
     public Entry get(final DN dn) {
-        return entries.get(dn);
+        return getEntry(dn, LATEST);
     }
 
     /**
@@ -217,7 +504,22 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      *         backend.
      */
     public Collection<Entry> getAll() {
-        return entries.values();
+        return new AbstractCollection<Entry>() {
+            @Override
+            public Iterator<Entry> iterator() {
+                return new EntryIterator(LATEST);
+            }
+
+            @Override
+            public int size() {
+                return MemoryBackend.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return MemoryBackend.this.isEmpty();
+            }
+        };
     }
 
     @Override
@@ -225,16 +527,20 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
             final IntermediateResponseHandler intermediateResponseHandler,
             final LdapResultHandler<Result> resultHandler) {
         try {
-            synchronized (writeLock) {
-                final DN dn = request.getName();
-                final DN parent = dn.parent();
-                if (entries.containsKey(dn)) {
+            final DN dn = request.getName();
+            final DN parent = dn.parent();
+            lockEntries(dn, parent);
+            try {
+                if (contains(dn)) {
                     throw newLdapException(ResultCode.ENTRY_ALREADY_EXISTS, "The entry '" + dn + "' already exists");
-                } else if (parent != null && !entries.containsKey(parent)) {
+                } else if (parent != null && !contains(parent)) {
                     noSuchObject(parent);
                 } else {
-                    entries.put(dn, request);
+                    logPut(request);
+                    update(dn, request);
                 }
+            } finally {
+                unlockEntries(dn, parent);
             }
             resultHandler.handleResult(getResult(request, null, request));
         } catch (final LdapException e) {
@@ -248,23 +554,21 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
             final IntermediateResponseHandler intermediateResponseHandler,
             final LdapResultHandler<BindResult> resultHandler) {
         try {
-            final Entry entry;
-            synchronized (writeLock) {
-                final DN username = DN.valueOf(request.getName(), schema);
-                final byte[] password;
-                if (request instanceof SimpleBindRequest) {
-                    password = ((SimpleBindRequest) request).getPassword();
-                } else if (request instanceof GenericBindRequest
-                        && request.getAuthenticationType() == BindRequest.AUTHENTICATION_TYPE_SIMPLE) {
-                    password = ((GenericBindRequest) request).getAuthenticationValue();
-                } else {
-                    throw newLdapException(ResultCode.PROTOCOL_ERROR,
-                            "non-SIMPLE authentication not supported: " + request.getAuthenticationType());
-                }
-                entry = getRequiredEntry(null, username);
-                if (!entry.containsAttribute("userPassword", password)) {
-                    throw newLdapException(ResultCode.INVALID_CREDENTIALS, "Wrong password");
-                }
+            final DN username = DN.valueOf(request.getName(), schema);
+            final byte[] password;
+            if (request instanceof SimpleBindRequest) {
+                password = ((SimpleBindRequest) request).getPassword();
+            } else if (request instanceof GenericBindRequest
+                    && request.getAuthenticationType() == BindRequest.AUTHENTICATION_TYPE_SIMPLE) {
+                password = ((GenericBindRequest) request).getAuthenticationValue();
+            } else {
+                throw newLdapException(ResultCode.PROTOCOL_ERROR,
+                        "non-SIMPLE authentication not supported: " + request.getAuthenticationType());
+            }
+            // Entries are never updated in place, so reading them does not require locking.
+            final Entry entry = getRequiredEntry(null, username);
+            if (!entry.containsAttribute("userPassword", password)) {
+                throw newLdapException(ResultCode.INVALID_CREDENTIALS, "Wrong password");
             }
             resultHandler.handleResult(getBindResult(request, entry, entry));
         } catch (final LocalizedIllegalArgumentException e) {
@@ -286,15 +590,10 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
             final IntermediateResponseHandler intermediateResponseHandler,
             final LdapResultHandler<CompareResult> resultHandler) {
         try {
-            final Entry entry;
-            final Attribute assertion;
-            synchronized (writeLock) {
-                final DN dn = request.getName();
-                entry = getRequiredEntry(request, dn);
-                assertion =
-                        singletonAttribute(request.getAttributeDescription(), request
-                                .getAssertionValue());
-            }
+            final DN dn = request.getName();
+            final Entry entry = getRequiredEntry(request, dn);
+            final Attribute assertion =
+                    singletonAttribute(request.getAttributeDescription(), request.getAssertionValue());
             resultHandler.handleResult(getCompareResult(request, entry, entry.containsAttribute(
                     assertion, null)));
         } catch (final LdapException e) {
@@ -308,20 +607,32 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
             final LdapResultHandler<Result> resultHandler) {
         try {
             final Entry entry;
-            synchronized (writeLock) {
-                final DN dn = request.getName();
-                entry = getRequiredEntry(request, dn);
-                if (request.getControl(SubtreeDeleteRequestControl.DECODER, decodeOptions) != null) {
-                    // Subtree delete.
-                    entries.subMap(dn, dn.child(RDN.maxValue())).clear();
-                } else {
-                    // Must be leaf.
-                    final DN next = entries.higherKey(dn);
-                    if (next == null || !next.isChildOf(dn)) {
-                        entries.remove(dn);
+            final DN dn = request.getName();
+            if (request.getControl(SubtreeDeleteRequestControl.DECODER, decodeOptions) != null) {
+                // Subtree delete: the whole subtree must be removed atomically.
+                backendLock.writeLock().lock();
+                try {
+                    entry = getRequiredEntry(request, dn);
+                    logDelete(dn, true);
+                    final Update update = new Update();
+                    removeAll(update, getSubtree(dn));
+                    commit(update);
+                } finally {
+                    backendLock.writeLock().unlock();
+                }
+            } else {
+                // Must be leaf. Children are added while holding the lock of their parent.
+                lockEntries(dn, null);
+                try {
+                    entry = getRequiredEntry(request, dn);
+                    if (!hasSubordinates(dn)) {
+                        logDelete(dn, false);
+                        update(dn, null);
                     } else {
                         throw newLdapException(ResultCode.NOT_ALLOWED_ON_NONLEAF);
                     }
+                } finally {
+                    unlockEntries(dn, null);
                 }
             }
             resultHandler.handleResult(getResult(request, entry, null));
@@ -348,11 +659,15 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
         try {
             final Entry entry;
             final Entry newEntry;
-            synchronized (writeLock) {
-                final DN dn = request.getName();
+            final DN dn = request.getName();
+            lockEntries(dn, null);
+            try {
                 entry = getRequiredEntry(request, dn);
-                newEntry = new LinkedHashMapEntry(entry);
-                entries.put(dn, modifyEntry(newEntry, request));
+                newEntry = modifyEntry(copyOnWrite(entry, request), request);
+                logPut(newEntry);
+                update(dn, newEntry);
+            } finally {
+                unlockEntries(dn, null);
             }
             resultHandler.handleResult(getResult(request, entry, newEntry));
         } catch (final LdapException e) {
@@ -391,8 +706,8 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
             case SINGLE_LEVEL:
             case SUBORDINATES:
             case WHOLE_SUBTREE:
-                searchWithSubordinates(requestContext, entryHandler, resultHandler, dn, matcher, attributeFilter,
-                    request.getSizeLimit(), scope,
+                searchWithSubordinates(requestContext, entryHandler, resultHandler, dn, filter, matcher,
+                    attributeFilter, request.getSizeLimit(), scope,
                     request.getControl(SimplePagedResultsControl.DECODER, new DecodeOptions()));
                 break;
 
@@ -413,7 +728,7 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      * @return {@code true} if this memory backend does not contain any entries.
      */
     public boolean isEmpty() {
-        return entries.isEmpty();
+        return !new EntryIterator(LATEST).hasNext();
     }
 
     /**
@@ -433,23 +748,120 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      *             {@code false}.
      */
     public MemoryBackend load(final EntryReader reader, final boolean overwrite) throws IOException {
-        synchronized (writeLock) {
+        backendLock.writeLock().lock();
+        final Update update = new Update();
+        try {
             if (reader != null) {
                 try {
                     while (reader.hasNext()) {
                         final Entry entry = reader.readEntry();
                         final DN dn = entry.getName();
-                        if (!overwrite && entries.containsKey(dn)) {
+                        final EntryVersion current = entries.get(dn);
+                        if (!overwrite && current != null
+                                && (current.update == update || current.getEntry(LATEST) != null)) {
                             throw newLdapException(ResultCode.ENTRY_ALREADY_EXISTS,
                                     "Attempted to add the entry '" + dn + "' multiple times");
                         } else {
-                            entries.put(dn, entry);
+                            logPut(entry);
+                            putVersion(update, dn, entry);
                         }
                     }
                 } finally {
                     reader.close();
                 }
             }
+        } finally {
+            // Entries read before any error remain.
+            commit(update);
+            backendLock.writeLock().unlock();
+        }
+        return this;
+    }
+
+    /**
+     * Makes this memory backend persistent by storing its content in the
+     * provided directory. This method is equivalent to calling
+     * {@link #open(File, long, TimeUnit)} with a compaction interval of zero.
+     *
+     * @param directory
+     *            The directory containing the snapshot and the change log.
+     * @return This memory backend.
+     * @throws IOException
+     *             If an error occurred while reading the content of the
+     *             directory.
+     * @throws IllegalStateException
+     *             If this memory backend is already open.
+     */
+    public MemoryBackend open(final File directory) throws IOException {
+        return open(directory, 0, null);
+    }
+
+    /**
+     * Makes this memory backend persistent by storing its content in the
+     * provided directory, which contains a snapshot of the entries and a
+     * write-ahead log of the changes made since the snapshot was taken.
+     * <p>
+     * If the directory already contains a snapshot or a change log, then the
+     * content of this memory backend is replaced by the persisted content.
+     * Otherwise, the current content of this memory backend is written as the
+     * initial snapshot. Subsequent changes made through the request handler
+     * methods, {@link #clear()} and {@link #load(EntryReader, boolean)} are
+     * written to the change log before being applied. Changes made directly to
+     * the entries returned by this memory backend are not persisted. The change
+     * log is not synchronized with the storage device after each change, so
+     * changes survive a crash of the JVM but not necessarily of the operating
+     * system.
+     *
+     * @param directory
+     *            The directory containing the snapshot and the change log.
+     * @param compactionInterval
+     *            The interval between checks for changes which should be
+     *            compacted into a new snapshot, or {@code 0} if snapshots
+     *            should only be written when {@link #compact()} is invoked.
+     * @param unit
+     *            The time unit of the compaction interval.
+     * @return This memory backend.
+     * @throws IOException
+     *             If an error occurred while reading the content of the
+     *             directory.
+     * @throws IllegalStateException
+     *             If this memory backend is already open.
+     */
+    public MemoryBackend open(final File directory, final long compactionInterval, final TimeUnit unit)
+            throws IOException {
+        Reject.ifNull(directory);
+        Reject.ifTrue(compactionInterval < 0, "compactionInterval < 0");
+        Reject.ifTrue(compactionInterval > 0 && unit == null, "time unit is null");
+        backendLock.writeLock().lock();
+        try {
+            if (store != null) {
+                throw new IllegalStateException("The memory backend is already open");
+            }
+            final MemoryBackendStore newStore = new MemoryBackendStore(directory, schema);
+            try {
+                final NavigableMap<DN, Entry> recoveredEntries = new TreeMap<>();
+                if (newStore.recover(recoveredEntries)) {
+                    final Update update = new Update();
+                    removeAll(update, entries);
+                    for (final Entry entry : recoveredEntries.values()) {
+                        putVersion(update, entry.getName(), entry);
+                    }
+                    commit(update);
+                } else if (!isEmpty()) {
+                    newStore.writeSnapshot(newStore.rotate(), getEntries(LATEST));
+                }
+            } catch (final IOException | RuntimeException e) {
+                newStore.close();
+                throw e;
+            }
+            store = newStore;
+            if (compactionInterval > 0) {
+                scheduler = DEFAULT_SCHEDULER.acquire();
+                compactionFuture = scheduler.get().scheduleWithFixedDelay(
+                        new CompactionTask(), compactionInterval, compactionInterval, unit);
+            }
+        } finally {
+            backendLock.writeLock().unlock();
         }
         return this;
     }
@@ -460,16 +872,26 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      * @return The number of entries contained in this memory backend.
      */
     public int size() {
-        return entries.size();
+        int size = 0;
+        for (final Iterator<Entry> i = new EntryIterator(LATEST); i.hasNext(); i.next()) {
+            size++;
+        }
+        return size;
     }
 
     /**
      * Perform a search for scope that includes subordinates, i.e., either
      * <code>SearchScope.SINGLE_LEVEL</code> or <code>SearchScope.WHOLE_SUBTREE</code>.
+     * <p>
+     * The search reads a snapshot of the entries, so that it is not affected
+     * by concurrent updates. Paged searches keep reading the same snapshot
+     * until the last page has been returned, the client abandons the paged
+     * search, or the paged search times out.
      *
      * @param requestContext context of this request
      * @param resultHandler handler which should be used to send back the search results to the client.
      * @param dn distinguished name of the base entry used for this request
+     * @param filter the filter of this request, which paged searches must not change between pages
      * @param matcher to filter entries that matches this request
      * @param attributeFilter to select attributes to return in search results
      * @param sizeLimit maximum number of entries to return. A value of zero indicates no restriction
@@ -482,57 +904,279 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
      *           If the request is unsuccessful.
      */
     private void searchWithSubordinates(final RequestContext requestContext, final SearchResultHandler entryHandler,
-            final LdapResultHandler<Result> resultHandler, final DN dn, final Matcher matcher,
-            final AttributeFilter attributeFilter, final int sizeLimit, SearchScope scope,
+            final LdapResultHandler<Result> resultHandler, final DN dn, final Filter filter,
+            final Matcher matcher, final AttributeFilter attributeFilter, final int sizeLimit, SearchScope scope,
             SimplePagedResultsControl pagedResults) throws CancelledResultException, LdapException {
         final int pageSize = pagedResults != null ? pagedResults.getSize() : 0;
-        final int offset = (pagedResults != null && !pagedResults.getCookie().isEmpty())
-                ? Integer.valueOf(pagedResults.getCookie().toString()) : 0;
-        final Map<DN, Entry> subtree = entries.subMap(dn, dn.child(RDN.maxValue()));
-        int numberOfResults = 0;
-        int position = 0;
-        for (final Entry entry : subtree.values()) {
-            requestContext.checkIfCancelled(false);
-            if (scope.equals(SearchScope.WHOLE_SUBTREE) || entry.getName().isChildOf(dn)
-                    || (scope.equals(SearchScope.SUBORDINATES) && !entry.getName().equals(dn))) {
-                if (matcher.matches(entry).toBoolean()) {
-                    /*
-                     * This entry is going to be returned to the client so it
-                     * counts towards the size limit and any paging criteria.
-                     */
-
-                    // Check size limit.
-                    if (sizeLimit > 0 && numberOfResults >= sizeLimit) {
-                        throw newLdapException(newResult(ResultCode.SIZE_LIMIT_EXCEEDED));
-                    }
-
-                    // Ignore this entry if we haven't reached the first page yet.
-                    if (pageSize > 0 && position++ < offset) {
+        final String filterString = filter.toString();
+        final PagedSearch pagedSearch = (pagedResults != null && !pagedResults.getCookie().isEmpty())
+                ? removePagedSearch(pagedResults.getCookie(), dn, scope, filterString) : null;
+        final long version = pagedSearch != null ? pagedSearch.version : acquireSnapshot();
+        boolean isSnapshotReleased = true;
+        try {
+            // The last returned entry is always within the base, but never let the range escape it.
+            final Map<DN, EntryVersion> subtree = pagedSearch != null && pagedSearch.lastDN.isSubordinateOrEqualTo(dn)
+                    ? entries.subMap(pagedSearch.lastDN, false, dn.child(RDN.maxValue()), false)
+                    : getSubtree(dn);
+            int numberOfResults = 0;
+            DN lastDN = null;
+            // A page size of zero abandons the paged search.
+            if (pagedSearch == null || pageSize > 0) {
+                for (final EntryVersion entryVersion : subtree.values()) {
+                    requestContext.checkIfCancelled(false);
+                    final Entry entry = entryVersion.getEntry(version);
+                    if (entry == null) {
                         continue;
                     }
+                    if (scope.equals(SearchScope.WHOLE_SUBTREE) || entry.getName().isChildOf(dn)
+                            || (scope.equals(SearchScope.SUBORDINATES) && !entry.getName().equals(dn))) {
+                        if (matcher.matches(entry).toBoolean()) {
+                            /*
+                             * This entry is going to be returned to the client so it
+                             * counts towards the size limit and any paging criteria.
+                             */
 
-                    // Send the entry back to the client.
-                    if (!sendEntry(attributeFilter, entryHandler, entry)) {
-                        // Client has disconnected or cancelled.
-                        break;
-                    }
+                            // Check size limit.
+                            if (sizeLimit > 0 && numberOfResults >= sizeLimit) {
+                                throw newLdapException(newResult(ResultCode.SIZE_LIMIT_EXCEEDED));
+                            }
+
+                            // Send the entry back to the client.
+                            if (!sendEntry(attributeFilter, entryHandler, entry)) {
+                                // Client has disconnected or cancelled.
+                                break;
+                            }
 
-                    numberOfResults++;
+                            numberOfResults++;
+                            lastDN = entryVersion.dn;
 
-                    // Stop if we've reached the end of the page.
-                    if (pageSize > 0 && numberOfResults == pageSize) {
-                        break;
+                            // Stop if we've reached the end of the page.
+                            if (pageSize > 0 && numberOfResults == pageSize) {
+                                break;
+                            }
+                        }
                     }
                 }
             }
+            final Result result = newResult(ResultCode.SUCCESS);
+            if (pagedResults != null) {
+                ByteString cookie = ByteString.empty();
+                if (pageSize > 0 && numberOfResults == pageSize) {
+                    cookie = addPagedSearch(new PagedSearch(dn, scope, filterString, version, lastDN));
+                    isSnapshotReleased = false;
+                }
+                result.addControl(SimplePagedResultsControl.newControl(true, 0, cookie));
+            }
+            resultHandler.handleResult(result);
+        } finally {
+            if (isSnapshotReleased) {
+                releaseSnapshot(version);
+            }
+        }
+    }
+
+    private ByteString addPagedSearch(final PagedSearch pagedSearch) {
+        purgeExpiredPagedSearches();
+        final long id = nextPagedSearchId.incrementAndGet();
+        pagedSearches.put(id, pagedSearch);
+        return ByteString.valueOfUtf8(String.valueOf(id));
+    }
+
+    /**
+     * Removes the paged search identified by the provided cookie. The paged
+     * search is left in place if the cookie is sent with a different search,
+     * so that its legitimate client can still read the next page.
+     */
+    private PagedSearch removePagedSearch(final ByteString cookie, final DN dn, final SearchScope scope,
+            final String filter) throws LdapException {
+        purgeExpiredPagedSearches();
+        Long id;
+        try {
+            id = Long.valueOf(cookie.toString());
+        } catch (final NumberFormatException e) {
+            id = null;
+        }
+        final PagedSearch pagedSearch = id != null ? pagedSearches.get(id) : null;
+        if (pagedSearch != null && !pagedSearch.isSameSearch(dn, scope, filter)) {
+            throw newLdapException(ResultCode.UNWILLING_TO_PERFORM,
+                    "The paged results cookie does not belong to this search");
+        }
+        if (pagedSearch == null || !pagedSearches.remove(id, pagedSearch)) {
+            throw newLdapException(ResultCode.UNWILLING_TO_PERFORM,
+                    "The paged results cookie is invalid or the paged search has expired");
+        }
+        return pagedSearch;
+    }
+
+    /**
+     * Reclaims the snapshots of the paged searches which have been abandoned
+     * by their clients. This is done whenever a paged search is added or
+     * removed, and whenever an update is committed.
+     */
+    private void purgeExpiredPagedSearches() {
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<Long, PagedSearch> pagedSearch : pagedSearches.entrySet()) {
+            if (pagedSearch.getValue().isExpired(now)
+                    && pagedSearches.remove(pagedSearch.getKey(), pagedSearch.getValue())) {
+                releaseSnapshot(pagedSearch.getValue().version);
+            }
+        }
+    }
+
+    /** Returns a snapshot version which will not be reclaimed until it is released. */
+    private long acquireSnapshot() {
+        synchronized (snapshots) {
+            final long version = committedVersion;
+            final Integer count = snapshots.get(version);
+            snapshots.put(version, count != null ? count + 1 : 1);
+            return version;
+        }
+    }
+
+    private void releaseSnapshot(final long version) {
+        synchronized (snapshots) {
+            final int count = snapshots.get(version);
+            if (count > 1) {
+                snapshots.put(version, count - 1);
+            } else {
+                snapshots.remove(version);
+            }
         }
-        final Result result = newResult(ResultCode.SUCCESS);
-        if (pageSize > 0) {
-            final ByteString cookie = numberOfResults == pageSize ? ByteString.valueOfUtf8(String.valueOf(position))
-                    : ByteString.empty();
-            result.addControl(SimplePagedResultsControl.newControl(true, 0, cookie));
+        reclaimObsoleteVersions();
+    }
+
+    /**
+     * Makes the versions created by an update visible to searches. Every
+     * version of an entry that is older than the version read by the oldest
+     * search and older than a more recent version of that entry can be reclaimed.
+     */
+    private void commit(final Update update) {
+        if (update.versions.isEmpty()) {
+            return;
+        }
+        synchronized (snapshots) {
+            update.version = committedVersion + 1;
+            committedVersion = update.version;
         }
-        resultHandler.handleResult(result);
+        synchronized (obsoleteVersions) {
+            for (final EntryVersion entryVersion : update.versions) {
+                if (entryVersion.previous != null || entryVersion.entry == null) {
+                    obsoleteVersions.add(entryVersion);
+                }
+            }
+        }
+        // Abandoned paged searches must not retain obsolete versions until the next paged search.
+        purgeExpiredPagedSearches();
+        reclaimObsoleteVersions();
+    }
+
+    private void reclaimObsoleteVersions() {
+        final long oldestVersion;
+        synchronized (snapshots) {
+            oldestVersion = snapshots.isEmpty() ? committedVersion : snapshots.firstKey();
+        }
+        synchronized (obsoleteVersions) {
+            for (EntryVersion v = obsoleteVersions.peek(); v != null && v.update.version <= oldestVersion;
+                    v = obsoleteVersions.peek()) {
+                obsoleteVersions.remove();
+                // No search reads the versions preceding this one anymore.
+                v.previous = null;
+                if (v.entry == null) {
+                    // Only remove the deleted entry if it has not been added again since.
+                    entries.remove(v.dn, v);
+                }
+            }
+        }
+    }
+
+    /** Creates a new version of an entry, which will be visible once the update is committed. */
+    private void putVersion(final Update update, final DN dn, final Entry entry) {
+        final EntryVersion entryVersion = new EntryVersion(dn, entry, update, entries.get(dn));
+        entries.put(dn, entryVersion);
+        update.versions.add(entryVersion);
+    }
+
+    /** Adds, replaces or removes a single entry. The caller must hold the lock of the entry. */
+    private void update(final DN dn, final Entry entry) {
+        final Update update = new Update();
+        putVersion(update, dn, entry);
+        commit(update);
+    }
+
+    private void removeAll(final Update update, final Map<DN, EntryVersion> removedEntries) {
+        for (final Map.Entry<DN, EntryVersion> entry : removedEntries.entrySet()) {
+            if (entry.getValue().getEntry(LATEST) != null) {
+                putVersion(update, entry.getKey(), null);
+            }
+        }
+    }
+
+    /** Removes an entry through the collection returned by {@link #getAll()}. */
+    private void removeEntry(final DN dn) {
+        lockEntries(dn, null);
+        try {
+            if (contains(dn)) {
+                logDelete(dn, false);
+                update(dn, null);
+            }
+        } catch (final LdapException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            unlockEntries(dn, null);
+        }
+    }
+
+    /**
+     * Returns a copy of the entry in which the attributes targeted by the
+     * modify request are copied as well, so that modifying it does not change
+     * the versions of the entry which may still be read.
+     */
+    private static Entry copyOnWrite(final Entry entry, final ModifyRequest request) {
+        final Set<Attribute> modifiedAttributes = Collections.newSetFromMap(new IdentityHashMap<Attribute, Boolean>());
+        for (final Modification modification : request.getModifications()) {
+            final Attribute attribute = entry.getAttribute(modification.getAttribute().getAttributeDescription());
+            if (attribute != null) {
+                modifiedAttributes.add(attribute);
+            }
+        }
+        final Entry copy = new LinkedHashMapEntry(entry.getName());
+        for (final Attribute attribute : entry.getAllAttributes()) {
+            if (!modifiedAttributes.contains(attribute)) {
+                copy.addAttribute(attribute);
+            } else if (attribute instanceof CompactAttribute) {
+                copy.addAttribute(new CompactAttribute(attribute));
+            } else {
+                copy.addAttribute(new LinkedAttribute(attribute));
+            }
+        }
+        return copy;
+    }
+
+    private Entry getEntry(final DN dn, final long version) {
+        final EntryVersion entryVersion = entries.get(dn);
+        return entryVersion != null ? entryVersion.getEntry(version) : null;
+    }
+
+    private Iterable<Entry> getEntries(final long version) {
+        return new Iterable<Entry>() {
+            @Override
+            public Iterator<Entry> iterator() {
+                return new EntryIterator(version);
+            }
+        };
+    }
+
+    private NavigableMap<DN, EntryVersion> getSubtree(final DN dn) {
+        return entries.subMap(dn, dn.child(RDN.maxValue()));
+    }
+
+    private boolean hasSubordinates(final DN dn) {
+        for (final EntryVersion entryVersion : getSubtree(dn).values()) {
+            if (!entryVersion.dn.equals(dn) && entryVersion.getEntry(LATEST) != null) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private <R extends Result> R addResultControls(final Request request, final Entry before,
@@ -586,7 +1230,7 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
     }
 
     private Entry getRequiredEntry(final Request request, final DN dn) throws LdapException {
-        final Entry entry = entries.get(dn);
+        final Entry entry = get(dn);
         if (entry == null) {
             noSuchObject(dn);
         } else if (request != null) {
@@ -612,6 +1256,59 @@ public final class MemoryBackend implements RequestHandler<RequestContext> {
         return addResultControls(request, before, after, newResult(ResultCode.SUCCESS));
     }
 
+    /**
+     * Locks the named entry and its parent, if not {@code null}, for update.
+     * Stripes are always locked in the same order in order to avoid deadlocks.
+     */
+    private void lockEntries(final DN dn, final DN parent) {
+        backendLock.readLock().lock();
+        final int stripe = getEntryLockStripe(dn);
+        final int parentStripe = parent != null ? getEntryLockStripe(parent) : stripe;
+        entryLocks[Math.min(stripe, parentStripe)].lock();
+        if (stripe != parentStripe) {
+            entryLocks[Math.max(stripe, parentStripe)].lock();
+        }
+    }
+
+    private void unlockEntries(final DN dn, final DN parent) {
+        final int stripe = getEntryLockStripe(dn);
+        final int parentStripe = parent != null ? getEntryLockStripe(parent) : stripe;
+        if (stripe != parentStripe) {
+            entryLocks[Math.max(stripe, parentStripe)].unlock();
+        }
+        entryLocks[Math.min(stripe, parentStripe)].unlock();
+        backendLock.readLock().unlock();
+    }
+
+    private static int getEntryLockStripe(final DN dn) {
+        final int hashCode = dn.hashCode();
+        return (hashCode ^ (hashCode >>> 16)) & (ENTRY_LOCK_STRIPES - 1);
+    }
+
+    private void logDelete(final DN dn, final boolean subtree) throws LdapException {
+        if (store != null) {
+            try {
+                store.logDelete(dn, subtree);
+            } catch (final IOException e) {
+                throw changeLogError(e);
+            }
+        }
+    }
+
+    private void logPut(final Entry entry) throws LdapException {
+        if (store != null) {
+            try {
+                store.logPut(entry);
+            } catch (final IOException e) {
+                throw changeLogError(e);
+            }
+        }
+    }
+
+    private LdapException changeLogError(final IOException e) {
+        return newLdapException(ResultCode.OTHER, "Unable to write to the change log: " + e.getMessage(), e);
+    }
+
     private void noSuchObject(final DN dn) throws LdapException {
         throw newLdapException(ResultCode.NO_SUCH_OBJECT, "The entry '" + dn + "' does not exist");
     }
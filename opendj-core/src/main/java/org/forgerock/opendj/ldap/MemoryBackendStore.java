@@ -0,0 +1,326 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.forgerock.opendj.io.ASN1;
+import org.forgerock.opendj.io.ASN1Writer;
+import org.forgerock.opendj.io.LDAP;
+import org.forgerock.opendj.ldap.schema.Schema;
+
+/**
+ * The on-disk representation of the content of a {@link MemoryBackend}, made of a snapshot and of a write-ahead change
+ * log. Both files are sequences of length-prefixed records. Snapshots only contain entries, which are stored in
+ * normalized DN order using their BER encoding. Change log records contain the state resulting from each change, i.e.
+ * the complete entry for adds and modifications, and the name of the removed entry or subtree for deletes, so that
+ * replaying them is idempotent.
+ * <p>
+ * Files are versioned with a generation number. Compacting the store first switches to a new change log and then
+ * writes a snapshot of the same generation, without blocking writers. Since replaying changes is idempotent, the
+ * content of the backend is recovered by loading the most recent complete snapshot and replaying all the change logs
+ * whose generation is greater or equal to it, even if the snapshot reflects some of these changes.
+ */
+final class MemoryBackendStore implements Closeable {
+    /** Iterates over the records of a file, which is memory-mapped in windows of at most {@code MAX_WINDOW_SIZE}. */
+    private static final class RecordReader implements Closeable {
+        private final FileChannel channel;
+        private final long size;
+        private long position;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        private RecordReader(final File file) throws IOException {
+            this.channel = new FileInputStream(file).getChannel();
+            this.size = channel.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /** Returns {@code null} at the end of the file, or if the last record is incomplete. */
+        private byte[] readRecord() throws IOException {
+            if (!map(position, 4)) {
+                return null;
+            }
+            final int length = window.getInt((int) (position - windowStart));
+            if (length <= 0 || !map(position + 4, length)) {
+                return null;
+            }
+            final byte[] record = new byte[length];
+            window.position((int) (position + 4 - windowStart));
+            window.get(record);
+            position += 4 + length;
+            return record;
+        }
+
+        private boolean map(final long start, final int length) throws IOException {
+            if (start + length > size) {
+                return false;
+            }
+            if (window == null || start < windowStart || start + length > windowStart + window.limit()) {
+                windowStart = start;
+                window = channel.map(MapMode.READ_ONLY, start, Math.min(Math.max(length, MAX_WINDOW_SIZE),
+                                                                        size - start));
+            }
+            return true;
+        }
+    }
+
+    private static final String CHANGE_LOG_PREFIX = "changelog.";
+    private static final String SNAPSHOT_PREFIX = "snapshot.";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int MAX_WINDOW_SIZE = 1 << 30;
+
+    private static final byte RECORD_CLEAR = 0x00;
+    private static final byte RECORD_PUT = 0x01;
+    private static final byte RECORD_DELETE = 0x02;
+    private static final byte RECORD_DELETE_SUBTREE = 0x03;
+
+    private final File directory;
+    private final Schema schema;
+    private final DecodeOptions decodeOptions;
+    private final ByteStringBuilder buffer = new ByteStringBuilder();
+    private final ASN1Writer bufferWriter = ASN1.getWriter(buffer);
+    private FileChannel changeLog;
+    private long changeLogSize;
+    private int generation;
+
+    MemoryBackendStore(final File directory, final Schema schema) {
+        this.directory = directory;
+        this.schema = schema;
+        this.decodeOptions = new DecodeOptions().setSchema(schema);
+    }
+
+    /**
+     * Loads the most recent snapshot into the provided map, replays the change logs, and starts a new change log.
+     * Returns {@code false} if the directory does not contain any snapshot nor change log, in which case the map is
+     * left untouched.
+     */
+    synchronized boolean recover(final NavigableMap<DN, Entry> entries) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the directory '" + directory + "'");
+        }
+        final NavigableMap<Integer, File> snapshots = new TreeMap<>();
+        final NavigableMap<Integer, File> changeLogs = new TreeMap<>();
+        for (final File file : directory.listFiles()) {
+            final String name = file.getName();
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                // Left over by a compaction which did not complete.
+                delete(file);
+            } else if (name.startsWith(SNAPSHOT_PREFIX)) {
+                snapshots.put(parseGeneration(file, SNAPSHOT_PREFIX), file);
+            } else if (name.startsWith(CHANGE_LOG_PREFIX)) {
+                changeLogs.put(parseGeneration(file, CHANGE_LOG_PREFIX), file);
+            }
+        }
+
+        final boolean isEmpty = snapshots.isEmpty() && changeLogs.isEmpty();
+        if (!isEmpty) {
+            entries.clear();
+            final int snapshotGeneration = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+            if (!snapshots.isEmpty()) {
+                replay(snapshots.lastEntry().getValue(), entries);
+            }
+            for (final File file : changeLogs.tailMap(snapshotGeneration, true).values()) {
+                replay(file, entries);
+            }
+            deleteOlderGenerations(snapshotGeneration);
+            generation = Math.max(snapshotGeneration, changeLogs.isEmpty() ? 0 : changeLogs.lastKey());
+        }
+        openChangeLog(generation + 1);
+        return !isEmpty;
+    }
+
+    /** Switches to a new change log and returns the generation of the snapshot which should be written next. */
+    synchronized int rotate() throws IOException {
+        changeLog.close();
+        openChangeLog(generation + 1);
+        return generation;
+    }
+
+    /** Returns the number of bytes written to the current change log. */
+    synchronized long getChangeLogSize() {
+        return changeLogSize;
+    }
+
+    /**
+     * Writes a snapshot of the provided entries, which must be at least as recent as the creation of the change log
+     * having the same generation, and then deletes the files which are no longer needed.
+     */
+    void writeSnapshot(final int snapshotGeneration, final Iterable<Entry> entries) throws IOException {
+        final File snapshot = getFile(SNAPSHOT_PREFIX, snapshotGeneration);
+        final File tmp = new File(directory, snapshot.getName() + TEMPORARY_SUFFIX);
+        final ByteStringBuilder record = new ByteStringBuilder();
+        final ASN1Writer recordWriter = ASN1.getWriter(record);
+        try (FileOutputStream fileStream = new FileOutputStream(tmp);
+             OutputStream stream = new BufferedOutputStream(fileStream)) {
+            for (final Entry entry : entries) {
+                record.clear();
+                appendRecordHeader(record, RECORD_PUT);
+                LDAP.writeEntry(recordWriter, entry);
+                recordWriter.flush();
+                setRecordLength(record);
+                record.copyTo(stream);
+            }
+            stream.flush();
+            fileStream.getFD().sync();
+        }
+        if (!tmp.renameTo(snapshot)) {
+            delete(tmp);
+            throw new IOException("Unable to rename '" + tmp + "' to '" + snapshot + "'");
+        }
+        deleteOlderGenerations(snapshotGeneration);
+    }
+
+    synchronized void logClear() throws IOException {
+        buffer.clear();
+        appendRecordHeader(buffer, RECORD_CLEAR);
+        append();
+    }
+
+    synchronized void logDelete(final DN dn, final boolean subtree) throws IOException {
+        buffer.clear();
+        appendRecordHeader(buffer, subtree ? RECORD_DELETE_SUBTREE : RECORD_DELETE);
+        buffer.appendUtf8(dn.toString());
+        append();
+    }
+
+    synchronized void logPut(final Entry entry) throws IOException {
+        buffer.clear();
+        appendRecordHeader(buffer, RECORD_PUT);
+        LDAP.writeEntry(bufferWriter, entry);
+        bufferWriter.flush();
+        append();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (changeLog != null) {
+            changeLog.close();
+        }
+    }
+
+    private void append() throws IOException {
+        setRecordLength(buffer);
+        final ByteBuffer bytes = ByteBuffer.wrap(buffer.getBackingArray(), 0, buffer.length());
+        try {
+            while (bytes.hasRemaining()) {
+                changeLog.write(bytes);
+            }
+            changeLogSize += buffer.length();
+        } catch (final IOException e) {
+            // Do not leave an incomplete record in the middle of the change log.
+            changeLog.truncate(changeLogSize);
+            throw e;
+        }
+    }
+
+    private void replay(final File file, final NavigableMap<DN, Entry> entries) throws IOException {
+        try (RecordReader reader = new RecordReader(file)) {
+            for (byte[] record = reader.readRecord(); record != null; record = reader.readRecord()) {
+                switch (record[0]) {
+                case RECORD_PUT:
+                    final Entry entry = LDAP.readEntry(ASN1.getReader(ByteString.wrap(record, 1, record.length - 1)),
+                                                       decodeOptions);
+                    entries.put(entry.getName(), entry);
+                    break;
+                case RECORD_DELETE:
+                    entries.remove(readDN(record));
+                    break;
+                case RECORD_DELETE_SUBTREE:
+                    final DN dn = readDN(record);
+                    entries.subMap(dn, dn.child(RDN.maxValue())).clear();
+                    break;
+                case RECORD_CLEAR:
+                    entries.clear();
+                    break;
+                default:
+                    throw new IOException("The file '" + file + "' contains an unknown record type " + record[0]);
+                }
+            }
+        }
+    }
+
+    private DN readDN(final byte[] record) {
+        return DN.valueOf(ByteString.wrap(record, 1, record.length - 1).toString(), schema);
+    }
+
+    private void openChangeLog(final int newGeneration) throws IOException {
+        changeLog = new FileOutputStream(getFile(CHANGE_LOG_PREFIX, newGeneration), true).getChannel();
+        changeLogSize = changeLog.size();
+        generation = newGeneration;
+    }
+
+    private void deleteOlderGenerations(final int minGeneration) throws IOException {
+        for (final File file : directory.listFiles()) {
+            final String name = file.getName();
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                continue;
+            }
+            if ((name.startsWith(SNAPSHOT_PREFIX) && parseGeneration(file, SNAPSHOT_PREFIX) < minGeneration)
+                    || (name.startsWith(CHANGE_LOG_PREFIX)
+                            && parseGeneration(file, CHANGE_LOG_PREFIX) < minGeneration)) {
+                delete(file);
+            }
+        }
+    }
+
+    private File getFile(final String prefix, final int fileGeneration) {
+        return new File(directory, prefix + fileGeneration);
+    }
+
+    private static void appendRecordHeader(final ByteStringBuilder builder, final byte type) {
+        builder.appendInt(0);
+        builder.appendByte(type);
+    }
+
+    private static void setRecordLength(final ByteStringBuilder builder) {
+        final int length = builder.length() - 4;
+        builder.setByte(0, (byte) (length >>> 24));
+        builder.setByte(1, (byte) (length >>> 16));
+        builder.setByte(2, (byte) (length >>> 8));
+        builder.setByte(3, (byte) length);
+    }
+
+    private static int parseGeneration(final File file, final String prefix) throws IOException {
+        try {
+            return Integer.parseInt(file.getName().substring(prefix.length()));
+        } catch (final NumberFormatException e) {
+            throw new IOException("Unexpected file '" + file + "'", e);
+        }
+    }
+
+    private static void delete(final File file) throws IOException {
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Unable to delete '" + file + "'");
+        }
+    }
+}
@@ -212,6 +212,12 @@ public final class RDN implements Iterable<AVA>, Comparable<RDN> {
      */
     private String stringValue;
 
+    /** The cached normalized byte string representation, see {@link #toNormalizedByteString()}. */
+    private ByteString normalizedValue;
+
+    /** The cached hash code, or {@code 0} if it has not been computed yet. */
+    private int hashCode;
+
     /**
      * Creates a new RDN using the provided attribute type and value.
      * <p>
@@ -412,10 +418,13 @@ public final class RDN implements Iterable<AVA>, Comparable<RDN> {
 
     @Override
     public int hashCode() {
-        // Avoid an algorithm that requires the AVAs to be sorted.
-        int hash = 0;
-        for (final AVA ava : avas) {
-            hash += ava.hashCode();
+        int hash = hashCode;
+        if (hash == 0) {
+            // Avoid an algorithm that requires the AVAs to be sorted.
+            for (final AVA ava : avas) {
+                hash += ava.hashCode();
+            }
+            hashCode = hash;
         }
         return hash;
     }
@@ -508,6 +517,28 @@ public final class RDN implements Iterable<AVA>, Comparable<RDN> {
      * @see DN#toNormalizedByteString()
      */
     ByteStringBuilder toNormalizedByteString(final ByteStringBuilder builder) {
+        return builder.appendBytes(toNormalizedByteString());
+    }
+
+    /**
+     * Returns the normalized byte string representation of this RDN, including the leading RDN separator. The
+     * representation is cached so that DNs sharing this RDN, or having it as an ancestor, do not need to recompute it.
+     * <p>
+     * The representation is not a valid RDN.
+     *
+     * @return The normalized byte string representation.
+     * @see DN#toNormalizedByteString()
+     */
+    ByteString toNormalizedByteString() {
+        ByteString value = normalizedValue;
+        if (value == null) {
+            value = computeNormalizedByteString(new ByteStringBuilder()).toByteString();
+            normalizedValue = value;
+        }
+        return value;
+    }
+
+    private ByteStringBuilder computeNormalizedByteString(final ByteStringBuilder builder) {
         switch (size()) {
         case 0:
             if (this == MIN_VALUE) {
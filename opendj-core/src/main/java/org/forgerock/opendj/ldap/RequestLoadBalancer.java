@@ -20,6 +20,7 @@ import static org.forgerock.util.Utils.closeSilently;
 import static org.forgerock.util.promise.Promises.newResultPromise;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.forgerock.opendj.ldap.requests.AbandonRequest;
@@ -62,12 +63,31 @@ final class RequestLoadBalancer extends LoadBalancer {
      */
     private final Function<Request, Integer, NeverThrowsException> nextFactoryFunction;
 
+    /**
+     * The DN whose immediate subordinates are the shard keys, or {@code null} if searches should not be sent to all
+     * the connection factories when they span several shards.
+     */
+    private final DN shardBaseDN;
+
+    /** The connection factories which hold each shard, without fail over. */
+    private final List<ConnectionFactory> shards;
+
     RequestLoadBalancer(final String loadBalancerName,
                         final Collection<? extends ConnectionFactory> factories,
                         final Options options,
                         final Function<Request, Integer, NeverThrowsException> nextFactoryFunction) {
+        this(loadBalancerName, factories, options, nextFactoryFunction, null);
+    }
+
+    RequestLoadBalancer(final String loadBalancerName,
+                        final Collection<? extends ConnectionFactory> factories,
+                        final Options options,
+                        final Function<Request, Integer, NeverThrowsException> nextFactoryFunction,
+                        final DN shardBaseDN) {
         super(loadBalancerName, factories, options);
         this.nextFactoryFunction = nextFactoryFunction;
+        this.shardBaseDN = shardBaseDN;
+        this.shards = getConnectionFactories();
     }
 
     @Override
@@ -201,6 +221,13 @@ final class RequestLoadBalancer extends LoadBalancer {
                 final SearchRequest request,
                 final IntermediateResponseHandler intermediateResponseHandler,
                 final SearchResultHandler entryHandler) {
+            if (shardBaseDN != null && ScatterGatherSearch.isScatterGatherSearch(request, shardBaseDN)) {
+                if (state.isClosed()) {
+                    throw new IllegalStateException();
+                }
+                return new ScatterGatherSearch(shards, shardBaseDN, request, intermediateResponseHandler,
+                                               entryHandler).execute();
+            }
             return getConnectionAndSendRequest(request, new AsyncFunction<Connection, Result, LdapException>() {
                 @Override
                 public Promise<Result, LdapException> apply(final Connection connection) throws LdapException {
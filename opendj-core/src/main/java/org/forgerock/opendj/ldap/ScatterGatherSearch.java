@@ -0,0 +1,446 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newFailedLdapPromise;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.forgerock.opendj.ldap.controls.Control;
+import org.forgerock.opendj.ldap.controls.ServerSideSortRequestControl;
+import org.forgerock.opendj.ldap.controls.ServerSideSortResponseControl;
+import org.forgerock.opendj.ldap.controls.SimplePagedResultsControl;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldap.spi.LdapPromiseImpl;
+import org.forgerock.util.AsyncFunction;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.ResultHandler;
+
+/**
+ * Performs a search whose scope spans several shards by sending it to each
+ * shard and merging the returned entries into a single stream.
+ * <p>
+ * The shards are the immediate subordinates of the shard base DN: each shard
+ * connection factory holds the entries below the shard keys which are routed
+ * to it, as well as a copy of the shard base entry and of its superiors. These
+ * common entries are only returned from the first shard. Search result
+ * handler invocations are serialized, so the handler does not need to be
+ * thread safe. Cancelling the returned promise cancels the searches sent to
+ * the shards.
+ * <p>
+ * The search is performed in one of three ways:
+ * <ul>
+ * <li>by default the search is sent to all the shards in parallel and the
+ * entries are returned as they are received. The size limit is enforced across
+ * all the shards
+ * <li>when the request contains a server side sort control, the search is sent
+ * to all the shards in parallel and the sorted streams returned by each shard
+ * are merged
+ * <li>when the request contains a simple paged results control, the shards are
+ * searched one after the other. The returned cookie contains the index of the
+ * shard and the number of entries returned so far, followed by the cookie
+ * returned by that shard, so that the size limit is enforced across all the
+ * pages and shards.
+ * </ul>
+ */
+final class ScatterGatherSearch {
+    /** Merges the entries returned by one of the shards. */
+    private final class ShardHandler implements SearchResultHandler {
+        private final int shardIndex;
+
+        private ShardHandler(final int shardIndex) {
+            this.shardIndex = shardIndex;
+        }
+
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            if (shardIndex != 0 && shardBaseDN.isSubordinateOrEqualTo(entry.getName())) {
+                // The other shards hold a copy of the same entry.
+                return true;
+            }
+            synchronized (stateLock) {
+                if (isDone) {
+                    return false;
+                }
+                if (sortOrder == null) {
+                    return deliverEntry(entry);
+                }
+                sortQueues.get(shardIndex).add(entry);
+                mergeSortedEntries();
+                return !isDone;
+            }
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            synchronized (stateLock) {
+                return !isDone && (isHandlerDone || entryHandler.handleReference(reference));
+            }
+        }
+    }
+
+    /** A promise which cancels the searches sent to the shards when it is cancelled. */
+    private static final class ScatterGatherPromise extends LdapPromiseImpl<Result> {
+        private ScatterGatherPromise(final PromiseImpl<Result, LdapException> wrappedPromise) {
+            super(wrappedPromise, -1);
+        }
+    }
+
+    /** The length of the shard index and of the number of returned entries at the start of a cookie. */
+    private static final int COOKIE_HEADER_LENGTH = 8;
+
+    private final List<? extends ConnectionFactory> shards;
+    private final DN shardBaseDN;
+    private final SearchRequest request;
+    private final IntermediateResponseHandler intermediateResponseHandler;
+    private final SearchResultHandler entryHandler;
+    private final LdapPromiseImpl<Result> promise = new ScatterGatherPromise(newInnerPromise());
+
+    /** Guards the following fields as well as the invocations of the search result handler. */
+    private final Object stateLock = new Object();
+    private final List<LdapPromise<Result>> shardSearches;
+    private boolean isDone;
+    private boolean isHandlerDone;
+    private int entryCount;
+    private int remainingShards;
+    private Comparator<Entry> sortOrder;
+    private List<Queue<SearchResultEntry>> sortQueues;
+    private boolean[] isShardComplete;
+
+    ScatterGatherSearch(final List<? extends ConnectionFactory> shards, final DN shardBaseDN,
+            final SearchRequest request, final IntermediateResponseHandler intermediateResponseHandler,
+            final SearchResultHandler entryHandler) {
+        this.shards = shards;
+        this.shardBaseDN = shardBaseDN;
+        this.request = request;
+        this.intermediateResponseHandler = intermediateResponseHandler;
+        this.entryHandler = entryHandler;
+        this.shardSearches = new ArrayList<>(shards.size());
+    }
+
+    /**
+     * Returns {@code true} if the provided search request may return entries
+     * from more than one shard.
+     *
+     * @param request
+     *            The search request.
+     * @param shardBaseDN
+     *            The DN whose immediate subordinates are the shard keys.
+     * @return {@code true} if the provided search request must be sent to all
+     *         the shards.
+     */
+    static boolean isScatterGatherSearch(final SearchRequest request, final DN shardBaseDN) {
+        final DN baseDN = request.getName();
+        if (!shardBaseDN.isSubordinateOrEqualTo(baseDN)) {
+            return false;
+        }
+        switch (request.getScope().asEnum()) {
+        case SINGLE_LEVEL:
+            return baseDN.size() == shardBaseDN.size();
+        case WHOLE_SUBTREE:
+        case SUBORDINATES:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private PromiseImpl<Result, LdapException> newInnerPromise() {
+        return new PromiseImpl<Result, LdapException>() {
+            @Override
+            protected LdapException tryCancel(final boolean mayInterruptIfRunning) {
+                synchronized (stateLock) {
+                    if (isDone) {
+                        return null;
+                    }
+                    cancelShardSearches();
+                }
+                return newLdapException(ResultCode.CLIENT_SIDE_USER_CANCELLED);
+            }
+        };
+    }
+
+    LdapPromise<Result> execute() {
+        final SimplePagedResultsControl pagedResults;
+        final ServerSideSortRequestControl sortRequest;
+        try {
+            final DecodeOptions decodeOptions = new DecodeOptions();
+            pagedResults = request.getControl(SimplePagedResultsControl.DECODER, decodeOptions);
+            sortRequest = request.getControl(ServerSideSortRequestControl.DECODER, decodeOptions);
+        } catch (final DecodeException e) {
+            return newFailedLdapPromise(newLdapException(ResultCode.CLIENT_SIDE_ENCODING_ERROR, e));
+        }
+
+        if (pagedResults != null) {
+            searchNextPage(pagedResults);
+            return promise;
+        }
+
+        synchronized (stateLock) {
+            remainingShards = shards.size();
+            if (sortRequest != null) {
+                sortOrder = SortKey.comparator(sortRequest.getSortKeys());
+                sortQueues = new ArrayList<>(shards.size());
+                for (int i = 0; i < shards.size(); i++) {
+                    sortQueues.add(new ArrayDeque<SearchResultEntry>());
+                }
+                isShardComplete = new boolean[shards.size()];
+            }
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            final int shardIndex = i;
+            searchShard(shardIndex, request).thenOnResult(new ResultHandler<Result>() {
+                @Override
+                public void handleResult(final Result result) {
+                    shardCompleted(shardIndex);
+                }
+            }).thenOnException(new ExceptionHandler<LdapException>() {
+                @Override
+                public void handleException(final LdapException exception) {
+                    synchronized (stateLock) {
+                        fail(exception);
+                    }
+                }
+            });
+        }
+        return promise;
+    }
+
+    private Promise<Result, LdapException> searchShard(final int shardIndex, final SearchRequest shardRequest) {
+        final AtomicReference<Connection> connectionHolder = new AtomicReference<>();
+        return shards.get(shardIndex).getConnectionAsync()
+                .thenAsync(new AsyncFunction<Connection, Result, LdapException>() {
+                    @Override
+                    public Promise<Result, LdapException> apply(final Connection connection) throws LdapException {
+                        connectionHolder.set(connection);
+                        synchronized (stateLock) {
+                            if (isDone) {
+                                throw newLdapException(ResultCode.CLIENT_SIDE_USER_CANCELLED);
+                            }
+                            final LdapPromise<Result> shardSearch = connection.searchAsync(
+                                    shardRequest, intermediateResponseHandler, new ShardHandler(shardIndex));
+                            shardSearches.add(shardSearch);
+                            return shardSearch;
+                        }
+                    }
+                })
+                .thenFinally(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeSilently(connectionHolder.get());
+                    }
+                });
+    }
+
+    private void shardCompleted(final int shardIndex) {
+        synchronized (stateLock) {
+            if (isDone) {
+                return;
+            }
+            remainingShards--;
+            if (sortOrder != null) {
+                isShardComplete[shardIndex] = true;
+                mergeSortedEntries();
+                if (isDone) {
+                    return;
+                }
+            }
+            if (remainingShards == 0) {
+                isDone = true;
+                final Result result = Responses.newResult(ResultCode.SUCCESS);
+                if (sortOrder != null) {
+                    result.addControl(ServerSideSortResponseControl.newControl(ResultCode.SUCCESS));
+                }
+                promise.handleResult(result);
+            }
+        }
+    }
+
+    /**
+     * Returns the entries which are known to come next in the sort order,
+     * which is when every shard which has not completed has returned at least
+     * one entry which has not been returned yet. Must be invoked while holding
+     * the state lock.
+     */
+    private void mergeSortedEntries() {
+        while (!isDone) {
+            Queue<SearchResultEntry> next = null;
+            for (int i = 0; i < sortQueues.size(); i++) {
+                final Queue<SearchResultEntry> queue = sortQueues.get(i);
+                final SearchResultEntry head = queue.peek();
+                if (head == null) {
+                    if (!isShardComplete[i]) {
+                        // More entries may be received from this shard.
+                        return;
+                    }
+                } else if (next == null || sortOrder.compare(head, next.peek()) < 0) {
+                    next = queue;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            deliverEntry(next.poll());
+        }
+    }
+
+    /** Must be invoked while holding the state lock. */
+    private boolean deliverEntry(final SearchResultEntry entry) {
+        final int sizeLimit = request.getSizeLimit();
+        if (sizeLimit > 0 && entryCount >= sizeLimit) {
+            fail(newLdapException(ResultCode.SIZE_LIMIT_EXCEEDED));
+            return false;
+        }
+        entryCount++;
+        if (!isHandlerDone && !entryHandler.handleEntry(entry)) {
+            // Keep on searching, but do not return the remaining entries.
+            isHandlerDone = true;
+        }
+        return true;
+    }
+
+    /** Must be invoked while holding the state lock. */
+    private void fail(final LdapException exception) {
+        if (isDone) {
+            return;
+        }
+        cancelShardSearches();
+        promise.handleException(exception);
+    }
+
+    /** Must be invoked while holding the state lock. */
+    private void cancelShardSearches() {
+        isDone = true;
+        if (sortQueues != null) {
+            for (final Queue<SearchResultEntry> queue : sortQueues) {
+                queue.clear();
+            }
+        }
+        for (final LdapPromise<Result> shardSearch : shardSearches) {
+            shardSearch.cancel(true);
+        }
+    }
+
+    private void searchNextPage(final SimplePagedResultsControl pagedResults) {
+        final ByteString cookie = pagedResults.getCookie();
+        final int shardIndex;
+        final int previousEntryCount;
+        final ByteString shardCookie;
+        if (cookie.isEmpty()) {
+            shardIndex = 0;
+            previousEntryCount = 0;
+            shardCookie = ByteString.empty();
+        } else {
+            final ByteSequenceReader reader = cookie.asReader();
+            final boolean hasHeader = cookie.length() >= COOKIE_HEADER_LENGTH;
+            shardIndex = hasHeader ? reader.readInt() : -1;
+            previousEntryCount = hasHeader ? reader.readInt() : -1;
+            if (shardIndex < 0 || shardIndex >= shards.size() || previousEntryCount < 0) {
+                promise.handleException(newLdapException(ResultCode.PROTOCOL_ERROR,
+                        "The simple paged results cookie is invalid"));
+                return;
+            }
+            shardCookie = reader.readByteString(reader.remaining());
+        }
+        synchronized (stateLock) {
+            entryCount = previousEntryCount;
+        }
+
+        final SearchRequest shardRequest = Requests.copyOfSearchRequest(request);
+        final int sizeLimit = request.getSizeLimit();
+        if (sizeLimit > 0) {
+            // Let the shard return one entry too many, so that exceeding the limit is detected by deliverEntry().
+            shardRequest.setSizeLimit(Math.max(sizeLimit - previousEntryCount, 0) + 1);
+        }
+        final Iterator<Control> controls = shardRequest.getControls().iterator();
+        while (controls.hasNext()) {
+            if (SimplePagedResultsControl.OID.equals(controls.next().getOID())) {
+                controls.remove();
+            }
+        }
+        shardRequest.addControl(SimplePagedResultsControl.newControl(
+                pagedResults.isCritical(), pagedResults.getSize(), shardCookie));
+
+        searchShard(shardIndex, shardRequest).thenOnResult(new ResultHandler<Result>() {
+            @Override
+            public void handleResult(final Result result) {
+                final int pageEntryCount;
+                synchronized (stateLock) {
+                    if (isDone) {
+                        return;
+                    }
+                    isDone = true;
+                    pageEntryCount = entryCount;
+                }
+                final SimplePagedResultsControl shardControl;
+                try {
+                    shardControl = result.getControl(SimplePagedResultsControl.DECODER, new DecodeOptions());
+                } catch (final DecodeException e) {
+                    promise.handleException(newLdapException(ResultCode.CLIENT_SIDE_DECODING_ERROR, e));
+                    return;
+                }
+                final ByteString nextCookie;
+                if (shardControl != null && !shardControl.getCookie().isEmpty()) {
+                    nextCookie = newCookie(shardIndex, pageEntryCount, shardControl.getCookie());
+                } else if (shardIndex + 1 < shards.size()) {
+                    nextCookie = newCookie(shardIndex + 1, pageEntryCount, ByteString.empty());
+                } else {
+                    nextCookie = ByteString.empty();
+                }
+
+                final Result pageResult = Responses.copyOfResult(result);
+                final Iterator<Control> controls = pageResult.getControls().iterator();
+                while (controls.hasNext()) {
+                    if (SimplePagedResultsControl.OID.equals(controls.next().getOID())) {
+                        controls.remove();
+                    }
+                }
+                pageResult.addControl(SimplePagedResultsControl.newControl(false, 0, nextCookie));
+                promise.handleResult(pageResult);
+            }
+        }).thenOnException(new ExceptionHandler<LdapException>() {
+            @Override
+            public void handleException(final LdapException exception) {
+                synchronized (stateLock) {
+                    fail(exception);
+                }
+            }
+        });
+    }
+
+    private static ByteString newCookie(final int shardIndex, final int entryCount, final ByteString shardCookie) {
+        return new ByteStringBuilder(COOKIE_HEADER_LENGTH + shardCookie.length())
+                .appendInt(shardIndex)
+                .appendInt(entryCount)
+                .appendBytes(shardCookie)
+                .toByteString();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+/**
+ * A source of search result entries which are delivered to a
+ * {@link SearchResultSubscriber} at the rate requested by the subscriber.
+ * <p>
+ * Publishers are obtained using {@link Connection#searchPublisher}. Unlike a
+ * {@link SearchResultHandler}, which receives the entries as fast as they are
+ * returned by the Directory Server, a subscriber only receives the number of
+ * entries that it has requested using
+ * {@link SearchResultSubscription#request(long)}. When the transport supports
+ * it, reading from the underlying connection is suspended while the
+ * subscriber is not requesting any entries, so that a slow subscriber slows
+ * down the Directory Server rather than causing the entries to be buffered in
+ * memory.
+ * <p>
+ * This interface follows the model of the Reactive Streams
+ * {@code Publisher}.
+ *
+ * @see SearchResultSubscriber
+ * @see SearchResultSubscription
+ */
+public interface SearchResultPublisher {
+    /**
+     * Sends the search request and delivers its results to the provided
+     * subscriber. The subscriber's {@link SearchResultSubscriber#onSubscribe}
+     * method is invoked before this method returns.
+     *
+     * @param subscriber
+     *            The subscriber which will receive the search results.
+     * @throws IllegalStateException
+     *             If this publisher already has a subscriber.
+     * @throws NullPointerException
+     *             If {@code subscriber} was {@code null}.
+     */
+    void subscribe(SearchResultSubscriber subscriber);
+}
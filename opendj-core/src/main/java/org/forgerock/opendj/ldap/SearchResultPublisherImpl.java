@@ -0,0 +1,239 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Response;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.util.Reject;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.ResultHandler;
+
+/**
+ * A search result publisher which performs the search using
+ * {@link Connection#searchAsync(SearchRequest, SearchResultHandler)}.
+ * <p>
+ * Entries which are received while the subscriber has no outstanding demand
+ * are queued, and {@link #suspendReads()} is invoked until the subscriber
+ * requests more entries. References are queued along with the entries so that
+ * they are delivered in order, but they do not consume any demand. Connections which are able to stop reading from
+ * their transport override these methods so that the queue stays small. By
+ * default, the methods do nothing and the queue grows as needed.
+ */
+class SearchResultPublisherImpl implements SearchResultPublisher {
+    private final class SubscriptionImpl implements SearchResultSubscription, SearchResultHandler {
+        private final SearchResultSubscriber subscriber;
+        private final Queue<Response> responses = new ConcurrentLinkedQueue<>();
+        private final AtomicLong demand = new AtomicLong();
+        /** Serializes the invocations of the subscriber, see {@link #drain()}. */
+        private final AtomicInteger drainRequests = new AtomicInteger();
+        private volatile boolean isCancelled;
+        private volatile LdapPromise<Result> promise;
+        private volatile Result result;
+        private volatile LdapException error;
+
+        /** The following fields are only accessed while draining. */
+        private boolean isTerminated;
+        private boolean isReadSuspended;
+
+        private SubscriptionImpl(final SearchResultSubscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            Reject.ifFalse(n > 0, "The number of requested entries must be positive");
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!isCancelled) {
+                isCancelled = true;
+                final LdapPromise<Result> searchPromise = promise;
+                if (searchPromise != null) {
+                    searchPromise.cancel(true);
+                }
+                drain();
+            }
+        }
+
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            if (isCancelled) {
+                return false;
+            }
+            responses.add(entry);
+            drain();
+            return true;
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            if (isCancelled) {
+                return false;
+            }
+            responses.add(reference);
+            drain();
+            return true;
+        }
+
+        private void start() {
+            if (isCancelled) {
+                return;
+            }
+            final LdapPromise<Result> searchPromise = connection.searchAsync(request, this);
+            promise = searchPromise;
+            searchPromise.thenOnResult(new ResultHandler<Result>() {
+                @Override
+                public void handleResult(final Result value) {
+                    result = value;
+                    drain();
+                }
+            }).thenOnException(new ExceptionHandler<LdapException>() {
+                @Override
+                public void handleException(final LdapException exception) {
+                    error = exception;
+                    drain();
+                }
+            });
+            if (isCancelled) {
+                // Cancelled while the request was being sent.
+                searchPromise.cancel(true);
+            }
+        }
+
+        /**
+         * Delivers the queued entries for which there is some demand, and the
+         * search completion once all the entries have been delivered. Only one
+         * thread drains at any time: a thread which finds another one draining
+         * leaves it the work to do.
+         */
+        private void drain() {
+            if (drainRequests.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                deliver();
+                updateReadSuspension();
+                missed = drainRequests.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            while (!isTerminated) {
+                if (isCancelled) {
+                    responses.clear();
+                    isTerminated = true;
+                    return;
+                }
+                // Read the completion before polling so that no entry can be left behind.
+                final Result searchResult = result;
+                final LdapException searchError = error;
+                final Response response = responses.peek();
+                if (response instanceof SearchResultReference) {
+                    responses.poll();
+                    subscriber.onReference((SearchResultReference) response);
+                    continue;
+                }
+                if (response != null && demand.get() > 0) {
+                    responses.poll();
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext((SearchResultEntry) response);
+                    continue;
+                }
+                if (searchError != null) {
+                    responses.clear();
+                    isTerminated = true;
+                    subscriber.onError(searchError);
+                } else if (searchResult != null && responses.isEmpty()) {
+                    isTerminated = true;
+                    subscriber.onComplete(searchResult);
+                }
+                return;
+            }
+        }
+
+        private void updateReadSuspension() {
+            // Once the search has completed no more entries will be read for it.
+            final boolean mustSuspend = !isTerminated && result == null && error == null
+                    && !responses.isEmpty() && demand.get() == 0;
+            if (mustSuspend != isReadSuspended) {
+                isReadSuspended = mustSuspend;
+                if (mustSuspend) {
+                    suspendReads();
+                } else {
+                    resumeReads();
+                }
+            }
+        }
+    }
+
+    private final Connection connection;
+    private final SearchRequest request;
+    private final AtomicBoolean isSubscribed = new AtomicBoolean();
+
+    SearchResultPublisherImpl(final Connection connection, final SearchRequest request) {
+        Reject.ifNull(request);
+        this.connection = connection;
+        this.request = request;
+    }
+
+    @Override
+    public void subscribe(final SearchResultSubscriber subscriber) {
+        Reject.ifNull(subscriber);
+        if (!isSubscribed.compareAndSet(false, true)) {
+            throw new IllegalStateException("This publisher already has a subscriber");
+        }
+        final SubscriptionImpl subscription = new SubscriptionImpl(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    /**
+     * Invoked when the subscriber cannot keep up with the received entries.
+     * The default implementation does nothing.
+     */
+    void suspendReads() {
+        // Nothing to do.
+    }
+
+    /**
+     * Invoked when the subscriber has requested more entries after
+     * {@link #suspendReads()} has been invoked. The default implementation
+     * does nothing.
+     */
+    void resumeReads() {
+        // Nothing to do.
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+
+/**
+ * A consumer of the search result entries delivered by a
+ * {@link SearchResultPublisher}.
+ * <p>
+ * The methods of a subscriber are never invoked concurrently, but they may be
+ * invoked by different threads, including the transport threads of the
+ * underlying connection.
+ * <p>
+ * This interface follows the model of the Reactive Streams
+ * {@code Subscriber}.
+ */
+public interface SearchResultSubscriber {
+    /**
+     * Invoked once the subscriber has been subscribed to a publisher. No
+     * entries will be delivered until some have been requested using the
+     * provided subscription.
+     *
+     * @param subscription
+     *            The subscription which can be used for requesting entries or
+     *            cancelling the search.
+     */
+    void onSubscribe(SearchResultSubscription subscription);
+
+    /**
+     * Invoked for each search result entry which has been requested.
+     *
+     * @param entry
+     *            The search result entry.
+     */
+    void onNext(SearchResultEntry entry);
+
+    /**
+     * Invoked for each search result reference. References are delivered in
+     * the order in which they were received relative to the entries, but they
+     * are not counted against the number of requested entries.
+     *
+     * @param reference
+     *            The search result reference.
+     */
+    void onReference(SearchResultReference reference);
+
+    /**
+     * Invoked when the search has failed. No further methods will be invoked.
+     *
+     * @param error
+     *            The error which caused the search to fail.
+     */
+    void onError(LdapException error);
+
+    /**
+     * Invoked once all the search result entries have been delivered and the
+     * search has completed successfully. No further methods will be invoked.
+     *
+     * @param result
+     *            The result of the search operation.
+     */
+    void onComplete(Result result);
+}
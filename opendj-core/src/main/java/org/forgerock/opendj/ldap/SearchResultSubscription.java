@@ -0,0 +1,48 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+/**
+ * The link between a {@link SearchResultPublisher} and a
+ * {@link SearchResultSubscriber}, which the subscriber uses for controlling
+ * the rate at which it receives entries.
+ * <p>
+ * The methods of a subscription may be invoked by any thread, including from
+ * within the methods of the subscriber.
+ * <p>
+ * This interface follows the model of the Reactive Streams
+ * {@code Subscription}.
+ */
+public interface SearchResultSubscription {
+    /**
+     * Requests the delivery of up to {@code n} additional search result
+     * entries. Demand accumulates across calls, up to
+     * {@code Long.MAX_VALUE}, which is treated as unbounded.
+     *
+     * @param n
+     *            The number of additional entries to deliver.
+     * @throws IllegalArgumentException
+     *             If {@code n} is not strictly positive.
+     */
+    void request(long n);
+
+    /**
+     * Abandons the search. The subscriber will not receive any further
+     * entries, nor be notified of the search completion, except for a
+     * notification which may already be in progress on another thread.
+     */
+    void cancel();
+}
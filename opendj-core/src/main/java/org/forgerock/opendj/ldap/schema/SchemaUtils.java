@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2009 Sun Microsystems, Inc.
- * Portions copyright 2011-2015 ForgeRock AS.
+ * Portions copyright 2011-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.ldap.schema;
 
@@ -33,6 +33,7 @@ import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ByteSequence;
 import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.forgerock.opendj.ldap.DecodeException;
 
 import com.forgerock.opendj.util.SubstringReader;
@@ -41,6 +42,19 @@ import com.forgerock.opendj.util.SubstringReader;
  * Schema utility methods.
  */
 final class SchemaUtils {
+    /** Initial capacity of the per-thread normalization buffers. */
+    private static final int NORMALIZATION_BUFFER_INIT_SIZE = 64;
+    /** Per-thread normalization buffers larger than this are released after use. */
+    private static final int NORMALIZATION_BUFFER_MAX_SIZE = 32 * 1024;
+
+    /** Reusable buffers into which string values are prepared before being copied to their normalized form. */
+    private static final ThreadLocal<ByteStringBuilder> NORMALIZATION_BUFFER = new ThreadLocal<ByteStringBuilder>() {
+        @Override
+        protected ByteStringBuilder initialValue() {
+            return new ByteStringBuilder(NORMALIZATION_BUFFER_INIT_SIZE);
+        }
+    };
+
     /**
      * Reads the value for an "extra" parameter. It will handle a single
      * unquoted word (which is technically illegal, but we'll allow it), a
@@ -713,25 +727,33 @@ final class SchemaUtils {
 
     static ByteString normalizeStringAttributeValue(final ByteSequence value, final boolean trim,
             final boolean foldCase) {
-        final StringBuilder buffer = new StringBuilder();
-        prepareUnicode(buffer, value, trim, foldCase);
+        final ByteStringBuilder buffer = NORMALIZATION_BUFFER.get();
+        try {
+            prepareUnicode(buffer, value, trim, foldCase);
 
-        if (buffer.length() == 0) {
-            return singleSpaceOrEmpty(value);
+            if (buffer.length() == 0) {
+                return singleSpaceOrEmpty(value);
+            }
+            return buffer.toByteString();
+        } finally {
+            buffer.clearAndTruncate(NORMALIZATION_BUFFER_MAX_SIZE, NORMALIZATION_BUFFER_INIT_SIZE);
         }
-        return ByteString.valueOfUtf8(buffer);
     }
 
     static ByteString normalizeIA5StringAttributeValue(final ByteSequence value, boolean trim, boolean foldCase)
             throws DecodeException {
-        final StringBuilder buffer = new StringBuilder();
-        prepareUnicode(buffer, value, trim, foldCase);
+        final ByteStringBuilder buffer = NORMALIZATION_BUFFER.get();
+        try {
+            prepareUnicode(buffer, value, trim, foldCase);
 
-        if (buffer.length() == 0) {
-            return singleSpaceOrEmpty(value);
+            if (buffer.length() == 0) {
+                return singleSpaceOrEmpty(value);
+            }
+            throwIfIA5IllegalCharacter(buffer, value);
+            return buffer.toByteString();
+        } finally {
+            buffer.clearAndTruncate(NORMALIZATION_BUFFER_MAX_SIZE, NORMALIZATION_BUFFER_INIT_SIZE);
         }
-        throwIfIA5IllegalCharacter(buffer, value);
-        return ByteString.valueOfUtf8(buffer);
     }
 
     static void throwDecodeException(LocalizedLogger logger, LocalizableMessage message) throws DecodeException {
@@ -740,11 +762,24 @@ final class SchemaUtils {
         throw e;
     }
 
-    private static void throwIfIA5IllegalCharacter(StringBuilder buffer, ByteSequence value) throws DecodeException {
+    private static void throwIfIA5IllegalCharacter(ByteStringBuilder buffer, ByteSequence value)
+            throws DecodeException {
+        for (int pos = buffer.length() - 1; pos >= 0; pos--) {
+            final byte b = buffer.byteAt(pos);
+            if ((b & 0x7F) != b) {
+                // Only decode the prepared value when it is known to contain
+                // non-ASCII characters.
+                throwIfIA5IllegalCharacter(buffer.toString(), value);
+                return;
+            }
+        }
+    }
+
+    private static void throwIfIA5IllegalCharacter(String prepared, ByteSequence value) throws DecodeException {
         // Replace any consecutive spaces with a single space and watch out
         // for non-ASCII characters.
-        for (int pos = buffer.length() - 1; pos > 0; pos--) {
-            final char c = buffer.charAt(pos);
+        for (int pos = prepared.length() - 1; pos > 0; pos--) {
+            final char c = prepared.charAt(pos);
             if ((c & 0x7F) != c) {
                 // This is not a valid character for an IA5 string. If strict
                 // syntax enforcement is enabled, then we'll throw an exception.
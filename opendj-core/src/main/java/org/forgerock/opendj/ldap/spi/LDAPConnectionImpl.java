@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2015 ForgeRock AS.
+ * Copyright 2015-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.ldap.spi;
 
@@ -286,6 +286,11 @@ public interface LDAPConnectionImpl extends Closeable {
      */
     void removeConnectionEventListener(ConnectionEventListener listener);
 
+    /**
+     * Resumes reading responses from this connection after a call to {@link #suspendReads()}.
+     */
+    void resumeReads();
+
     /**
      * Asynchronously searches the Directory Server using the provided search request.
      *
@@ -311,4 +316,13 @@ public interface LDAPConnectionImpl extends Closeable {
             SearchRequest request,
             IntermediateResponseHandler intermediateResponseHandler,
             SearchResultHandler entryHandler);
+
+    /**
+     * Stops reading responses from this connection until {@link #resumeReads()} is called, so that the transport
+     * exerts back pressure on the Directory Server. Responses which have already been received may still be
+     * delivered. Implementations which cannot stop reading may ignore this call.
+     *
+     * @see org.forgerock.opendj.ldap.Connection#searchPublisher(SearchRequest)
+     */
+    void suspendReads();
 }
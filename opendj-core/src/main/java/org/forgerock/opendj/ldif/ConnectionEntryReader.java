@@ -18,7 +18,6 @@ package org.forgerock.opendj.ldif;
 
 import java.util.NoSuchElementException;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.forgerock.opendj.ldap.Connection;
@@ -28,6 +27,8 @@ import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.LdapResultHandler;
 import org.forgerock.opendj.ldap.SearchResultHandler;
 import org.forgerock.opendj.ldap.SearchResultReferenceIOException;
+import org.forgerock.opendj.ldap.SearchResultSubscriber;
+import org.forgerock.opendj.ldap.SearchResultSubscription;
 import org.forgerock.opendj.ldap.requests.SearchRequest;
 import org.forgerock.opendj.ldap.responses.Response;
 import org.forgerock.opendj.ldap.responses.Responses;
@@ -51,6 +52,12 @@ import static org.forgerock.opendj.ldap.LdapException.*;
  * reference is returned then it is propagated to the caller using a
  * {@code SearchResultReferenceIOException}.
  * <p>
+ * By default, search results are buffered without limit as they are received,
+ * so that the connection is never blocked by a slow reader. Readers created
+ * with a low and high watermark bound the number of buffered entries instead,
+ * by suspending reads on the underlying connection while the reader is not
+ * keeping up.
+ * <p>
  * The following code illustrates how a {@code ConnectionEntryReader} may be
  * used:
  *
@@ -159,13 +166,122 @@ public class ConnectionEntryReader implements EntryReader {
         }
     }
 
+    /** Result handler that hands off all responses to the reader. */
+    private static final class HandoffHandler implements SearchResultHandler, LdapResultHandler<Result> {
+        private final ResponseHandoff responses;
+
+        private HandoffHandler(final ResponseHandoff responses) {
+            this.responses = responses;
+        }
+
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            responses.offer(entry);
+            return true;
+        }
+
+        @Override
+        public void handleException(final LdapException error) {
+            responses.offer(error.getResult());
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            responses.offer(reference);
+            return true;
+        }
+
+        @Override
+        public void handleResult(final Result result) {
+            responses.offer(result);
+        }
+    }
+
+    /**
+     * Subscriber that hands off all responses to the reader, and which keeps
+     * the number of entries which are either buffered or requested between the
+     * low and high watermarks.
+     */
+    private static final class HandoffSubscriber implements SearchResultSubscriber {
+        private final ResponseHandoff responses;
+        private final int lowWatermark;
+        private final int highWatermark;
+        private volatile SearchResultSubscription subscription;
+        /** Set when the reader is closed, possibly before the subscription has been received. */
+        private volatile boolean isCancelled;
+        /**
+         * The number of requested entries which have not been read yet. It is initialized by onSubscribe before any
+         * entry is requested, and then only accessed by the reader.
+         */
+        private long pendingEntries;
+
+        private HandoffSubscriber(final ResponseHandoff responses, final int lowWatermark, final int highWatermark) {
+            this.responses = responses;
+            this.lowWatermark = lowWatermark;
+            this.highWatermark = highWatermark;
+        }
+
+        @Override
+        public void onSubscribe(final SearchResultSubscription subscription) {
+            this.subscription = subscription;
+            if (isCancelled) {
+                // The reader has been closed before the search started.
+                subscription.cancel();
+                return;
+            }
+            pendingEntries = highWatermark;
+            subscription.request(highWatermark);
+        }
+
+        @Override
+        public void onNext(final SearchResultEntry entry) {
+            responses.offer(entry);
+        }
+
+        @Override
+        public void onReference(final SearchResultReference reference) {
+            responses.offer(reference);
+        }
+
+        @Override
+        public void onError(final LdapException error) {
+            responses.offer(error.getResult());
+        }
+
+        @Override
+        public void onComplete(final Result result) {
+            responses.offer(result);
+        }
+
+        private void cancel() {
+            isCancelled = true;
+            final SearchResultSubscription s = subscription;
+            if (s != null) {
+                s.cancel();
+            }
+        }
+
+        private void entryRead() {
+            if (--pendingEntries <= lowWatermark) {
+                final long n = highWatermark - pendingEntries;
+                pendingEntries = highWatermark;
+                subscription.request(n);
+            }
+        }
+    }
+
+    /** Only used when the reader was created with a {@code BlockingQueue}. */
     private final BufferHandler buffer;
+    /** Used otherwise. */
+    private final ResponseHandoff handoff;
+    /** Only used when the reader was created with watermarks. */
+    private final HandoffSubscriber subscriber;
     private final LdapPromise<Result> promise;
     private Response nextResponse;
 
     /**
      * Creates a new connection entry reader whose destination is the provided
-     * connection using an unbounded {@code LinkedBlockingQueue}.
+     * connection, and which buffers an unlimited number of search results.
      *
      * @param connection
      *            The connection to use.
@@ -175,7 +291,53 @@ public class ConnectionEntryReader implements EntryReader {
      *             If {@code connection} was {@code null}.
      */
     public ConnectionEntryReader(final Connection connection, final SearchRequest searchRequest) {
-        this(connection, searchRequest, new LinkedBlockingQueue<Response>());
+        Reject.ifNull(connection);
+        buffer = null;
+        handoff = new ResponseHandoff();
+        subscriber = null;
+        final HandoffHandler handler = new HandoffHandler(handoff);
+        promise = connection.searchAsync(searchRequest, handler).thenOnResult(handler).thenOnException(handler);
+    }
+
+    /**
+     * Creates a new connection entry reader whose destination is the provided
+     * connection, and which buffers a limited number of search result entries.
+     * <p>
+     * The search is performed using {@link Connection#searchPublisher}. Entries
+     * are requested until the number of entries which have been requested but
+     * not read yet reaches {@code highWatermark}, and more entries are requested
+     * once this number has fallen to {@code lowWatermark}. In the meantime,
+     * connections to a remote Directory Server stop reading responses, which
+     * also delays the responses to the other requests sent on the connection.
+     * Applications must therefore not wait for the completion of other
+     * requests sent on the same connection while reading the search results.
+     *
+     * @param connection
+     *            The connection to use.
+     * @param searchRequest
+     *            The search request to retrieve entries with.
+     * @param lowWatermark
+     *            The number of unread entries below which more entries are
+     *            requested.
+     * @param highWatermark
+     *            The maximum number of entries which have been requested but
+     *            not read yet.
+     * @throws IllegalArgumentException
+     *             If {@code lowWatermark} is negative, or if it is not less
+     *             than {@code highWatermark}.
+     * @throws NullPointerException
+     *             If {@code connection} was {@code null}.
+     */
+    public ConnectionEntryReader(final Connection connection, final SearchRequest searchRequest,
+        final int lowWatermark, final int highWatermark) {
+        Reject.ifNull(connection);
+        Reject.ifFalse(lowWatermark >= 0, "lowWatermark must not be negative");
+        Reject.ifFalse(lowWatermark < highWatermark, "lowWatermark must be less than highWatermark");
+        buffer = null;
+        handoff = new ResponseHandoff();
+        subscriber = new HandoffSubscriber(handoff, lowWatermark, highWatermark);
+        promise = null;
+        connection.searchPublisher(searchRequest).subscribe(subscriber);
     }
 
     /**
@@ -196,6 +358,8 @@ public class ConnectionEntryReader implements EntryReader {
         final BlockingQueue<Response> entries) {
         Reject.ifNull(connection);
         buffer = new BufferHandler(entries);
+        handoff = null;
+        subscriber = null;
         promise = connection.searchAsync(searchRequest, buffer).thenOnResult(buffer).thenOnException(buffer);
     }
 
@@ -203,7 +367,11 @@ public class ConnectionEntryReader implements EntryReader {
     @Override
     public void close() {
         // Cancel the search if it is still running.
-        promise.cancel(true);
+        if (subscriber != null) {
+            subscriber.cancel();
+        } else {
+            promise.cancel(true);
+        }
     }
 
     @Override
@@ -374,6 +542,16 @@ public class ConnectionEntryReader implements EntryReader {
     }
 
     private Response getNextResponse() throws LdapException {
+        if (nextResponse == null && handoff != null) {
+            try {
+                nextResponse = handoff.take();
+            } catch (final InterruptedException e) {
+                throw newLdapException(ResultCode.CLIENT_SIDE_USER_CANCELLED, e);
+            }
+            if (subscriber != null && nextResponse instanceof SearchResultEntry) {
+                subscriber.entryRead();
+            }
+        }
         while (nextResponse == null) {
             try {
                 nextResponse = buffer.responses.poll(50, TimeUnit.MILLISECONDS);
@@ -20,6 +20,7 @@ import static com.forgerock.opendj.ldap.CoreMessages.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -276,6 +277,35 @@ public final class EntryGenerator implements EntryReader {
         }
     }
 
+    /**
+     * Generates the next entry and writes it as LDIF to the provided stream.
+     * The output is the same as writing the entry returned by
+     * {@link #readEntry()} using an {@link LDIFEntryWriter} with the same wrap
+     * column, but the generated values are encoded directly into a reusable
+     * buffer, rather than being converted to an {@code Entry} and back. This
+     * method should be preferred when generating large amounts of LDIF.
+     * <p>
+     * The stream should be buffered, since each entry is written using a
+     * single call to {@link OutputStream#write(byte[], int, int)}.
+     *
+     * @param out
+     *            The stream to write the entry to.
+     * @param wrapColumn
+     *            The column at which long lines are wrapped, or {@code 0} if
+     *            lines should not be wrapped.
+     * @throws IOException
+     *             If the template file could not be parsed, or if an error
+     *             occurs while writing to the stream.
+     * @throws NoSuchElementException
+     *             If this generator does not contain any more entries.
+     */
+    public void writeNextEntry(final OutputStream out, final int wrapColumn) throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        templateFile.writeNextEntry(out, wrapColumn);
+    }
+
     /**
      * Check that generator is initialized, and initialize it
      * if it has not been initialized.
@@ -16,16 +16,29 @@
 package org.forgerock.opendj.ldif;
 
 import static com.forgerock.opendj.ldap.CoreMessages.*;
-
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -36,12 +49,14 @@ import org.forgerock.opendj.ldap.AVA;
 import org.forgerock.opendj.ldap.Attribute;
 import org.forgerock.opendj.ldap.AttributeDescription;
 import org.forgerock.opendj.ldap.Attributes;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
 import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.DecodeException;
 import org.forgerock.opendj.ldap.DecodeOptions;
 import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.EntryCodec;
 import org.forgerock.opendj.ldap.LinkedHashMapEntry;
 import org.forgerock.opendj.ldap.Matcher;
 import org.forgerock.opendj.ldap.Modification;
@@ -76,6 +91,522 @@ public final class LDIF {
     }
     // @formatter:on
 
+    /** A stream of elements sorted by DN, which is merged with other streams by a {@link MergedSources}. */
+    private abstract static class SortedSource<T> implements Closeable {
+        /** The position of this source in the merged sources, which orders the elements having the same DN. */
+        int index;
+        /** The normalized DN of the current element. */
+        byte[] normalizedDN;
+
+        /** Moves to the next element, and returns {@code false} if there are no more elements. */
+        abstract boolean next() throws IOException;
+
+        /** Returns the current element. */
+        abstract T get() throws IOException;
+    }
+
+    /** Decodes the elements of the sorted runs of a {@link SortedRuns}. */
+    private interface RunDecoder<T> {
+        T decode(byte[] encoded) throws IOException;
+    }
+
+    /** A source reading the entries of an entry reader, which must return them sorted by DN. */
+    private static final class EntryReaderSource extends SortedSource<Entry> {
+        private final EntryReader reader;
+        private Entry entry;
+
+        private EntryReaderSource(final EntryReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (!reader.hasNext()) {
+                return false;
+            }
+            final Entry nextEntry = reader.readEntry();
+            final byte[] nextNormalizedDN = toNormalizedByteArray(nextEntry.getName());
+            if (entry != null && DN_ORDER.compare(nextNormalizedDN, normalizedDN) < 0) {
+                throw DecodeException.error(ERR_LDIF_ENTRIES_NOT_SORTED.get(
+                        nextEntry.getName().toString(), entry.getName().toString()));
+            }
+            entry = nextEntry;
+            normalizedDN = nextNormalizedDN;
+            return true;
+        }
+
+        @Override
+        Entry get() {
+            return entry;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /** A source reading the encoded elements of a sorted run which has been kept in memory. */
+    private static final class MemoryRunSource<T> extends SortedSource<T> {
+        private final Iterator<byte[][]> iterator;
+        private final RunDecoder<T> decoder;
+        private byte[] encoded;
+
+        private MemoryRunSource(final List<byte[][]> elements, final RunDecoder<T> decoder) {
+            this.iterator = elements.iterator();
+            this.decoder = decoder;
+        }
+
+        @Override
+        boolean next() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            final byte[][] element = iterator.next();
+            normalizedDN = element[0];
+            encoded = element[1];
+            return true;
+        }
+
+        @Override
+        T get() throws IOException {
+            return decoder.decode(encoded);
+        }
+
+        @Override
+        public void close() {
+            // Nothing to do.
+        }
+    }
+
+    /** A source reading the encoded elements of a sorted run which has been written to a file by {@link #writeRun}. */
+    private static final class FileRunSource<T> extends SortedSource<T> {
+        private final DataInputStream in;
+        private final RunDecoder<T> decoder;
+        private int remaining;
+        private byte[] encoded;
+
+        private FileRunSource(final File run, final RunDecoder<T> decoder) throws IOException {
+            this.decoder = decoder;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+            try {
+                this.remaining = in.readInt();
+            } catch (final IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            normalizedDN = readBytes();
+            encoded = readBytes();
+            return true;
+        }
+
+        private byte[] readBytes() throws IOException {
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        @Override
+        T get() throws IOException {
+            return decoder.decode(encoded);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Merges sorted sources into a single stream of elements sorted by DN, using a priority queue holding the current
+     * element of each source.
+     */
+    private static class MergedSources<T> implements Closeable {
+        private final List<? extends SortedSource<T>> sources;
+        private final PriorityQueue<SortedSource<T>> queue;
+        /** Additional resources released when the sources are closed. */
+        private final Closeable input;
+        private final List<File> runs;
+        private boolean isInitialized;
+        /** The source of the last returned element, which must move to its next element before reading again. */
+        private SortedSource<T> lastSource;
+
+        private MergedSources(final List<? extends SortedSource<T>> sources, final Closeable input,
+                final List<File> runs) {
+            this.sources = sources;
+            this.input = input;
+            this.runs = runs;
+            this.queue = new PriorityQueue<>(Math.max(sources.size(), 1), new Comparator<SortedSource<T>>() {
+                @Override
+                public int compare(final SortedSource<T> s1, final SortedSource<T> s2) {
+                    final int cmp = DN_ORDER.compare(s1.normalizedDN, s2.normalizedDN);
+                    return cmp != 0 ? cmp : Integer.compare(s1.index, s2.index);
+                }
+            });
+            for (int i = 0; i < sources.size(); i++) {
+                sources.get(i).index = i;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException error = null;
+            final List<Closeable> closeables = new ArrayList<Closeable>(sources);
+            if (input != null) {
+                closeables.add(input);
+            }
+            for (final Closeable closeable : closeables) {
+                try {
+                    closeable.close();
+                } catch (final IOException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+            deleteRuns(runs);
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        public boolean hasNext() throws IOException {
+            advance();
+            return !queue.isEmpty();
+        }
+
+        T read() throws IOException {
+            advance();
+            final SortedSource<T> source = queue.poll();
+            if (source == null) {
+                throw new NoSuchElementException();
+            }
+            lastSource = source;
+            return source.get();
+        }
+
+        private void advance() throws IOException {
+            if (!isInitialized) {
+                isInitialized = true;
+                for (final SortedSource<T> source : sources) {
+                    if (source.next()) {
+                        queue.add(source);
+                    }
+                }
+            } else if (lastSource != null) {
+                if (lastSource.next()) {
+                    queue.add(lastSource);
+                }
+                lastSource = null;
+            }
+        }
+    }
+
+    /** Merges sorted sources of entries into a single stream of entries sorted by DN. */
+    private static final class MergingEntryReader extends MergedSources<Entry> implements EntryReader {
+        private MergingEntryReader(final List<? extends SortedSource<Entry>> sources, final Closeable input,
+                final List<File> runs) {
+            super(sources, input, runs);
+        }
+
+        @Override
+        public Entry readEntry() throws IOException {
+            return read();
+        }
+    }
+
+    /** A change record and its position in the change records which have been sorted. */
+    private static final class SequencedChangeRecord {
+        private final long sequenceNumber;
+        private final ChangeRecord change;
+
+        private SequencedChangeRecord(final long sequenceNumber, final ChangeRecord change) {
+            this.sequenceNumber = sequenceNumber;
+            this.change = change;
+        }
+    }
+
+    /**
+     * Merges the sorted runs of change records, and discards the change records of the subordinate entries of a
+     * subtree delete which precede it in the original order, since the subtree delete is applied before them.
+     */
+    private static final class MergingChangeRecordReader extends MergedSources<SequencedChangeRecord>
+            implements ChangeRecordReader {
+        /**
+         * The subtree deletes of the superior entries of the current change record, from the closest one, with the
+         * greatest sequence number of the subtree deletes of their superior entries.
+         */
+        private final Deque<SequencedChangeRecord> deletedSubtrees = new ArrayDeque<>();
+        private ChangeRecord nextChange;
+
+        private MergingChangeRecordReader(final List<? extends SortedSource<SequencedChangeRecord>> sources,
+                final Closeable input, final List<File> runs) {
+            super(sources, input, runs);
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            while (nextChange == null && super.hasNext()) {
+                final SequencedChangeRecord record = read();
+                final DN name = record.change.getName();
+                // Subordinate entries immediately follow their superior entry.
+                while (!deletedSubtrees.isEmpty()
+                        && !name.isSubordinateOrEqualTo(deletedSubtrees.peek().change.getName())) {
+                    deletedSubtrees.pop();
+                }
+                final SequencedChangeRecord deletedSubtree = deletedSubtrees.peek();
+                long sequenceNumber = record.sequenceNumber;
+                if (deletedSubtree != null) {
+                    // The changes of the base entry are applied in their original order.
+                    if (sequenceNumber < deletedSubtree.sequenceNumber
+                            && !name.equals(deletedSubtree.change.getName())) {
+                        // The subordinate entry was deleted along with the subtree after this change.
+                        continue;
+                    }
+                    sequenceNumber = Math.max(sequenceNumber, deletedSubtree.sequenceNumber);
+                }
+                if (record.change instanceof DeleteRequest
+                        && ((DeleteRequest) record.change).containsControl(SubtreeDeleteRequestControl.OID)) {
+                    deletedSubtrees.push(new SequencedChangeRecord(sequenceNumber, record.change));
+                }
+                nextChange = record.change;
+            }
+            return nextChange != null;
+        }
+
+        @Override
+        public ChangeRecord readChangeRecord() throws IOException {
+            if (hasNext()) {
+                final ChangeRecord change = nextChange;
+                nextChange = null;
+                return change;
+            } else {
+                throw new NoSuchElementException();
+            }
+        }
+    }
+
+    /**
+     * The sorted runs of encoded elements: the elements are kept in memory until their size reaches the buffer size,
+     * at which point they are sorted and written to a temporary file. The last run is kept in memory.
+     */
+    private static final class SortedRuns {
+        private final File tmpDirectory;
+        private final long bufferSize;
+        private final List<File> files = new ArrayList<>();
+        private List<byte[][]> elements = new ArrayList<>();
+        private long size;
+
+        private SortedRuns(final File tmpDirectory, final long bufferSize) {
+            this.tmpDirectory = tmpDirectory;
+            this.bufferSize = bufferSize;
+        }
+
+        private void add(final byte[] normalizedDN, final byte[] encoded) throws IOException {
+            elements.add(new byte[][] { normalizedDN, encoded });
+            // Account for the references and headers of the arrays.
+            size += normalizedDN.length + encoded.length + 64;
+            if (size >= bufferSize) {
+                files.add(writeRun(elements, tmpDirectory));
+                elements = new ArrayList<>();
+                size = 0;
+            }
+        }
+
+        /** Returns the sources reading the runs, in the order the elements have been added. */
+        private <T> List<SortedSource<T>> newSources(final RunDecoder<T> decoder) throws IOException {
+            final List<SortedSource<T>> sources = new ArrayList<>(files.size() + 1);
+            try {
+                for (final File file : files) {
+                    sources.add(new FileRunSource<>(file, decoder));
+                }
+            } catch (final IOException e) {
+                closeSilently(sources);
+                throw e;
+            }
+            Collections.sort(elements, DN_ORDER2);
+            sources.add(new MemoryRunSource<>(elements, decoder));
+            return sources;
+        }
+
+        private void delete() {
+            deleteRuns(files);
+        }
+    }
+
+    /**
+     * Applies changes sorted by DN to entries sorted by DN, by walking both streams at the same time: the entries
+     * without changes are returned as is, and the changes are applied to the entry having the same DN, if any.
+     */
+    private static final class SortedPatchEntryReader implements EntryReader {
+        private final EntryReader input;
+        private final ChangeRecordReader patch;
+        private final RejectedChangeRecordListener listener;
+
+        private Entry nextInputEntry;
+        private byte[] nextInputNormalizedDN;
+        private DN lastInputDN;
+        private byte[] lastInputNormalizedDN;
+
+        private ChangeRecord nextChange;
+        private byte[] nextChangeNormalizedDN;
+        private DN lastChangeDN;
+        private byte[] lastChangeNormalizedDN;
+
+        /** The base DN of the last subtree delete, whose subordinate entries must be skipped. */
+        private DN deletedSubtree;
+        private Entry nextEntry;
+
+        private SortedPatchEntryReader(final EntryReader input, final ChangeRecordReader patch,
+                final RejectedChangeRecordListener listener) {
+            this.input = input;
+            this.patch = patch;
+            this.listener = listener;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                input.close();
+            } finally {
+                patch.close();
+            }
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            while (nextEntry == null) {
+                final Entry inputEntry = peekInputEntry();
+                final ChangeRecord change = peekChange();
+                if (change == null) {
+                    if (inputEntry == null) {
+                        break;
+                    }
+                    nextEntry = takeInputEntry();
+                } else if (inputEntry != null && DN_ORDER.compare(nextInputNormalizedDN, nextChangeNormalizedDN) < 0) {
+                    nextEntry = takeInputEntry();
+                } else {
+                    // Apply all the changes targeting this DN, in the order of the patch.
+                    final byte[] normalizedDN = nextChangeNormalizedDN;
+                    Entry entry = inputEntry != null && Arrays.equals(nextInputNormalizedDN, normalizedDN)
+                            ? takeInputEntry() : null;
+                    do {
+                        entry = applyChange(entry, takeChange());
+                    } while (peekChange() != null && Arrays.equals(nextChangeNormalizedDN, normalizedDN));
+                    nextEntry = entry;
+                }
+            }
+            return nextEntry != null;
+        }
+
+        @Override
+        public Entry readEntry() throws IOException {
+            if (hasNext()) {
+                final Entry entry = nextEntry;
+                nextEntry = null;
+                return entry;
+            } else {
+                throw new NoSuchElementException();
+            }
+        }
+
+        private Entry peekInputEntry() throws IOException {
+            while (nextInputEntry == null && input.hasNext()) {
+                final Entry entry = input.readEntry();
+                if (deletedSubtree != null) {
+                    if (entry.getName().isSubordinateOrEqualTo(deletedSubtree)) {
+                        continue;
+                    }
+                    // Subordinate entries immediately follow their superior entry.
+                    deletedSubtree = null;
+                }
+                final byte[] normalizedDN = toNormalizedByteArray(entry.getName());
+                if (lastInputNormalizedDN != null && DN_ORDER.compare(normalizedDN, lastInputNormalizedDN) < 0) {
+                    throw DecodeException.error(ERR_LDIF_ENTRIES_NOT_SORTED.get(
+                            entry.getName().toString(), lastInputDN.toString()));
+                }
+                nextInputEntry = entry;
+                nextInputNormalizedDN = normalizedDN;
+            }
+            return nextInputEntry;
+        }
+
+        /** Returns the next input entry: as for {@link LDIF#patch}, the last entry wins when DNs are duplicated. */
+        private Entry takeInputEntry() throws IOException {
+            Entry entry;
+            do {
+                entry = nextInputEntry;
+                lastInputDN = entry.getName();
+                lastInputNormalizedDN = nextInputNormalizedDN;
+                nextInputEntry = null;
+            } while (peekInputEntry() != null && Arrays.equals(nextInputNormalizedDN, lastInputNormalizedDN));
+            return entry;
+        }
+
+        private ChangeRecord peekChange() throws IOException {
+            if (nextChange == null && patch.hasNext()) {
+                final ChangeRecord change = patch.readChangeRecord();
+                final byte[] normalizedDN = toNormalizedByteArray(change.getName());
+                if (lastChangeNormalizedDN != null && DN_ORDER.compare(normalizedDN, lastChangeNormalizedDN) < 0) {
+                    throw DecodeException.error(ERR_LDIF_CHANGE_RECORDS_NOT_SORTED.get(
+                            change.getName().toString(), lastChangeDN.toString()));
+                }
+                nextChange = change;
+                nextChangeNormalizedDN = normalizedDN;
+            }
+            return nextChange;
+        }
+
+        private ChangeRecord takeChange() {
+            final ChangeRecord change = nextChange;
+            lastChangeDN = change.getName();
+            lastChangeNormalizedDN = nextChangeNormalizedDN;
+            nextChange = null;
+            return change;
+        }
+
+        /** Applies a change to the entry having its DN, which is {@code null} if there is none. */
+        private Entry applyChange(final Entry entry, final ChangeRecord change) throws DecodeException {
+            final String name = change.getName().toString();
+            if (change instanceof AddRequest) {
+                final AddRequest add = (AddRequest) change;
+                return entry != null ? listener.handleDuplicateEntry(add, entry) : add;
+            } else if (change instanceof DeleteRequest) {
+                final DeleteRequest delete = (DeleteRequest) change;
+                if (entry == null) {
+                    listener.handleRejectedChangeRecord(delete, REJECTED_CHANGE_FAIL_DELETE.get(name));
+                } else if (delete.getControl(SubtreeDeleteRequestControl.DECODER, new DecodeOptions()) != null) {
+                    deletedSubtree = delete.getName();
+                    if (nextInputEntry != null && nextInputEntry.getName().isSubordinateOrEqualTo(deletedSubtree)) {
+                        nextInputEntry = null;
+                    }
+                }
+                return null;
+            } else if (change instanceof ModifyRequest) {
+                final ModifyRequest modify = (ModifyRequest) change;
+                if (entry == null) {
+                    listener.handleRejectedChangeRecord(modify, REJECTED_CHANGE_FAIL_MODIFY.get(name));
+                    return null;
+                }
+                applyModifications(entry, modify);
+                return entry;
+            } else {
+                // Renamed entries would have to be moved elsewhere in the stream.
+                listener.handleRejectedChangeRecord((ModifyDNRequest) change,
+                        REJECTED_CHANGE_FAIL_MODIFYDN_SORTED.get(name));
+                return entry;
+            }
+        }
+    }
+
     /**
      * Comparator ordering the DN ASC.
      */
@@ -351,6 +882,34 @@ public final class LDIF {
         return makeEntries(ldifLines.toArray(new String[ldifLines.size()]));
     }
 
+    /**
+     * Returns an entry reader which merges the entries of the provided entry
+     * readers into a single stream of entries sorted by DN. Each entry reader
+     * must return its entries sorted by DN, which is the order of the entries
+     * returned by {@link #sort} and {@link #patchSorted}, where each entry is
+     * followed by its subordinate entries. Entries having the same DN are
+     * returned in the order of the entry readers containing them. Closing the
+     * returned reader will cause {@code inputs} to be closed as well.
+     * <p>
+     * Only the current entry of each input is held in memory, so this method
+     * is suited for use with a very large number of entries, for example when
+     * they have been exported to several LDIF files.
+     *
+     * @param inputs
+     *            The entry readers containing the entries to be merged, each
+     *            of them sorted by DN.
+     * @return An entry reader containing the merged entries. Reading from it
+     *         will fail with a {@link DecodeException} if the entries of an
+     *         input are not sorted by DN.
+     */
+    public static EntryReader merge(final Collection<? extends EntryReader> inputs) {
+        final List<EntryReaderSource> sources = new ArrayList<>(inputs.size());
+        for (final EntryReader input : inputs) {
+            sources.add(new EntryReaderSource(input));
+        }
+        return new MergingEntryReader(sources, null, Collections.<File> emptyList());
+    }
+
     /**
      * Returns an entry reader over the provided entry collection.
      *
@@ -591,21 +1150,7 @@ public final class LDIF {
                                 }
                             } else {
                                 final Entry entry = decodeEntry(entries.get(changeNormDN));
-                                for (final Modification modification : change.getModifications()) {
-                                    final ModificationType modType =
-                                            modification.getModificationType();
-                                    if (modType.equals(ModificationType.ADD)) {
-                                        entry.addAttribute(modification.getAttribute(), null);
-                                    } else if (modType.equals(ModificationType.DELETE)) {
-                                        entry.removeAttribute(modification.getAttribute(), null);
-                                    } else if (modType.equals(ModificationType.REPLACE)) {
-                                        entry.replaceAttribute(modification.getAttribute());
-                                    } else {
-                                        System.err.println("Unable to apply \"" + modType
-                                                + "\" modification to entry \"" + change.getName()
-                                                + "\": modification type not supported");
-                                    }
-                                }
+                                applyModifications(entry, change);
                                 entries.put(changeNormDN, encodeEntry(entry)[1]);
                             }
                             return null;
@@ -642,6 +1187,45 @@ public final class LDIF {
         };
     }
 
+    /**
+     * Applies the set of changes contained in {@code patch} to the content of
+     * {@code input} and returns the result in an entry reader, both of them
+     * being sorted by DN. Closing the returned reader will cause {@code input}
+     * and {@code patch} to be closed as well.
+     * <p>
+     * Unlike {@link #patch(EntryReader, ChangeRecordReader, RejectedChangeRecordListener)},
+     * this method walks through the entries and the changes at the same time,
+     * and only holds the current entry in memory: it is therefore suited for
+     * use in cases where a very large number of entries are to be patched,
+     * and the returned entries are sorted by DN. The entries which are not
+     * sorted can be sorted using {@link #sort}. The changes targeting the same
+     * entry are applied in the order of the patch, but the changes are applied
+     * in DN order: a subtree delete is applied before the changes targeting
+     * its subordinate entries. Modify DN change records cannot be applied and
+     * are rejected.
+     * <p>
+     * <b>NOTE:</b> this method will not perform modifications required in order
+     * to maintain referential integrity. In particular, if an entry references
+     * another entry using a DN valued attribute and the referenced entry is
+     * deleted, then the DN reference will not be removed.
+     *
+     * @param input
+     *            The entry reader containing the set of entries to be patched,
+     *            sorted by DN.
+     * @param patch
+     *            The change record reader containing the set of changes to be
+     *            applied, sorted by DN.
+     * @param listener
+     *            The rejected change listener.
+     * @return An entry reader containing the patched entries. Reading from it
+     *         will fail with a {@link DecodeException} if the entries or the
+     *         changes are not sorted by DN.
+     */
+    public static EntryReader patchSorted(final EntryReader input, final ChangeRecordReader patch,
+            final RejectedChangeRecordListener listener) {
+        return new SortedPatchEntryReader(input, patch, listener);
+    }
+
     /**
      * Returns a filtered view of {@code input} containing only those entries
      * which match the search base DN, scope, and filtered defined in
@@ -788,6 +1372,170 @@ public final class LDIF {
         };
     }
 
+    /**
+     * Returns an entry reader containing the entries of {@code input} sorted by
+     * DN. Entries having the same DN are returned in the order of
+     * {@code input}. Closing the returned reader will cause {@code input} to be
+     * closed as well.
+     * <p>
+     * This method reads all the entries of {@code input} before returning. The
+     * entries are kept in memory in an encoded form until their size reaches
+     * {@code bufferSize} bytes, at which point they are sorted and written to
+     * a temporary file. The sorted files are then merged as the returned
+     * reader is read, so that this method is suited for use in cases where a
+     * very large number of entries are to be sorted. The temporary files are
+     * deleted when the returned reader is closed.
+     *
+     * @param input
+     *            The entry reader containing the entries to be sorted.
+     * @param tmpDirectory
+     *            The directory where the temporary files are created, or
+     *            {@code null} to use the default temporary-file directory.
+     * @param bufferSize
+     *            The maximum size in bytes of the encoded entries kept in
+     *            memory.
+     * @return An entry reader containing the sorted entries.
+     * @throws IOException
+     *             If an unexpected IO error occurred.
+     */
+    public static EntryReader sort(final EntryReader input, final File tmpDirectory, final long bufferSize)
+            throws IOException {
+        final SortedRuns runs = new SortedRuns(tmpDirectory, bufferSize);
+        // The runs only live as long as the returned reader, so they can use a compact schema dependent encoding.
+        final EntryCodec codec = new EntryCodec(Schema.getDefaultSchema());
+        final ByteStringBuilder builder = new ByteStringBuilder();
+        try {
+            while (input.hasNext()) {
+                final Entry entry = input.readEntry();
+                builder.clear();
+                runs.add(toNormalizedByteArray(entry.getName()), codec.encode(entry, builder).toByteArray());
+            }
+            final List<SortedSource<Entry>> sources = runs.newSources(new RunDecoder<Entry>() {
+                @Override
+                public Entry decode(final byte[] encoded) throws DecodeException {
+                    return codec.decode(ByteString.wrap(encoded));
+                }
+            });
+            return new MergingEntryReader(sources, input, runs.files);
+        } catch (final IOException | RuntimeException e) {
+            runs.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a change record reader containing the change records of
+     * {@code input} sorted by DN, which can be applied to entries sorted by DN
+     * using {@link #patchSorted}. Change records having the same DN are
+     * returned in the order of {@code input}. Closing the returned reader will
+     * cause {@code input} to be closed as well.
+     * <p>
+     * Since {@link #patchSorted} applies a subtree delete before the changes
+     * targeting its subordinate entries, the change records which target the
+     * subordinate entries of a subtree delete and precede it in {@code input}
+     * are discarded: applying the sorted change records has the same result as
+     * applying the change records of {@code input} in their original order,
+     * except for modify DN change records which cannot be applied in DN order.
+     * <p>
+     * This method reads all the change records of {@code input} before
+     * returning. As for {@link #sort(EntryReader, File, long)}, the change
+     * records are kept in memory in an encoded form until their size reaches
+     * {@code bufferSize} bytes, at which point they are sorted and written to
+     * a temporary file, which is deleted when the returned reader is closed.
+     *
+     * @param input
+     *            The change record reader containing the change records to be
+     *            sorted.
+     * @param tmpDirectory
+     *            The directory where the temporary files are created, or
+     *            {@code null} to use the default temporary-file directory.
+     * @param bufferSize
+     *            The maximum size in bytes of the encoded change records kept
+     *            in memory.
+     * @return A change record reader containing the sorted change records.
+     * @throws IOException
+     *             If an unexpected IO error occurred.
+     */
+    public static ChangeRecordReader sort(final ChangeRecordReader input, final File tmpDirectory,
+            final long bufferSize) throws IOException {
+        final SortedRuns runs = new SortedRuns(tmpDirectory, bufferSize);
+        final ByteStringBuilder builder = new ByteStringBuilder();
+        final List<String> ldifLines = new ArrayList<>();
+        final LDIFChangeRecordWriter writer = new LDIFChangeRecordWriter(ldifLines);
+        try {
+            for (long sequenceNumber = 0; input.hasNext(); sequenceNumber++) {
+                final ChangeRecord change = input.readChangeRecord();
+                // LDIF lines do not contain line separators: values containing them are base64 encoded.
+                ldifLines.clear();
+                writer.writeChangeRecord(change);
+                builder.clear();
+                builder.appendLong(sequenceNumber);
+                for (final String ldifLine : ldifLines) {
+                    builder.appendUtf8(ldifLine).appendByte('\n');
+                }
+                runs.add(toNormalizedByteArray(change.getName()), builder.toByteArray());
+            }
+            final List<SortedSource<SequencedChangeRecord>> sources =
+                    runs.newSources(new RunDecoder<SequencedChangeRecord>() {
+                        @Override
+                        public SequencedChangeRecord decode(final byte[] encoded) throws IOException {
+                            final ByteSequenceReader reader = ByteString.wrap(encoded).asReader();
+                            final long sequenceNumber = reader.readLong();
+                            final String[] lines = reader.readStringUtf8(reader.remaining()).split("\n");
+                            return new SequencedChangeRecord(sequenceNumber,
+                                    new LDIFChangeRecordReader(lines).readChangeRecord());
+                        }
+                    });
+            return new MergingChangeRecordReader(sources, input, runs.files);
+        } catch (final IOException | RuntimeException e) {
+            runs.delete();
+            throw e;
+        }
+    }
+
+    private static void applyModifications(final Entry entry, final ModifyRequest change) {
+        for (final Modification modification : change.getModifications()) {
+            final ModificationType modType = modification.getModificationType();
+            if (modType.equals(ModificationType.ADD)) {
+                entry.addAttribute(modification.getAttribute(), null);
+            } else if (modType.equals(ModificationType.DELETE)) {
+                entry.removeAttribute(modification.getAttribute(), null);
+            } else if (modType.equals(ModificationType.REPLACE)) {
+                entry.replaceAttribute(modification.getAttribute());
+            } else {
+                System.err.println("Unable to apply \"" + modType
+                        + "\" modification to entry \"" + change.getName()
+                        + "\": modification type not supported");
+            }
+        }
+    }
+
+    /** Sorts the provided encoded elements and writes them to a new temporary file. */
+    private static File writeRun(final List<byte[][]> entries, final File tmpDirectory) throws IOException {
+        Collections.sort(entries, DN_ORDER2);
+        final File run = File.createTempFile("ldif", ".run", tmpDirectory);
+        run.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)))) {
+            out.writeInt(entries.size());
+            for (final byte[][] entry : entries) {
+                out.writeInt(entry[0].length);
+                out.write(entry[0]);
+                out.writeInt(entry[1].length);
+                out.write(entry[1]);
+            }
+        } catch (final IOException e) {
+            run.delete();
+            throw e;
+        }
+        return run;
+    }
+
+    private static void deleteRuns(final List<File> runs) {
+        for (final File run : runs) {
+            run.delete();
+        }
+    }
+
     private static List<byte[][]> readEntriesAsList(final EntryReader reader) throws IOException {
         final List<byte[][]> entries = new ArrayList<>();
 
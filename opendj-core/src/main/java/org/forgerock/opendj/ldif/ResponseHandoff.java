@@ -0,0 +1,128 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.forgerock.opendj.ldap.responses.Response;
+
+/**
+ * An unbounded single producer, single consumer queue of search responses, used by {@link ConnectionEntryReader} for
+ * handing off the responses received by a transport thread to the application thread.
+ * <p>
+ * Responses are stored in a list of fixed size arrays, so that adding a response never blocks and only allocates
+ * once per chunk. The consumer takes all the responses which were available when it last looked at the queue before
+ * looking at it again, and only parks when the queue is empty. The producer only unparks the consumer when it is
+ * parked.
+ * <p>
+ * Only one thread may take responses at any time. Responses may be added concurrently by several threads: search
+ * result entries are received by a transport thread, whereas the final result may be produced by another thread, for
+ * example when the request times out or is cancelled. Producers are serialized using the intrinsic lock of this
+ * queue, which is uncontended in the common case where all the responses are received by the same thread. The
+ * consumer never acquires the lock.
+ */
+final class ResponseHandoff {
+    private static final int CHUNK_SIZE = 256;
+
+    /** A fixed size array of responses, linked to the next one once it is full. */
+    private static final class Chunk {
+        private final Response[] responses = new Response[CHUNK_SIZE];
+        private volatile Chunk next;
+    }
+
+    /** The number of responses added so far, which is updated after each response is stored. */
+    private volatile long produced;
+    /** The consumer thread while it is parked, or {@code null}. */
+    private volatile Thread waitingConsumer;
+
+    /** The following fields are only accessed by producers, while holding the lock of this queue. */
+    private Chunk tail;
+    private int tailIndex;
+    private long producerCount;
+
+    /** The following fields are only accessed by the consumer. */
+    private Chunk head;
+    private int headIndex;
+    private long consumed;
+    private long consumerLimit;
+
+    ResponseHandoff() {
+        head = tail = new Chunk();
+    }
+
+    /**
+     * Adds a response to this queue. This method only blocks while another thread is adding a response.
+     *
+     * @param response
+     *            The response to add.
+     */
+    synchronized void offer(final Response response) {
+        if (tailIndex == CHUNK_SIZE) {
+            final Chunk chunk = new Chunk();
+            tail.next = chunk;
+            tail = chunk;
+            tailIndex = 0;
+        }
+        tail.responses[tailIndex++] = response;
+        produced = ++producerCount;
+        final Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Removes and returns the oldest response of this queue, waiting until one is available.
+     *
+     * @return The oldest response.
+     * @throws InterruptedException
+     *             If the consumer thread was interrupted while waiting.
+     */
+    Response take() throws InterruptedException {
+        if (consumed == consumerLimit) {
+            consumerLimit = produced;
+            if (consumed == consumerLimit) {
+                consumerLimit = awaitResponses();
+            }
+        }
+        if (headIndex == CHUNK_SIZE) {
+            head = head.next;
+            headIndex = 0;
+        }
+        final Response response = head.responses[headIndex];
+        // Do not retain responses which have already been processed.
+        head.responses[headIndex++] = null;
+        consumed++;
+        return response;
+    }
+
+    private long awaitResponses() throws InterruptedException {
+        waitingConsumer = Thread.currentThread();
+        try {
+            long available;
+            // The producer reads waitingConsumer after updating produced, so it cannot miss a parked consumer.
+            while ((available = produced) == consumed) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                LockSupport.park(this);
+            }
+            return available;
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.forgerock.opendj.ldif;
 
 import static com.forgerock.opendj.ldap.CoreMessages.*;
+import static com.forgerock.opendj.util.StaticUtils.getBytes;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -25,6 +26,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -42,7 +44,9 @@ import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.AVA;
 import org.forgerock.opendj.ldap.Attribute;
 import org.forgerock.opendj.ldap.AttributeDescription;
+import org.forgerock.opendj.ldap.ByteSequence;
 import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.DecodeException;
 import org.forgerock.opendj.ldap.Entry;
@@ -95,6 +99,10 @@ final class TemplateFile {
     /** Default value for infinite number of entries. */
     private static final int INFINITE_ENTRIES = -1;
 
+    /** The line separator used when writing LDIF, which is the same as for {@link LDIFEntryWriter}. */
+    private static final byte[] EOL = getBytes(System.lineSeparator());
+    private static final byte[] DN_KEY = getBytes("dn");
+
     /**
      * A map of the contents of various text files used during the parsing
      * process, mapped from absolute path to the array of lines in the file.
@@ -1306,6 +1314,36 @@ final class TemplateFile {
         return entry;
     }
 
+    /** Buffer containing the LDIF representation of the entry being written, reused for each entry. */
+    private final ByteStringBuilder ldifBuffer = new ByteStringBuilder();
+    /** Buffer containing the value or the line being encoded, reused for each line. */
+    private final ByteStringBuilder ldifLineBuffer = new ByteStringBuilder();
+
+    /**
+     * Writes the next generated entry to the provided stream, using the same
+     * LDIF representation as {@link LDIFEntryWriter}, but without building an
+     * {@code Entry}.
+     *
+     * @param out
+     *            The stream to write the entry to.
+     * @param wrapColumn
+     *            The column at which long lines are wrapped, or {@code 0} if
+     *            lines should not be wrapped.
+     * @throws IOException
+     *             If an error occurs while writing to the stream.
+     * @throws NoSuchElementException
+     *             If this reader does not contain any more entries.
+     */
+    void writeNextEntry(final OutputStream out, final int wrapColumn) throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ldifBuffer.clear();
+        nextEntry.toLDIF(ldifBuffer, ldifLineBuffer, wrapColumn);
+        nextEntry = null;
+        ldifBuffer.copyTo(out);
+    }
+
     /**
      * Represents a branch that should be included in the generated results. A
      * branch may or may not have subordinate entries.
@@ -1933,6 +1971,121 @@ final class TemplateFile {
             }
             return entry;
         }
+
+        /**
+         * Appends the LDIF representation of this template entry to the
+         * provided buffer. The generated values are encoded directly, and
+         * values which are equal according to the equality matching rule of
+         * their attribute are only written once.
+         *
+         * @param ldif
+         *            The buffer to append the LDIF lines to.
+         * @param lineBuffer
+         *            A buffer used for encoding each line.
+         * @param wrapColumn
+         *            The column at which long lines are wrapped, or {@code 0}
+         *            if lines should not be wrapped.
+         */
+        void toLDIF(final ByteStringBuilder ldif, final ByteStringBuilder lineBuffer, final int wrapColumn) {
+            lineBuffer.clear().appendUtf8(getDN().toString());
+            appendLDIFLine(ldif, DN_KEY, lineBuffer, wrapColumn);
+            for (final Map.Entry<AttributeType, List<TemplateValue>> attribute : attributes.entrySet()) {
+                final List<TemplateValue> values = attribute.getValue();
+                final byte[] key = values.get(0).templateLine.ldifKey;
+                // Single valued attributes are by far the most common: only normalize values when needed.
+                final Set<ByteString> normalizedValues = values.size() > 1 ? new HashSet<ByteString>() : null;
+                for (final TemplateValue value : values) {
+                    if (normalizedValues == null
+                            || normalizedValues.add(normalizeValue(attribute.getKey(), value.templateValue))) {
+                        appendUtf8(lineBuffer.clear(), value.templateValue);
+                        appendLDIFLine(ldif, key, lineBuffer, wrapColumn);
+                    }
+                }
+            }
+            // Make sure there is a blank line after the entry.
+            ldif.appendBytes(EOL);
+        }
+
+        /**
+         * Normalizes the value using the equality matching rule of the
+         * attribute, so that duplicate values are detected in the same way as
+         * {@link LinkedAttribute} does.
+         */
+        private static ByteString normalizeValue(final AttributeType attributeType, final CharSequence value) {
+            final ByteString bytes = ByteString.valueOfUtf8(value);
+            try {
+                return attributeType.getEqualityMatchingRule().normalizeAttributeValue(bytes);
+            } catch (final DecodeException e) {
+                // Fall back to the provided value.
+                return bytes;
+            }
+        }
+
+        /** Appends the UTF-8 encoding of the provided characters, without creating a string if they are ASCII. */
+        private static void appendUtf8(final ByteStringBuilder builder, final CharSequence chars) {
+            final int length = chars.length();
+            for (int i = 0; i < length; i++) {
+                final char c = chars.charAt(i);
+                if (c >= 0x80) {
+                    builder.appendUtf8(chars.subSequence(i, length).toString());
+                    return;
+                }
+                builder.appendByte(c);
+            }
+        }
+
+        /**
+         * Appends a line made of the provided key and value, using the same
+         * base64 encoding and wrapping rules as {@link AbstractLDIFWriter}. The
+         * content of the value buffer is lost.
+         */
+        private static void appendLDIFLine(final ByteStringBuilder ldif, final byte[] key,
+                final ByteStringBuilder value, final int wrapColumn) {
+            final int lineStart = ldif.length();
+            ldif.appendBytes(key);
+            if (value.length() == 0) {
+                ldif.appendByte(':').appendByte(' ');
+            } else if (needsBase64Encoding(value)) {
+                ldif.appendByte(':').appendByte(':').appendByte(' ');
+                ldif.appendUtf8(value.toBase64String());
+            } else {
+                ldif.appendByte(':').appendByte(' ');
+                ldif.appendBytes(value);
+            }
+
+            // Lines only contain ASCII characters at this point, so columns are bytes.
+            final int lineEnd = ldif.length();
+            if (wrapColumn > 1 && lineEnd - lineStart > wrapColumn) {
+                final ByteStringBuilder remainder = value.clear().appendBytes(
+                        ldif.subSequence(lineStart + wrapColumn, lineEnd));
+                ldif.setLength(lineStart + wrapColumn);
+                for (int pos = 0; pos < remainder.length(); pos += wrapColumn - 1) {
+                    ldif.appendBytes(EOL).appendByte(' ');
+                    ldif.appendBytes(remainder.subSequence(pos, Math.min(pos + wrapColumn - 1, remainder.length())));
+                }
+            }
+            ldif.appendBytes(EOL);
+        }
+
+        private static boolean needsBase64Encoding(final ByteSequence bytes) {
+            switch (bytes.byteAt(0)) {
+            case 0x20: // Space
+            case 0x3A: // Colon
+            case 0x3C: // Less-than
+                return true;
+            }
+            final int length = bytes.length();
+            if (length > 1 && bytes.byteAt(length - 1) == 0x20) {
+                return true;
+            }
+            for (int i = 0; i < length; i++) {
+                final byte b = bytes.byteAt(i);
+                if (b < 0 || b == 0x00 || b == 0x0A || b == 0x0D) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
     /**
@@ -1954,6 +2107,9 @@ final class TemplateFile {
         /** The set of tags for this template line. */
         private final List<TemplateTag> tags;
 
+        /** The UTF-8 encoded attribute description, as written in LDIF. */
+        private final byte[] ldifKey;
+
         /** Whether this line corresponds to an URL value or not. */
         @SuppressWarnings("unused")
         private final boolean isURL;
@@ -1996,6 +2152,7 @@ final class TemplateFile {
         TemplateLine(final AttributeType attributeType, final int lineNumber, final List<TemplateTag> tags,
                 final boolean isURL, final boolean isBase64) {
             this.attributeType = attributeType;
+            this.ldifKey = getBytes(AttributeDescription.create(attributeType).toString());
             this.lineNumber = lineNumber;
             this.tags = tags;
             this.isURL = isURL;
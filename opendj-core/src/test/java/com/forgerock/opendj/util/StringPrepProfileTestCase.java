@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2010 Sun Microsystems, Inc.
- * Portions Copyright 2015 ForgeRock AS.
+ * Portions Copyright 2015-2016 ForgeRock AS.
  */
 
 package com.forgerock.opendj.util;
@@ -21,6 +21,7 @@ import static org.testng.Assert.assertEquals;
 
 import org.forgerock.opendj.ldap.Assertion;
 import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.forgerock.opendj.ldap.ConditionResult;
 import org.forgerock.opendj.ldap.schema.MatchingRule;
 import org.forgerock.opendj.ldap.schema.Schema;
@@ -65,6 +66,37 @@ public class StringPrepProfileTestCase extends UtilTestCase {
         assertEquals(result, liveResult);
     }
 
+    /**
+     * Tests that preparing a value directly into a byte string builder yields
+     * the UTF-8 encoding of the character based preparation.
+     */
+    @Test(dataProvider = "preparationData")
+    public void testPrepareUnicodeToByteStringBuilder(final String value, final boolean trim,
+            final boolean foldCase) throws Exception {
+        final StringBuilder expected = new StringBuilder();
+        StringPrepProfile.prepareUnicode(expected, ByteString.valueOfUtf8(value), trim, foldCase);
+
+        final ByteStringBuilder builder = new ByteStringBuilder().appendUtf8("prefix");
+        StringPrepProfile.prepareUnicode(builder, ByteString.valueOfUtf8(value), trim, foldCase);
+        assertEquals(builder.toString(), "prefix" + expected);
+    }
+
+    @DataProvider(name = "preparationData")
+    public Object[][] createPreparationData() {
+        final String[] values = { "", " ", "   ", "12345678", "ABC45678", "\u0020foo\u0020bar\u0020\u0020",
+            "foo\u000Bbar", "test\u00AD\u200D", "foo\u070Fbar", "foo\u0149bar", "foo\u017BBAR ",
+            "\u00C9t\u00E9", "e\u0301t\u00E9  ", "\uFB01le", "\u00A0foo\u00A0", "\uAC00", "a\u0323\u0307" };
+        final Object[][] data = new Object[values.length * 4][];
+        int i = 0;
+        for (final String value : values) {
+            data[i++] = new Object[] { value, true, true };
+            data[i++] = new Object[] { value, true, false };
+            data[i++] = new Object[] { value, false, true };
+            data[i++] = new Object[] { value, false, false };
+        }
+        return data;
+    }
+
     /** Generates data for case exact matching rules. */
     @DataProvider(name = "exactRuleData")
     public Object[][] createExactRuleData() {
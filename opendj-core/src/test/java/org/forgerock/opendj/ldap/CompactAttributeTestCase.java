@@ -0,0 +1,202 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/** Tests {@code CompactAttribute}. */
+@SuppressWarnings("javadoc")
+public final class CompactAttributeTestCase extends SdkTestCase {
+    private static final AttributeDescription UNIQUE_MEMBER = AttributeDescription.valueOf("uniqueMember");
+
+    @Test
+    public void smallAttributesShouldPreserveInsertionOrder() {
+        final Attribute attribute = new CompactAttribute(UNIQUE_MEMBER, 3);
+        attribute.add("uid=c,dc=example,dc=com", "uid=a,dc=example,dc=com", "uid=b,dc=example,dc=com");
+        assertThat(attribute).containsExactly(value("c"), value("a"), value("b"));
+        assertThat(CompactAttribute.isCompact(attribute)).isFalse();
+    }
+
+    @Test
+    public void largeAttributesShouldBeSortedByNormalizedValue() {
+        final Attribute attribute = new CompactAttribute(UNIQUE_MEMBER, 3);
+        attribute.add("UID=d,dc=example,dc=com", "uid=c,dc=example,dc=com", "uid=a,dc=example,dc=com",
+                "uid=b,dc=example,dc=com");
+        assertThat(CompactAttribute.isCompact(attribute)).isTrue();
+        assertThat(attribute.size()).isEqualTo(4);
+        assertThat(attribute).containsExactly(value("a"), value("b"), value("c"),
+                ByteString.valueOfUtf8("UID=d,dc=example,dc=com"));
+        assertThat(attribute.firstValue()).isEqualTo(value("a"));
+    }
+
+    @Test
+    public void largeAttributesShouldUseMatchingRules() {
+        final Attribute attribute = newLargeAttribute(1000);
+        assertThat(attribute.size()).isEqualTo(1000);
+        assertThat(attribute.contains("UID=user42, DC=example, DC=com")).isTrue();
+        assertThat(attribute.contains("uid=user1000,dc=example,dc=com")).isFalse();
+        assertThat(attribute.add("UID=user42, DC=example, DC=com")).isFalse();
+        assertThat(attribute.remove("UID=user42, DC=example, DC=com")).isTrue();
+        assertThat(attribute.remove("uid=user42,dc=example,dc=com")).isFalse();
+        assertThat(attribute.contains("uid=user42,dc=example,dc=com")).isFalse();
+        assertThat(attribute.size()).isEqualTo(999);
+    }
+
+    @Test
+    public void addedAndRemovedValuesShouldBeMerged() {
+        final Attribute attribute = newLargeAttribute(100);
+        for (int i = 0; i < 100; i += 2) {
+            assertThat(attribute.remove(member(i))).isTrue();
+        }
+        for (int i = 100; i < 300; i++) {
+            assertThat(attribute.add(member(i))).isTrue();
+        }
+        for (int i = 0; i < 300; i++) {
+            assertThat(attribute.contains(member(i))).isEqualTo(i >= 100 || i % 2 == 1);
+        }
+        assertThat(attribute.size()).isEqualTo(250);
+        assertThat(attribute).hasSize(250);
+
+        // Every value must be returned once, in order.
+        ByteString previous = null;
+        for (final ByteString value : attribute) {
+            final ByteString normalizedValue = AbstractAttribute.normalizeValue(attribute, value);
+            if (previous != null) {
+                assertThat(previous.compareTo(normalizedValue)).isLessThan(0);
+            }
+            previous = normalizedValue;
+        }
+    }
+
+    @Test
+    public void iteratorShouldRemoveValues() {
+        final Attribute attribute = newLargeAttribute(100);
+        attribute.add(member(100));
+        final Iterator<ByteString> iterator = attribute.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        assertThat(attribute.size()).isEqualTo(0);
+        assertThat(attribute.isEmpty()).isTrue();
+        assertThat(attribute.iterator().hasNext()).isFalse();
+    }
+
+    @Test
+    public void iteratorShouldRemoveTheLastReturnedPendingValue() {
+        final Attribute attribute = newLargeAttribute(100);
+        for (int i = 100; i < 105; i++) {
+            attribute.add(member(i));
+        }
+        final List<ByteString> removed = asList(ByteString.valueOfUtf8(member(100)),
+                ByteString.valueOfUtf8(member(102)), ByteString.valueOfUtf8(member(104)));
+        final Iterator<ByteString> iterator = attribute.iterator();
+        while (iterator.hasNext()) {
+            if (removed.contains(iterator.next())) {
+                iterator.remove();
+            }
+        }
+        assertThat(attribute.size()).isEqualTo(102);
+        assertThat(attribute.contains(member(100))).isFalse();
+        assertThat(attribute.contains(member(101))).isTrue();
+        assertThat(attribute.contains(member(102))).isFalse();
+        assertThat(attribute.contains(member(103))).isTrue();
+        assertThat(attribute.contains(member(104))).isFalse();
+        assertThat(attribute.contains(member(99))).isTrue();
+        assertThat(attribute).doesNotContainAnyElementsOf(removed);
+    }
+
+    @Test
+    public void copiesShouldBeIndependent() {
+        final Attribute attribute = newLargeAttribute(100);
+        final Attribute copy = new CompactAttribute(attribute);
+        assertThat(copy).isEqualTo(attribute);
+        assertThat(copy.remove(member(1))).isTrue();
+        assertThat(attribute.contains(member(1))).isTrue();
+        assertThat(copy.add(member(100))).isTrue();
+        assertThat(attribute.contains(member(100))).isFalse();
+    }
+
+    @Test
+    public void clearShouldRevertToTheLinkedRepresentation() {
+        final Attribute attribute = newLargeAttribute(100);
+        attribute.clear();
+        assertThat(CompactAttribute.isCompact(attribute)).isFalse();
+        assertThat(attribute.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void diffEntriesShouldMergeLargeAttributes() {
+        final Entry from = new LinkedHashMapEntry("cn=group,dc=example,dc=com");
+        final Attribute fromMembers = newLargeAttribute(1000);
+        from.addAttribute(fromMembers);
+        final Entry to = new LinkedHashMapEntry("cn=group,dc=example,dc=com");
+        final Attribute toMembers = new CompactAttribute(fromMembers);
+        toMembers.remove(member(10));
+        toMembers.add(member(1000));
+        to.addAttribute(toMembers);
+
+        final List<String> changes = new ArrayList<>();
+        for (final Modification modification : Entries.diffEntries(from, to).getModifications()) {
+            changes.add(modification.getModificationType() + " " + modification.getAttribute());
+        }
+        assertThat(changes).containsExactly(
+                "delete \"uniqueMember\":[\"uid=user10,dc=example,dc=com\"]",
+                "add \"uniqueMember\":[\"uid=user1000,dc=example,dc=com\"]");
+    }
+
+    @Test
+    public void diffEntriesShouldNotModifyTheAttributes() {
+        final Entry from = new LinkedHashMapEntry("cn=group,dc=example,dc=com");
+        final Attribute fromMembers = newLargeAttribute(100);
+        fromMembers.remove(member(10));
+        fromMembers.add(member(100));
+        from.addAttribute(fromMembers);
+        final Entry to = new LinkedHashMapEntry("cn=group,dc=example,dc=com");
+        to.addAttribute(newLargeAttribute(100));
+
+        final Iterator<ByteString> iterator = fromMembers.iterator();
+        iterator.next();
+        assertThat(Entries.diffEntries(from, to).getModifications()).hasSize(2);
+        // Iterating over the values must not fail with a ConcurrentModificationException.
+        iterator.next();
+        iterator.remove();
+        assertThat(fromMembers.size()).isEqualTo(99);
+    }
+
+    private static Attribute newLargeAttribute(final int size) {
+        final Attribute attribute = new CompactAttribute(UNIQUE_MEMBER, 10);
+        for (int i = 0; i < size; i++) {
+            attribute.add(member(i));
+        }
+        return attribute;
+    }
+
+    private static String member(final int i) {
+        return "uid=user" + i + ",dc=example,dc=com";
+    }
+
+    private static ByteString value(final String uid) {
+        return ByteString.valueOfUtf8("uid=" + uid + ",dc=example,dc=com");
+    }
+}
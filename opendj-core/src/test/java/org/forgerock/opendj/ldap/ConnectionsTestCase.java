@@ -138,6 +138,27 @@ public class ConnectionsTestCase extends SdkTestCase {
         assertThat(index(f, genericExtendedRequest)).isBetween(0, 1);
     }
 
+    @Test
+    public void shardedRequestLoadBalancerRoutesEntriesAccordingToTheirShardKey() {
+        final DN shardBaseDN = DN.valueOf("ou=people,dc=example,dc=com");
+        final Function<Request, Integer, NeverThrowsException> f =
+                newShardedRequestLoadBalancerFunction(asList(mock(ConnectionFactory.class),
+                                                             mock(ConnectionFactory.class),
+                                                             mock(ConnectionFactory.class)),
+                                                      shardBaseDN);
+
+        final AddRequest addRequest = mock(AddRequest.class);
+        for (int i = 0; i < 10; i++) {
+            final DN shardKey = shardBaseDN.child("ou", "shard" + i);
+            when(addRequest.getName()).thenReturn(shardKey,
+                                                  shardKey.child("uid", "user1"),
+                                                  shardKey.child("uid", "user2").child("cn", "child"));
+            final int shardKeyIndex = index(f, addRequest);
+            assertThat(index(f, addRequest)).isEqualTo(shardKeyIndex);
+            assertThat(index(f, addRequest)).isEqualTo(shardKeyIndex);
+        }
+    }
+
     private void assertRequestsAreRoutedConsistently(final Function<Request, Integer, NeverThrowsException> f,
                                                      final Request r,
                                                      final int firstExpectedIndex,
@@ -585,6 +585,30 @@ public class DNTestCase extends SdkTestCase {
         assertEquals(rc, result, "Comparison for <" + first + "> and <" + second + ">.");
     }
 
+    @Test(dataProvider = "createDNComparisonData")
+    public void compareToShouldBeConsistentWithNormalizedByteString(final String first, final String second,
+            final int result) {
+        final DN dn1 = DN.valueOf(first);
+        final DN dn2 = DN.valueOf(second);
+        assertThat(signum(dn1.compareTo(dn2)))
+                .isEqualTo(signum(dn1.toNormalizedByteString().compareTo(dn2.toNormalizedByteString())));
+    }
+
+    @Test
+    public void dnsSharingAncestorsShouldBeComparedRdnByRdn() {
+        final DN base = DN.valueOf("ou=people,dc=example,dc=com");
+        final DN child = base.child("uid", "bjensen");
+        final DN sameChild = DN.valueOf("UID=bjensen,ou=People,dc=example,dc=com");
+
+        assertThat(child).isEqualTo(sameChild);
+        assertThat(child.hashCode()).isEqualTo(sameChild.hashCode());
+        assertThat(child.compareTo(sameChild)).isEqualTo(0);
+        assertThat(base.compareTo(child)).isLessThan(0);
+        assertThat(child.compareTo(base.child(RDN.maxValue()))).isLessThan(0);
+        assertThat(child.compareTo(base.child(RDN.minValue()))).isGreaterThan(0);
+        assertThat(child.child("cn", "x").compareTo(base.child("uid", "scarter"))).isLessThan(0);
+    }
+
     /**
      * Test DN equality
      *
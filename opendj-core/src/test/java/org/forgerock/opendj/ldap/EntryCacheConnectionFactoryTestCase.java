@@ -0,0 +1,179 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.opendj.ldap.Connections.ENTRY_CACHE_MAX_SIZE;
+import static org.forgerock.opendj.ldap.Connections.newEntryCacheConnectionFactory;
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.responses.Responses.newSearchResultEntry;
+import static org.forgerock.opendj.ldap.spi.LdapPromiseImpl.newLdapPromiseImpl;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
+import static org.forgerock.util.Options.defaultOptions;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.forgerock.opendj.ldap.controls.EntryChangeNotificationResponseControl;
+import org.forgerock.opendj.ldap.controls.PersistentSearchChangeType;
+import org.forgerock.opendj.ldap.controls.ProxiedAuthV2RequestControl;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.spi.LdapPromiseImpl;
+import org.forgerock.util.promise.Promises;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class EntryCacheConnectionFactoryTestCase extends SdkTestCase {
+    private static final DN BASE_DN = DN.valueOf("ou=groups,dc=example,dc=com");
+    private static final DN GROUP_DN = DN.valueOf("cn=admins,ou=groups,dc=example,dc=com");
+
+    private ConnectionFactory factory;
+    private Connection connection;
+    private Connection monitorConnection;
+    private SearchResultHandler changeHandler;
+    private LdapPromiseImpl<Result> persistentSearch;
+    private ConnectionFactory cachingFactory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        factory = mock(ConnectionFactory.class);
+        connection = mock(Connection.class);
+        monitorConnection = mock(Connection.class);
+        when(factory.getConnection()).thenReturn(connection);
+        when(factory.getConnectionAsync()).thenReturn(
+                Promises.<Connection, LdapException>newResultPromise(monitorConnection));
+
+        final SearchResultEntry group = newSearchResultEntry(GROUP_DN)
+                .addAttribute("objectClass", "top", "groupOfNames")
+                .addAttribute("cn", "admins")
+                .addAttribute("member", "uid=bjensen,ou=people,dc=example,dc=com");
+        when(connection.searchSingleEntryAsync(any(SearchRequest.class)))
+                .thenReturn(newSuccessfulLdapPromise(group));
+        when(monitorConnection.searchAsync(any(SearchRequest.class), any(SearchResultHandler.class)))
+                .thenAnswer(new Answer<LdapPromise<Result>>() {
+                    @Override
+                    public LdapPromise<Result> answer(final InvocationOnMock invocation) {
+                        changeHandler = (SearchResultHandler) invocation.getArguments()[1];
+                        persistentSearch = newLdapPromiseImpl();
+                        return persistentSearch;
+                    }
+                });
+
+        cachingFactory = newEntryCacheConnectionFactory(factory, BASE_DN, defaultOptions().set(ENTRY_CACHE_MAX_SIZE, 2));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        cachingFactory.close();
+    }
+
+    @Test
+    public void entriesShouldBeReadOnce() throws Exception {
+        try (Connection cachingConnection = cachingFactory.getConnection()) {
+            assertThat(cachingConnection.readEntry(GROUP_DN).getAttribute("member")).isNotNull();
+            final SearchResultEntry entry = cachingConnection.readEntry(GROUP_DN, "cn");
+            assertThat(entry.getAttribute("cn").firstValueAsString()).isEqualTo("admins");
+            assertThat(entry.getAttribute("member")).isNull();
+            assertThat(cachingConnection.compare(GROUP_DN.toString(), "cn", "admins").matched()).isTrue();
+            assertThat(cachingConnection.compare(GROUP_DN.toString(), "cn", "users").matched()).isFalse();
+        }
+        verify(connection, times(1)).searchSingleEntryAsync(any(SearchRequest.class));
+    }
+
+    @Test(expectedExceptions = EntryNotFoundException.class)
+    public void nonMatchingEntriesShouldNotBeReturned() throws Exception {
+        try (Connection cachingConnection = cachingFactory.getConnection()) {
+            cachingConnection.searchSingleEntry(
+                    Requests.newSearchRequest(GROUP_DN.toString(), SearchScope.BASE_OBJECT, "(cn=users)"));
+        }
+    }
+
+    @Test
+    public void changeNotificationsShouldInvalidateEntries() throws Exception {
+        try (Connection cachingConnection = cachingFactory.getConnection()) {
+            cachingConnection.readEntry(GROUP_DN);
+            changeHandler.handleEntry(newSearchResultEntry(GROUP_DN).addControl(
+                    EntryChangeNotificationResponseControl.newControl(PersistentSearchChangeType.MODIFY, (DN) null,
+                                                                      -1)));
+            cachingConnection.readEntry(GROUP_DN);
+            cachingConnection.readEntry(GROUP_DN);
+        }
+        verify(connection, times(2)).searchSingleEntryAsync(any(SearchRequest.class));
+    }
+
+    @Test
+    public void renamedSubtreesShouldBeInvalidated() throws Exception {
+        try (Connection cachingConnection = cachingFactory.getConnection()) {
+            cachingConnection.readEntry(GROUP_DN);
+            changeHandler.handleEntry(newSearchResultEntry("ou=renamed,dc=example,dc=com").addControl(
+                    EntryChangeNotificationResponseControl.newControl(PersistentSearchChangeType.MODIFY_DN,
+                                                                      BASE_DN, -1)));
+            cachingConnection.readEntry(GROUP_DN);
+        }
+        verify(connection, times(2)).searchSingleEntryAsync(any(SearchRequest.class));
+    }
+
+    @Test
+    public void persistentSearchFailureShouldInvalidateTheCache() throws Exception {
+        try (Connection cachingConnection = cachingFactory.getConnection()) {
+            cachingConnection.readEntry(GROUP_DN);
+            persistentSearch.handleException(newLdapException(ResultCode.CLIENT_SIDE_SERVER_DOWN));
+            cachingConnection.readEntry(GROUP_DN);
+            cachingConnection.readEntry(GROUP_DN);
+        }
+        verify(connection, times(2)).searchSingleEntryAsync(any(SearchRequest.class));
+        verify(monitorConnection).close();
+        // The persistent search must have been restarted.
+        verify(factory, times(2)).getConnectionAsync();
+    }
+
+    @Test
+    public void requestsWithControlsShouldNotUseTheCache() throws Exception {
+        final SearchRequest request = Requests.newSingleEntrySearchRequest(GROUP_DN, SearchScope.BASE_OBJECT,
+                Filter.objectClassPresent()).addControl(ProxiedAuthV2RequestControl.newControl("dn:"));
+        try (Connection cachingConnection = cachingFactory.getConnection()) {
+            cachingConnection.searchSingleEntry(request);
+        }
+        verify(connection).searchSingleEntry(request);
+    }
+
+    @Test
+    public void requestsOutsideTheBaseDNShouldNotUseTheCache() throws Exception {
+        final DN userDN = DN.valueOf("uid=bjensen,ou=people,dc=example,dc=com");
+        try (Connection cachingConnection = cachingFactory.getConnection()) {
+            cachingConnection.readEntry(userDN);
+        }
+        verify(connection).searchSingleEntry(any(SearchRequest.class));
+    }
+
+    @Test
+    public void reauthenticatedConnectionsShouldNotUseTheCache() throws Exception {
+        try (Connection cachingConnection = cachingFactory.getConnection()) {
+            cachingConnection.bind("uid=bjensen,ou=people,dc=example,dc=com", "password".toCharArray());
+            cachingConnection.readEntry(GROUP_DN);
+        }
+        verify(connection).searchSingleEntry(any(SearchRequest.class));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.opendj.io.ASN1;
+import org.forgerock.opendj.io.LDAP;
+import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.opendj.ldap.schema.SchemaBuilder;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/** Tests {@code EntryCodec}. */
+@SuppressWarnings("javadoc")
+public final class EntryCodecTestCase extends SdkTestCase {
+    @DataProvider
+    public Object[][] codecs() {
+        return new Object[][] {
+            { new EntryCodec(Schema.getDefaultSchema()) },
+            { new EntryCodec(Schema.getDefaultSchema(), true) } };
+    }
+
+    @Test(dataProvider = "codecs")
+    public void encodedEntriesShouldBeDecodedIdentically(final EntryCodec codec) throws Exception {
+        final Entry entry = newEntry();
+        final Entry decodedEntry = codec.decode(codec.encode(entry, new ByteStringBuilder()).toByteString());
+        assertThat((Object) decodedEntry).isEqualTo(entry);
+        assertThat(decodedEntry.getName().toString()).isEqualTo("uid=bjensen,ou=People,dc=example,dc=com");
+        assertThat(attributeDescriptions(decodedEntry)).containsExactly("objectClass", "uid", "CN", "sn;lang-fr",
+                "description", "unknown", "jpegPhoto");
+        assertThat(decodedEntry.getAttribute("cn")).containsExactly(ByteString.valueOfUtf8("Barbara Jensen"),
+                ByteString.valueOfUtf8("Babs Jensen"));
+    }
+
+    @Test(dataProvider = "codecs")
+    public void decodedAttributesShouldUseMatchingRules(final EntryCodec codec) throws Exception {
+        final Entry decodedEntry = codec.decode(codec.encode(newEntry(), new ByteStringBuilder()).toByteString());
+        final Attribute cn = decodedEntry.getAttribute("cn");
+        assertThat(cn.contains("babs  JENSEN")).isTrue();
+        assertThat(cn.add("BARBARA JENSEN")).isFalse();
+        assertThat(cn.remove("barbara jensen")).isTrue();
+        assertThat(cn.add("Barbara Jensen")).isTrue();
+        assertThat(cn.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void severalEntriesShouldBeDecodedFromTheSameBuffer() throws Exception {
+        final EntryCodec codec = new EntryCodec(Schema.getDefaultSchema());
+        final ByteStringBuilder builder = new ByteStringBuilder();
+        final List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final Entry entry = new LinkedHashMapEntry("uid=user." + i + ",dc=example,dc=com")
+                    .addAttribute("objectClass", "top", "person")
+                    .addAttribute("uid", "user." + i);
+            entries.add(entry);
+            codec.encode(entry, builder);
+        }
+
+        final ByteSequenceReader reader = builder.toByteString().asReader();
+        for (final Entry entry : entries) {
+            assertThat((Object) codec.decode(reader)).isEqualTo(entry);
+        }
+        assertThat(reader.remaining()).isEqualTo(0);
+    }
+
+    @Test
+    public void encodedEntriesShouldBeSmallerThanLDAPEntries() throws Exception {
+        final Entry entry = newEntry();
+        final ByteStringBuilder ldapEntry = new ByteStringBuilder();
+        LDAP.writeEntry(ASN1.getWriter(ldapEntry), entry);
+        final ByteStringBuilder encodedEntry = new EntryCodec(Schema.getDefaultSchema()).encode(entry,
+                new ByteStringBuilder());
+        assertThat(encodedEntry.length()).isLessThan(ldapEntry.length());
+    }
+
+    @Test(expectedExceptions = DecodeException.class)
+    public void entriesEncodedWithAnotherSchemaShouldBeRejected() throws Exception {
+        final Schema schema = new SchemaBuilder(Schema.getCoreSchema())
+                .addAttributeType("( 9.9.9.9 NAME 'zzzCustom' SUP name )", false)
+                .toSchema();
+        final Entry entry = new LinkedHashMapEntry(DN.valueOf("cn=test", schema));
+        entry.addAttribute(new LinkedAttribute(AttributeDescription.valueOf("zzzCustom", schema), "value"));
+        final ByteString encodedEntry = new EntryCodec(schema).encode(entry, new ByteStringBuilder()).toByteString();
+        new EntryCodec(Schema.getCoreSchema()).decode(encodedEntry);
+    }
+
+    @Test
+    public void schemaFingerprintsShouldDifferAfterInsertingAnAttributeType() throws Exception {
+        // The attribute types whose OID follows the inserted one would be decoded as the attribute type preceding
+        // them: persisted formats compare the fingerprints before decoding entries.
+        final Schema schema = new SchemaBuilder(Schema.getCoreSchema())
+                .addAttributeType("( 2.5.4.3.1 NAME 'inserted' SUP name )", false)
+                .toSchema();
+        final int fingerprint = new EntryCodec(Schema.getCoreSchema()).getSchemaFingerprint();
+        assertThat(new EntryCodec(schema).getSchemaFingerprint()).isNotEqualTo(fingerprint);
+        assertThat(new EntryCodec(Schema.getCoreSchema(), true).getSchemaFingerprint()).isEqualTo(fingerprint);
+    }
+
+    @Test
+    public void encodedEntriesShouldOnlyHaveAFlagsByteAsHeader() throws Exception {
+        final EntryCodec codec = new EntryCodec(Schema.getCoreSchema());
+        final ByteString encodedEntry = codec.encode(newEntry(), new ByteStringBuilder()).toByteString();
+        // The flags byte is immediately followed by the length prefixed DN of the entry.
+        final String dn = newEntry().getName().toString();
+        final ByteStringBuilder expectedPrefix =
+                new ByteStringBuilder().appendByte(0).appendCompactUnsigned(dn.length()).appendUtf8(dn);
+        assertThat(encodedEntry.startsWith(expectedPrefix)).isTrue();
+    }
+
+    @Test(expectedExceptions = DecodeException.class)
+    public void truncatedEntriesShouldBeRejected() throws Exception {
+        final EntryCodec codec = new EntryCodec(Schema.getDefaultSchema());
+        final ByteString encodedEntry = codec.encode(newEntry(), new ByteStringBuilder()).toByteString();
+        codec.decode(encodedEntry.subSequence(0, encodedEntry.length() - 10));
+    }
+
+    private static Entry newEntry() {
+        return new LinkedHashMapEntry(
+            "dn: uid=bjensen,ou=People,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "uid: bjensen",
+            "CN: Barbara Jensen",
+            "CN: Babs Jensen",
+            "sn;lang-fr: Jensen",
+            "description: ",
+            "unknown: not in the schema",
+            "jpegPhoto:: AAECAwQF");
+    }
+
+    private static List<String> attributeDescriptions(final Entry entry) {
+        final List<String> attributeDescriptions = new ArrayList<>();
+        for (final Attribute attribute : entry.getAllAttributes()) {
+            attributeDescriptions.add(attribute.getAttributeDescriptionAsString());
+        }
+        return attributeDescriptions;
+    }
+}
@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2010 Sun Microsystems, Inc.
- * Portions copyright 2011-2015 ForgeRock AS.
+ * Portions copyright 2011-2016 ForgeRock AS.
  */
 
 package org.forgerock.opendj.ldap;
@@ -326,4 +326,30 @@ public class FilterTestCase extends SdkTestCase {
     public void testEscapeAssertionValue(Object unescaped, String expected) throws Exception {
         assertEquals(Filter.escapeAssertionValue(unescaped), expected);
     }
+
+    @DataProvider
+    public Object[][] getOptimizedMatcherFilters() {
+        // @formatter:off
+        return new Object[][] {
+            { "(&(objectClass=*)(|(cn=test)(cn=test))(&(sn=test)))", ConditionResult.TRUE },
+            { "(&(objectClass=*)(|(cn=test)(cn=test))(&(sn=other)))", ConditionResult.FALSE },
+            { "(&(cn=*te*)(cn=test)(&(&(sn=test))(sn=test)))", ConditionResult.TRUE },
+            { "(|(description=*te*)(cn=other)(|(|(sn=other))(sn=test)))", ConditionResult.TRUE },
+            { "(|(description=*te*)(cn=other)(|(|(sn=other))(sn=other)))", ConditionResult.FALSE },
+            { "(&(cn=test)(|))", ConditionResult.FALSE },
+            { "(|(cn=other)(&))", ConditionResult.TRUE },
+            { "(&(cn=test)(!(objectClass=*)))", ConditionResult.FALSE },
+            { "(&(cn=test)(!(!(sn=test))))", ConditionResult.TRUE },
+            { "(&(cn=test)(unknownAttribute:1.2.3.4:=test))", ConditionResult.UNDEFINED },
+            { "(|(cn=test)(unknownAttribute:1.2.3.4:=test))", ConditionResult.TRUE },
+        };
+        // @formatter:on
+    }
+
+    @Test(dataProvider = "getOptimizedMatcherFilters")
+    public void testOptimizedMatcher(final String filter, final ConditionResult expected) throws Exception {
+        // The entry does not have any object class, which is only possible for partial entries.
+        final Entry entry = new LinkedHashMapEntry("dn: cn=test", "cn: test", "sn: test");
+        assertEquals(Filter.valueOf(filter).matcher().matches(entry), expected);
+    }
 }
@@ -20,10 +20,18 @@ import static org.forgerock.opendj.ldap.Connections.*;
 import static org.forgerock.opendj.ldap.requests.Requests.*;
 import static org.forgerock.opendj.ldif.LDIFEntryReader.*;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.forgerock.opendj.ldap.controls.AssertionRequestControl;
 import org.forgerock.opendj.ldap.controls.PermissiveModifyRequestControl;
@@ -36,6 +44,7 @@ import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.requests.SearchRequest;
 import org.forgerock.opendj.ldap.responses.Result;
 import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
 import org.forgerock.opendj.ldif.ConnectionEntryReader;
 import org.forgerock.opendj.ldif.LDIFEntryReader;
 import org.testng.annotations.DataProvider;
@@ -115,6 +124,61 @@ public class MemoryBackendTestCase extends SdkTestCase {
                 .isTrue();
     }
 
+    @Test
+    public void testConcurrentUpdatesPreserveHierarchy() throws Exception {
+        final MemoryBackend backend = getBackend();
+        final Connection connection = newInternalConnection(backend);
+        for (int i = 0; i < 2; i++) {
+            connection.add("dn: ou=test" + i + ",dc=example,dc=com", "objectClass: organizationalunit",
+                    "objectClass: top", "ou: test" + i);
+        }
+
+        // Two threads repeatedly remove and recreate a subtree while the others update entries within it.
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final String parent = "ou=test" + (thread % 2) + ",dc=example,dc=com";
+                        for (int j = 0; j < 200; j++) {
+                            try {
+                                if (thread < 2) {
+                                    connection.deleteSubtree(parent);
+                                    connection.add("dn: " + parent, "objectClass: organizationalunit",
+                                            "objectClass: top", "ou: test" + thread);
+                                } else {
+                                    final String dn = "uid=user" + thread + "." + j + "," + parent;
+                                    connection.add("dn: " + dn, "objectClass: top", "objectClass: person",
+                                            "uid: user" + thread + "." + j, "cn: user", "sn: user");
+                                    connection.modify("dn: " + dn, "changetype: modify", "replace: cn",
+                                            "cn: modified");
+                                }
+                            } catch (final LdapException e) {
+                                // The parent entry has been removed concurrently.
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (final Entry entry : backend.getAll()) {
+            final DN parent = entry.getName().parent();
+            if (parent != null && !parent.isRootDN()) {
+                assertThat(backend.contains(parent)).as(entry.getName().toString()).isTrue();
+            }
+        }
+    }
+
     @Test(expectedExceptions = AssertionFailureException.class)
     public void testDeleteAssertionFalse() throws Exception {
         final Connection connection = getConnection();
@@ -331,6 +395,70 @@ public class MemoryBackendTestCase extends SdkTestCase {
         connection.modify("dn: dc=example,dc=com", "changetype: modify", "delete: cn");
     }
 
+    @Test
+    public void testPersistenceRecoversChanges() throws Exception {
+        final File directory = Files.createTempDirectory("memory-backend").toFile();
+        try {
+            final MemoryBackend backend = getBackend().open(directory);
+            final Connection connection = newInternalConnection(backend);
+            connection.add("dn: ou=groups,dc=example,dc=com", "objectClass: organizationalunit",
+                    "objectClass: top", "ou: groups");
+            connection.modify("dn: dc=example,dc=com", "changetype: modify", "add: description",
+                    "description: test description");
+            connection.delete("uid=test2,ou=people,dc=example,dc=com");
+            connection.deleteSubtree("dc=xxx,dc=com");
+            backend.close();
+
+            final MemoryBackend recovered = new MemoryBackend().open(directory);
+            assertThat(recovered.size()).isEqualTo(numberOfEntriesInBackend - 1);
+            assertThat(recovered.getAll()).containsOnly(backend.getAll().toArray());
+            assertThat(recovered.contains("ou=groups,dc=example,dc=com")).isTrue();
+            assertThat(recovered.contains("uid=test2,ou=people,dc=example,dc=com")).isFalse();
+            assertThat(recovered.contains("dc=xxx,dc=com")).isFalse();
+
+            // Changes made after a compaction are replayed on top of the new snapshot.
+            recovered.compact();
+            newInternalConnection(recovered).delete("ou=groups,dc=example,dc=com");
+            recovered.close();
+            final MemoryBackend compacted = new MemoryBackend().open(directory);
+            assertThat(compacted.size()).isEqualTo(numberOfEntriesInBackend - 2);
+            assertThat(compacted.getAll()).containsOnly(recovered.getAll().toArray());
+            compacted.close();
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testPersistenceIgnoresIncompleteChanges() throws Exception {
+        final File directory = Files.createTempDirectory("memory-backend").toFile();
+        try {
+            final MemoryBackend backend = getBackend().open(directory);
+            newInternalConnection(backend).delete("dc=xxx,dc=com");
+            backend.close();
+
+            // Simulate a crash while writing a change.
+            final File[] changeLogs = directory.listFiles();
+            for (final File file : changeLogs) {
+                if (file.getName().startsWith("changelog.") && file.length() > 0) {
+                    try (FileOutputStream stream = new FileOutputStream(file, true)) {
+                        stream.write(new byte[] { 0, 0, 1, 0, 1, 0x30 });
+                    }
+                }
+            }
+
+            final MemoryBackend recovered = new MemoryBackend().open(directory);
+            assertThat(recovered.size()).isEqualTo(numberOfEntriesInBackend - 1);
+            newInternalConnection(recovered).delete("uid=test1,ou=people,dc=example,dc=com");
+            recovered.close();
+            final MemoryBackend recoveredTwice = new MemoryBackend().open(directory);
+            assertThat(recoveredTwice.size()).isEqualTo(numberOfEntriesInBackend - 2);
+            recoveredTwice.close();
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
     @Test
     public void testSearchAttributesOperational() throws Exception {
         final Connection connection = getConnection();
@@ -539,6 +667,138 @@ public class MemoryBackendTestCase extends SdkTestCase {
         assertThat(cookie.isEmpty()).isTrue();
     }
 
+    @Test
+    public void testSearchPagedResultsIgnoresConcurrentUpdates() throws Exception {
+        final Connection connection = getConnection();
+        final List<SearchResultEntry> entries = new ArrayList<>();
+        final SearchRequest search =
+                Requests.newSearchRequest("ou=people,dc=example,dc=com", SearchScope.WHOLE_SUBTREE,
+                        "(uid=*)");
+        final DecodeOptions dc = new DecodeOptions();
+
+        // First page.
+        search.addControl(SimplePagedResultsControl.newControl(true, 2, ByteString.empty()));
+        Result result = connection.search(search, entries);
+        assertThat(entries).hasSize(2);
+        ByteString cookie = result.getControl(SimplePagedResultsControl.DECODER, dc).getCookie();
+        entries.clear();
+        search.getControls().clear();
+
+        // Updates made between pages are not visible to the paged search.
+        connection.delete("uid=test1,ou=people,dc=example,dc=com");
+        connection.delete("uid=test3,ou=people,dc=example,dc=com");
+        connection.modify("dn: uid=test4,ou=people,dc=example,dc=com", "changetype: modify",
+                "replace: cn", "cn: modified");
+
+        // Final page.
+        search.addControl(SimplePagedResultsControl.newControl(true, 5, cookie));
+        result = connection.search(search, entries);
+        assertThat(entries).hasSize(3);
+        assertThat(entries.get(0).getName().toString()).isEqualTo(
+                "uid=test3,ou=People,dc=example,dc=com");
+        assertThat(entries.get(1).getName().toString()).isEqualTo(
+                "uid=test4,ou=People,dc=example,dc=com");
+        assertThat(entries.get(1).parseAttribute("cn").asString()).isEqualTo("test user 4");
+        assertThat(entries.get(2).getName().toString()).isEqualTo(
+                "uid=test5,ou=People,dc=example,dc=com");
+        assertThat(result.getControl(SimplePagedResultsControl.DECODER, dc).getCookie().isEmpty())
+                .isTrue();
+        entries.clear();
+        search.getControls().clear();
+
+        // New searches see the updates.
+        connection.search(search, entries);
+        assertThat(entries).hasSize(3);
+        assertThat(entries.get(0).getName().toString()).isEqualTo(
+                "uid=test2,ou=People,dc=example,dc=com");
+        assertThat(entries.get(1).parseAttribute("cn").asString()).isEqualTo("modified");
+    }
+
+    @Test
+    public void testSearchIgnoresConcurrentUpdates() throws Exception {
+        final Connection connection = getConnection();
+        final List<String> names = new ArrayList<>();
+        connection.search(
+                Requests.newSearchRequest("ou=people,dc=example,dc=com", SearchScope.SINGLE_LEVEL, "(uid=*)"),
+                new SearchResultHandler() {
+                    @Override
+                    public boolean handleEntry(final SearchResultEntry entry) {
+                        if (names.isEmpty()) {
+                            try {
+                                connection.delete("uid=test5,ou=people,dc=example,dc=com");
+                                connection.add("dn: uid=test0,ou=people,dc=example,dc=com", "objectClass: top",
+                                        "objectClass: person", "uid: test0", "cn: test user 0", "sn: user 0");
+                            } catch (final LdapException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                        names.add(entry.parseAttribute("uid").asString());
+                        return true;
+                    }
+
+                    @Override
+                    public boolean handleReference(final SearchResultReference reference) {
+                        return true;
+                    }
+                });
+        assertThat(names).isEqualTo(Arrays.asList("test1", "test2", "test3", "test4", "test5"));
+        assertThat(connection.readEntry("uid=test0,ou=people,dc=example,dc=com")).isNotNull();
+    }
+
+    @Test(expectedExceptions = LdapException.class)
+    public void testSearchPagedResultsWithInvalidCookie() throws Exception {
+        final Connection connection = getConnection();
+        final SearchRequest search =
+                Requests.newSearchRequest("ou=people,dc=example,dc=com", SearchScope.WHOLE_SUBTREE,
+                        "(uid=*)");
+        search.addControl(SimplePagedResultsControl.newControl(true, 2, ByteString.valueOfUtf8("2")));
+        connection.search(search, new ArrayList<SearchResultEntry>());
+    }
+
+    @DataProvider
+    public Object[][] otherSearches() {
+        return new Object[][] {
+            // A base which sorts before the last returned entry.
+            { "dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(uid=*)" },
+            // A base which sorts after the last returned entry.
+            { "uid=test5,ou=people,dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(uid=*)" },
+            { "ou=people,dc=example,dc=com", SearchScope.SINGLE_LEVEL, "(uid=*)" },
+            { "ou=people,dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(objectClass=*)" },
+        };
+    }
+
+    @Test(dataProvider = "otherSearches")
+    public void testSearchPagedResultsCookieShouldNotBeReusedByOtherSearches(final String baseDN,
+            final SearchScope scope, final String filter) throws Exception {
+        final Connection connection = getConnection();
+        final List<SearchResultEntry> entries = new ArrayList<>();
+        final SearchRequest search =
+                Requests.newSearchRequest("ou=people,dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(uid=*)");
+        final DecodeOptions dc = new DecodeOptions();
+        search.addControl(SimplePagedResultsControl.newControl(true, 2, ByteString.empty()));
+        Result result = connection.search(search, entries);
+        final ByteString cookie = result.getControl(SimplePagedResultsControl.DECODER, dc).getCookie();
+        entries.clear();
+
+        final SearchRequest otherSearch = Requests.newSearchRequest(baseDN, scope, filter)
+                .addControl(SimplePagedResultsControl.newControl(true, 2, cookie));
+        try {
+            connection.search(otherSearch, entries);
+            TestCaseUtils.failWasExpected(LdapException.class);
+        } catch (LdapException e) {
+            assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.UNWILLING_TO_PERFORM);
+            assertThat(entries).isEmpty();
+        }
+
+        // The paged search can still be continued by its own client.
+        search.getControls().clear();
+        search.addControl(SimplePagedResultsControl.newControl(true, 5, cookie));
+        result = connection.search(search, entries);
+        assertThat(entries).hasSize(3);
+        assertThat(entries.get(0).getName().toString()).isEqualTo("uid=test3,ou=People,dc=example,dc=com");
+        assertThat(result.getControl(SimplePagedResultsControl.DECODER, dc).getCookie().isEmpty()).isTrue();
+    }
+
     @Test
     public void testSimpleBind() throws Exception {
         final Connection connection = getConnection();
@@ -582,6 +842,10 @@ public class MemoryBackendTestCase extends SdkTestCase {
     }
 
     private Connection getConnection() throws IOException {
+        return newInternalConnection(getBackend());
+    }
+
+    private MemoryBackend getBackend() throws IOException {
         // @formatter:off
         String[] ldifEntries = new String[] {
             "dn: dc=com",
@@ -650,8 +914,14 @@ public class MemoryBackendTestCase extends SdkTestCase {
         };
         // @formatter:on
         numberOfEntriesInBackend = getNumberOfEntries(ldifEntries);
-        final MemoryBackend backend = new MemoryBackend(new LDIFEntryReader(ldifEntries));
-        return newInternalConnection(backend);
+        return new MemoryBackend(new LDIFEntryReader(ldifEntries));
+    }
+
+    private static void deleteDirectory(final File directory) {
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
     }
 
     private int getNumberOfEntries(String[] ldifEntries) {
@@ -0,0 +1,330 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.forgerock.opendj.ldap.requests.Requests.newSearchRequest;
+import static org.forgerock.opendj.ldap.responses.Responses.newResult;
+import static org.forgerock.opendj.ldap.responses.Responses.newSearchResultEntry;
+import static org.forgerock.opendj.ldap.spi.LdapPromises.newSuccessfulLdapPromise;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.controls.ServerSideSortRequestControl;
+import org.forgerock.opendj.ldap.controls.SimplePagedResultsControl;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldap.spi.LdapPromiseImpl;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.Promises;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ScatterGatherSearchTestCase extends SdkTestCase {
+    private static final DN SHARD_BASE_DN = DN.valueOf("ou=people,dc=example,dc=com");
+
+    /** Records the entries returned by the merged search. */
+    private static final class EntryRecorder implements SearchResultHandler {
+        private final List<String> names = new ArrayList<>();
+
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            names.add(entry.getName().toString());
+            return true;
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            return true;
+        }
+    }
+
+    @Test
+    public void onlySearchesSpanningSeveralShardsShouldBeScattered() {
+        assertThat(isScattered("dc=example,dc=com", SearchScope.WHOLE_SUBTREE)).isTrue();
+        assertThat(isScattered("ou=people,dc=example,dc=com", SearchScope.WHOLE_SUBTREE)).isTrue();
+        assertThat(isScattered("ou=people,dc=example,dc=com", SearchScope.SUBORDINATES)).isTrue();
+        assertThat(isScattered("ou=people,dc=example,dc=com", SearchScope.SINGLE_LEVEL)).isTrue();
+        assertThat(isScattered("dc=example,dc=com", SearchScope.SINGLE_LEVEL)).isFalse();
+        assertThat(isScattered("ou=people,dc=example,dc=com", SearchScope.BASE_OBJECT)).isFalse();
+        assertThat(isScattered("ou=shard1,ou=people,dc=example,dc=com", SearchScope.WHOLE_SUBTREE)).isFalse();
+        assertThat(isScattered("ou=groups,dc=example,dc=com", SearchScope.WHOLE_SUBTREE)).isFalse();
+    }
+
+    @Test
+    public void entriesFromAllShardsShouldBeMerged() throws Exception {
+        final ConnectionFactory shard1 = shard("ou=people,dc=example,dc=com",
+                                               "uid=a,ou=shard1,ou=people,dc=example,dc=com");
+        final ConnectionFactory shard2 = shard("ou=people,dc=example,dc=com",
+                                               "uid=b,ou=shard2,ou=people,dc=example,dc=com");
+
+        final EntryRecorder recorder = new EntryRecorder();
+        final Result result = search(asList(shard1, shard2), newSubtreeSearch(), recorder).getOrThrow();
+
+        assertThat(result.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+        // The shard base entry must only be returned once.
+        assertThat(recorder.names).containsOnly("ou=people,dc=example,dc=com",
+                                                "uid=a,ou=shard1,ou=people,dc=example,dc=com",
+                                                "uid=b,ou=shard2,ou=people,dc=example,dc=com");
+    }
+
+    @Test
+    public void siblingsOfTheShardBaseEntryShouldNotBeDropped() throws Exception {
+        final ConnectionFactory shard1 = shard("dc=example,dc=com",
+                                               "ou=people,dc=example,dc=com",
+                                               "uid=a,ou=shard1,ou=people,dc=example,dc=com");
+        final ConnectionFactory shard2 = shard("dc=example,dc=com",
+                                               "ou=people,dc=example,dc=com",
+                                               "ou=groups,dc=example,dc=com",
+                                               "uid=b,ou=shard2,ou=people,dc=example,dc=com");
+
+        final EntryRecorder recorder = new EntryRecorder();
+        final SearchRequest request =
+                newSearchRequest("dc=example,dc=com", SearchScope.WHOLE_SUBTREE, "(objectClass=*)");
+        search(asList(shard1, shard2), request, recorder).getOrThrow();
+
+        // Only the shard base entry and its superiors are copied on every shard.
+        assertThat(recorder.names).containsOnly("dc=example,dc=com",
+                                                "ou=people,dc=example,dc=com",
+                                                "ou=groups,dc=example,dc=com",
+                                                "uid=a,ou=shard1,ou=people,dc=example,dc=com",
+                                                "uid=b,ou=shard2,ou=people,dc=example,dc=com");
+        assertThat(recorder.names).hasSize(5);
+    }
+
+    @Test
+    public void cancellingTheSearchShouldCancelTheShardSearches() throws Exception {
+        final List<Boolean> cancelled = new ArrayList<>();
+        final List<ConnectionFactory> shards = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final Connection connection = mock(Connection.class);
+            when(connection.searchAsync(any(SearchRequest.class), any(IntermediateResponseHandler.class),
+                                        any(SearchResultHandler.class))).thenReturn(pendingSearch(cancelled));
+            shards.add(factory(connection));
+        }
+
+        final LdapPromise<Result> promise = search(shards, newSubtreeSearch(), new EntryRecorder());
+        promise.cancel(true);
+
+        assertThat(cancelled).containsExactly(true, true);
+        try {
+            promise.getOrThrow();
+            fail("The search unexpectedly succeeded");
+        } catch (final LdapException e) {
+            assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.CLIENT_SIDE_USER_CANCELLED);
+        }
+    }
+
+    @Test
+    public void sizeLimitShouldBeEnforcedAcrossShards() throws Exception {
+        final ConnectionFactory shard1 = shard("uid=a,ou=shard1,ou=people,dc=example,dc=com",
+                                               "uid=b,ou=shard1,ou=people,dc=example,dc=com");
+        final ConnectionFactory shard2 = shard("uid=c,ou=shard2,ou=people,dc=example,dc=com",
+                                               "uid=d,ou=shard2,ou=people,dc=example,dc=com");
+
+        final EntryRecorder recorder = new EntryRecorder();
+        try {
+            search(asList(shard1, shard2), newSubtreeSearch().setSizeLimit(3), recorder).getOrThrow();
+            fail("The search unexpectedly succeeded");
+        } catch (final LdapException e) {
+            assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.SIZE_LIMIT_EXCEEDED);
+        }
+        assertThat(recorder.names).hasSize(3);
+    }
+
+    @Test
+    public void sortedEntriesFromAllShardsShouldBeMerged() throws Exception {
+        final ConnectionFactory shard1 = shard("uid=a,ou=shard1,ou=people,dc=example,dc=com",
+                                               "uid=c,ou=shard1,ou=people,dc=example,dc=com",
+                                               "uid=d,ou=shard1,ou=people,dc=example,dc=com");
+        final ConnectionFactory shard2 = shard("uid=b,ou=shard2,ou=people,dc=example,dc=com",
+                                               "uid=e,ou=shard2,ou=people,dc=example,dc=com");
+        final SearchRequest request = newSubtreeSearch()
+                .addControl(ServerSideSortRequestControl.newControl(true, "uid"));
+
+        final EntryRecorder recorder = new EntryRecorder();
+        search(asList(shard1, shard2), request, recorder).getOrThrow();
+
+        assertThat(recorder.names).containsExactly("uid=a,ou=shard1,ou=people,dc=example,dc=com",
+                                                   "uid=b,ou=shard2,ou=people,dc=example,dc=com",
+                                                   "uid=c,ou=shard1,ou=people,dc=example,dc=com",
+                                                   "uid=d,ou=shard1,ou=people,dc=example,dc=com",
+                                                   "uid=e,ou=shard2,ou=people,dc=example,dc=com");
+    }
+
+    @Test
+    public void pagedResultsShouldVisitShardsInTurn() throws Exception {
+        final ByteString shardCookie = ByteString.valueOfUtf8("next");
+        final Connection connection1 = pagedConnection(shardCookie, ByteString.empty());
+        final Connection connection2 = pagedConnection(ByteString.empty());
+        final List<ConnectionFactory> shards = asList(factory(connection1), factory(connection2));
+
+        // First page from the first shard.
+        ByteString cookie = searchPage(shards, ByteString.empty());
+        assertThat(cookie).isNotEqualTo(ByteString.empty());
+
+        // Second page from the first shard, which is then exhausted.
+        cookie = searchPage(shards, cookie);
+        final ArgumentCaptor<SearchRequest> shard1Requests = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(connection1, times(2)).searchAsync(shard1Requests.capture(),
+                any(IntermediateResponseHandler.class), any(SearchResultHandler.class));
+        assertThat(getPagedResults(shard1Requests.getAllValues().get(1)).getCookie()).isEqualTo(shardCookie);
+
+        // Last page from the second shard.
+        cookie = searchPage(shards, cookie);
+        assertThat(cookie).isEqualTo(ByteString.empty());
+        final ArgumentCaptor<SearchRequest> shard2Requests = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(connection2).searchAsync(shard2Requests.capture(), any(IntermediateResponseHandler.class),
+                any(SearchResultHandler.class));
+        assertThat(getPagedResults(shard2Requests.getValue()).getCookie()).isEqualTo(ByteString.empty());
+    }
+
+    @Test
+    public void pagedResultsSizeLimitShouldBeEnforcedAcrossShards() throws Exception {
+        final Connection connection1 = mock(Connection.class);
+        final Connection connection2 = mock(Connection.class);
+        final List<ConnectionFactory> shards = asList(
+                shard(connection1, "uid=a,ou=shard1,ou=people,dc=example,dc=com",
+                                   "uid=b,ou=shard1,ou=people,dc=example,dc=com"),
+                shard(connection2, "uid=c,ou=shard2,ou=people,dc=example,dc=com",
+                                   "uid=d,ou=shard2,ou=people,dc=example,dc=com"));
+
+        // The first shard is exhausted by the first page, which is within the limit.
+        final EntryRecorder recorder = new EntryRecorder();
+        final ByteString cookie = searchPage(shards, ByteString.empty(), 3, recorder);
+        assertThat(recorder.names).hasSize(2);
+
+        // The second page may only return one more entry.
+        try {
+            searchPage(shards, cookie, 3, recorder);
+            fail("The search unexpectedly succeeded");
+        } catch (final LdapException e) {
+            assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.SIZE_LIMIT_EXCEEDED);
+        }
+        assertThat(recorder.names).hasSize(3);
+
+        final ArgumentCaptor<SearchRequest> shard2Requests = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(connection2).searchAsync(shard2Requests.capture(), any(IntermediateResponseHandler.class),
+                any(SearchResultHandler.class));
+        assertThat(shard2Requests.getValue().getSizeLimit()).isEqualTo(2);
+    }
+
+    private static boolean isScattered(final String baseDN, final SearchScope scope) {
+        return ScatterGatherSearch.isScatterGatherSearch(newSearchRequest(baseDN, scope, "(objectClass=*)"),
+                                                         SHARD_BASE_DN);
+    }
+
+    private static SearchRequest newSubtreeSearch() {
+        return newSearchRequest(SHARD_BASE_DN, SearchScope.WHOLE_SUBTREE, Filter.objectClassPresent());
+    }
+
+    private static LdapPromise<Result> search(final List<ConnectionFactory> shards, final SearchRequest request,
+            final SearchResultHandler handler) {
+        return new ScatterGatherSearch(shards, SHARD_BASE_DN, request, null, handler).execute();
+    }
+
+    private static ByteString searchPage(final List<ConnectionFactory> shards, final ByteString cookie)
+            throws Exception {
+        return searchPage(shards, cookie, 0, new EntryRecorder());
+    }
+
+    private static ByteString searchPage(final List<ConnectionFactory> shards, final ByteString cookie,
+            final int sizeLimit, final SearchResultHandler handler) throws Exception {
+        final SearchRequest request = newSubtreeSearch()
+                .setSizeLimit(sizeLimit)
+                .addControl(SimplePagedResultsControl.newControl(true, 10, cookie));
+        final Result result = search(shards, request, handler).getOrThrow();
+        return result.getControl(SimplePagedResultsControl.DECODER, new DecodeOptions()).getCookie();
+    }
+
+    private static SimplePagedResultsControl getPagedResults(final SearchRequest request) throws Exception {
+        return request.getControl(SimplePagedResultsControl.DECODER, new DecodeOptions());
+    }
+
+    private static ConnectionFactory shard(final String... entryNames) {
+        return shard(mock(Connection.class), entryNames);
+    }
+
+    private static ConnectionFactory shard(final Connection connection, final String... entryNames) {
+        when(connection.searchAsync(any(SearchRequest.class), any(IntermediateResponseHandler.class),
+                                    any(SearchResultHandler.class))).thenAnswer(new Answer<LdapPromise<Result>>() {
+            @Override
+            public LdapPromise<Result> answer(final InvocationOnMock invocation) {
+                final SearchResultHandler handler = (SearchResultHandler) invocation.getArguments()[2];
+                for (final String name : entryNames) {
+                    final DN dn = DN.valueOf(name);
+                    final SearchResultEntry entry = newSearchResultEntry(dn)
+                            .addAttribute("uid", dn.rdn().getFirstAVA().getAttributeValue());
+                    if (!handler.handleEntry(entry)) {
+                        break;
+                    }
+                }
+                return newSuccessfulLdapPromise(newResult(ResultCode.SUCCESS));
+            }
+        });
+        return factory(connection);
+    }
+
+    private static LdapPromise<Result> pendingSearch(final List<Boolean> cancelled) {
+        return new LdapPromiseImpl<Result>(new PromiseImpl<Result, LdapException>() {
+            @Override
+            protected LdapException tryCancel(final boolean mayInterruptIfRunning) {
+                cancelled.add(true);
+                return LdapException.newLdapException(ResultCode.CLIENT_SIDE_USER_CANCELLED);
+            }
+        }, -1) {
+            // Anonymous subclass giving access to the protected constructor.
+        };
+    }
+
+    private static Connection pagedConnection(final ByteString firstCookie, final ByteString... nextCookies) {
+        final Connection connection = mock(Connection.class);
+        final List<LdapPromise<Result>> nextResults = new ArrayList<>();
+        for (final ByteString cookie : nextCookies) {
+            nextResults.add(newPagedResult(cookie));
+        }
+        @SuppressWarnings("unchecked")
+        final LdapPromise<Result>[] nextResultsArray = nextResults.toArray(new LdapPromise[nextResults.size()]);
+        when(connection.searchAsync(any(SearchRequest.class), any(IntermediateResponseHandler.class),
+                                    any(SearchResultHandler.class)))
+                .thenReturn(newPagedResult(firstCookie), nextResultsArray);
+        return connection;
+    }
+
+    private static LdapPromise<Result> newPagedResult(final ByteString cookie) {
+        return newSuccessfulLdapPromise(newResult(ResultCode.SUCCESS)
+                .addControl(SimplePagedResultsControl.newControl(false, 0, cookie)));
+    }
+
+    private static ConnectionFactory factory(final Connection connection) {
+        final ConnectionFactory factory = mock(ConnectionFactory.class);
+        when(factory.getConnectionAsync()).thenReturn(Promises.<Connection, LdapException>newResultPromise(connection));
+        return factory;
+    }
+}
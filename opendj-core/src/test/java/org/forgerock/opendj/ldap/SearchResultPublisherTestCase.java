@@ -0,0 +1,254 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.responses.Responses.newResult;
+import static org.forgerock.opendj.ldap.responses.Responses.newSearchResultEntry;
+import static org.forgerock.opendj.ldap.responses.Responses.newSearchResultReference;
+import static org.forgerock.opendj.ldap.spi.LdapPromiseImpl.newLdapPromiseImpl;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Response;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldap.spi.LdapPromiseImpl;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class SearchResultPublisherTestCase extends SdkTestCase {
+    private static final SearchResultEntry ENTRY1 = newSearchResultEntry("cn=entry1");
+    private static final SearchResultEntry ENTRY2 = newSearchResultEntry("cn=entry2");
+    private static final SearchResultEntry ENTRY3 = newSearchResultEntry("cn=entry3");
+    private static final SearchRequest SEARCH =
+            Requests.newSearchRequest("", SearchScope.WHOLE_SUBTREE, "(objectClass=*)");
+    private static final SearchResultReference REF = newSearchResultReference("http://www.forgerock.com/");
+    private static final Result SUCCESS = newResult(ResultCode.SUCCESS);
+
+    /** Records the notifications received from a publisher. */
+    private static final class RecordingSubscriber implements SearchResultSubscriber {
+        private final List<SearchResultEntry> entries = new ArrayList<>();
+        private final List<Response> responses = new ArrayList<>();
+        private SearchResultSubscription subscription;
+        private Result result;
+        private LdapException error;
+
+        @Override
+        public void onSubscribe(final SearchResultSubscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final SearchResultEntry entry) {
+            entries.add(entry);
+            responses.add(entry);
+        }
+
+        @Override
+        public void onReference(final SearchResultReference reference) {
+            responses.add(reference);
+        }
+
+        @Override
+        public void onError(final LdapException error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete(final Result result) {
+            this.result = result;
+        }
+    }
+
+    private final LdapPromiseImpl<Result> searchPromise = newLdapPromiseImpl();
+    private SearchResultHandler searchHandler;
+    private int suspendCount;
+    private int resumeCount;
+    private SearchResultPublisher publisher;
+
+    @BeforeMethod
+    public void setUp() {
+        final Connection connection = mock(Connection.class);
+        when(connection.searchAsync(same(SEARCH), any(SearchResultHandler.class))).thenAnswer(
+            new Answer<LdapPromise<Result>>() {
+                @Override
+                public LdapPromise<Result> answer(final InvocationOnMock invocation) throws Throwable {
+                    searchHandler = (SearchResultHandler) invocation.getArguments()[1];
+                    return searchPromise;
+                }
+            });
+        suspendCount = 0;
+        resumeCount = 0;
+        publisher = new SearchResultPublisherImpl(connection, SEARCH) {
+            @Override
+            void suspendReads() {
+                suspendCount++;
+            }
+
+            @Override
+            void resumeReads() {
+                resumeCount++;
+            }
+        };
+    }
+
+    @Test
+    public void testEntriesAreDeliveredOnDemand() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertThat(subscriber.subscription).isNotNull();
+
+        searchHandler.handleEntry(ENTRY1);
+        searchHandler.handleEntry(ENTRY2);
+        assertThat(subscriber.entries).isEmpty();
+
+        subscriber.subscription.request(1);
+        assertThat(subscriber.entries).containsExactly(ENTRY1);
+
+        subscriber.subscription.request(2);
+        assertThat(subscriber.entries).containsExactly(ENTRY1, ENTRY2);
+
+        searchHandler.handleEntry(ENTRY3);
+        assertThat(subscriber.entries).containsExactly(ENTRY1, ENTRY2, ENTRY3);
+        assertThat(subscriber.result).isNull();
+
+        searchPromise.handleResult(SUCCESS);
+        assertThat(subscriber.result).isSameAs(SUCCESS);
+        assertThat(subscriber.error).isNull();
+    }
+
+    @Test
+    public void testReferencesAreDeliveredInOrderWithoutDemand() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        searchHandler.handleReference(REF);
+        assertThat(subscriber.responses).containsExactly(REF);
+
+        searchHandler.handleEntry(ENTRY1);
+        searchHandler.handleReference(REF);
+        searchHandler.handleEntry(ENTRY2);
+        assertThat(subscriber.responses).containsExactly(REF);
+
+        subscriber.subscription.request(1);
+        assertThat(subscriber.responses).containsExactly(REF, ENTRY1, REF);
+
+        subscriber.subscription.request(1);
+        assertThat(subscriber.responses).containsExactly(REF, ENTRY1, REF, ENTRY2);
+    }
+
+    @Test
+    public void testReadsAreSuspendedWhileThereIsNoDemand() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        searchHandler.handleEntry(ENTRY1);
+        assertThat(suspendCount).isEqualTo(1);
+        assertThat(resumeCount).isEqualTo(0);
+
+        // Entries which were already decoded are still accepted.
+        searchHandler.handleEntry(ENTRY2);
+        assertThat(suspendCount).isEqualTo(1);
+
+        subscriber.subscription.request(1);
+        assertThat(resumeCount).isEqualTo(0);
+
+        subscriber.subscription.request(1);
+        assertThat(subscriber.entries).containsExactly(ENTRY1, ENTRY2);
+        assertThat(resumeCount).isEqualTo(1);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        searchHandler.handleEntry(ENTRY3);
+        assertThat(subscriber.entries).containsExactly(ENTRY1, ENTRY2, ENTRY3);
+        assertThat(suspendCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testCompletionIsDeliveredAfterTheRemainingEntries() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        searchHandler.handleEntry(ENTRY1);
+        searchPromise.handleResult(SUCCESS);
+        assertThat(subscriber.result).isNull();
+        // No more entries will be received, so reads must not stay suspended.
+        assertThat(resumeCount).isEqualTo(suspendCount);
+
+        subscriber.subscription.request(10);
+        assertThat(subscriber.entries).containsExactly(ENTRY1);
+        assertThat(subscriber.result).isSameAs(SUCCESS);
+    }
+
+    @Test
+    public void testSearchFailure() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(10);
+
+        searchHandler.handleEntry(ENTRY1);
+        final LdapException error = newLdapException(ResultCode.BUSY);
+        searchPromise.handleException(error);
+
+        assertThat(subscriber.entries).containsExactly(ENTRY1);
+        assertThat(subscriber.error).isSameAs(error);
+        assertThat(subscriber.result).isNull();
+    }
+
+    @Test
+    public void testCancel() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        searchHandler.handleEntry(ENTRY1);
+        searchHandler.handleEntry(ENTRY2);
+
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        assertThat(resumeCount).isEqualTo(suspendCount);
+        assertThat(searchHandler.handleEntry(ENTRY3)).isFalse();
+
+        subscriber.subscription.request(10);
+        searchPromise.handleResult(SUCCESS);
+        assertThat(subscriber.entries).containsExactly(ENTRY1);
+        assertThat(subscriber.result).isNull();
+        assertThat(subscriber.error).isNull();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testSubscribeTwice() {
+        publisher.subscribe(new RecordingSubscriber());
+        publisher.subscribe(new RecordingSubscriber());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRequestZeroEntries() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+    }
+}
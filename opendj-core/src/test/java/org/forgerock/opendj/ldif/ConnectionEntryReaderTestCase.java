@@ -15,6 +15,8 @@
  */
 package org.forgerock.opendj.ldif;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.forgerock.opendj.ldap.Connection;
@@ -22,13 +24,17 @@ import org.forgerock.opendj.ldap.LdapException;
 import org.forgerock.opendj.ldap.LdapPromise;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.SearchResultPublisher;
 import org.forgerock.opendj.ldap.SearchResultReferenceIOException;
+import org.forgerock.opendj.ldap.SearchResultSubscriber;
+import org.forgerock.opendj.ldap.SearchResultSubscription;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.requests.SearchRequest;
 import org.forgerock.opendj.ldap.responses.Result;
 import org.forgerock.opendj.ldap.responses.SearchResultEntry;
 import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldap.spi.LdapPromiseImpl;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.testng.annotations.Test;
@@ -37,6 +43,7 @@ import static org.fest.assertions.Assertions.*;
 import static org.fest.assertions.Fail.*;
 import static org.forgerock.opendj.ldap.LdapException.*;
 import static org.forgerock.opendj.ldap.responses.Responses.*;
+import static org.forgerock.opendj.ldap.spi.LdapPromiseImpl.*;
 import static org.forgerock.opendj.ldap.spi.LdapPromises.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
@@ -232,6 +239,177 @@ public class ConnectionEntryReaderTestCase extends AbstractLDIFTestCase {
         }
     }
 
+    @Test
+    public final void testReadWithWatermarks() throws Exception {
+        final List<Long> requests = new ArrayList<>();
+        final boolean[] isCancelled = new boolean[1];
+        final SearchResultSubscriber[] subscriber = new SearchResultSubscriber[1];
+        final ConnectionEntryReader reader = newReader(subscriber, new SearchResultSubscription() {
+            @Override
+            public void request(final long n) {
+                requests.add(n);
+            }
+
+            @Override
+            public void cancel() {
+                isCancelled[0] = true;
+            }
+        }, 1, 3);
+        try {
+            assertThat(requests).containsExactly(3L);
+            subscriber[0].onNext(ENTRY1);
+            subscriber[0].onReference(REF);
+            subscriber[0].onNext(ENTRY2);
+            subscriber[0].onNext(ENTRY3);
+
+            assertThat(reader.readEntry()).isSameAs(ENTRY1);
+            assertThat(reader.readReference()).isSameAs(REF);
+            assertThat(requests).containsExactly(3L);
+
+            // Only one requested entry is left unread.
+            assertThat(reader.readEntry()).isSameAs(ENTRY2);
+            assertThat(requests).containsExactly(3L, 2L);
+
+            assertThat(reader.readEntry()).isSameAs(ENTRY3);
+            subscriber[0].onComplete(SUCCESS);
+            assertThat(reader.hasNext()).isFalse();
+            assertThat(reader.readResult()).isSameAs(SUCCESS);
+        } finally {
+            reader.close();
+        }
+        assertThat(isCancelled[0]).isTrue();
+    }
+
+    @Test
+    public final void testReadWithWatermarksWhenError() throws Exception {
+        final SearchResultSubscriber[] subscriber = new SearchResultSubscriber[1];
+        final ConnectionEntryReader reader = newReader(subscriber, mock(SearchResultSubscription.class), 0, 1);
+        try {
+            subscriber[0].onNext(ENTRY1);
+            subscriber[0].onError(newLdapException(ERROR));
+            assertThat(reader.readEntry()).isSameAs(ENTRY1);
+            reader.hasNext();
+            fail();
+        } catch (final LdapException e) {
+            assertThat(e.getResult()).isSameAs(ERROR);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public final void testCloseWithWatermarksBeforeSubscription() throws Exception {
+        final SearchResultSubscriber[] subscriber = new SearchResultSubscriber[1];
+        final Connection connection = mock(Connection.class);
+        when(connection.searchPublisher(same(SEARCH))).thenReturn(new SearchResultPublisher() {
+            @Override
+            public void subscribe(final SearchResultSubscriber s) {
+                // The subscription will be received asynchronously.
+                subscriber[0] = s;
+            }
+        });
+        final ConnectionEntryReader reader = new ConnectionEntryReader(connection, SEARCH, 1, 3);
+        reader.close();
+
+        final SearchResultSubscription subscription = mock(SearchResultSubscription.class);
+        subscriber[0].onSubscribe(subscription);
+        verify(subscription).cancel();
+        verify(subscription, never()).request(anyLong());
+    }
+
+    @Test
+    public final void testReadWhileResponsesAreReceived() throws Exception {
+        final SearchResultHandler[] handler = new SearchResultHandler[1];
+        final LdapPromiseImpl<Result> promise = newLdapPromiseImpl();
+        final Connection connection = mock(Connection.class);
+        when(connection.searchAsync(same(SEARCH), any(SearchResultHandler.class))).thenAnswer(
+            new Answer<LdapPromise<Result>>() {
+                @Override
+                public LdapPromise<Result> answer(final InvocationOnMock invocation) throws Throwable {
+                    handler[0] = (SearchResultHandler) invocation.getArguments()[1];
+                    return promise;
+                }
+            });
+        final ConnectionEntryReader reader = new ConnectionEntryReader(connection, SEARCH);
+        final int entryCount = 1000;
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < entryCount; i++) {
+                    handler[0].handleEntry(newSearchResultEntry("cn=entry" + i));
+                }
+                promise.handleResult(SUCCESS);
+            }
+        };
+        try {
+            producer.start();
+            for (int i = 0; i < entryCount; i++) {
+                assertThat(reader.readEntry().getName().toString()).isEqualTo("cn=entry" + i);
+            }
+            assertThat(reader.hasNext()).isFalse();
+            assertThat(reader.readResult()).isSameAs(SUCCESS);
+        } finally {
+            producer.join();
+            reader.close();
+        }
+    }
+
+    @Test
+    public final void testReadWhileResponsesAreReceivedByConcurrentThreads() throws Exception {
+        final SearchResultHandler[] handler = new SearchResultHandler[1];
+        final LdapPromiseImpl<Result> promise = newLdapPromiseImpl();
+        final Connection connection = mock(Connection.class);
+        when(connection.searchAsync(same(SEARCH), any(SearchResultHandler.class))).thenAnswer(
+            new Answer<LdapPromise<Result>>() {
+                @Override
+                public LdapPromise<Result> answer(final InvocationOnMock invocation) throws Throwable {
+                    handler[0] = (SearchResultHandler) invocation.getArguments()[1];
+                    return promise;
+                }
+            });
+        final ConnectionEntryReader reader = new ConnectionEntryReader(connection, SEARCH);
+        final int entryCount = 1000;
+        final Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < entryCount; i++) {
+                        handler[0].handleEntry(ENTRY1);
+                    }
+                }
+            };
+        }
+        // The result is sent by another thread, as happens when a search times out.
+        final Thread completer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (final Thread producer : producers) {
+                        producer.join();
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                promise.handleResult(SUCCESS);
+            }
+        };
+        try {
+            for (final Thread producer : producers) {
+                producer.start();
+            }
+            completer.start();
+            for (int i = 0; i < producers.length * entryCount; i++) {
+                assertThat(reader.readEntry()).isSameAs(ENTRY1);
+            }
+            assertThat(reader.hasNext()).isFalse();
+            assertThat(reader.readResult()).isSameAs(SUCCESS);
+        } finally {
+            completer.join();
+            reader.close();
+        }
+    }
+
     private ConnectionEntryReader newReader(final Object... responses) {
         final Connection connection = mock(Connection.class);
         // @formatter:off
@@ -262,4 +440,17 @@ public class ConnectionEntryReaderTestCase extends AbstractLDIFTestCase {
         return new ConnectionEntryReader(connection, SEARCH);
     }
 
+    private ConnectionEntryReader newReader(final SearchResultSubscriber[] subscriber,
+            final SearchResultSubscription subscription, final int lowWatermark, final int highWatermark) {
+        final Connection connection = mock(Connection.class);
+        when(connection.searchPublisher(same(SEARCH))).thenReturn(new SearchResultPublisher() {
+            @Override
+            public void subscribe(final SearchResultSubscriber s) {
+                subscriber[0] = s;
+                s.onSubscribe(subscription);
+            }
+        });
+        return new ConnectionEntryReader(connection, SEARCH, lowWatermark, highWatermark);
+    }
+
 }
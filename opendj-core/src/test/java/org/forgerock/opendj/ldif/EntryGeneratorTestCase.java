@@ -21,6 +21,7 @@ import static org.fest.assertions.Assertions.*;
 import static org.forgerock.opendj.ldap.TestCaseUtils.*;
 import static org.forgerock.opendj.ldap.schema.CoreSchema.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
@@ -97,6 +98,86 @@ public class EntryGeneratorTestCase extends SdkTestCase {
         }
     }
 
+    @DataProvider
+    public Object[][] wrapColumns() {
+        return new Object[][] { { 0 }, { 2 }, { 40 } };
+    }
+
+    @Test(dataProvider = "wrapColumns")
+    public void testWriteNextEntryIsSameAsLDIFEntryWriter(final int wrapColumn) throws Exception {
+        final String[] template = {
+            "define suffix=dc=example,dc=com",
+            "",
+            "branch: [suffix]",
+            "subordinateTemplate: person:100",
+            "",
+            "template: person",
+            "rdnAttr: uid",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: top",
+            "objectClass: TOP",
+            "uid: user.<sequential:0>",
+            "cn: <first> <last>",
+            "sn: <last>",
+            "mail: {uid}@example.com",
+            "mail: {uid}@EXAMPLE.COM",
+            "description: A long description for {cn}, which will be wrapped when a wrap column is set",
+            "street: <random:numeric:5> Main Street ",
+            "l: Saint-\u00c9tienne",
+            "st: :colon",
+            "telephoneNumber: <random:telephone>",
+        };
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (EntryGenerator generator = new EntryGenerator(template).setRandomSeed(42);
+             LDIFEntryWriter writer = new LDIFEntryWriter(expected).setWrapColumn(wrapColumn)) {
+            while (generator.hasNext()) {
+                writer.writeEntry(generator.readEntry());
+            }
+        }
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (EntryGenerator generator = new EntryGenerator(template).setRandomSeed(42)) {
+            while (generator.hasNext()) {
+                generator.writeNextEntry(actual, wrapColumn);
+            }
+        }
+        assertThat(actual.toString("UTF-8")).isEqualTo(expected.toString("UTF-8"));
+    }
+
+    @Test
+    public void testWriteNextEntryUsesEqualityMatchingRulesToIgnoreDuplicateValues() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (EntryGenerator generator = new EntryGenerator(
+                "define suffix=dc=example,dc=com",
+                "",
+                "branch: [suffix]",
+                "subordinateTemplate: person:1",
+                "",
+                "template: person",
+                "rdnAttr: uid",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: TOP",
+                "uid: user.<sequential:0>",
+                "sn: Jensen",
+                "description: Sales",
+                "description: SALES",
+                "description: Marketing",
+                "userPassword: secret",
+                "userPassword: SECRET")) {
+            while (generator.hasNext()) {
+                generator.writeNextEntry(output, 0);
+            }
+        }
+        final String ldif = output.toString("UTF-8");
+        // objectClass and description values are case insensitive.
+        assertThat(ldif).contains("objectClass: top").doesNotContain("objectClass: TOP");
+        assertThat(ldif).contains("description: Sales").contains("description: Marketing");
+        assertThat(ldif).doesNotContain("description: SALES");
+        // userPassword values are compared byte for byte.
+        assertThat(ldif).contains("userPassword: secret").contains("userPassword: SECRET");
+    }
+
     @DataProvider(name = "generators")
     public Object[][] createGenerators() throws Exception {
         Object[][] generators = new Object[3][2];
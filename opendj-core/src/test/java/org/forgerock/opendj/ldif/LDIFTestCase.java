@@ -18,6 +18,7 @@ package org.forgerock.opendj.ldif;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -2716,6 +2717,310 @@ public class LDIFTestCase extends AbstractLDIFTestCase {
         LDIF.patch(null, null);
     }
 
+    @Test
+    public final void testLdifMerge() throws Exception {
+        // @formatter:off
+        final LDIFEntryReader input1 = new LDIFEntryReader(
+            "dn: dc=example,dc=com",
+            "",
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "",
+            "dn: uid=user.3,ou=People,dc=example,dc=com"
+        );
+        final LDIFEntryReader input2 = new LDIFEntryReader(
+            "dn: ou=People,dc=example,dc=com",
+            "",
+            "dn: uid=user.2,ou=People,dc=example,dc=com"
+        );
+        // @formatter:on
+
+        final EntryReader reader = LDIF.merge(Arrays.asList(input1, input2));
+
+        assertThat(readNames(reader)).containsExactly("dc=example,dc=com", "ou=People,dc=example,dc=com",
+                "uid=user.1,ou=People,dc=example,dc=com", "uid=user.2,ou=People,dc=example,dc=com",
+                "uid=user.3,ou=People,dc=example,dc=com");
+    }
+
+    @Test(expectedExceptions = DecodeException.class)
+    public final void testLdifMergeUnsortedInput() throws Exception {
+        // @formatter:off
+        final LDIFEntryReader input = new LDIFEntryReader(
+            "dn: uid=user.2,ou=People,dc=example,dc=com",
+            "",
+            "dn: uid=user.1,ou=People,dc=example,dc=com"
+        );
+        // @formatter:on
+
+        readNames(LDIF.merge(Arrays.asList(input)));
+    }
+
+    @Test
+    public final void testLdifSortUsingTemporaryFiles() throws Exception {
+        // @formatter:off
+        final LDIFEntryReader input = new LDIFEntryReader(
+            "dn: uid=user.3,ou=People,dc=example,dc=com",
+            "description: first",
+            "",
+            "dn: ou=People,dc=example,dc=com",
+            "",
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "",
+            "dn: uid=user.3,ou=People,dc=example,dc=com",
+            "description: second",
+            "",
+            "dn: dc=example,dc=com"
+        );
+        // @formatter:on
+        final File tmpDirectory = Files.createTempDirectory("ldif").toFile();
+        try {
+            // Writes each entry to its own temporary file.
+            final EntryReader reader = LDIF.sort(input, tmpDirectory, 1);
+            assertThat(tmpDirectory.list()).hasSize(5);
+
+            final List<Entry> entries = readEntries(reader);
+            assertThat(entries).hasSize(5);
+            assertThat(entries.get(0).getName().toString()).isEqualTo("dc=example,dc=com");
+            assertThat(entries.get(1).getName().toString()).isEqualTo("ou=People,dc=example,dc=com");
+            assertThat(entries.get(2).getName().toString()).isEqualTo("uid=user.1,ou=People,dc=example,dc=com");
+            // Entries having the same DN keep their order.
+            assertThat(entries.get(3).parseAttribute("description").asString()).isEqualTo("first");
+            assertThat(entries.get(4).parseAttribute("description").asString()).isEqualTo("second");
+            assertThat(tmpDirectory.list()).isEmpty();
+        } finally {
+            tmpDirectory.delete();
+        }
+    }
+
+    @Test
+    public final void testLdifSortChangeRecordsUsingTemporaryFiles() throws Exception {
+        // @formatter:off
+        final LDIFChangeRecordReader input = new LDIFChangeRecordReader(
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "changetype: modify",
+            "replace: description",
+            "description: first",
+            "",
+            "dn: ou=Groups,dc=example,dc=com",
+            "control: 1.2.840.113556.1.4.805",
+            "changetype: delete",
+            "",
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "changetype: modify",
+            "replace: description",
+            "description: second",
+            "",
+            "dn: dc=example,dc=com",
+            "changetype: add",
+            "objectClass: domain",
+            "dc: example"
+        );
+        // @formatter:on
+        final File tmpDirectory = Files.createTempDirectory("ldif").toFile();
+        try {
+            // Writes each change record to its own temporary file.
+            final ChangeRecordReader reader = LDIF.sort(input, tmpDirectory, 1);
+            assertThat(tmpDirectory.list()).hasSize(4);
+
+            final List<ChangeRecord> changes = readChangeRecords(reader);
+            assertThat(changes).hasSize(4);
+            assertThat(changes.get(0)).isInstanceOf(AddRequest.class);
+            assertThat(changes.get(0).getName().toString()).isEqualTo("dc=example,dc=com");
+            assertThat(((AddRequest) changes.get(0)).parseAttribute("dc").asString()).isEqualTo("example");
+            assertThat(changes.get(1).getName().toString()).isEqualTo("ou=Groups,dc=example,dc=com");
+            assertThat(((DeleteRequest) changes.get(1)).containsControl("1.2.840.113556.1.4.805")).isTrue();
+            // Change records having the same DN keep their order.
+            assertThat(((ModifyRequest) changes.get(2)).getModifications().get(0).getAttribute().firstValueAsString())
+                    .isEqualTo("first");
+            assertThat(((ModifyRequest) changes.get(3)).getModifications().get(0).getAttribute().firstValueAsString())
+                    .isEqualTo("second");
+            assertThat(tmpDirectory.list()).isEmpty();
+        } finally {
+            tmpDirectory.delete();
+        }
+    }
+
+    @Test
+    public final void testLdifPatchSortedWithSortedChangeRecordsAppliesSubtreeDeletesInOrder() throws Exception {
+        // @formatter:off
+        final LDIFEntryReader input = new LDIFEntryReader(
+            "dn: ou=People,dc=example,dc=com",
+            "objectClass: organizationalUnit",
+            "ou: People",
+            "",
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "objectClass: person",
+            "sn: one",
+            "",
+            "dn: uid=user.2,ou=People,dc=example,dc=com",
+            "objectClass: person",
+            "sn: two"
+        );
+        final LDIFChangeRecordReader patch = new LDIFChangeRecordReader(
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "changetype: modify",
+            "replace: sn",
+            "sn: first",
+            "",
+            "dn: uid=user.3,ou=People,dc=example,dc=com",
+            "changetype: add",
+            "objectClass: person",
+            "sn: three",
+            "",
+            "dn: ou=People,dc=example,dc=com",
+            "control: 1.2.840.113556.1.4.805",
+            "changetype: delete",
+            "",
+            "dn: ou=People,dc=example,dc=com",
+            "changetype: add",
+            "objectClass: organizationalUnit",
+            "ou: People",
+            "",
+            "dn: uid=user.4,ou=People,dc=example,dc=com",
+            "changetype: add",
+            "objectClass: person",
+            "sn: four"
+        );
+        // @formatter:on
+
+        // The changes of the deleted subtree which precede the subtree delete are discarded instead of failing.
+        final EntryReader reader = LDIF.patchSorted(input, LDIF.sort(patch, null, Long.MAX_VALUE),
+                RejectedChangeRecordListener.FAIL_FAST);
+
+        assertThat(readNames(reader)).containsExactly("ou=People,dc=example,dc=com",
+                "uid=user.4,ou=People,dc=example,dc=com");
+    }
+
+    @Test
+    public final void testLdifPatchSorted() throws Exception {
+        // @formatter:off
+        final LDIFEntryReader input = new LDIFEntryReader(
+            "dn: ou=Groups,dc=example,dc=com",
+            "objectClass: organizationalUnit",
+            "ou: Groups",
+            "",
+            "dn: cn=admins,ou=Groups,dc=example,dc=com",
+            "objectClass: groupOfNames",
+            "cn: admins",
+            "",
+            "dn: ou=People,dc=example,dc=com",
+            "objectClass: organizationalUnit",
+            "ou: People",
+            "",
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "objectClass: person",
+            "sn: one",
+            "",
+            "dn: uid=user.3,ou=People,dc=example,dc=com",
+            "objectClass: person",
+            "sn: three"
+        );
+        final LDIFChangeRecordReader patch = new LDIFChangeRecordReader(
+            "dn: ou=Groups,dc=example,dc=com",
+            "control: 1.2.840.113556.1.4.805",
+            "changetype: delete",
+            "",
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "changetype: modify",
+            "replace: sn",
+            "sn: first",
+            "",
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "changetype: modify",
+            "add: description",
+            "description: modified twice",
+            "",
+            "dn: uid=user.2,ou=People,dc=example,dc=com",
+            "changetype: add",
+            "objectClass: person",
+            "sn: two",
+            "",
+            "dn: uid=user.3,ou=People,dc=example,dc=com",
+            "changetype: delete"
+        );
+        // @formatter:on
+
+        final EntryReader reader = LDIF.patchSorted(input, patch, RejectedChangeRecordListener.FAIL_FAST);
+
+        final List<Entry> entries = readEntries(reader);
+        assertThat(entries).hasSize(3);
+        assertThat(entries.get(0).getName().toString()).isEqualTo("ou=People,dc=example,dc=com");
+        assertThat(entries.get(1).getName().toString()).isEqualTo("uid=user.1,ou=People,dc=example,dc=com");
+        assertThat(entries.get(1).parseAttribute("sn").asString()).isEqualTo("first");
+        assertThat(entries.get(1).parseAttribute("description").asString()).isEqualTo("modified twice");
+        assertThat(entries.get(2).getName().toString()).isEqualTo("uid=user.2,ou=People,dc=example,dc=com");
+    }
+
+    @Test(expectedExceptions = DecodeException.class)
+    public final void testLdifPatchSortedRejectsModifyDN() throws Exception {
+        // @formatter:off
+        final LDIFEntryReader input = new LDIFEntryReader(
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "objectClass: person",
+            "sn: one"
+        );
+        final LDIFChangeRecordReader patch = new LDIFChangeRecordReader(
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "changetype: modrdn",
+            "newrdn: uid=user.2",
+            "deleteoldrdn: 1"
+        );
+        // @formatter:on
+
+        readEntries(LDIF.patchSorted(input, patch, RejectedChangeRecordListener.FAIL_FAST));
+    }
+
+    @Test(expectedExceptions = DecodeException.class)
+    public final void testLdifPatchSortedUnsortedChanges() throws Exception {
+        // @formatter:off
+        final LDIFEntryReader input = new LDIFEntryReader(
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "",
+            "dn: uid=user.2,ou=People,dc=example,dc=com"
+        );
+        final LDIFChangeRecordReader patch = new LDIFChangeRecordReader(
+            "dn: uid=user.2,ou=People,dc=example,dc=com",
+            "changetype: delete",
+            "",
+            "dn: uid=user.1,ou=People,dc=example,dc=com",
+            "changetype: delete"
+        );
+        // @formatter:on
+
+        readEntries(LDIF.patchSorted(input, patch, RejectedChangeRecordListener.OVERWRITE));
+    }
+
+    private static List<Entry> readEntries(final EntryReader reader) throws IOException {
+        try {
+            final List<Entry> entries = new ArrayList<>();
+            while (reader.hasNext()) {
+                entries.add(reader.readEntry());
+            }
+            return entries;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static List<ChangeRecord> readChangeRecords(final ChangeRecordReader reader) throws IOException {
+        try {
+            final List<ChangeRecord> changes = new ArrayList<>();
+            while (reader.hasNext()) {
+                changes.add(reader.readChangeRecord());
+            }
+            return changes;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static List<String> readNames(final EntryReader reader) throws IOException {
+        final List<String> names = new ArrayList<>();
+        for (final Entry entry : readEntries(reader)) {
+            names.add(entry.getName().toString());
+        }
+        return names;
+    }
+
     // @formatter:off
     private static final List<String> LDIF_ONE_ENTRY = Arrays.asList(
         "dn: uid=user.1,ou=People,dc=example,dc=com",
@@ -20,6 +20,7 @@ import static com.forgerock.opendj.ldap.CoreMessages.*;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -27,51 +28,23 @@ import org.forgerock.opendj.io.ASN1;
 import org.forgerock.opendj.io.ASN1Writer;
 import org.forgerock.opendj.io.AbstractASN1Writer;
 import org.forgerock.opendj.ldap.ByteSequence;
-import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.glassfish.grizzly.Buffer;
 import org.glassfish.grizzly.Cacheable;
 import org.glassfish.grizzly.memory.ByteBufferWrapper;
 
 import com.forgerock.opendj.util.StaticUtils;
 
-/** Grizzly ASN1 writer implementation. */
+/**
+ * Grizzly ASN1 writer implementation.
+ * <p>
+ * All the elements are written once into a single buffer. The length of a
+ * sequence is not known until it ends, so five octets, which is enough for
+ * any length, are reserved when the sequence is started. The length is
+ * written at the beginning of the reserved octets when the sequence ends, and
+ * the unused octets are removed in a single pass when the buffer is retrieved,
+ * so that lengths are always encoded using the minimum number of octets.
+ */
 final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
-    private class ChildSequenceBuffer implements SequenceBuffer {
-        private SequenceBuffer parent;
-        private ChildSequenceBuffer child;
-        private final ByteStringBuilder buffer = new ByteStringBuilder(BUFFER_INIT_SIZE);
-
-        @Override
-        public SequenceBuffer endSequence() throws IOException {
-            writeLength(parent, buffer.length());
-            parent.writeByteArray(buffer.getBackingArray(), 0, buffer.length());
-            buffer.clearAndTruncate(DEFAULT_MAX_INTERNAL_BUFFER_SIZE, BUFFER_INIT_SIZE);
-            logger.trace("WRITE ASN.1 END SEQUENCE(length=%d)", buffer.length());
-            return parent;
-        }
-
-        @Override
-        public SequenceBuffer startSequence(final byte type) throws IOException {
-            if (child == null) {
-                child = new ChildSequenceBuffer();
-                child.parent = this;
-            }
-            buffer.appendByte(type);
-            child.buffer.clear();
-            return child;
-        }
-
-        @Override
-        public void writeByte(final byte b) throws IOException {
-            buffer.appendByte(b);
-        }
-
-        @Override
-        public void writeByteArray(final byte[] bs, final int offset, final int length) throws IOException {
-            buffer.appendBytes(bs, offset, length);
-        }
-    }
-
     private static final class RecyclableBuffer extends ByteBufferWrapper {
         private volatile boolean usable = true;
 
@@ -91,8 +64,9 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
          *
          * @param size
          *            The number of additional bytes.
+         * @return The byte buffer to write to.
          */
-        public void ensureAdditionalCapacity(final int size) {
+        private ByteBuffer ensureAdditionalCapacity(final int size) {
             final int newCount = visible.position() + size;
             if (newCount > visible.capacity()) {
                 final ByteBuffer newByteBuffer =
@@ -100,60 +74,22 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
                 visible.flip();
                 visible = newByteBuffer.put(visible);
             }
-        }
-    }
-
-    private class RootSequenceBuffer implements SequenceBuffer {
-        private ChildSequenceBuffer child;
-
-        @Override
-        public SequenceBuffer endSequence() throws IOException {
-            final LocalizableMessage message = ERR_ASN1_SEQUENCE_WRITE_NOT_STARTED.get();
-            throw new IllegalStateException(message.toString());
-        }
-
-        @Override
-        public SequenceBuffer startSequence(final byte type) throws IOException {
-            if (child == null) {
-                child = new ChildSequenceBuffer();
-                child.parent = this;
-            }
-            outBuffer.ensureAdditionalCapacity(1);
-            outBuffer.put(type);
-            child.buffer.clear();
-            return child;
-        }
-
-        @Override
-        public void writeByte(final byte b) throws IOException {
-            outBuffer.ensureAdditionalCapacity(1);
-            outBuffer.put(b);
+            return visible;
         }
 
-        @Override
-        public void writeByteArray(final byte[] bs, final int offset, final int length)
-                throws IOException {
-            outBuffer.ensureAdditionalCapacity(length);
-            outBuffer.put(bs, offset, length);
+        private ByteBuffer getByteBuffer() {
+            return visible;
         }
     }
 
-    private interface SequenceBuffer {
-        SequenceBuffer endSequence() throws IOException;
-
-        SequenceBuffer startSequence(byte type) throws IOException;
-
-        void writeByte(byte b) throws IOException;
-
-        void writeByteArray(byte[] bs, int offset, int length) throws IOException;
-    }
-
     private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
     /** Initial size of newly created buffers. */
     private static final int BUFFER_INIT_SIZE = 1024;
-    /** Default maximum size for cached protocol/entry encoding buffers. */
-    private static final int DEFAULT_MAX_INTERNAL_BUFFER_SIZE = 32 * 1024;
+    /** Number of octets reserved for the length of each sequence, which is the maximum length of a length. */
+    private static final int MAX_LENGTH_SIZE = 5;
+    /** Initial number of sequences which can be tracked. */
+    private static final int SEQUENCES_INIT_SIZE = 32;
 
     /** Reset the writer. */
     void reset() {
@@ -162,15 +98,33 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
             outBuffer = new RecyclableBuffer();
         }
         outBuffer.clear();
+        sequenceCount = 0;
+        openSequenceCount = 0;
     }
 
-    private SequenceBuffer sequenceBuffer;
     private RecyclableBuffer outBuffer;
-    private final RootSequenceBuffer rootBuffer;
+
+    /**
+     * The position of the octets reserved for the length of each sequence
+     * started since the last reset, in the order in which they were started.
+     */
+    private int[] lengthPositions = new int[SEQUENCES_INIT_SIZE];
+    /**
+     * The number of reserved octets which were not needed for the length of
+     * each sequence, indexed like {@link #lengthPositions}. It is zero for the
+     * sequences which have not ended yet.
+     */
+    private int[] unusedLengthSizes = new int[SEQUENCES_INIT_SIZE];
+    private int sequenceCount;
+
+    /** The indexes of the sequences which have been started but not ended, the innermost last. */
+    private int[] openSequences = new int[SEQUENCES_INIT_SIZE];
+    /** The number of unused reserved octets within each open sequence, indexed like {@link #openSequences}. */
+    private int[] nestedUnusedLengthSizes = new int[SEQUENCES_INIT_SIZE];
+    private int openSequenceCount;
 
     /** Creates a new ASN.1 writer that writes to a StreamWriter. */
     ASN1BufferWriter() {
-        this.sequenceBuffer = this.rootBuffer = new RootSequenceBuffer();
         this.outBuffer = new RecyclableBuffer();
     }
 
@@ -200,15 +154,17 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
     /** Recycle the writer to allow re-use. */
     @Override
     public void recycle() {
-        sequenceBuffer = rootBuffer;
         outBuffer.clear();
+        sequenceCount = 0;
+        openSequenceCount = 0;
     }
 
     @Override
     public ASN1Writer writeBoolean(final byte type, final boolean booleanValue) throws IOException {
-        sequenceBuffer.writeByte(type);
-        writeLength(sequenceBuffer, 1);
-        sequenceBuffer.writeByte(booleanValue ? ASN1.BOOLEAN_VALUE_TRUE : ASN1.BOOLEAN_VALUE_FALSE);
+        final ByteBuffer buffer = outBuffer.ensureAdditionalCapacity(3);
+        buffer.put(type);
+        writeLength(buffer, 1);
+        buffer.put(booleanValue ? ASN1.BOOLEAN_VALUE_TRUE : ASN1.BOOLEAN_VALUE_FALSE);
 
         logger.trace("WRITE ASN.1 BOOLEAN(type=0x%x, length=%d, value=%s)", type, 1, booleanValue);
         return this;
@@ -216,8 +172,29 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
 
     @Override
     public ASN1Writer writeEndSequence() throws IOException {
-        sequenceBuffer = sequenceBuffer.endSequence();
+        if (openSequenceCount == 0) {
+            final LocalizableMessage message = ERR_ASN1_SEQUENCE_WRITE_NOT_STARTED.get();
+            throw new IllegalStateException(message.toString());
+        }
+        final int sequence = openSequences[--openSequenceCount];
+        final int nestedUnusedLengthSize = nestedUnusedLengthSizes[openSequenceCount];
+        final int lengthPosition = lengthPositions[sequence];
+        final ByteBuffer buffer = outBuffer.getByteBuffer();
+        final int length = buffer.position() - lengthPosition - MAX_LENGTH_SIZE - nestedUnusedLengthSize;
+
+        // Back-patch the length at the beginning of the reserved octets.
+        final int endPosition = buffer.position();
+        buffer.position(lengthPosition);
+        writeLength(buffer, length);
+        final int unusedLengthSize = lengthPosition + MAX_LENGTH_SIZE - buffer.position();
+        buffer.position(endPosition);
+
+        unusedLengthSizes[sequence] = unusedLengthSize;
+        if (openSequenceCount > 0) {
+            nestedUnusedLengthSizes[openSequenceCount - 1] += nestedUnusedLengthSize + unusedLengthSize;
+        }
 
+        logger.trace("WRITE ASN.1 END SEQUENCE(length=%d)", length);
         return this;
     }
 
@@ -233,31 +210,32 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
 
     @Override
     public ASN1Writer writeInteger(final byte type, final int intValue) throws IOException {
-        sequenceBuffer.writeByte(type);
+        final ByteBuffer buffer = outBuffer.ensureAdditionalCapacity(2 + 8);
+        buffer.put(type);
         if (((intValue < 0) && ((intValue & 0xFFFFFF80) == 0xFFFFFF80))
                 || ((intValue & 0x0000007F) == intValue)) {
-            writeLength(sequenceBuffer, 1);
-            sequenceBuffer.writeByte((byte) intValue);
+            writeLength(buffer, 1);
+            buffer.put((byte) intValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 1, intValue);
         } else if (((intValue < 0) && ((intValue & 0xFFFF8000) == 0xFFFF8000))
                 || ((intValue & 0x00007FFF) == intValue)) {
-            writeLength(sequenceBuffer, 2);
-            sequenceBuffer.writeByte((byte) (intValue >> 8));
-            sequenceBuffer.writeByte((byte) intValue);
+            writeLength(buffer, 2);
+            buffer.put((byte) (intValue >> 8));
+            buffer.put((byte) intValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 2, intValue);
         } else if (((intValue < 0) && ((intValue & 0xFF800000) == 0xFF800000))
                 || ((intValue & 0x007FFFFF) == intValue)) {
-            writeLength(sequenceBuffer, 3);
-            sequenceBuffer.writeByte((byte) (intValue >> 16));
-            sequenceBuffer.writeByte((byte) (intValue >> 8));
-            sequenceBuffer.writeByte((byte) intValue);
+            writeLength(buffer, 3);
+            buffer.put((byte) (intValue >> 16));
+            buffer.put((byte) (intValue >> 8));
+            buffer.put((byte) intValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 3, intValue);
         } else {
-            writeLength(sequenceBuffer, 4);
-            sequenceBuffer.writeByte((byte) (intValue >> 24));
-            sequenceBuffer.writeByte((byte) (intValue >> 16));
-            sequenceBuffer.writeByte((byte) (intValue >> 8));
-            sequenceBuffer.writeByte((byte) intValue);
+            writeLength(buffer, 4);
+            buffer.put((byte) (intValue >> 24));
+            buffer.put((byte) (intValue >> 16));
+            buffer.put((byte) (intValue >> 8));
+            buffer.put((byte) intValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 4, intValue);
         }
         return this;
@@ -265,73 +243,74 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
 
     @Override
     public ASN1Writer writeInteger(final byte type, final long longValue) throws IOException {
-        sequenceBuffer.writeByte(type);
+        final ByteBuffer buffer = outBuffer.ensureAdditionalCapacity(2 + 8);
+        buffer.put(type);
         if (((longValue < 0) && ((longValue & 0xFFFFFFFFFFFFFF80L) == 0xFFFFFFFFFFFFFF80L))
                 || ((longValue & 0x000000000000007FL) == longValue)) {
-            writeLength(sequenceBuffer, 1);
-            sequenceBuffer.writeByte((byte) longValue);
+            writeLength(buffer, 1);
+            buffer.put((byte) longValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 1, longValue);
         } else if (((longValue < 0) && ((longValue & 0xFFFFFFFFFFFF8000L) == 0xFFFFFFFFFFFF8000L))
                 || ((longValue & 0x0000000000007FFFL) == longValue)) {
-            writeLength(sequenceBuffer, 2);
-            sequenceBuffer.writeByte((byte) (longValue >> 8));
-            sequenceBuffer.writeByte((byte) longValue);
+            writeLength(buffer, 2);
+            buffer.put((byte) (longValue >> 8));
+            buffer.put((byte) longValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 2, longValue);
         } else if (((longValue < 0) && ((longValue & 0xFFFFFFFFFF800000L) == 0xFFFFFFFFFF800000L))
                 || ((longValue & 0x00000000007FFFFFL) == longValue)) {
-            writeLength(sequenceBuffer, 3);
-            sequenceBuffer.writeByte((byte) (longValue >> 16));
-            sequenceBuffer.writeByte((byte) (longValue >> 8));
-            sequenceBuffer.writeByte((byte) longValue);
+            writeLength(buffer, 3);
+            buffer.put((byte) (longValue >> 16));
+            buffer.put((byte) (longValue >> 8));
+            buffer.put((byte) longValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 3, longValue);
         } else if (((longValue < 0) && ((longValue & 0xFFFFFFFF80000000L) == 0xFFFFFFFF80000000L))
                 || ((longValue & 0x000000007FFFFFFFL) == longValue)) {
-            writeLength(sequenceBuffer, 4);
-            sequenceBuffer.writeByte((byte) (longValue >> 24));
-            sequenceBuffer.writeByte((byte) (longValue >> 16));
-            sequenceBuffer.writeByte((byte) (longValue >> 8));
-            sequenceBuffer.writeByte((byte) longValue);
+            writeLength(buffer, 4);
+            buffer.put((byte) (longValue >> 24));
+            buffer.put((byte) (longValue >> 16));
+            buffer.put((byte) (longValue >> 8));
+            buffer.put((byte) longValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 4, longValue);
         } else if (((longValue < 0) && ((longValue & 0xFFFFFF8000000000L) == 0xFFFFFF8000000000L))
                 || ((longValue & 0x0000007FFFFFFFFFL) == longValue)) {
-            writeLength(sequenceBuffer, 5);
-            sequenceBuffer.writeByte((byte) (longValue >> 32));
-            sequenceBuffer.writeByte((byte) (longValue >> 24));
-            sequenceBuffer.writeByte((byte) (longValue >> 16));
-            sequenceBuffer.writeByte((byte) (longValue >> 8));
-            sequenceBuffer.writeByte((byte) longValue);
+            writeLength(buffer, 5);
+            buffer.put((byte) (longValue >> 32));
+            buffer.put((byte) (longValue >> 24));
+            buffer.put((byte) (longValue >> 16));
+            buffer.put((byte) (longValue >> 8));
+            buffer.put((byte) longValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 5, longValue);
         } else if (((longValue < 0) && ((longValue & 0xFFFF800000000000L) == 0xFFFF800000000000L))
                 || ((longValue & 0x00007FFFFFFFFFFFL) == longValue)) {
-            writeLength(sequenceBuffer, 6);
-            sequenceBuffer.writeByte((byte) (longValue >> 40));
-            sequenceBuffer.writeByte((byte) (longValue >> 32));
-            sequenceBuffer.writeByte((byte) (longValue >> 24));
-            sequenceBuffer.writeByte((byte) (longValue >> 16));
-            sequenceBuffer.writeByte((byte) (longValue >> 8));
-            sequenceBuffer.writeByte((byte) longValue);
+            writeLength(buffer, 6);
+            buffer.put((byte) (longValue >> 40));
+            buffer.put((byte) (longValue >> 32));
+            buffer.put((byte) (longValue >> 24));
+            buffer.put((byte) (longValue >> 16));
+            buffer.put((byte) (longValue >> 8));
+            buffer.put((byte) longValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 6, longValue);
         } else if (((longValue < 0) && ((longValue & 0xFF80000000000000L) == 0xFF80000000000000L))
                 || ((longValue & 0x007FFFFFFFFFFFFFL) == longValue)) {
-            writeLength(sequenceBuffer, 7);
-            sequenceBuffer.writeByte((byte) (longValue >> 48));
-            sequenceBuffer.writeByte((byte) (longValue >> 40));
-            sequenceBuffer.writeByte((byte) (longValue >> 32));
-            sequenceBuffer.writeByte((byte) (longValue >> 24));
-            sequenceBuffer.writeByte((byte) (longValue >> 16));
-            sequenceBuffer.writeByte((byte) (longValue >> 8));
-            sequenceBuffer.writeByte((byte) longValue);
+            writeLength(buffer, 7);
+            buffer.put((byte) (longValue >> 48));
+            buffer.put((byte) (longValue >> 40));
+            buffer.put((byte) (longValue >> 32));
+            buffer.put((byte) (longValue >> 24));
+            buffer.put((byte) (longValue >> 16));
+            buffer.put((byte) (longValue >> 8));
+            buffer.put((byte) longValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 7, longValue);
         } else {
-            writeLength(sequenceBuffer, 8);
-            sequenceBuffer.writeByte((byte) (longValue >> 56));
-            sequenceBuffer.writeByte((byte) (longValue >> 48));
-            sequenceBuffer.writeByte((byte) (longValue >> 40));
-            sequenceBuffer.writeByte((byte) (longValue >> 32));
-            sequenceBuffer.writeByte((byte) (longValue >> 24));
-            sequenceBuffer.writeByte((byte) (longValue >> 16));
-            sequenceBuffer.writeByte((byte) (longValue >> 8));
-            sequenceBuffer.writeByte((byte) longValue);
+            writeLength(buffer, 8);
+            buffer.put((byte) (longValue >> 56));
+            buffer.put((byte) (longValue >> 48));
+            buffer.put((byte) (longValue >> 40));
+            buffer.put((byte) (longValue >> 32));
+            buffer.put((byte) (longValue >> 24));
+            buffer.put((byte) (longValue >> 16));
+            buffer.put((byte) (longValue >> 8));
+            buffer.put((byte) longValue);
             logger.trace("WRITE ASN.1 INTEGER(type=0x%x, length=%d, value=%d)", type, 8, longValue);
         }
         return this;
@@ -339,8 +318,9 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
 
     @Override
     public ASN1Writer writeNull(final byte type) throws IOException {
-        sequenceBuffer.writeByte(type);
-        writeLength(sequenceBuffer, 0);
+        final ByteBuffer buffer = outBuffer.ensureAdditionalCapacity(2);
+        buffer.put(type);
+        writeLength(buffer, 0);
 
         logger.trace("WRITE ASN.1 NULL(type=0x%x, length=%d)", type, 0);
         return this;
@@ -349,9 +329,10 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
     @Override
     public ASN1Writer writeOctetString(final byte type, final byte[] value, final int offset,
             final int length) throws IOException {
-        sequenceBuffer.writeByte(type);
-        writeLength(sequenceBuffer, length);
-        sequenceBuffer.writeByteArray(value, offset, length);
+        final ByteBuffer buffer = outBuffer.ensureAdditionalCapacity(1 + MAX_LENGTH_SIZE + length);
+        buffer.put(type);
+        writeLength(buffer, length);
+        buffer.put(value, offset, length);
 
         logger.trace("WRITE ASN.1 OCTETSTRING(type=0x%x, length=%d)", type, length);
         return this;
@@ -360,12 +341,10 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
     @Override
     public ASN1Writer writeOctetString(final byte type, final ByteSequence value)
             throws IOException {
-        sequenceBuffer.writeByte(type);
-        writeLength(sequenceBuffer, value.length());
-        // TODO: Is there a more efficient way to do this?
-        for (int i = 0; i < value.length(); i++) {
-            sequenceBuffer.writeByte(value.byteAt(i));
-        }
+        final ByteBuffer buffer = outBuffer.ensureAdditionalCapacity(1 + MAX_LENGTH_SIZE + value.length());
+        buffer.put(type);
+        writeLength(buffer, value.length());
+        value.copyTo(buffer);
 
         logger.trace("WRITE ASN.1 OCTETSTRING(type=0x%x, length=%d)", type, value.length());
         return this;
@@ -373,16 +352,18 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
 
     @Override
     public ASN1Writer writeOctetString(final byte type, final String value) throws IOException {
-        sequenceBuffer.writeByte(type);
-
         if (value == null) {
-            writeLength(sequenceBuffer, 0);
+            final ByteBuffer buffer = outBuffer.ensureAdditionalCapacity(2);
+            buffer.put(type);
+            writeLength(buffer, 0);
             return this;
         }
 
         final byte[] bytes = StaticUtils.getBytes(value);
-        writeLength(sequenceBuffer, bytes.length);
-        sequenceBuffer.writeByteArray(bytes, 0, bytes.length);
+        final ByteBuffer buffer = outBuffer.ensureAdditionalCapacity(1 + MAX_LENGTH_SIZE + bytes.length);
+        buffer.put(type);
+        writeLength(buffer, bytes.length);
+        buffer.put(bytes);
 
         logger.trace("WRITE ASN.1 OCTETSTRING(type=0x%x, length=%d, value=%s)", type, bytes.length, value);
         return this;
@@ -390,8 +371,25 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
 
     @Override
     public ASN1Writer writeStartSequence(final byte type) throws IOException {
-        // Get a child sequence buffer
-        sequenceBuffer = sequenceBuffer.startSequence(type);
+        final ByteBuffer buffer = outBuffer.ensureAdditionalCapacity(1 + MAX_LENGTH_SIZE);
+        buffer.put(type);
+
+        // Reserve the octets for the length, which will be written when the sequence ends.
+        if (sequenceCount == lengthPositions.length) {
+            lengthPositions = Arrays.copyOf(lengthPositions, sequenceCount << 1);
+            unusedLengthSizes = Arrays.copyOf(unusedLengthSizes, sequenceCount << 1);
+        }
+        if (openSequenceCount == openSequences.length) {
+            openSequences = Arrays.copyOf(openSequences, openSequenceCount << 1);
+            nestedUnusedLengthSizes = Arrays.copyOf(nestedUnusedLengthSizes, openSequenceCount << 1);
+        }
+        lengthPositions[sequenceCount] = buffer.position();
+        unusedLengthSizes[sequenceCount] = 0;
+        openSequences[openSequenceCount] = sequenceCount;
+        nestedUnusedLengthSizes[openSequenceCount] = 0;
+        sequenceCount++;
+        openSequenceCount++;
+        buffer.position(buffer.position() + MAX_LENGTH_SIZE);
 
         logger.trace("WRITE ASN.1 START SEQUENCE(type=0x%x)", type);
         return this;
@@ -405,41 +403,73 @@ final class ASN1BufferWriter extends AbstractASN1Writer implements Cacheable {
     }
 
     Buffer getBuffer() {
+        removeUnusedLengthOctets();
         outBuffer.usable = false;
         return outBuffer.flip();
     }
 
+    /**
+     * Removes the reserved octets which were not needed for the lengths of the
+     * sequences, moving each chunk of data between two of them once.
+     */
+    private void removeUnusedLengthOctets() {
+        final ByteBuffer buffer = outBuffer.getByteBuffer();
+        final byte[] bytes = buffer.array();
+        final int offset = buffer.arrayOffset();
+        int writePosition = -1;
+        int readPosition = -1;
+        for (int i = 0; i < sequenceCount; i++) {
+            final int unusedLengthSize = unusedLengthSizes[i];
+            if (unusedLengthSize == 0) {
+                continue;
+            }
+            final int unusedPosition = lengthPositions[i] + MAX_LENGTH_SIZE - unusedLengthSize;
+            if (writePosition < 0) {
+                writePosition = unusedPosition;
+            } else {
+                final int chunkLength = unusedPosition - readPosition;
+                System.arraycopy(bytes, offset + readPosition, bytes, offset + writePosition, chunkLength);
+                writePosition += chunkLength;
+            }
+            readPosition = unusedPosition + unusedLengthSize;
+        }
+        if (writePosition >= 0) {
+            final int chunkLength = buffer.position() - readPosition;
+            System.arraycopy(bytes, offset + readPosition, bytes, offset + writePosition, chunkLength);
+            buffer.position(writePosition + chunkLength);
+        }
+        sequenceCount = 0;
+    }
+
     /**
      * Writes the provided value for use as the length of an ASN.1 element.
      *
      * @param buffer
-     *            The sequence buffer to write to.
+     *            The buffer to write to, which must have enough remaining space.
      * @param length
      *            The length to encode for use in an ASN.1 element.
-     * @throws IOException
-     *             if an error occurs while writing.
      */
-    private void writeLength(final SequenceBuffer buffer, final int length) throws IOException {
+    private static void writeLength(final ByteBuffer buffer, final int length) {
         if (length < 128) {
-            buffer.writeByte((byte) length);
+            buffer.put((byte) length);
         } else if ((length & 0x000000FF) == length) {
-            buffer.writeByte((byte) 0x81);
-            buffer.writeByte((byte) length);
+            buffer.put((byte) 0x81);
+            buffer.put((byte) length);
         } else if ((length & 0x0000FFFF) == length) {
-            buffer.writeByte((byte) 0x82);
-            buffer.writeByte((byte) (length >> 8));
-            buffer.writeByte((byte) length);
+            buffer.put((byte) 0x82);
+            buffer.put((byte) (length >> 8));
+            buffer.put((byte) length);
         } else if ((length & 0x00FFFFFF) == length) {
-            buffer.writeByte((byte) 0x83);
-            buffer.writeByte((byte) (length >> 16));
-            buffer.writeByte((byte) (length >> 8));
-            buffer.writeByte((byte) length);
+            buffer.put((byte) 0x83);
+            buffer.put((byte) (length >> 16));
+            buffer.put((byte) (length >> 8));
+            buffer.put((byte) length);
         } else {
-            buffer.writeByte((byte) 0x84);
-            buffer.writeByte((byte) (length >> 24));
-            buffer.writeByte((byte) (length >> 16));
-            buffer.writeByte((byte) (length >> 8));
-            buffer.writeByte((byte) length);
+            buffer.put((byte) 0x84);
+            buffer.put((byte) (length >> 24));
+            buffer.put((byte) (length >> 16));
+            buffer.put((byte) (length >> 8));
+            buffer.put((byte) length);
         }
     }
 }
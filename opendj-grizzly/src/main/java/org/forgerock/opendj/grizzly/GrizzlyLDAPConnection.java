@@ -81,8 +81,10 @@ import org.forgerock.util.promise.PromiseImpl;
 import org.forgerock.util.time.Duration;
 import org.glassfish.grizzly.CompletionHandler;
 import org.glassfish.grizzly.EmptyCompletionHandler;
+import org.glassfish.grizzly.IOEvent;
 import org.glassfish.grizzly.filterchain.Filter;
 import org.glassfish.grizzly.filterchain.FilterChain;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
 import org.glassfish.grizzly.ssl.SSLEngineConfigurator;
 import org.glassfish.grizzly.ssl.SSLFilter;
 
@@ -118,6 +120,7 @@ final class GrizzlyLDAPConnection implements LDAPConnectionImpl, TimeoutEventLis
     private boolean failedDueToDisconnect;
     private boolean isClosed;
     private boolean isFailed;
+    private boolean isReadSuspended;
     private List<ConnectionEventListener> listeners;
 
     /**
@@ -511,6 +514,22 @@ final class GrizzlyLDAPConnection implements LDAPConnectionImpl, TimeoutEventLis
         }
     }
 
+    @Override
+    public void resumeReads() {
+        try {
+            synchronized (stateLock) {
+                if (!isReadSuspended) {
+                    return;
+                }
+                isReadSuspended = false;
+                connection.enableIOEvent(IOEvent.READ);
+            }
+        } catch (final IOException e) {
+            connectionErrorOccurred(newResult(ResultCode.CLIENT_SIDE_SERVER_DOWN).setCause(e)
+                    .setDiagnosticMessage(e.getMessage()));
+        }
+    }
+
     @Override
     public LdapPromise<Result> searchAsync(final SearchRequest request,
         final IntermediateResponseHandler intermediateResponseHandler, final SearchResultHandler entryHandler) {
@@ -541,6 +560,47 @@ final class GrizzlyLDAPConnection implements LDAPConnectionImpl, TimeoutEventLis
         return promise;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The messages which have already been read from the socket are still
+     * decoded and passed to the response handlers, so at most one read buffer
+     * worth of messages is delivered after this method has been called.
+     */
+    @Override
+    public void suspendReads() {
+        try {
+            synchronized (stateLock) {
+                if (isReadSuspended || !isValid0()) {
+                    return;
+                }
+                isReadSuspended = true;
+                connection.disableIOEvent(IOEvent.READ);
+            }
+        } catch (final IOException e) {
+            connectionErrorOccurred(newResult(ResultCode.CLIENT_SIDE_SERVER_DOWN).setCause(e)
+                    .setDiagnosticMessage(e.getMessage()));
+        }
+    }
+
+    /**
+     * Invoked by the client filter once the messages of a read event have been
+     * handled. Grizzly re-enables read interest once each read event has been
+     * processed, unless the IO events of the context are controlled manually,
+     * which is required for reads suspended by a response handler to remain
+     * suspended until {@link #resumeReads()} is called.
+     *
+     * @param ctx
+     *            The context of the read event.
+     */
+    void readCompleted(final FilterChainContext ctx) {
+        synchronized (stateLock) {
+            if (isReadSuspended) {
+                ctx.getInternalContext().setManualIOEventControl();
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "(" + connection.getLocalAddress()
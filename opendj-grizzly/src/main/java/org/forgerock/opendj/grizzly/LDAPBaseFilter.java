@@ -77,10 +77,22 @@ abstract class LDAPBaseFilter extends BaseFilter {
         } finally {
             asn1Reader.disposeBytesRead();
         }
+        readCompleted(ctx);
 
         return ctx.getStopAction();
     }
 
+    /**
+     * Invoked once all the messages available in a read event have been
+     * handled. The default implementation does nothing.
+     *
+     * @param ctx
+     *            context when reading
+     */
+    void readCompleted(final FilterChainContext ctx) {
+        // Nothing to do by default.
+    }
+
     /**
      * Handle an exception occuring during a read within the
      * {@code handleRead()} method.
@@ -454,6 +454,14 @@ final class LDAPClientFilter extends LDAPBaseFilter {
         ldapConnection.close(null, false, errorResult);
     }
 
+    @Override
+    final void readCompleted(final FilterChainContext ctx) {
+        final GrizzlyLDAPConnection ldapConnection = LDAP_CONNECTION_ATTR.get(ctx.getConnection());
+        if (ldapConnection != null) {
+            ldapConnection.readCompleted(ctx);
+        }
+    }
+
     /**
      * Returns the response handler associated to the provided connection and
      * context.
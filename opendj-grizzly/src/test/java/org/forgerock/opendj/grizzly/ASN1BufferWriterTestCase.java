@@ -12,21 +12,28 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2010 Sun Microsystems, Inc.
- * Portions copyright 2011-2013 ForgeRock AS.
+ * Portions copyright 2011-2016 ForgeRock AS.
  */
 
 package org.forgerock.opendj.grizzly;
 
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import org.forgerock.opendj.io.ASN1;
 import org.forgerock.opendj.io.ASN1Reader;
 import org.forgerock.opendj.io.ASN1Writer;
 import org.forgerock.opendj.io.ASN1WriterTestCase;
+import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.DecodeException;
 import org.glassfish.grizzly.Buffer;
 import org.glassfish.grizzly.memory.ByteBufferWrapper;
 import org.glassfish.grizzly.memory.MemoryManager;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
 
 /**
  * This class provides testcases for ASN1BufferWriter.
@@ -58,4 +65,141 @@ public class ASN1BufferWriterTestCase extends ASN1WriterTestCase {
         writer.recycle();
         return writer;
     }
+
+    @DataProvider
+    public Object[][] sequenceLengths() {
+        return new Object[][] { { 0 }, { 2 }, { 127 }, { 128 }, { 255 }, { 256 }, { 65535 }, { 65536 } };
+    }
+
+    /** Sequence lengths are back-patched, and must use the minimum number of octets whatever their value. */
+    @Test(dataProvider = "sequenceLengths")
+    public void sequenceLengthsShouldBeMinimal(final int length) throws Exception {
+        final byte[] value = length > 0 ? valueOfEncodedSize(length) : null;
+        final byte[] content = value != null ? tlv(ASN1.UNIVERSAL_OCTET_STRING_TYPE, value) : new byte[0];
+        assertThat(content.length).isEqualTo(length);
+        final ASN1Writer asn1Writer = getWriter();
+        asn1Writer.writeStartSequence();
+        if (value != null) {
+            asn1Writer.writeOctetString(value, 0, value.length);
+        }
+        asn1Writer.writeEndSequence();
+        asn1Writer.writeBoolean(true);
+
+        final byte[] encodedBytes = getEncodedBytes();
+        assertThat(encodedBytes).isEqualTo(concat(
+                tlv(ASN1.UNIVERSAL_SEQUENCE_TYPE, content),
+                tlv(ASN1.UNIVERSAL_BOOLEAN_TYPE, new byte[] { ASN1.BOOLEAN_VALUE_TRUE })));
+
+        final ASN1Reader reader = getReader(encodedBytes);
+        reader.readStartSequence();
+        if (value != null) {
+            assertThat(reader.readOctetString()).isEqualTo(ByteString.wrap(value));
+        }
+        reader.readEndSequence();
+        assertThat(reader.readBoolean()).isTrue();
+        assertThat(reader.hasNextElement()).isFalse();
+    }
+
+    /** The unused length octets of nested sequences must be removed from all their enclosing sequences. */
+    @Test
+    public void nestedSequencesShouldBeCompacted() throws Exception {
+        final byte[] small = valueOfEncodedSize(10);
+        final byte[] medium = valueOfEncodedSize(200);
+        final byte[] large = valueOfEncodedSize(70000);
+
+        final ASN1Writer asn1Writer = getWriter();
+        asn1Writer.writeStartSequence();
+        asn1Writer.writeStartSequence();
+        asn1Writer.writeOctetString(small, 0, small.length);
+        asn1Writer.writeStartSequence();
+        asn1Writer.writeOctetString(medium, 0, medium.length);
+        asn1Writer.writeEndSequence();
+        asn1Writer.writeEndSequence();
+        asn1Writer.writeStartSequence();
+        asn1Writer.writeEndSequence();
+        asn1Writer.writeStartSequence();
+        asn1Writer.writeOctetString(large, 0, large.length);
+        asn1Writer.writeEndSequence();
+        asn1Writer.writeEndSequence();
+        asn1Writer.writeStartSequence();
+        asn1Writer.writeOctetString(small, 0, small.length);
+        asn1Writer.writeEndSequence();
+
+        final byte[] expected = concat(
+                tlv(ASN1.UNIVERSAL_SEQUENCE_TYPE, concat(
+                        tlv(ASN1.UNIVERSAL_SEQUENCE_TYPE, concat(
+                                octetString(small),
+                                tlv(ASN1.UNIVERSAL_SEQUENCE_TYPE, octetString(medium)))),
+                        tlv(ASN1.UNIVERSAL_SEQUENCE_TYPE, new byte[0]),
+                        tlv(ASN1.UNIVERSAL_SEQUENCE_TYPE, octetString(large)))),
+                tlv(ASN1.UNIVERSAL_SEQUENCE_TYPE, octetString(small)));
+        final byte[] encodedBytes = getEncodedBytes();
+        assertThat(encodedBytes).isEqualTo(expected);
+
+        final ASN1Reader reader = getReader(encodedBytes);
+        reader.readStartSequence();
+        reader.readStartSequence();
+        assertThat(reader.readOctetString()).isEqualTo(ByteString.wrap(small));
+        reader.readStartSequence();
+        assertThat(reader.readOctetString()).isEqualTo(ByteString.wrap(medium));
+        reader.readEndSequence();
+        reader.readEndSequence();
+        reader.readStartSequence();
+        assertThat(reader.hasNextElement()).isFalse();
+        reader.readEndSequence();
+        reader.readStartSequence();
+        assertThat(reader.readOctetString()).isEqualTo(ByteString.wrap(large));
+        reader.readEndSequence();
+        reader.readEndSequence();
+        reader.readStartSequence();
+        assertThat(reader.readOctetString()).isEqualTo(ByteString.wrap(small));
+        reader.readEndSequence();
+        assertThat(reader.hasNextElement()).isFalse();
+    }
+
+    /** Returns a value whose octet string encoding has the provided size, which must be at least 2. */
+    private static byte[] valueOfEncodedSize(final int size) {
+        int valueLength = size - 2;
+        while (1 + lengthOf(valueLength).length + valueLength > size) {
+            valueLength--;
+        }
+        final byte[] value = new byte[valueLength];
+        for (int i = 0; i < valueLength; i++) {
+            value[i] = (byte) i;
+        }
+        return value;
+    }
+
+    private static byte[] octetString(final byte[] value) {
+        return tlv(ASN1.UNIVERSAL_OCTET_STRING_TYPE, value);
+    }
+
+    private static byte[] tlv(final byte type, final byte[] value) {
+        return concat(new byte[] { type }, lengthOf(value.length), value);
+    }
+
+    /** Encodes a length using the minimum number of octets, independently of the writer. */
+    private static byte[] lengthOf(final int length) {
+        if (length < 0x80) {
+            return new byte[] { (byte) length };
+        }
+        int lengthSize = 1;
+        while (lengthSize < 4 && length >>> (8 * lengthSize) != 0) {
+            lengthSize++;
+        }
+        final byte[] bytes = new byte[lengthSize + 1];
+        bytes[0] = (byte) (0x80 | lengthSize);
+        for (int i = 0; i < lengthSize; i++) {
+            bytes[lengthSize - i] = (byte) (length >>> (8 * i));
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(final byte[]... arrays) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (final byte[] array : arrays) {
+            bytes.write(array, 0, array.length);
+        }
+        return bytes.toByteArray();
+    }
 }
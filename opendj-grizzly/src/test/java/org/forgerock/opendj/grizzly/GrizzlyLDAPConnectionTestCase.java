@@ -17,27 +17,46 @@
 package org.forgerock.opendj.grizzly;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
 import static org.forgerock.util.time.Duration.duration;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
 import static org.forgerock.opendj.ldap.LDAPConnectionFactory.REQUEST_TIMEOUT;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.forgerock.opendj.ldap.Connection;
 import org.forgerock.opendj.ldap.Connections;
+import org.forgerock.opendj.ldap.LDAPConnectionFactory;
 import org.forgerock.opendj.ldap.LdapException;
 import org.forgerock.opendj.ldap.LDAPListener;
+import org.forgerock.opendj.ldap.LdapPromise;
+import org.forgerock.opendj.ldap.MemoryBackend;
 import org.forgerock.opendj.ldap.RequestHandler;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SdkTestCase;
 import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.SearchResultSubscriber;
+import org.forgerock.opendj.ldap.SearchResultSubscription;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.TestCaseUtils;
 import org.forgerock.opendj.ldap.TimeoutResultException;
 import org.forgerock.opendj.ldap.controls.PersistentSearchRequestControl;
 import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldif.LDIFEntryReader;
 import org.forgerock.util.Options;
 import org.forgerock.util.promise.ExceptionHandler;
 import org.mockito.ArgumentCaptor;
@@ -116,4 +135,114 @@ public class GrizzlyLDAPConnectionTestCase extends SdkTestCase {
         }
     }
 
+    @Test
+    public void testSuspendReadsDelaysResponses() throws Exception {
+        final LDAPListener listener = new LDAPListener(TestCaseUtils.findFreeSocketAddress(),
+                Connections.newServerConnectionFactory(newBackend()));
+        final InetSocketAddress address = listener.getSocketAddress();
+        final GrizzlyLDAPConnectionFactory factory =
+                new GrizzlyLDAPConnectionFactory(address.getHostName(), address.getPort(), Options.defaultOptions());
+        final GrizzlyLDAPConnection connection = (GrizzlyLDAPConnection) factory.getConnectionAsync().getOrThrow();
+        try {
+            connection.suspendReads();
+            final LdapPromise<Result> promise = connection.searchAsync(
+                    Requests.newSearchRequest("dc=example,dc=com", SearchScope.BASE_OBJECT, "(objectClass=*)"),
+                    null, mock(SearchResultHandler.class));
+            try {
+                promise.getOrThrow(200, TimeUnit.MILLISECONDS);
+                fail("The response was read while reads were suspended");
+            } catch (final TimeoutException expected) {
+                // Expected.
+            }
+
+            connection.resumeReads();
+            assertThat(promise.getOrThrow(10, TimeUnit.SECONDS).getResultCode()).isEqualTo(ResultCode.SUCCESS);
+        } finally {
+            connection.close();
+            listener.close();
+            factory.close();
+        }
+    }
+
+    @Test
+    public void testSearchPublisherBackPressure() throws Exception {
+        final int entryCount = 500;
+        final char[] chars = new char[4096];
+        Arrays.fill(chars, 'x');
+        final String description = new String(chars);
+
+        final LDAPListener listener = new LDAPListener(TestCaseUtils.findFreeSocketAddress(),
+                Connections.newServerConnectionFactory(newBackend()));
+        final InetSocketAddress address = listener.getSocketAddress();
+        final LDAPConnectionFactory factory = new LDAPConnectionFactory(address.getHostName(), address.getPort());
+        final Connection connection = factory.getConnection();
+        try {
+            connection.add("dn: ou=publisher,dc=example,dc=com", "objectClass: organizationalUnit", "ou: publisher");
+            for (int i = 0; i < entryCount; i++) {
+                connection.add(Requests.newAddRequest("cn=user" + i + ",ou=publisher,dc=example,dc=com")
+                        .addAttribute("objectClass", "person")
+                        .addAttribute("cn", "user" + i)
+                        .addAttribute("sn", "user" + i)
+                        .addAttribute("description", description));
+            }
+
+            final List<SearchResultEntry> entries = Collections.synchronizedList(new ArrayList<SearchResultEntry>());
+            final CountDownLatch completed = new CountDownLatch(1);
+            final SearchResultSubscription[] subscription = new SearchResultSubscription[1];
+            connection.searchPublisher(Requests.newSearchRequest(
+                    "ou=publisher,dc=example,dc=com", SearchScope.SINGLE_LEVEL, "(objectClass=*)"))
+                    .subscribe(new SearchResultSubscriber() {
+                        @Override
+                        public void onSubscribe(final SearchResultSubscription s) {
+                            subscription[0] = s;
+                        }
+
+                        @Override
+                        public void onNext(final SearchResultEntry entry) {
+                            entries.add(entry);
+                        }
+
+                        @Override
+                        public void onReference(final SearchResultReference reference) {
+                            // No references are returned.
+                        }
+
+                        @Override
+                        public void onError(final LdapException error) {
+                            completed.countDown();
+                        }
+
+                        @Override
+                        public void onComplete(final Result result) {
+                            completed.countDown();
+                        }
+                    });
+
+            subscription[0].request(1);
+            assertThat(completed.await(200, TimeUnit.MILLISECONDS)).isFalse();
+            assertThat(entries).hasSize(1);
+
+            subscription[0].request(entryCount / 2);
+            assertThat(completed.await(200, TimeUnit.MILLISECONDS)).isFalse();
+            assertThat(entries).hasSize(entryCount / 2 + 1);
+
+            // The connection must still be usable once reads have been resumed.
+            subscription[0].request(Long.MAX_VALUE);
+            assertThat(completed.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(entries).hasSize(entryCount);
+            assertThat(connection.readEntry("ou=publisher,dc=example,dc=com")).isNotNull();
+        } finally {
+            connection.close();
+            listener.close();
+            factory.close();
+        }
+    }
+
+    private static MemoryBackend newBackend() throws IOException {
+        return new MemoryBackend(new LDIFEntryReader(
+                "dn: dc=example,dc=com",
+                "objectClass: top",
+                "objectClass: domain",
+                "dc: example"));
+    }
 }
@@ -26,11 +26,12 @@ import static com.forgerock.opendj.cli.CommonArguments.*;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 
+import javax.net.ssl.SSLContext;
+
 import com.codahale.metrics.RatioGauge;
 import com.forgerock.opendj.cli.MultiColumnPrinter;
 import org.forgerock.i18n.LocalizableMessage;
@@ -68,6 +69,14 @@ import com.forgerock.opendj.cli.StringArgument;
  * requests using one or more LDAP connections.
  */
 public final class AuthRate extends ConsoleApplication {
+    /** Establishing the TCP connection. */
+    private static final String CONNECT = "connect";
+    /** Negotiating TLS, including the StartTLS extended operation if StartTLS is used. */
+    private static final String TLS = "tls";
+    /** Authenticating the connection. */
+    private static final String BIND = "bind";
+    /** Closing the connection. */
+    private static final String CLOSE = "close";
 
     private final class BindPerformanceRunner extends PerformanceRunner {
         private final class BindStatsThread extends StatsThread {
@@ -81,14 +90,38 @@ public final class AuthRate extends ConsoleApplication {
                                     final boolean computeBindTime) {
                 super(performanceRunner, app);
                 this.computeBindTime = computeBindTime;
+                final IntervalHistogramLog histogramLog = getHistogramLog();
+                if (histogramLog != null) {
+                    phaseStats.recordTo(histogramLog);
+                }
+            }
+
+            @Override
+            void resetAdditionalStats() {
+                phaseStats.reset();
             }
 
             @Override
             List<MultiColumnPrinter.Column> registerAdditionalColumns() {
-                if (!computeBindTime) {
-                    return Collections.emptyList();
+                final List<MultiColumnPrinter.Column> columns = new ArrayList<>();
+                if (computeBindTime) {
+                    registerBindTimePercentage();
+                    columns.add(column(BIND_TIME_PERCENTAGE, "bind time %", BIND_TIME_PERCENTAGE_COLUMN_WIDTH, 1));
+                }
+                columns.addAll(phaseStats.registerColumns(this));
+                return columns;
+            }
+
+            @Override
+            public void stopRecording(final boolean stoppedByError) {
+                super.stopRecording(stoppedByError);
+                if (!stoppedByError && measureConnections) {
+                    phaseStats.printSummary(AuthRate.this, durationMsCount.getLastTotalCount() / MS_IN_S,
+                            getPercentiles());
                 }
+            }
 
+            private void registerBindTimePercentage() {
                 registry.register(BIND_TIME_PERCENTAGE, new RatioGauge() {
                     @Override
                     protected Ratio getRatio() {
@@ -97,8 +130,6 @@ public final class AuthRate extends ConsoleApplication {
                         return Ratio.of(100 * (waitTimeIntervalNs - searchWaitTimeIntervalNs), waitTimeIntervalNs);
                     }
                 });
-                return Collections.singletonList(
-                        column(BIND_TIME_PERCENTAGE, "bind time %", BIND_TIME_PERCENTAGE_COLUMN_WIDTH, 1));
             }
         }
 
@@ -107,6 +138,10 @@ public final class AuthRate extends ConsoleApplication {
             private BindRequest br;
             private Object[] data;
             private final char[] invalidPassword = "invalid-password".toCharArray();
+            /** The factory of the connections whose phases are measured, or {@code null} if they are not. */
+            private final ConnectionFactory phaseConnectionFactory;
+            /** Tracks the TLS negotiation of the connections whose phases are measured, if TLS is used. */
+            private final TrackingSSLContext trackingSSLContext;
 
             private final ThreadLocal<Random> rng = new ThreadLocal<Random>() {
                 @Override
@@ -117,6 +152,67 @@ public final class AuthRate extends ConsoleApplication {
 
             private BindWorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
                 super(connection, connectionFactory);
+                if (measureConnections) {
+                    trackingSSLContext = sslContext != null ? new TrackingSSLContext(sslContext) : null;
+                    phaseConnectionFactory = connectionFactoryProvider.newUnauthenticatedConnectionFactory(
+                            useStartTLS ? null : trackingSSLContext);
+                } else {
+                    trackingSSLContext = null;
+                    phaseConnectionFactory = null;
+                }
+            }
+
+            @Override
+            public void run() {
+                try {
+                    super.run();
+                } finally {
+                    if (phaseConnectionFactory != null) {
+                        phaseConnectionFactory.close();
+                    }
+                }
+            }
+
+            @Override
+            Connection getConnectionToUse() throws InterruptedException, LdapException {
+                if (phaseConnectionFactory == null) {
+                    return super.getConnectionToUse();
+                }
+
+                final long startTimeNs = System.nanoTime();
+                final Connection connection = phaseConnectionFactory.getConnectionAsync().getOrThrow();
+                long connectedTimeNs = System.nanoTime();
+                if (trackingSSLContext != null) {
+                    if (useStartTLS) {
+                        try {
+                            connection.extendedRequest(Requests.newStartTLSExtendedRequest(trackingSSLContext));
+                        } catch (final LdapException e) {
+                            connection.close();
+                            throw e;
+                        }
+                    } else {
+                        // The TLS handshake started as soon as the TCP connection was established.
+                        connectedTimeNs = trackingSSLContext.getLastEngineCreationTimeNs();
+                    }
+                    addPhaseDuration(TLS, System.nanoTime() - connectedTimeNs);
+                    if (!resumeTLSSessions) {
+                        // Invalidated sessions are removed from the session cache, and can no longer be resumed.
+                        trackingSSLContext.getLastEngine().getSession().invalidate();
+                    }
+                }
+                addPhaseDuration(CONNECT, connectedTimeNs - startTimeNs);
+                return connection;
+            }
+
+            @Override
+            void releaseConnection(final Connection connection) {
+                if (phaseConnectionFactory == null) {
+                    super.releaseConnection(connection);
+                    return;
+                }
+                final long startTimeNs = System.nanoTime();
+                connection.close();
+                addPhaseDuration(CLOSE, System.nanoTime() - startTimeNs);
             }
 
             @Override
@@ -292,7 +388,16 @@ public final class AuthRate extends ConsoleApplication {
                     }
                 }
 
-                return connection.bindAsync(br);
+                if (phaseConnectionFactory == null) {
+                    return connection.bindAsync(br);
+                }
+                final long startTimeNs = System.nanoTime();
+                return connection.bindAsync(br).thenOnResultOrException(new Runnable() {
+                    @Override
+                    public void run() {
+                        addPhaseDuration(BIND, System.nanoTime() - startTimeNs);
+                    }
+                });
             }
         }
 
@@ -305,6 +410,15 @@ public final class AuthRate extends ConsoleApplication {
         private int invalidCredPercent;
         /** Template of the bind requests which will be send to the remote server. */
         private BindRequest bindRequestTemplate;
+        /** The durations of the phases of the connections, when they are measured. */
+        private final OperationTypeStats phaseStats = new OperationTypeStats("phase", false);
+        /** Whether a new connection is opened for each bind, and the duration of each of its phases measured. */
+        private boolean measureConnections;
+        private ConnectionFactoryProvider connectionFactoryProvider;
+        /** The SSL context used to secure the measured connections, or {@code null} if they are not secured. */
+        private SSLContext sslContext;
+        private boolean useStartTLS;
+        private boolean resumeTLSSessions;
 
         private BindPerformanceRunner(final PerformanceRunnerOptions options)
                 throws ArgumentException {
@@ -315,6 +429,29 @@ public final class AuthRate extends ConsoleApplication {
             this.bindRequestTemplate = bindRequestTemplate;
         }
 
+        /**
+         * Opens a new connection for each bind, and measures the duration of each of its phases. The connections
+         * are secured with the provided SSL context, if any, using StartTLS or SSL.
+         */
+        private void measureConnections(final ConnectionFactoryProvider connectionFactoryProvider,
+                final SSLContext sslContext, final boolean useStartTLS, final boolean resumeTLSSessions) {
+            this.measureConnections = true;
+            this.connectionFactoryProvider = connectionFactoryProvider;
+            this.sslContext = sslContext;
+            this.useStartTLS = useStartTLS;
+            this.resumeTLSSessions = resumeTLSSessions;
+            phaseStats.register(CONNECT);
+            if (sslContext != null) {
+                phaseStats.register(TLS);
+            }
+            phaseStats.register(BIND);
+            phaseStats.register(CLOSE);
+        }
+
+        private void addPhaseDuration(final String phase, final long durationNs) {
+            phaseStats.addOperation(phase, false, durationNs);
+        }
+
         @Override
         WorkerThread newWorkerThread(final Connection connection,
                 final ConnectionFactory connectionFactory) {
@@ -393,6 +530,8 @@ public final class AuthRate extends ConsoleApplication {
         StringArgument propertiesFileArgument;
         BooleanArgument noPropertiesFileArgument;
         IntegerArgument invalidCredPercent;
+        BooleanArgument measureConnections;
+        BooleanArgument noTLSSessionResumption;
         try {
             setDefaultPerfToolProperties();
             PerformanceRunnerOptions options = new PerformanceRunnerOptions(argParser, this);
@@ -443,6 +582,17 @@ public final class AuthRate extends ConsoleApplication {
                             .valuePlaceholder(LocalizableMessage.raw("{invalidPassword}"))
                             .buildAndAddToParser(argParser);
 
+            measureConnections =
+                    BooleanArgument.builder("measureConnections")
+                            .description(INFO_AUTHRATE_DESCRIPTION_MEASURE_CONNECTIONS.get())
+                            .buildAndAddToParser(argParser);
+
+            noTLSSessionResumption =
+                    BooleanArgument.builder("noTLSSessionResumption")
+                            .description(INFO_AUTHRATE_DESCRIPTION_NO_TLS_SESSION_RESUMPTION.get(
+                                    measureConnections.getLongIdentifier()))
+                            .buildAndAddToParser(argParser);
+
             verbose = verboseArgument();
             argParser.addArgument(verbose);
 
@@ -472,6 +622,14 @@ public final class AuthRate extends ConsoleApplication {
                 throw new ArgumentException(ERR_AUTHRATE_NO_BIND_DN_PROVIDED.get());
             }
             runner.setBindRequestTemplate(bindRequestTemplate);
+            if (measureConnections.isPresent()) {
+                throwIfArgumentsConflict(measureConnections, argParser.getArgumentForLongID("keepConnectionsOpen"));
+                runner.measureConnections(connectionFactoryProvider, connectionFactoryProvider.getSSLContext(),
+                        connectionFactoryProvider.useStartTLS(), !noTLSSessionResumption.isPresent());
+            } else if (noTLSSessionResumption.isPresent()) {
+                throw new ArgumentException(ERR_AUTHRATE_ARG_REQUIRES_MEASURE_CONNECTIONS.get(
+                        noTLSSessionResumption.getLongIdentifier(), measureConnections.getLongIdentifier()));
+            }
             runner.validate();
         } catch (final ArgumentException ae) {
             argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
@@ -0,0 +1,96 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Writes the response times recorded by a rate tool as an HdrHistogram interval log.
+ * <p>
+ * Each stats interval produces one histogram of all the response times, which is not tagged, and one histogram per
+ * recorder created with {@link #newRecorder(String)}, tagged with the name of the operation type or connection
+ * phase as displayed by the rate tool. Values are recorded in nanoseconds. Since histograms are logged without loss
+ * of precision, the logs of several load generators can be merged afterwards, for instance with the ratereport tool,
+ * in order to compute exact percentiles for the whole load.
+ */
+final class IntervalHistogramLog implements Closeable {
+    private static final int SIGNIFICANT_VALUE_DIGITS = 3;
+
+    private final PrintStream stream;
+    private final HistogramLogWriter writer;
+    private final Recorder recorder = new Recorder(SIGNIFICANT_VALUE_DIGITS);
+    private final Map<String, Recorder> taggedRecorders = new LinkedHashMap<>();
+
+    IntervalHistogramLog(final File file) throws IOException {
+        this.stream = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+        this.writer = new HistogramLogWriter(stream);
+    }
+
+    /**
+     * Returns a new recorder for the response times of one operation type. Values recorded with it are also expected
+     * to be recorded with {@link #recordValue(long)}, which covers all the operations.
+     */
+    synchronized Recorder newRecorder(final String tag) {
+        final Recorder tagged = new Recorder(SIGNIFICANT_VALUE_DIGITS);
+        taggedRecorders.put(tag, tagged);
+        return tagged;
+    }
+
+    /** Records the response time of an operation, in nanoseconds. */
+    void recordValue(final long responseTimeNs) {
+        recorder.recordValue(responseTimeNs);
+    }
+
+    /** Discards the values recorded so far, e.g. during warm up, and writes the header of the log. */
+    synchronized void start() {
+        final long startTimeMs = System.currentTimeMillis();
+        recorder.reset();
+        for (final Recorder tagged : taggedRecorders.values()) {
+            tagged.reset();
+        }
+        writer.outputComment("[Response times in nanoseconds]");
+        writer.outputLogFormatVersion();
+        writer.outputStartTime(startTimeMs);
+        writer.setBaseTime(startTimeMs);
+        writer.outputLegend();
+    }
+
+    /** Writes the histograms of the values recorded since the previous interval. */
+    synchronized void writeIntervalHistograms() {
+        writer.outputIntervalHistogram(recorder.getIntervalHistogram());
+        for (final Map.Entry<String, Recorder> tagged : taggedRecorders.entrySet()) {
+            final Histogram histogram = tagged.getValue().getIntervalHistogram();
+            histogram.setTag(tagged.getKey());
+            writer.outputIntervalHistogram(histogram);
+        }
+        stream.flush();
+    }
+
+    @Override
+    public synchronized void close() {
+        stream.close();
+    }
+}
@@ -0,0 +1,776 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.ArgumentConstants.*;
+import static com.forgerock.opendj.cli.CommonArguments.*;
+import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
+import static com.forgerock.opendj.cli.Utils.filterExitCode;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+import static com.forgerock.opendj.ldap.tools.Utils.printErrorMessage;
+
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.controls.Control;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.responses.Responses;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldif.LDIFEntryReader;
+import org.forgerock.opendj.ldif.LDIFEntryWriter;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.ResultHandler;
+
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.cli.ArgumentParser;
+import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.ConnectionFactoryProvider;
+import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.IntegerArgument;
+import com.forgerock.opendj.cli.StringArgument;
+
+/**
+ * A tool that can be used to add the entries of an LDIF file to a Directory Server, using multiple connections with
+ * several pending add requests on each of them.
+ * <p>
+ * The LDIF is split into records by a reader thread, and the records are parsed in batches by a pool of parser
+ * threads. The parsed entries are dispatched in the order of the LDIF, so that an entry whose parent is also in the
+ * LDIF is only sent once its parent has been added.
+ */
+public final class LDAPImport extends ConsoleApplication {
+    /** An entry of the LDIF which has been dispatched, and has not been added or rejected yet. */
+    private static final class PendingEntry {
+        private final Entry entry;
+        /** The number of times the entry has been sent to the server. */
+        private int attempts;
+
+        private PendingEntry(final Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    /** A record of the LDIF, which contains either an entry or the reason why it could not be parsed. */
+    private static final class ParsedRecord {
+        private final long lineNumber;
+        private final List<String> lines;
+        private final Entry entry;
+        private final LocalizableMessage error;
+
+        private ParsedRecord(final long lineNumber, final List<String> lines, final Entry entry,
+                final LocalizableMessage error) {
+            this.lineNumber = lineNumber;
+            this.lines = lines;
+            this.entry = entry;
+            this.error = error;
+        }
+    }
+
+    /** Splits the LDIF into records, and submits them in batches to the parser threads. */
+    private final class RecordReader implements Runnable {
+        private final BufferedReader reader;
+        private List<Long> batchLineNumbers = new ArrayList<>(BATCH_SIZE);
+        private List<List<String>> batch = new ArrayList<>(BATCH_SIZE);
+
+        private RecordReader(final InputStream in) {
+            this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void run() {
+            try {
+                String line;
+                long lineNumber = 0;
+                long recordLineNumber = 0;
+                List<String> record = null;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isEmpty()) {
+                        if (record != null) {
+                            addRecord(recordLineNumber, record);
+                            record = null;
+                        }
+                        continue;
+                    }
+                    if (record == null) {
+                        record = new ArrayList<>();
+                        recordLineNumber = lineNumber;
+                    }
+                    record.add(line);
+                }
+                if (record != null) {
+                    addRecord(recordLineNumber, record);
+                }
+                submitBatch();
+            } catch (final IOException e) {
+                readError = e;
+            } catch (final InterruptedException e) {
+                // The import has been aborted.
+                return;
+            } finally {
+                closeSilently(reader);
+            }
+            try {
+                batches.put(END_OF_INPUT);
+            } catch (final InterruptedException e) {
+                // The import has been aborted.
+            }
+        }
+
+        private void addRecord(final long lineNumber, final List<String> record) throws InterruptedException {
+            batchLineNumbers.add(lineNumber);
+            batch.add(record);
+            if (batch.size() == BATCH_SIZE) {
+                submitBatch();
+            }
+        }
+
+        private void submitBatch() throws InterruptedException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            final List<Long> lineNumbers = batchLineNumbers;
+            final List<List<String>> records = batch;
+            batches.put(parsers.submit(new Callable<List<ParsedRecord>>() {
+                @Override
+                public List<ParsedRecord> call() {
+                    final List<ParsedRecord> parsedRecords = new ArrayList<>(records.size());
+                    for (int i = 0; i < records.size(); i++) {
+                        final ParsedRecord parsedRecord = parse(lineNumbers.get(i), records.get(i));
+                        if (parsedRecord != null) {
+                            parsedRecords.add(parsedRecord);
+                        }
+                    }
+                    return parsedRecords;
+                }
+            }));
+            batchLineNumbers = new ArrayList<>(BATCH_SIZE);
+            batch = new ArrayList<>(BATCH_SIZE);
+        }
+    }
+
+    /** Sends the dispatched entries over one connection, without exceeding its maximum number of pending requests. */
+    private final class Sender implements Runnable {
+        private final Connection connection;
+        private final Semaphore pendingRequests;
+
+        private Sender(final Connection connection) {
+            this.connection = connection;
+            this.pendingRequests = new Semaphore(maxPendingRequests);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    pendingRequests.acquire();
+                    final PendingEntry pendingEntry = readyEntries.take();
+                    if (pendingEntry == END_OF_ENTRIES) {
+                        return;
+                    }
+                    send(pendingEntry);
+                }
+            } catch (final InterruptedException e) {
+                // The import has been aborted.
+            }
+        }
+
+        private void send(final PendingEntry pendingEntry) {
+            final AddRequest request = Requests.newAddRequest(pendingEntry.entry);
+            for (final Control control : controls) {
+                request.addControl(control);
+            }
+            pendingEntry.attempts++;
+            connection.addAsync(request).thenOnResultOrException(new ResultHandler<Result>() {
+                @Override
+                public void handleResult(final Result result) {
+                    pendingRequests.release();
+                    addedEntries.incrementAndGet();
+                    completed(pendingEntry);
+                }
+            }, new ExceptionHandler<LdapException>() {
+                @Override
+                public void handleException(final LdapException exception) {
+                    pendingRequests.release();
+                    failed(pendingEntry, exception);
+                }
+            });
+        }
+
+        private void failed(final PendingEntry pendingEntry, final LdapException exception) {
+            final ResultCode resultCode = exception.getResult().getResultCode();
+            if (!connection.isValid()) {
+                abort(exception);
+            } else if ((resultCode == ResultCode.BUSY || resultCode == ResultCode.UNAVAILABLE)
+                    && pendingEntry.attempts <= maxRetries) {
+                retriedRequests.incrementAndGet();
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        readyEntries.add(pendingEntry);
+                    }
+                }, getRetryDelayMs(pendingEntry.attempts), TimeUnit.MILLISECONDS);
+            } else {
+                reject(pendingEntry.entry, exception.getResult());
+                completed(pendingEntry);
+            }
+        }
+    }
+
+    private static final int BATCH_SIZE = 256;
+    private static final long INITIAL_RETRY_DELAY_MS = 100;
+    private static final long MAX_RETRY_DELAY_MS = 10000;
+    private static final long PROGRESS_INTERVAL_SECONDS = 5;
+    private static final long ABORT_CHECK_INTERVAL_MS = 100;
+    private static final Future<List<ParsedRecord>> END_OF_INPUT = new FutureTask<>(new Callable<List<ParsedRecord>>() {
+        @Override
+        public List<ParsedRecord> call() {
+            return null;
+        }
+    });
+    private static final PendingEntry END_OF_ENTRIES = new PendingEntry(null);
+    private static final ThreadFactory DAEMON_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /**
+     * The main method for LDAPImport tool.
+     *
+     * @param args
+     *            The command-line arguments provided to this program.
+     */
+    public static void main(final String[] args) {
+        final int retCode = new LDAPImport().run(args);
+        System.exit(filterExitCode(retCode));
+    }
+
+    private BooleanArgument verbose;
+    private BooleanArgument quiet;
+
+    private int maxPendingRequests;
+    private int maxRetries;
+    private List<Control> controls;
+    private String rejectFileName;
+    /** Writes the rejected entries, or {@code null} if they are only reported on the error stream. */
+    private volatile LDIFEntryWriter rejectWriter;
+
+    private ExecutorService parsers;
+    private ScheduledExecutorService scheduler;
+    /** The batches of parsed records, in the order of the LDIF. */
+    private BlockingQueue<Future<List<ParsedRecord>>> batches;
+    /** The entries which can be sent to the server, because their parent is not pending. */
+    private final BlockingQueue<PendingEntry> readyEntries = new LinkedBlockingQueue<>();
+    /** The DNs of the pending entries, and the entries waiting for them to be added. */
+    private final Map<DN, List<PendingEntry>> pendingEntries = new HashMap<>();
+    /** Bounds the number of pending entries, including those waiting for their parent or for a retry. */
+    private Semaphore pendingEntryPermits;
+    private int maxPendingEntries;
+
+    private final AtomicLong addedEntries = new AtomicLong();
+    private final AtomicLong rejectedEntries = new AtomicLong();
+    private final AtomicLong retriedRequests = new AtomicLong();
+    private volatile Result firstRejection;
+    private volatile LdapException abortCause;
+    private volatile IOException readError;
+
+    private LDAPImport() {
+        // Nothing to do.
+    }
+
+    /**
+     * Constructor to allow tests.
+     *
+     * @param out
+     *            output stream of console application
+     * @param err
+     *            error stream of console application
+     */
+    LDAPImport(final PrintStream out, final PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return false;
+    }
+
+    @Override
+    public boolean isVerbose() {
+        return verbose.isPresent();
+    }
+
+    @Override
+    public boolean isQuiet() {
+        return quiet.isPresent();
+    }
+
+    int run(final String[] args) {
+        // Create the command-line argument parser for use with this program.
+        final LocalizableMessage toolDescription = INFO_LDAPIMPORT_TOOL_DESCRIPTION.get();
+        final ArgumentParser argParser =
+                new ArgumentParser(LDAPImport.class.getName(), toolDescription, false);
+        argParser.setVersionHandler(newSdkVersionHandler());
+        argParser.setShortToolDescription(REF_SHORT_DESC_LDAPIMPORT.get());
+
+        ConnectionFactoryProvider connectionFactoryProvider;
+        ConnectionFactory connectionFactory;
+
+        BooleanArgument showUsage;
+        StringArgument propertiesFileArgument;
+        BooleanArgument noPropertiesFileArgument;
+        StringArgument filename;
+        StringArgument rejectFile;
+        StringArgument controlStr;
+        IntegerArgument numConnections;
+        IntegerArgument maxPendingRequestsArg;
+        IntegerArgument numThreads;
+        IntegerArgument maxRetriesArg;
+        try {
+            connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
+
+            propertiesFileArgument = propertiesFileArgument();
+            argParser.addArgument(propertiesFileArgument);
+            argParser.setFilePropertiesArgument(propertiesFileArgument);
+
+            noPropertiesFileArgument = noPropertiesFileArgument();
+            argParser.addArgument(noPropertiesFileArgument);
+            argParser.setNoPropertiesFileArgument(noPropertiesFileArgument);
+
+            filename =
+                    StringArgument.builder(OPTION_LONG_FILENAME)
+                            .shortIdentifier(OPTION_SHORT_FILENAME)
+                            .description(INFO_LDAPIMPORT_DESCRIPTION_FILENAME.get())
+                            .valuePlaceholder(INFO_FILE_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            rejectFile =
+                    StringArgument.builder("rejectFile")
+                            .shortIdentifier('R')
+                            .description(INFO_LDAPIMPORT_DESCRIPTION_REJECT_FILE.get())
+                            .valuePlaceholder(INFO_FILE_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            numConnections =
+                    IntegerArgument.builder("numConnections")
+                            .shortIdentifier('c')
+                            .description(INFO_LDAPIMPORT_DESCRIPTION_NUM_CONNECTIONS.get())
+                            .lowerBound(1)
+                            .defaultValue(4)
+                            .valuePlaceholder(INFO_NUM_CONNECTIONS_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            maxPendingRequestsArg =
+                    IntegerArgument.builder("maxPendingRequests")
+                            .description(INFO_LDAPIMPORT_DESCRIPTION_MAX_PENDING_REQUESTS.get())
+                            .lowerBound(1)
+                            .defaultValue(16)
+                            .valuePlaceholder(INFO_NUM_REQUESTS_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            numThreads =
+                    IntegerArgument.builder("numThreads")
+                            .shortIdentifier('t')
+                            .description(INFO_LDAPIMPORT_DESCRIPTION_NUM_THREADS.get())
+                            .lowerBound(1)
+                            .defaultValue(Runtime.getRuntime().availableProcessors())
+                            .valuePlaceholder(INFO_NUM_THREADS_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            maxRetriesArg =
+                    IntegerArgument.builder("maxRetries")
+                            .description(INFO_LDAPIMPORT_DESCRIPTION_MAX_RETRIES.get())
+                            .lowerBound(0)
+                            .defaultValue(5)
+                            .valuePlaceholder(INFO_NUM_RETRIES_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            controlStr =
+                    StringArgument.builder("control")
+                            .shortIdentifier('J')
+                            .description(INFO_DESCRIPTION_CONTROLS.get())
+                            .multiValued()
+                            .valuePlaceholder(INFO_LDAP_CONTROL_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+
+            verbose = verboseArgument();
+            argParser.addArgument(verbose);
+
+            quiet = quietArgument();
+            argParser.addArgument(quiet);
+
+            showUsage = showUsageArgument();
+            argParser.addArgument(showUsage);
+            argParser.setUsageArgument(showUsage, getOutputStream());
+        } catch (final ArgumentException ae) {
+            errPrintln(ERR_CANNOT_INITIALIZE_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        // Parse the command-line arguments provided to this program.
+        final int connectionCount;
+        final int parserCount;
+        try {
+            argParser.parseArguments(args);
+
+            // If we should just display usage or version information, then print it and exit.
+            if (argParser.usageOrVersionDisplayed()) {
+                return 0;
+            }
+
+            connectionFactory = connectionFactoryProvider.getAuthenticatedConnectionFactory();
+            connectionCount = numConnections.getIntValue();
+            maxPendingRequests = maxPendingRequestsArg.getIntValue();
+            parserCount = numThreads.getIntValue();
+            maxRetries = maxRetriesArg.getIntValue();
+        } catch (final ArgumentException ae) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        controls = new LinkedList<>();
+        for (final String ctrlString : controlStr.getValues()) {
+            try {
+                controls.add(Utils.getControl(ctrlString));
+            } catch (final DecodeException de) {
+                errPrintln(ERR_TOOL_INVALID_CONTROL_STRING.get(ctrlString));
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
+        }
+
+        final InputStream in;
+        if (filename.isPresent()) {
+            try {
+                in = new FileInputStream(filename.getValue());
+            } catch (final IOException e) {
+                errPrintln(ERR_LDIF_FILE_CANNOT_OPEN_FOR_READ.get(filename.getValue(), e.getLocalizedMessage()));
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
+        } else {
+            in = getInputStream();
+        }
+
+        if (rejectFile.isPresent()) {
+            rejectFileName = rejectFile.getValue();
+            try {
+                rejectWriter = new LDIFEntryWriter(new BufferedOutputStream(new FileOutputStream(rejectFileName)));
+            } catch (final IOException e) {
+                closeSilently(in);
+                errPrintln(ERR_LDAPIMPORT_CANNOT_WRITE_REJECT_FILE.get(rejectFileName, e.getLocalizedMessage()));
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
+        }
+
+        final List<Connection> connections = new ArrayList<>(connectionCount);
+        try {
+            for (int i = 0; i < connectionCount; i++) {
+                connections.add(connectionFactory.getConnection());
+            }
+        } catch (final LdapException e) {
+            closeSilently(in, rejectWriter);
+            closeSilently(connections);
+            return printErrorMessage(this, e);
+        }
+
+        try {
+            return importEntries(in, filename.getValue(), connections, parserCount);
+        } finally {
+            closeSilently(rejectWriter);
+            closeSilently(connections);
+        }
+    }
+
+    private int importEntries(final InputStream in, final String fileName, final List<Connection> connections,
+            final int parserCount) {
+        maxPendingEntries = 2 * connections.size() * maxPendingRequests;
+        pendingEntryPermits = new Semaphore(maxPendingEntries);
+        batches = new ArrayBlockingQueue<>(2 * parserCount);
+        parsers = Executors.newFixedThreadPool(parserCount, DAEMON_THREAD_FACTORY);
+        scheduler = Executors.newSingleThreadScheduledExecutor(DAEMON_THREAD_FACTORY);
+        final ExecutorService senders = Executors.newFixedThreadPool(connections.size(), DAEMON_THREAD_FACTORY);
+        final Thread reader = DAEMON_THREAD_FACTORY.newThread(new RecordReader(in));
+
+        final long startTime = System.currentTimeMillis();
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                printProgress(startTime);
+            }
+        }, PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        try {
+            for (final Connection connection : connections) {
+                senders.execute(new Sender(connection));
+            }
+            reader.start();
+            dispatchEntries();
+            // Wait for the last pending entries to be added or rejected.
+            if (acquirePendingEntryPermits(maxPendingEntries)) {
+                for (int i = 0; i < connections.size(); i++) {
+                    readyEntries.add(END_OF_ENTRIES);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            reader.interrupt();
+            senders.shutdownNow();
+            parsers.shutdownNow();
+            scheduler.shutdownNow();
+        }
+
+        final LdapException abortException = abortCause;
+        if (abortException != null) {
+            errPrintln(ERR_LDAPIMPORT_ABORTED.get());
+            return printErrorMessage(this, abortException);
+        }
+        if (readError != null) {
+            errPrintln(ERR_LDIF_FILE_READ_ERROR.get(fileName, readError.getLocalizedMessage()));
+            return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+        }
+        printProgress(startTime);
+        final Result rejection = firstRejection;
+        return rejection != null ? rejection.getResultCode().intValue() : ResultCode.SUCCESS.intValue();
+    }
+
+    /** Dispatches the parsed entries in the order of the LDIF, rejecting the records which could not be parsed. */
+    private void dispatchEntries() throws InterruptedException {
+        while (abortCause == null) {
+            final Future<List<ParsedRecord>> batch = batches.take();
+            if (batch == END_OF_INPUT) {
+                return;
+            }
+            final List<ParsedRecord> parsedRecords;
+            try {
+                parsedRecords = batch.get();
+            } catch (final ExecutionException e) {
+                // The parsers turn the exceptions of each record into a rejection, only errors may remain.
+                final Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+            for (final ParsedRecord parsedRecord : parsedRecords) {
+                if (parsedRecord.error != null) {
+                    reject(parsedRecord);
+                } else if (acquirePendingEntryPermits(1)) {
+                    dispatch(new PendingEntry(parsedRecord.entry));
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers an entry as pending, and makes it ready to be sent to the server unless its parent is pending: it
+     * will then be made ready once its parent has been added or rejected.
+     */
+    private void dispatch(final PendingEntry pendingEntry) {
+        final DN name = pendingEntry.entry.getName();
+        synchronized (pendingEntries) {
+            if (pendingEntries.containsKey(name)) {
+                // The LDIF contains the same entry several times: dispatch it again once the previous one completed.
+                addWaitingEntry(name, pendingEntry);
+                return;
+            }
+            pendingEntries.put(name, null);
+            final DN parent = name.parent();
+            if (parent != null && pendingEntries.containsKey(parent)) {
+                addWaitingEntry(parent, pendingEntry);
+                return;
+            }
+        }
+        readyEntries.add(pendingEntry);
+    }
+
+    private void addWaitingEntry(final DN pendingName, final PendingEntry waitingEntry) {
+        List<PendingEntry> waitingEntries = pendingEntries.get(pendingName);
+        if (waitingEntries == null) {
+            waitingEntries = new ArrayList<>();
+            pendingEntries.put(pendingName, waitingEntries);
+        }
+        waitingEntries.add(waitingEntry);
+    }
+
+    /** Makes the entries waiting for a pending entry ready, once it has been added or rejected. */
+    private void completed(final PendingEntry pendingEntry) {
+        final DN name = pendingEntry.entry.getName();
+        final List<PendingEntry> waitingEntries;
+        synchronized (pendingEntries) {
+            waitingEntries = pendingEntries.remove(name);
+        }
+        if (waitingEntries != null) {
+            for (final PendingEntry waitingEntry : waitingEntries) {
+                if (waitingEntry.entry.getName().equals(name)) {
+                    dispatch(waitingEntry);
+                } else {
+                    readyEntries.add(waitingEntry);
+                }
+            }
+        }
+        pendingEntryPermits.release();
+    }
+
+    /**
+     * Acquires permits for dispatching entries, waiting until they are available or the import is aborted. Returns
+     * {@code false} if the import has been aborted.
+     */
+    private boolean acquirePendingEntryPermits(final int permits) throws InterruptedException {
+        while (!pendingEntryPermits.tryAcquire(permits, ABORT_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+            if (abortCause != null) {
+                return false;
+            }
+        }
+        return abortCause == null;
+    }
+
+    private void abort(final LdapException cause) {
+        synchronized (this) {
+            if (abortCause == null) {
+                abortCause = cause;
+            }
+        }
+    }
+
+    private long getRetryDelayMs(final int attempts) {
+        // Exponential backoff with jitter, so that retried requests are spread over time.
+        final long delayMs = Math.min(INITIAL_RETRY_DELAY_MS << Math.min(attempts - 1, 16), MAX_RETRY_DELAY_MS);
+        return delayMs / 2 + ThreadLocalRandom.current().nextLong(delayMs / 2 + 1);
+    }
+
+    private void reject(final Entry entry, final Result result) {
+        recordRejection(result);
+        final String diagnosticMessage = result.getDiagnosticMessage() != null ? result.getDiagnosticMessage() : "";
+        final LocalizableMessage message = ERR_LDAPIMPORT_ENTRY_REJECTED.get(entry.getName(),
+                result.getResultCode().intValue(), result.getResultCode().toString(), diagnosticMessage);
+        final LDIFEntryWriter writer = rejectWriter;
+        if (writer == null) {
+            errPrintln(message);
+            return;
+        }
+        synchronized (writer) {
+            try {
+                writer.writeComment(message.toString());
+                writer.writeEntry(entry);
+            } catch (final IOException e) {
+                rejectWriteFailed(e);
+            }
+        }
+    }
+
+    private void reject(final ParsedRecord parsedRecord) {
+        recordRejection(Responses.newResult(ResultCode.CLIENT_SIDE_DECODING_ERROR));
+        final LocalizableMessage message =
+                ERR_LDAPIMPORT_RECORD_REJECTED.get(parsedRecord.lineNumber, parsedRecord.error);
+        final LDIFEntryWriter writer = rejectWriter;
+        if (writer == null) {
+            errPrintln(message);
+            return;
+        }
+        synchronized (writer) {
+            try {
+                writer.writeComment(message.toString());
+                for (final String line : parsedRecord.lines) {
+                    writer.writeComment(line);
+                }
+            } catch (final IOException e) {
+                rejectWriteFailed(e);
+            }
+        }
+    }
+
+    private void recordRejection(final Result result) {
+        rejectedEntries.incrementAndGet();
+        synchronized (this) {
+            if (firstRejection == null) {
+                firstRejection = result;
+            }
+        }
+    }
+
+    private void rejectWriteFailed(final IOException e) {
+        // Report the failure once, and then report the rejected entries on the error stream.
+        if (rejectWriter != null) {
+            errPrintln(ERR_LDAPIMPORT_CANNOT_WRITE_REJECT_FILE.get(rejectFileName, e.getLocalizedMessage()));
+            rejectWriter = null;
+        }
+    }
+
+    private void printProgress(final long startTime) {
+        if (!isQuiet()) {
+            final long added = addedEntries.get();
+            final long elapsedMillis = Math.max(System.currentTimeMillis() - startTime, 1);
+            errPrintln(INFO_LDAPIMPORT_PROGRESS.get(added, rejectedEntries.get(), retriedRequests.get(),
+                    added * 1000 / elapsedMillis));
+        }
+    }
+
+    /** Parses a record of the LDIF, returning {@code null} if it does not contain any entry. */
+    private static ParsedRecord parse(final long lineNumber, final List<String> lines) {
+        try (LDIFEntryReader reader = new LDIFEntryReader(lines)) {
+            if (!reader.hasNext()) {
+                return null;
+            }
+            return new ParsedRecord(lineNumber, null, reader.readEntry(), null);
+        } catch (final DecodeException e) {
+            return new ParsedRecord(lineNumber, lines, null, e.getMessageObject());
+        } catch (final LocalizedIllegalArgumentException e) {
+            return new ParsedRecord(lineNumber, lines, null, e.getMessageObject());
+        } catch (final IOException e) {
+            return new ParsedRecord(lineNumber, lines, null, LocalizableMessage.raw(e.getLocalizedMessage()));
+        } catch (final RuntimeException e) {
+            // Reject the record rather than failing the whole batch of records parsed with it.
+            return new ParsedRecord(lineNumber, lines, null, LocalizableMessage.raw(e.toString()));
+        }
+    }
+}
@@ -0,0 +1,733 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.CliMessages.ERR_TOOL_CONFLICTING_ARGS;
+import static com.forgerock.opendj.cli.CommonArguments.*;
+import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
+import static com.forgerock.opendj.cli.Utils.*;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.Attribute;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.Modification;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldif.ChangeRecord;
+import org.forgerock.opendj.ldif.ChangeRecordVisitor;
+import org.forgerock.opendj.ldif.LDIFChangeRecordReader;
+import org.forgerock.util.AsyncFunction;
+import org.forgerock.util.Function;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.ResultHandler;
+
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.cli.ArgumentParser;
+import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.ConnectionFactoryProvider;
+import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.MultiColumnPrinter;
+import com.forgerock.opendj.cli.StringArgument;
+
+/**
+ * A tool that can be used to replay a recorded stream of operations against a Directory Server, and to measure the
+ * throughput and response times of each operation type.
+ * <p>
+ * Each line of the stream contains the time at which an operation was performed, in milliseconds, the identifier of
+ * the connection on which it was performed, then the operation type and its parameters as described by
+ * {@link OperationTemplate}. The {@code unbind} operation closes the connection. The operations of each recorded
+ * connection are replayed in order, on a connection of their own, each operation being sent once the previous one has
+ * completed. Recorded connections are replayed concurrently: they are assigned in turn to the worker threads, which
+ * only schedule their operations without waiting for their results. Operations are replayed at their recorded time
+ * relative to the first operation, scaled by a speed multiplier, or as fast as possible.
+ * <p>
+ * The tool can also convert LDIF change records into a stream of operations of a single connection.
+ */
+public final class LDAPReplay extends ConsoleApplication {
+    /** The operation closing a recorded connection. */
+    private static final String UNBIND = "unbind";
+    /** The maximum number of operations read ahead for each worker thread. */
+    private static final int MAX_PENDING_OPERATIONS = 1000;
+    /** The time and connection of the operations converted from LDIF change records. */
+    private static final String LDIF_TIME_AND_CONNECTION = "0 1 ";
+
+    /** An operation of the stream. */
+    private static final class RecordedOperation {
+        /** The time at which the operation must be replayed, relative to the first operation of the stream. */
+        private final long offsetNs;
+        private final String connectionId;
+        /** The operation to perform, or {@code null} if the connection must be closed. */
+        private final OperationTemplate template;
+
+        private RecordedOperation(final long offsetNs, final String connectionId, final OperationTemplate template) {
+            this.offsetNs = offsetNs;
+            this.connectionId = connectionId;
+            this.template = template;
+        }
+    }
+
+    /** Marks the end of the operations of a worker thread. */
+    private static final RecordedOperation END_OF_STREAM = new RecordedOperation(0, null, null);
+
+    /** Reads the operations of a stream, in order. */
+    private static final class OperationStreamReader implements Closeable {
+        private final String fileName;
+        private final BufferedReader reader;
+        /** The duration of a recorded millisecond when replayed, or 0 if operations must be replayed at once. */
+        private final double replayedNsPerMs;
+        private double firstTimeMs = Double.NaN;
+        private int lineNumber;
+
+        private OperationStreamReader(final String fileName, final double replayedNsPerMs) throws IOException {
+            this.fileName = fileName;
+            this.reader = new BufferedReader(new FileReader(fileName));
+            this.replayedNsPerMs = replayedNsPerMs;
+        }
+
+        /** Returns the next operation of the stream, or {@code null} if the end of the stream has been reached. */
+        private RecordedOperation readOperation() throws ArgumentException, IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                final String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    return parseOperation(OperationTemplate.tokenize(trimmed));
+                } catch (final ArgumentException e) {
+                    throw new ArgumentException(
+                            ERR_LDAPREPLAY_INVALID_LINE.get(lineNumber, fileName, e.getMessageObject()));
+                }
+            }
+            return null;
+        }
+
+        private RecordedOperation parseOperation(final List<String> tokens) throws ArgumentException {
+            if (tokens.size() < 3) {
+                throw new ArgumentException(ERR_LDAPREPLAY_MISSING_FIELDS.get());
+            }
+            final double timeMs;
+            try {
+                timeMs = Double.parseDouble(tokens.get(0));
+            } catch (final NumberFormatException e) {
+                throw new ArgumentException(ERR_LDAPREPLAY_INVALID_TIME.get(tokens.get(0)));
+            }
+            if (Double.isNaN(firstTimeMs)) {
+                firstTimeMs = timeMs;
+            }
+            final long offsetNs = (long) ((timeMs - firstTimeMs) * replayedNsPerMs);
+            final List<String> operation = tokens.subList(2, tokens.size());
+            if (UNBIND.equalsIgnoreCase(operation.get(0))) {
+                if (operation.size() > 1) {
+                    throw new ArgumentException(ERR_LDAPREPLAY_UNBIND_PARAMETERS.get());
+                }
+                return new RecordedOperation(offsetNs, tokens.get(1), null);
+            }
+            return new RecordedOperation(offsetNs, tokens.get(1), OperationTemplate.valueOf(operation));
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /** Converts LDIF change records into the parameters of an operation, or returns the reason why it cannot. */
+    private static final ChangeRecordVisitor<LocalizableMessage, StringBuilder> LDIF_CONVERTER =
+            new ChangeRecordVisitor<LocalizableMessage, StringBuilder>() {
+        @Override
+        public LocalizableMessage visitChangeRecord(final StringBuilder line, final AddRequest change) {
+            line.append(OperationTemplate.Type.ADD);
+            appendParameter(line, change.getName().toString());
+            for (final Attribute attribute : change.getAllAttributes()) {
+                for (final ByteString value : attribute) {
+                    appendParameter(line, attribute.getAttributeDescriptionAsString() + ":" + value);
+                }
+            }
+            return checkLineBreaks(line);
+        }
+
+        @Override
+        public LocalizableMessage visitChangeRecord(final StringBuilder line, final DeleteRequest change) {
+            line.append(OperationTemplate.Type.DELETE);
+            appendParameter(line, change.getName().toString());
+            return checkLineBreaks(line);
+        }
+
+        @Override
+        public LocalizableMessage visitChangeRecord(final StringBuilder line, final ModifyDNRequest change) {
+            line.append(OperationTemplate.Type.MODDN);
+            appendParameter(line, change.getName().toString());
+            appendParameter(line, change.getNewRDN().toString());
+            appendParameter(line, Boolean.toString(change.isDeleteOldRDN()));
+            if (change.getNewSuperior() != null) {
+                appendParameter(line, change.getNewSuperior().toString());
+            }
+            return checkLineBreaks(line);
+        }
+
+        @Override
+        public LocalizableMessage visitChangeRecord(final StringBuilder line, final ModifyRequest change) {
+            line.append(OperationTemplate.Type.MODIFY);
+            appendParameter(line, change.getName().toString());
+            for (final Modification modification : change.getModifications()) {
+                final char prefix;
+                switch (modification.getModificationType().asEnum()) {
+                case ADD:
+                    prefix = '+';
+                    break;
+                case DELETE:
+                    prefix = '-';
+                    break;
+                case REPLACE:
+                    prefix = '=';
+                    break;
+                default:
+                    return ERR_LDAPREPLAY_UNSUPPORTED_MODIFICATION.get(modification.getModificationType());
+                }
+                final Attribute attribute = modification.getAttribute();
+                final String attributeDescription = prefix + attribute.getAttributeDescriptionAsString();
+                if (attribute.isEmpty()) {
+                    appendParameter(line, attributeDescription);
+                }
+                for (final ByteString value : attribute) {
+                    appendParameter(line, attributeDescription + ":" + value);
+                }
+            }
+            return checkLineBreaks(line);
+        }
+
+        private void appendParameter(final StringBuilder line, final String parameter) {
+            OperationTemplate.appendQuoted(line.append(' '), parameter);
+        }
+
+        private LocalizableMessage checkLineBreaks(final StringBuilder line) {
+            for (int i = 0; i < line.length(); i++) {
+                if (line.charAt(i) == '\n' || line.charAt(i) == '\r') {
+                    return ERR_LDAPREPLAY_LINE_BREAK.get();
+                }
+            }
+            return null;
+        }
+    };
+
+    private final class ReplayPerformanceRunner extends PerformanceRunner {
+        private final class ReplayStatsHandler extends UpdateStatsResultHandler<Result> {
+            private final OperationTemplate.Type type;
+
+            private ReplayStatsHandler(final long currentTimeNs, final OperationTemplate.Type type) {
+                super(currentTimeNs);
+                this.type = type;
+            }
+
+            @Override
+            void updateAdditionalStatsOnResult() {
+                addOperation(false);
+            }
+
+            @Override
+            void updateAdditionalStatsOnException() {
+                addOperation(true);
+            }
+
+            private void addOperation(final boolean failed) {
+                operationStats.addOperation(type.getShortName(), failed, System.nanoTime() - operationStartTimeNs);
+            }
+        }
+
+        private final class ReplayStatsThread extends StatsThread {
+            private ReplayStatsThread(final PerformanceRunner perfRunner, final ConsoleApplication app) {
+                super(perfRunner, app);
+                final IntervalHistogramLog histogramLog = getHistogramLog();
+                if (histogramLog != null) {
+                    operationStats.recordTo(histogramLog);
+                }
+            }
+
+            @Override
+            void resetAdditionalStats() {
+                operationStats.reset();
+            }
+
+            @Override
+            List<MultiColumnPrinter.Column> registerAdditionalColumns() {
+                return operationStats.registerColumns(this);
+            }
+
+            @Override
+            public void stopRecording(final boolean stoppedByError) {
+                super.stopRecording(stoppedByError);
+                if (!stoppedByError) {
+                    operationStats.printSummary(LDAPReplay.this, durationMsCount.getLastTotalCount() / MS_IN_S,
+                            getPercentiles());
+                }
+            }
+        }
+
+        /** Reads the stream and hands off its operations to the worker threads of their connections. */
+        private final class ReplayReaderThread extends Thread {
+            private final Map<String, BlockingQueue<RecordedOperation>> connectionQueues = new HashMap<>();
+            private int nextQueue;
+
+            private ReplayReaderThread() {
+                super("Replay Reader Thread");
+                setDaemon(true);
+            }
+
+            @Override
+            public void run() {
+                try {
+                    RecordedOperation operation;
+                    while ((operation = streamReader.readOperation()) != null) {
+                        BlockingQueue<RecordedOperation> queue = connectionQueues.get(operation.connectionId);
+                        if (queue == null) {
+                            queue = workerQueues.get(nextQueue);
+                            nextQueue = (nextQueue + 1) % workerQueues.size();
+                            connectionQueues.put(operation.connectionId, queue);
+                        }
+                        if (operation.template == null) {
+                            // The identifier may be reused by a new connection.
+                            connectionQueues.remove(operation.connectionId);
+                        }
+                        queue.put(operation);
+                    }
+                    for (final BlockingQueue<RecordedOperation> queue : workerQueues) {
+                        queue.put(END_OF_STREAM);
+                    }
+                } catch (final InterruptedException e) {
+                    // The tool has been stopped.
+                } catch (final ArgumentException e) {
+                    errPrintln(e.getMessageObject());
+                    stopTool(true);
+                } catch (final IOException e) {
+                    errPrintln(ERR_LDAPREPLAY_CANNOT_READ_STREAM.get(streamReader.fileName, e.getLocalizedMessage()));
+                    stopTool(true);
+                } finally {
+                    closeSilently(streamReader);
+                }
+            }
+        }
+
+        /**
+         * Replays the operations of a recorded connection in order, each operation being sent once the result of the
+         * previous one has been received. The recorded connections are replayed concurrently with each other.
+         */
+        private final class ReplayedConnection {
+            /** Completes with the connection once the last operation submitted to this connection has completed. */
+            private Promise<Connection, LdapException> lastOperation;
+
+            private ReplayedConnection(final ConnectionFactory connectionFactory) {
+                lastOperation = connectionFactory.getConnectionAsync()
+                        .thenOnResult(new ResultHandler<Connection>() {
+                            @Override
+                            public void handleResult(final Connection connection) {
+                                connection.addConnectionEventListener(ReplayPerformanceRunner.this);
+                            }
+                        }).thenOnException(new ExceptionHandler<LdapException>() {
+                            @Override
+                            public void handleException(final LdapException e) {
+                                handleConnectionError(false, e);
+                            }
+                        });
+            }
+
+            private Promise<Connection, LdapException> replay(final OperationTemplate template) {
+                lastOperation = lastOperation.thenAsync(new AsyncFunction<Connection, Connection, LdapException>() {
+                    @Override
+                    public Promise<Connection, LdapException> apply(final Connection connection) {
+                        final ReplayStatsHandler handler =
+                                new ReplayStatsHandler(System.nanoTime(), template.getType());
+                        statsThread.incrementOperationCount();
+                        return template.performOperation(connection, null)
+                                .thenOnResult(handler)
+                                .thenOnException(handler)
+                                .then(new Function<Result, Connection, LdapException>() {
+                                    @Override
+                                    public Connection apply(final Result result) {
+                                        return connection;
+                                    }
+                                }, new Function<LdapException, Connection, LdapException>() {
+                                    @Override
+                                    public Connection apply(final LdapException e) throws LdapException {
+                                        if (handleOperationError(e)) {
+                                            throw e;
+                                        }
+                                        // Handled by the stats handler, the next operations can be replayed.
+                                        return connection;
+                                    }
+                                });
+                    }
+                });
+                return lastOperation;
+            }
+
+            private void close() {
+                lastOperation.thenOnResult(new ResultHandler<Connection>() {
+                    @Override
+                    public void handleResult(final Connection connection) {
+                        connection.close();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Schedules the operations of the recorded connections assigned to it. The operations are sent asynchronously,
+         * so that the recorded connections are replayed concurrently and independently of the worker count.
+         */
+        private final class ReplayWorkerThread extends Thread {
+            private final BlockingQueue<RecordedOperation> operations;
+            private final ConnectionFactory connectionFactory;
+            /** The recorded connections assigned to this worker which are being replayed. */
+            private final Map<String, ReplayedConnection> connections = new HashMap<>();
+            /** Bounds the number of operations which have been submitted by this worker but have not completed yet. */
+            private final Semaphore pendingOperations = new Semaphore(MAX_PENDING_OPERATIONS);
+            private int count;
+
+            private ReplayWorkerThread(final BlockingQueue<RecordedOperation> operations,
+                    final ConnectionFactory connectionFactory) {
+                super("Worker Thread");
+                this.operations = operations;
+                this.connectionFactory = connectionFactory;
+            }
+
+            @Override
+            public void run() {
+                boolean endOfStream = false;
+                try {
+                    while (!isStopRequested(count)) {
+                        final RecordedOperation operation = operations.take();
+                        if (operation == END_OF_STREAM) {
+                            endOfStream = true;
+                            break;
+                        }
+                        final long delayNs = replayStartTimeNs + operation.offsetNs - System.nanoTime();
+                        if (delayNs > 0) {
+                            NANOSECONDS.sleep(delayNs);
+                        }
+                        if (operation.template == null) {
+                            final ReplayedConnection connection = connections.remove(operation.connectionId);
+                            if (connection != null) {
+                                connection.close();
+                            }
+                            continue;
+                        }
+                        ReplayedConnection connection = connections.get(operation.connectionId);
+                        if (connection == null) {
+                            connection = new ReplayedConnection(connectionFactory);
+                            connections.put(operation.connectionId, connection);
+                        }
+                        pendingOperations.acquire();
+                        count++;
+                        connection.replay(operation.template).thenAlways(new Runnable() {
+                            @Override
+                            public void run() {
+                                pendingOperations.release();
+                            }
+                        });
+                    }
+                    if (endOfStream) {
+                        // Wait for the operations in progress, so that they are included in the statistics.
+                        pendingOperations.acquire(MAX_PENDING_OPERATIONS);
+                    }
+                } catch (final InterruptedException e) {
+                    // The tool has been stopped.
+                } finally {
+                    for (final ReplayedConnection connection : connections.values()) {
+                        connection.close();
+                    }
+                }
+                if (!endOfStream) {
+                    // Other workers would eventually wait for the operations this worker no longer takes.
+                    stopTool();
+                }
+            }
+        }
+
+        private final List<BlockingQueue<RecordedOperation>> workerQueues = new ArrayList<>();
+        private final List<Thread> workerThreads = new ArrayList<>();
+        private final OperationTypeStats operationStats = new OperationTypeStats();
+        private OperationStreamReader streamReader;
+        private volatile long replayStartTimeNs;
+
+        private ReplayPerformanceRunner(final PerformanceRunnerOptions options) throws ArgumentException {
+            super(options);
+        }
+
+        @Override
+        Thread newWorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
+            if (workerThreads.isEmpty()) {
+                // The connection to the server has been checked, the replay can start.
+                replayStartTimeNs = System.nanoTime();
+                new ReplayReaderThread().start();
+            }
+            final Thread worker = new ReplayWorkerThread(workerQueues.get(workerThreads.size()), connectionFactory);
+            workerThreads.add(worker);
+            return worker;
+        }
+
+        @Override
+        StatsThread newStatsThread(final PerformanceRunner performanceRunner, final ConsoleApplication app) {
+            return new ReplayStatsThread(performanceRunner, app);
+        }
+
+        @Override
+        synchronized void stopTool(final boolean stoppedByError) {
+            super.stopTool(stoppedByError);
+            // Wake up the workers waiting for their next operation.
+            for (final Thread worker : workerThreads) {
+                worker.interrupt();
+            }
+        }
+
+        /**
+         * Reads the whole stream in order to check its operations and to register their types, then prepares its
+         * replay.
+         */
+        private void readStream(final String fileName, final double replayedNsPerMs)
+                throws ArgumentException, IOException {
+            boolean isEmpty = true;
+            try (OperationStreamReader reader = new OperationStreamReader(fileName, replayedNsPerMs)) {
+                RecordedOperation operation;
+                while ((operation = reader.readOperation()) != null) {
+                    if (operation.template != null) {
+                        operationStats.register(operation.template.getType().getShortName());
+                        isEmpty = false;
+                    }
+                }
+            }
+            if (isEmpty) {
+                throw new ArgumentException(ERR_LDAPREPLAY_EMPTY_STREAM.get(fileName));
+            }
+            for (int i = 0; i < numConnections; i++) {
+                workerQueues.add(new ArrayBlockingQueue<RecordedOperation>(MAX_PENDING_OPERATIONS));
+            }
+            streamReader = new OperationStreamReader(fileName, replayedNsPerMs);
+        }
+    }
+
+    /**
+     * The main method for LDAPReplay tool.
+     *
+     * @param args
+     *            The command-line arguments provided to this program.
+     */
+    public static void main(final String[] args) {
+        final int retCode = new LDAPReplay().run(args);
+        System.exit(filterExitCode(retCode));
+    }
+
+    private BooleanArgument verbose;
+    private BooleanArgument scriptFriendly;
+
+    private LDAPReplay() {
+        // Nothing to do.
+    }
+
+    /** To allow tests. */
+    LDAPReplay(final PrintStream out, final PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return false;
+    }
+
+    @Override
+    public boolean isScriptFriendly() {
+        return scriptFriendly.isPresent();
+    }
+
+    @Override
+    public boolean isVerbose() {
+        return verbose.isPresent();
+    }
+
+    int run(final String[] args) {
+        // Create the command-line argument parser for use with this program.
+        final LocalizableMessage toolDescription = INFO_LDAPREPLAY_TOOL_DESCRIPTION.get();
+        final ArgumentParser argParser =
+                new ArgumentParser(LDAPReplay.class.getName(), toolDescription, false, true, 1, 1, "file");
+        argParser.setVersionHandler(newSdkVersionHandler());
+        argParser.setShortToolDescription(REF_SHORT_DESC_LDAPREPLAY.get());
+        argParser.setDocToolDescriptionSupplement(SUPPLEMENT_DESCRIPTION_RATE_TOOLS.get());
+
+        ConnectionFactoryProvider connectionFactoryProvider;
+        ConnectionFactory connectionFactory;
+        ReplayPerformanceRunner runner;
+
+        BooleanArgument showUsage;
+        StringArgument propertiesFileArgument;
+        BooleanArgument noPropertiesFileArgument;
+        StringArgument speed;
+        BooleanArgument maxRate;
+        BooleanArgument convertLdif;
+        try {
+            Utils.setDefaultPerfToolProperties();
+            final PerformanceRunnerOptions options = new PerformanceRunnerOptions(argParser, this);
+            options.setSupportsRebind(false);
+            options.setSupportsMultipleThreadsPerConnection(false);
+            options.setSupportsGeneratorArgument(false);
+            options.setSupportsKeepConnectionsOpen(false);
+
+            connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
+            runner = new ReplayPerformanceRunner(options);
+
+            propertiesFileArgument = propertiesFileArgument();
+            argParser.addArgument(propertiesFileArgument);
+            argParser.setFilePropertiesArgument(propertiesFileArgument);
+
+            noPropertiesFileArgument = noPropertiesFileArgument();
+            argParser.addArgument(noPropertiesFileArgument);
+            argParser.setNoPropertiesFileArgument(noPropertiesFileArgument);
+
+            speed =
+                    StringArgument.builder("speed")
+                            .description(INFO_LDAPREPLAY_DESCRIPTION_SPEED.get())
+                            .defaultValue("1")
+                            .valuePlaceholder(INFO_MULTIPLIER_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            maxRate =
+                    BooleanArgument.builder("maxRate")
+                            .description(INFO_LDAPREPLAY_DESCRIPTION_MAX_RATE.get())
+                            .buildAndAddToParser(argParser);
+            convertLdif =
+                    BooleanArgument.builder("convertLdif")
+                            .description(INFO_LDAPREPLAY_DESCRIPTION_CONVERT_LDIF.get())
+                            .buildAndAddToParser(argParser);
+
+            verbose = verboseArgument();
+            argParser.addArgument(verbose);
+
+            showUsage = showUsageArgument();
+            argParser.addArgument(showUsage);
+            argParser.setUsageArgument(showUsage, getOutputStream());
+
+            scriptFriendly =
+                    BooleanArgument.builder("scriptFriendly")
+                            .shortIdentifier('S')
+                            .description(INFO_DESCRIPTION_SCRIPT_FRIENDLY.get())
+                            .buildAndAddToParser(argParser);
+        } catch (final ArgumentException ae) {
+            final LocalizableMessage message = ERR_CANNOT_INITIALIZE_ARGS.get(ae.getMessage());
+            errPrintln(message);
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        // Parse the command-line arguments provided to this program.
+        final double replayedNsPerMs;
+        try {
+            argParser.parseArguments(args);
+
+            // If we should just display usage or version information,
+            // then print it and exit.
+            if (argParser.usageOrVersionDisplayed()) {
+                return 0;
+            }
+
+            if (convertLdif.isPresent()) {
+                return convertLdif(argParser.getTrailingArguments().get(0));
+            }
+
+            if (maxRate.isPresent() && speed.isPresent()) {
+                throw new ArgumentException(
+                        ERR_TOOL_CONFLICTING_ARGS.get(maxRate.getLongIdentifier(), speed.getLongIdentifier()));
+            }
+            replayedNsPerMs = maxRate.isPresent() ? 0 : StatsThread.NS_IN_MS / parseSpeed(speed.getValue());
+
+            connectionFactory = connectionFactoryProvider.getAuthenticatedConnectionFactory();
+            runner.validate();
+        } catch (final ArgumentException ae) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        final String fileName = argParser.getTrailingArguments().get(0);
+        try {
+            runner.readStream(fileName, replayedNsPerMs);
+        } catch (final ArgumentException e) {
+            errPrintln(e.getMessageObject());
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        } catch (final IOException e) {
+            errPrintln(ERR_LDAPREPLAY_CANNOT_READ_STREAM.get(fileName, e.getLocalizedMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        return runner.run(connectionFactory);
+    }
+
+    private static double parseSpeed(final String value) throws ArgumentException {
+        try {
+            final double speed = Double.parseDouble(value);
+            if (speed > 0 && !Double.isInfinite(speed)) {
+                return speed;
+            }
+        } catch (final NumberFormatException e) {
+            // Reported below.
+        }
+        throw new ArgumentException(ERR_LDAPREPLAY_INVALID_SPEED.get(value));
+    }
+
+    /** Writes the LDIF change records of a file as the operations of a single connection, without delays. */
+    private int convertLdif(final String fileName) {
+        try (LDIFChangeRecordReader reader = new LDIFChangeRecordReader(new FileInputStream(fileName))) {
+            final StringBuilder line = new StringBuilder();
+            while (reader.hasNext()) {
+                final ChangeRecord change = reader.readChangeRecord();
+                line.setLength(0);
+                line.append(LDIF_TIME_AND_CONNECTION);
+                final LocalizableMessage error = change.accept(LDIF_CONVERTER, line);
+                if (error != null) {
+                    errPrintln(ERR_LDAPREPLAY_CHANGE_NOT_CONVERTED.get(change.getName(), error));
+                } else {
+                    getOutputStream().println(line);
+                }
+            }
+        } catch (final IOException e) {
+            errPrintln(ERR_LDAPREPLAY_CANNOT_READ_LDIF.get(fileName, e.getLocalizedMessage()));
+            return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+        }
+        return ResultCode.SUCCESS.intValue();
+    }
+}
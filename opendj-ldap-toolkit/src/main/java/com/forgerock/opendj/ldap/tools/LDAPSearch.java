@@ -17,10 +17,12 @@
 package com.forgerock.opendj.ldap.tools;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -62,6 +64,7 @@ import org.forgerock.opendj.ldap.responses.SearchResultReference;
 import org.forgerock.opendj.ldif.EntryWriter;
 import org.forgerock.opendj.ldif.LDIFEntryWriter;
 
+import com.forgerock.opendj.cli.Argument;
 import com.forgerock.opendj.cli.ArgumentException;
 import com.forgerock.opendj.cli.ArgumentParser;
 import com.forgerock.opendj.cli.BooleanArgument;
@@ -73,6 +76,7 @@ import com.forgerock.opendj.cli.StringArgument;
 import com.forgerock.opendj.ldap.controls.AccountUsabilityResponseControl;
 import com.forgerock.opendj.util.StaticUtils;
 
+import static com.forgerock.opendj.cli.CliMessages.ERR_TOOL_CONFLICTING_ARGS;
 import static com.forgerock.opendj.cli.CliMessages.INFO_NUM_ENTRIES_PLACEHOLDER;
 import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
 import static com.forgerock.opendj.ldap.tools.Utils.printErrorMessage;
@@ -251,6 +255,10 @@ public final class LDAPSearch extends ConsoleApplication {
         StringArgument proxyAuthzID;
         StringArgument assertionFilter;
         IntegerArgument sizeLimit;
+        IntegerArgument parallel;
+        StringArgument outputDirectory;
+        StringArgument partitionAttribute;
+        StringArgument partitionBoundary;
         try {
             connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
             final StringArgument propertiesFileArgument =
@@ -383,6 +391,28 @@ public final class LDAPSearch extends ConsoleApplication {
                     BooleanArgument.builder("countEntries")
                             .description(INFO_DESCRIPTION_COUNT_ENTRIES.get())
                             .buildAndAddToParser(argParser);
+            parallel =
+                    IntegerArgument.builder("parallel")
+                            .description(INFO_DESCRIPTION_PARALLEL.get())
+                            .lowerBound(1)
+                            .valuePlaceholder(INFO_NUM_CONNECTIONS_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            outputDirectory =
+                    StringArgument.builder("outputDirectory")
+                            .description(INFO_DESCRIPTION_OUTPUT_DIRECTORY.get())
+                            .valuePlaceholder(INFO_DIRECTORY_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            partitionAttribute =
+                    StringArgument.builder("partitionAttribute")
+                            .description(INFO_DESCRIPTION_PARTITION_ATTRIBUTE.get())
+                            .valuePlaceholder(INFO_ATTRIBUTE_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            partitionBoundary =
+                    StringArgument.builder("partitionBoundary")
+                            .description(INFO_DESCRIPTION_PARTITION_BOUNDARY.get())
+                            .multiValued()
+                            .valuePlaceholder(INFO_VALUE_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
 
             final BooleanArgument continueOnError = continueOnErrorArgument();
             argParser.addArgument(continueOnError);
@@ -729,6 +759,42 @@ public final class LDAPSearch extends ConsoleApplication {
             }
         }
 
+        int parallelism = 0;
+        if (parallel.isPresent()) {
+            // Each partition would return up to the size limit: the limit could not be enforced for the search.
+            for (final Argument arg : Arrays.<Argument> asList(pSearchInfo, sortOrder, vlvDescriptor, sizeLimit)) {
+                if (arg.isPresent()) {
+                    errPrintln(ERR_TOOL_CONFLICTING_ARGS.get(parallel.getLongIdentifier(), arg.getLongIdentifier()));
+                    return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+                }
+            }
+            if (filters.size() > 1) {
+                errPrintln(ERR_LDAPSEARCH_PARALLEL_REQUIRES_SINGLE_FILTER.get());
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
+            if (!partitionAttribute.isPresent()
+                    && scope != SearchScope.WHOLE_SUBTREE && scope != SearchScope.SUBORDINATES) {
+                errPrintln(ERR_LDAPSEARCH_PARALLEL_REQUIRES_SUBTREE_SCOPE.get(partitionAttribute.getLongIdentifier()));
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
+            try {
+                parallelism = parallel.getIntValue();
+            } catch (final ArgumentException ae) {
+                errPrintln(ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
+        }
+        final Argument[][] dependencies = {
+            { outputDirectory, parallel }, { partitionAttribute, parallel },
+            { partitionAttribute, partitionBoundary }, { partitionBoundary, partitionAttribute } };
+        for (final Argument[] dependency : dependencies) {
+            if (dependency[0].isPresent() && !dependency[1].isPresent()) {
+                errPrintln(ERR_LDAPSEARCH_ARG_REQUIRES_ARG.get(dependency[0].getLongIdentifier(),
+                        dependency[1].getLongIdentifier()));
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
+        }
+
         int wrapColumn = 80;
         if (dontWrap.isPresent()) {
             wrapColumn = 0;
@@ -743,6 +809,29 @@ public final class LDAPSearch extends ConsoleApplication {
             return 0;
         }
 
+        if (parallelism > 0) {
+            final ParallelSearch parallelSearch = new ParallelSearch(this, connectionFactory, bindRequest, search,
+                    parallelism, pageSize, wrapColumn,
+                    outputDirectory.isPresent() ? new File(outputDirectory.getValue()) : null);
+            final List<SearchRequest> partitions;
+            if (partitionAttribute.isPresent()) {
+                partitions = ParallelSearch.partitionByRanges(search, partitionAttribute.getValue(),
+                        partitionBoundary.getValues());
+            } else {
+                try {
+                    partitions = parallelSearch.partitionByChildren();
+                } catch (final LdapException ere) {
+                    return printErrorMessage(this, ere);
+                }
+            }
+            final int exitCode = parallelSearch.run(partitions);
+            if (countEntries.isPresent() && !isQuiet()) {
+                println(INFO_LDAPSEARCH_MATCHING_ENTRY_COUNT.get(parallelSearch.getEntryCount()));
+                println();
+            }
+            return exitCode;
+        }
+
         try (Connection connection = connectionFactory.getConnection()) {
             if (bindRequest != null) {
                 printPasswordPolicyResults(this, connection.bind(bindRequest));
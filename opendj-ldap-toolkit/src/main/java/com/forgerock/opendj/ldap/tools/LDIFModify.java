@@ -22,13 +22,19 @@ import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
 import static com.forgerock.opendj.cli.Utils.filterExitCode;
 import static org.forgerock.util.Utils.closeSilently;
 import static com.forgerock.opendj.cli.CommonArguments.*;
+import static com.forgerock.opendj.ldap.tools.Utils.newSortedEntryReader;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.forgerock.i18n.LocalizableException;
@@ -40,9 +46,11 @@ import org.forgerock.opendj.ldap.requests.AddRequest;
 import org.forgerock.opendj.ldap.requests.DeleteRequest;
 import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
 import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldif.ChangeRecord;
+import org.forgerock.opendj.ldif.ChangeRecordReader;
+import org.forgerock.opendj.ldif.EntryReader;
 import org.forgerock.opendj.ldif.LDIF;
 import org.forgerock.opendj.ldif.LDIFChangeRecordReader;
-import org.forgerock.opendj.ldif.LDIFEntryReader;
 import org.forgerock.opendj.ldif.LDIFEntryWriter;
 import org.forgerock.opendj.ldif.RejectedChangeRecordListener;
 
@@ -83,6 +91,8 @@ public final class LDIFModify extends ConsoleApplication {
         final BooleanArgument continueOnError;
         final BooleanArgument showUsage;
         final StringArgument outputFilename;
+        final StringArgument ldifFiles;
+        final BooleanArgument sorted;
         try {
             outputFilename =
                     StringArgument.builder(OPTION_LONG_OUTPUT_LDIF_FILENAME)
@@ -93,6 +103,14 @@ public final class LDIFModify extends ConsoleApplication {
                             .valuePlaceholder(INFO_OUTPUT_LDIF_FILE_PLACEHOLDER.get())
                             .buildAndAddToParser(argParser);
 
+            ldifFiles = ldifFileArgument(INFO_LDIFMODIFY_DESCRIPTION_LDIF_FILE.get());
+            argParser.addArgument(ldifFiles);
+
+            sorted =
+                    BooleanArgument.builder("sorted")
+                            .description(INFO_LDIFMODIFY_DESCRIPTION_SORTED.get())
+                            .buildAndAddToParser(argParser);
+
             continueOnError = continueOnErrorArgument();
             argParser.addArgument(continueOnError);
 
@@ -119,23 +137,32 @@ public final class LDIFModify extends ConsoleApplication {
             return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
         }
 
-        InputStream sourceInputStream = null;
+        final List<InputStream> sourceInputStreams = new ArrayList<>();
         InputStream changesInputStream = null;
         OutputStream outputStream = null;
-        LDIFEntryReader sourceReader = null;
+        EntryReader sourceReader = null;
+        EntryReader patchedReader = null;
         LDIFChangeRecordReader changesReader = null;
         LDIFEntryWriter outputWriter = null;
+        File changesSpool = null;
 
         try {
-            // First source file.
+            // Source files.
             final List<String> trailingArguments = argParser.getTrailingArguments();
-            if (!"-".equals(trailingArguments.get(0))) {
+            final List<String> sourceFiles = new ArrayList<>();
+            sourceFiles.add(trailingArguments.get(0));
+            sourceFiles.addAll(ldifFiles.getValues());
+            for (final String sourceFile : sourceFiles) {
+                if ("-".equals(sourceFile)) {
+                    // Command line parameter was "-".
+                    sourceInputStreams.add(System.in);
+                    continue;
+                }
                 try {
-                    sourceInputStream = new FileInputStream(trailingArguments.get(0));
+                    sourceInputStreams.add(new FileInputStream(sourceFile));
                 } catch (final FileNotFoundException e) {
                     final LocalizableMessage message =
-                            ERR_LDIF_FILE_CANNOT_OPEN_FOR_READ.get(trailingArguments.get(0), e
-                                    .getLocalizedMessage());
+                            ERR_LDIF_FILE_CANNOT_OPEN_FOR_READ.get(sourceFile, e.getLocalizedMessage());
                     errPrintln(message);
                     return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
                 }
@@ -168,11 +195,6 @@ public final class LDIFModify extends ConsoleApplication {
             }
 
             // Default to stdin/stdout for all streams if not specified.
-            if (sourceInputStream == null) {
-                // Command line parameter was "-".
-                sourceInputStream = System.in;
-            }
-
             if (changesInputStream == null) {
                 changesInputStream = System.in;
             }
@@ -182,14 +204,24 @@ public final class LDIFModify extends ConsoleApplication {
             }
 
             /* Check that we are not attempting to read both the source and changes from stdin. */
-            if (sourceInputStream == changesInputStream) {
+            if (Collections.frequency(sourceInputStreams, System.in)
+                    + (changesInputStream == System.in ? 1 : 0) > 1) {
                 final LocalizableMessage message = ERR_LDIFMODIFY_MULTIPLE_USES_OF_STDIN.get();
                 errPrintln(message);
                 return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
             }
 
             // Apply the changes.
-            sourceReader = new LDIFEntryReader(sourceInputStream);
+            sourceReader = newSortedEntryReader(sourceInputStreams, sorted.isPresent());
+            String changesFilename = changesInputStream != System.in ? trailingArguments.get(1) : null;
+            if (changesFilename == null && !sorted.isPresent()) {
+                // The changes are read again if they cannot be applied in DN order.
+                changesSpool = File.createTempFile("ldifmodify", ".ldif");
+                changesSpool.deleteOnExit();
+                Files.copy(System.in, changesSpool.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                changesFilename = changesSpool.getPath();
+                changesInputStream = new FileInputStream(changesSpool);
+            }
             changesReader = new LDIFChangeRecordReader(changesInputStream);
             outputWriter = new LDIFEntryWriter(outputStream);
 
@@ -271,7 +303,9 @@ public final class LDIFModify extends ConsoleApplication {
                 }
             };
 
-            LDIF.copyTo(LDIF.patch(sourceReader, changesReader, listener), outputWriter);
+            // Closing the patched entries also deletes the temporary files of the sorted changes.
+            patchedReader = patch(sourceReader, changesReader, changesFilename, listener, sorted.isPresent());
+            LDIF.copyTo(patchedReader, outputWriter);
         } catch (final IOException e) {
             if (e instanceof LocalizableException) {
                 errPrintln(ERR_LDIFMODIFY_PATCH_FAILED.get(((LocalizableException) e)
@@ -281,10 +315,69 @@ public final class LDIFModify extends ConsoleApplication {
             }
             return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
         } finally {
-            closeSilently(sourceReader, changesReader, outputWriter);
-            closeSilently(sourceInputStream, changesInputStream, outputStream);
+            closeSilently(patchedReader, sourceReader, changesReader, outputWriter);
+            closeSilently(sourceInputStreams);
+            closeSilently(changesInputStream, outputStream);
+            if (changesSpool != null) {
+                changesSpool.delete();
+            }
         }
 
         return ResultCode.SUCCESS.intValue();
     }
+
+    /** Forwards the change records of a reader, and records whether some of them rename entries. */
+    private static final class ModifyDNDetectingReader implements ChangeRecordReader {
+        private final ChangeRecordReader reader;
+        private boolean containsModifyDN;
+
+        private ModifyDNDetectingReader(final ChangeRecordReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            return reader.hasNext();
+        }
+
+        @Override
+        public ChangeRecord readChangeRecord() throws IOException {
+            final ChangeRecord change = reader.readChangeRecord();
+            containsModifyDN |= change instanceof ModifyDNRequest;
+            return change;
+        }
+    }
+
+    /**
+     * Applies the changes to the source entries sorted by DN. Unless they are already sorted, the changes are sorted
+     * by DN using temporary files. Renamed entries would move elsewhere in DN order: if the changes contain modify DN
+     * requests, they are read again from the provided file and are applied to the source entries in memory, in their
+     * original order.
+     */
+    private EntryReader patch(final EntryReader sourceReader, final ChangeRecordReader changesReader,
+            final String changesFilename, final RejectedChangeRecordListener listener, final boolean isSorted)
+            throws IOException {
+        if (isSorted) {
+            return LDIF.patchSorted(sourceReader, changesReader, listener);
+        }
+
+        final ModifyDNDetectingReader changes = new ModifyDNDetectingReader(changesReader);
+        // The sorted changes of the last part of the changes remain in memory until they are applied.
+        final ChangeRecordReader sortedChanges = LDIF.sort(changes, null, Runtime.getRuntime().maxMemory() / 4);
+        if (!changes.containsModifyDN) {
+            return LDIF.patchSorted(sourceReader, sortedChanges, listener);
+        }
+        // Deletes the temporary files of the sorted changes.
+        sortedChanges.close();
+        errPrintln(WARN_LDIFMODIFY_MODIFY_DN_IN_MEMORY.get());
+        try (ChangeRecordReader originalChanges = new LDIFChangeRecordReader(new FileInputStream(changesFilename))) {
+            // The changes are all read before returning.
+            return LDIF.patch(sourceReader, originalChanges, listener);
+        }
+    }
 }
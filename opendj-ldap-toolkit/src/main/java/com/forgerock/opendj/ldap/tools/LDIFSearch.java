@@ -16,10 +16,12 @@
 package com.forgerock.opendj.ldap.tools;
 
 import static com.forgerock.opendj.cli.ArgumentConstants.*;
+import static com.forgerock.opendj.cli.CliMessages.INFO_LDIFFILE_PLACEHOLDER;
 import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
 import static com.forgerock.opendj.cli.Utils.filterExitCode;
 import static com.forgerock.opendj.cli.CommonArguments.*;
+import static com.forgerock.opendj.ldap.tools.Utils.newSortedEntryReader;
 
 import static org.forgerock.util.Utils.closeSilently;
 
@@ -31,6 +33,8 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -43,6 +47,7 @@ import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldif.EntryReader;
 import org.forgerock.opendj.ldif.LDIF;
 import org.forgerock.opendj.ldif.LDIFEntryReader;
 import org.forgerock.opendj.ldif.LDIFEntryWriter;
@@ -88,6 +93,8 @@ public final class LDIFSearch extends ConsoleApplication {
         final StringArgument baseDN;
         final MultiChoiceArgument<SearchScope> searchScope;
         final IntegerArgument sizeLimit;
+        final StringArgument ldifFiles;
+        final BooleanArgument sorted;
         try {
             outputFilename =
                     StringArgument.builder(OPTION_LONG_OUTPUT_LDIF_FILENAME)
@@ -133,6 +140,17 @@ public final class LDIFSearch extends ConsoleApplication {
                             .defaultValue(0)
                             .valuePlaceholder(INFO_TIME_LIMIT_PLACEHOLDER.get())
                             .buildAndAddToParser(argParser);
+            // The short identifier of the "ldifFile" argument is used by the "timeLimit" argument.
+            ldifFiles =
+                    StringArgument.builder(OPTION_LONG_LDIF_FILE)
+                            .description(INFO_LDIFSEARCH_DESCRIPTION_LDIF_FILE.get())
+                            .multiValued()
+                            .valuePlaceholder(INFO_LDIFFILE_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            sorted =
+                    BooleanArgument.builder("sorted")
+                            .description(INFO_LDIFSEARCH_DESCRIPTION_SORTED.get())
+                            .buildAndAddToParser(argParser);
 
             showUsage = showUsageArgument();
             argParser.addArgument(showUsage);
@@ -219,22 +237,33 @@ public final class LDIFSearch extends ConsoleApplication {
             return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
         }
 
-        InputStream sourceInputStream = null;
+        final List<InputStream> sourceInputStreams = new ArrayList<>();
         OutputStream outputStream = null;
 
         try {
-            // First source file.
-            if (!"-".equals(trailingArguments.get(0))) {
+            // Source files.
+            final List<String> sourceFiles = new ArrayList<>();
+            sourceFiles.add(trailingArguments.get(0));
+            sourceFiles.addAll(ldifFiles.getValues());
+            for (final String sourceFile : sourceFiles) {
+                if ("-".equals(sourceFile)) {
+                    // Command line parameter was "-".
+                    sourceInputStreams.add(System.in);
+                    continue;
+                }
                 try {
-                    sourceInputStream = new FileInputStream(trailingArguments.get(0));
+                    sourceInputStreams.add(new FileInputStream(sourceFile));
                 } catch (final FileNotFoundException e) {
                     final LocalizableMessage message =
-                            ERR_LDIF_FILE_CANNOT_OPEN_FOR_READ.get(trailingArguments.get(0), e
-                                    .getLocalizedMessage());
+                            ERR_LDIF_FILE_CANNOT_OPEN_FOR_READ.get(sourceFile, e.getLocalizedMessage());
                     errPrintln(message);
                     return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
                 }
             }
+            if (Collections.frequency(sourceInputStreams, System.in) > 1) {
+                errPrintln(ERR_LDIFSEARCH_MULTIPLE_USES_OF_STDIN.get());
+                return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+            }
 
             // Output file.
             if (outputFilename.isPresent() && !"-".equals(outputFilename.getValue())) {
@@ -249,18 +278,15 @@ public final class LDIFSearch extends ConsoleApplication {
                 }
             }
 
-            // Default to stdin/stdout for all streams if not specified.
-            if (sourceInputStream == null) {
-                // Command line parameter was "-".
-                sourceInputStream = System.in;
-            }
-
+            // Default to stdout if not specified.
             if (outputStream == null) {
                 outputStream = System.out;
             }
 
-            // Perform the search.
-            try (LDIFEntryReader sourceReader = new LDIFEntryReader(sourceInputStream);
+            // Perform the search: a single source does not need to be sorted.
+            try (EntryReader sourceReader = sourceInputStreams.size() == 1
+                        ? new LDIFEntryReader(sourceInputStreams.get(0))
+                        : newSortedEntryReader(sourceInputStreams, sorted.isPresent());
                 LDIFEntryWriter outputWriter = new LDIFEntryWriter(outputStream)) {
                 LDIF.copyTo(LDIF.search(sourceReader, search), outputWriter);
             }
@@ -272,7 +298,8 @@ public final class LDIFSearch extends ConsoleApplication {
             }
             return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
         } finally {
-            closeSilently(sourceInputStream, outputStream);
+            closeSilently(sourceInputStreams);
+            closeSilently(outputStream);
         }
 
         return ResultCode.SUCCESS.intValue();
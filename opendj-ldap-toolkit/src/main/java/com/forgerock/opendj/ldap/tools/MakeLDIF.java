@@ -23,10 +23,11 @@ import static com.forgerock.opendj.cli.Utils.filterExitCode;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.INFO_MAKELDIF_WRAP_COLUMN_PLACEHOLDER;
 import static org.forgerock.util.Utils.closeSilently;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -38,9 +39,7 @@ import com.forgerock.opendj.cli.ConsoleApplication;
 import com.forgerock.opendj.cli.IntegerArgument;
 import com.forgerock.opendj.cli.StringArgument;
 
-import org.forgerock.opendj.ldap.Entry;
 import org.forgerock.opendj.ldif.EntryGenerator;
-import org.forgerock.opendj.ldif.LDIFEntryWriter;
 
 /** Program that generate LDIF content based on a template. */
 public final class MakeLDIF extends ConsoleApplication {
@@ -149,7 +148,7 @@ public final class MakeLDIF extends ConsoleApplication {
     /** Run Make LDIF with provided arguments. */
     private int run(final String templatePath, final StringArgument resourcePath, final StringArgument ldifFile,
             final IntegerArgument randomSeedArg, final StringArgument constants, final IntegerArgument wrapColumn) {
-        LDIFEntryWriter writer = null;
+        OutputStream output = null;
         try (EntryGenerator generator = createGenerator(templatePath, resourcePath, randomSeedArg, constants)) {
             if (generator == null) {
                 return EXIT_CODE_FAILURE;
@@ -161,8 +160,10 @@ public final class MakeLDIF extends ConsoleApplication {
                 }
             }
 
+            final int wrap;
             try {
-                writer = createLdifWriter(ldifFile, wrapColumn);
+                wrap = wrapColumn.getIntValue();
+                output = createLdifOutput(ldifFile);
             } catch (final IOException e) {
                 errPrintln(ERR_MAKELDIF_UNABLE_TO_CREATE_LDIF.get(ldifFile.getValue(), e.getMessage()));
                 return EXIT_CODE_FAILURE;
@@ -171,7 +172,7 @@ public final class MakeLDIF extends ConsoleApplication {
                 return EXIT_CODE_FAILURE;
             }
 
-            if (!generateEntries(generator, writer, ldifFile)) {
+            if (!generateEntries(generator, output, wrap, ldifFile)) {
                 return EXIT_CODE_FAILURE;
             }
 
@@ -179,19 +180,15 @@ public final class MakeLDIF extends ConsoleApplication {
 
             return EXIT_CODE_SUCCESS;
         } finally {
-            closeSilently(writer);
+            closeSilently(output);
         }
     }
 
-    private LDIFEntryWriter createLdifWriter(final StringArgument ldifFile, final IntegerArgument wrapColumn)
-            throws IOException, ArgumentException {
-        final LDIFEntryWriter writer;
+    private OutputStream createLdifOutput(final StringArgument ldifFile) throws IOException {
         if (ldifFile.isPresent()) {
-            writer = new LDIFEntryWriter(new BufferedWriter(new FileWriter(ldifFile.getValue())));
-        } else {
-            writer = new LDIFEntryWriter(getOutputStream());
+            return new BufferedOutputStream(new FileOutputStream(ldifFile.getValue()));
         }
-        return writer.setWrapColumn(wrapColumn.getIntValue());
+        return new BufferedOutputStream(getOutputStream());
     }
 
     static EntryGenerator createGenerator(final String templatePath, final StringArgument resourcePath,
@@ -257,13 +254,12 @@ public final class MakeLDIF extends ConsoleApplication {
     }
 
     /** Returns true if generation is successful, false otherwise. */
-    private boolean generateEntries(final EntryGenerator generator, final LDIFEntryWriter writer,
-            final StringArgument ldifFile) {
+    private boolean generateEntries(final EntryGenerator generator, final OutputStream output,
+            final int wrapColumn, final StringArgument ldifFile) {
         try {
             while (generator.hasNext()) {
-                final Entry entry = generator.readEntry();
                 try {
-                    writer.writeEntry(entry);
+                    generator.writeNextEntry(output, wrapColumn);
                 } catch (IOException e) {
                     errPrintln(ERR_MAKELDIF_ERROR_WRITING_LDIF.get(ldifFile.getValue(), e.getMessage()));
                     return false;
@@ -272,6 +268,12 @@ public final class MakeLDIF extends ConsoleApplication {
                     errPrintln(INFO_MAKELDIF_PROCESSED_N_ENTRIES.get(numberOfEntriesWritten));
                 }
             }
+            try {
+                output.flush();
+            } catch (IOException e) {
+                errPrintln(ERR_MAKELDIF_ERROR_WRITING_LDIF.get(ldifFile.getValue(), e.getMessage()));
+                return false;
+            }
         } catch (Exception e) {
             errPrintln(ERR_MAKELDIF_EXCEPTION_DURING_PROCESSING.get(e.getMessage()));
             return false;
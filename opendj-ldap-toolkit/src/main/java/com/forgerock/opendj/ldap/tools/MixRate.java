@@ -0,0 +1,394 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
+import static com.forgerock.opendj.cli.Utils.*;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+import static com.forgerock.opendj.cli.CommonArguments.*;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.Promises;
+
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.cli.ArgumentParser;
+import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.ConnectionFactoryProvider;
+import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.MultiColumnPrinter;
+import com.forgerock.opendj.cli.StringArgument;
+
+/**
+ * A load generation tool that can be used to load a Directory Server with a weighted mix of operations using one or
+ * more LDAP connections.
+ * <p>
+ * The operations are described by a workload file, in which each line contains the weight of an operation template
+ * followed by the operation type and its parameters. Parameters are Java style format strings which are evaluated
+ * with the values of the generator arguments, which are shared by all the templates. In addition to the aggregate
+ * statistics reported by the other rate tools, the throughput and response times are reported for each operation
+ * type.
+ */
+public final class MixRate extends ConsoleApplication {
+    /** A weighted operation of the workload. */
+    private static final class WeightedOperation {
+        private final int weight;
+        private final OperationTemplate template;
+
+        private WeightedOperation(final int weight, final OperationTemplate template) {
+            this.weight = weight;
+            this.template = template;
+        }
+    }
+
+    private final class MixPerformanceRunner extends PerformanceRunner {
+        private final class MixStatsHandler extends UpdateStatsResultHandler<Result> {
+            private final OperationTemplate.Type type;
+
+            private MixStatsHandler(final long currentTimeNs, final OperationTemplate.Type type) {
+                super(currentTimeNs);
+                this.type = type;
+            }
+
+            @Override
+            void updateAdditionalStatsOnResult() {
+                addOperation(false);
+            }
+
+            @Override
+            void updateAdditionalStatsOnException() {
+                addOperation(true);
+            }
+
+            private void addOperation(final boolean failed) {
+                operationStats.addOperation(type.getShortName(), failed, System.nanoTime() - operationStartTimeNs);
+            }
+        }
+
+        private final class MixStatsThread extends StatsThread {
+            private MixStatsThread(final PerformanceRunner perfRunner, final ConsoleApplication app) {
+                super(perfRunner, app);
+                final IntervalHistogramLog histogramLog = getHistogramLog();
+                if (histogramLog != null) {
+                    operationStats.recordTo(histogramLog);
+                }
+            }
+
+            @Override
+            void resetAdditionalStats() {
+                operationStats.reset();
+            }
+
+            @Override
+            List<MultiColumnPrinter.Column> registerAdditionalColumns() {
+                return operationStats.registerColumns(this);
+            }
+
+            @Override
+            public void stopRecording(final boolean stoppedByError) {
+                super.stopRecording(stoppedByError);
+                if (!stoppedByError) {
+                    operationStats.printSummary(MixRate.this, durationMsCount.getLastTotalCount() / MS_IN_S,
+                            getPercentiles());
+                }
+            }
+        }
+
+        private final class MixWorkerThread extends WorkerThread {
+            private Object[] data;
+            /**
+             * The connection dedicated to the bind operations of this worker, as binds must not be sent while other
+             * operations are pending on a connection, and must not change the identity used by the other operations.
+             */
+            private Connection bindConnection;
+
+            private MixWorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
+                super(connection, connectionFactory);
+            }
+
+            @Override
+            public void run() {
+                try {
+                    super.run();
+                } finally {
+                    closeSilently(bindConnection);
+                }
+            }
+
+            @Override
+            public Promise<?, LdapException> performOperation(final Connection connection,
+                    final DataSource[] dataSources, final long currentTimeNs) {
+                if (dataSources != null) {
+                    data = DataSource.generateData(dataSources, data);
+                }
+                final OperationTemplate template = nextTemplate();
+                final MixStatsHandler handler = new MixStatsHandler(currentTimeNs, template.getType());
+
+                incrementIterationCount();
+                final Connection operationConnection;
+                if (template.getType() == OperationTemplate.Type.BIND) {
+                    try {
+                        operationConnection = getBindConnection();
+                    } catch (final LdapException e) {
+                        return Promises.<Result, LdapException> newExceptionPromise(e).thenOnException(handler);
+                    }
+                } else {
+                    operationConnection = connection;
+                }
+                return template.performOperation(operationConnection, data)
+                        .thenOnResult(handler).thenOnException(handler);
+            }
+
+            private Connection getBindConnection() throws LdapException {
+                if (bindConnection == null || !bindConnection.isValid()) {
+                    closeSilently(bindConnection);
+                    bindConnection = bindConnectionFactory.getConnection();
+                }
+                return bindConnection;
+            }
+
+            private OperationTemplate nextTemplate() {
+                int value = ThreadLocalRandom.current().nextInt(totalWeight);
+                for (final WeightedOperation operation : operations) {
+                    value -= operation.weight;
+                    if (value < 0) {
+                        return operation.template;
+                    }
+                }
+                throw new IllegalStateException();
+            }
+        }
+
+        private final List<WeightedOperation> operations = new ArrayList<>();
+        /** The factory of the unauthenticated connections used for the bind operations of the workload. */
+        private ConnectionFactory bindConnectionFactory;
+        private final OperationTypeStats operationStats = new OperationTypeStats();
+        private int totalWeight;
+
+        private MixPerformanceRunner(final PerformanceRunnerOptions options) throws ArgumentException {
+            super(options);
+        }
+
+        @Override
+        WorkerThread newWorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
+            return new MixWorkerThread(connection, connectionFactory);
+        }
+
+        @Override
+        StatsThread newStatsThread(final PerformanceRunner performanceRunner, final ConsoleApplication app) {
+            return new MixStatsThread(performanceRunner, app);
+        }
+
+        /**
+         * Reads the operation templates of a workload file. Each line contains the weight of a template followed by
+         * the operation type and its parameters, separated by white spaces. Parameters containing white spaces may be
+         * enclosed in double quotes. Empty lines and lines starting with '#' are ignored.
+         */
+        private void readWorkload(final String fileName) throws ArgumentException, IOException {
+            try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    final String trimmed = line.trim();
+                    if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                        continue;
+                    }
+                    try {
+                        addOperation(OperationTemplate.tokenize(trimmed));
+                    } catch (final ArgumentException e) {
+                        throw new ArgumentException(
+                                ERR_MIXRATE_INVALID_WORKLOAD_LINE.get(lineNumber, fileName, e.getMessageObject()));
+                    }
+                }
+            }
+            if (operations.isEmpty()) {
+                throw new ArgumentException(ERR_MIXRATE_EMPTY_WORKLOAD.get(fileName));
+            }
+        }
+
+        private void addOperation(final List<String> tokens) throws ArgumentException {
+            final int weight;
+            try {
+                weight = Integer.parseInt(tokens.get(0));
+            } catch (final NumberFormatException e) {
+                throw new ArgumentException(ERR_MIXRATE_INVALID_WEIGHT.get(tokens.get(0)));
+            }
+            if (weight <= 0) {
+                throw new ArgumentException(ERR_MIXRATE_INVALID_WEIGHT.get(tokens.get(0)));
+            }
+            final OperationTemplate template = OperationTemplate.valueOf(tokens.subList(1, tokens.size()));
+            operationStats.register(template.getType().getShortName());
+            operations.add(new WeightedOperation(weight, template));
+            totalWeight += weight;
+        }
+
+        private List<WeightedOperation> getOperations() {
+            return operations;
+        }
+    }
+
+    /**
+     * The main method for MixRate tool.
+     *
+     * @param args
+     *            The command-line arguments provided to this program.
+     */
+    public static void main(final String[] args) {
+        final int retCode = new MixRate().run(args);
+        System.exit(filterExitCode(retCode));
+    }
+
+    private BooleanArgument verbose;
+    private BooleanArgument scriptFriendly;
+
+    private MixRate() {
+        // Nothing to do.
+    }
+
+    /** To allow tests. */
+    MixRate(final PrintStream out, final PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return false;
+    }
+
+    @Override
+    public boolean isScriptFriendly() {
+        return scriptFriendly.isPresent();
+    }
+
+    @Override
+    public boolean isVerbose() {
+        return verbose.isPresent();
+    }
+
+    int run(final String[] args) {
+        // Create the command-line argument parser for use with this program.
+        final LocalizableMessage toolDescription = INFO_MIXRATE_TOOL_DESCRIPTION.get();
+        final ArgumentParser argParser =
+                new ArgumentParser(MixRate.class.getName(), toolDescription, false, true, 0, 0, "");
+        argParser.setVersionHandler(newSdkVersionHandler());
+        argParser.setShortToolDescription(REF_SHORT_DESC_MIXRATE.get());
+        argParser.setDocToolDescriptionSupplement(SUPPLEMENT_DESCRIPTION_RATE_TOOLS.get());
+
+        ConnectionFactoryProvider connectionFactoryProvider;
+        ConnectionFactory connectionFactory;
+        MixPerformanceRunner runner;
+
+        BooleanArgument showUsage;
+        StringArgument propertiesFileArgument;
+        BooleanArgument noPropertiesFileArgument;
+        StringArgument workload;
+        try {
+            Utils.setDefaultPerfToolProperties();
+
+            connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
+            runner = new MixPerformanceRunner(new PerformanceRunnerOptions(argParser, this));
+
+            propertiesFileArgument = propertiesFileArgument();
+            argParser.addArgument(propertiesFileArgument);
+            argParser.setFilePropertiesArgument(propertiesFileArgument);
+
+            noPropertiesFileArgument = noPropertiesFileArgument();
+            argParser.addArgument(noPropertiesFileArgument);
+            argParser.setNoPropertiesFileArgument(noPropertiesFileArgument);
+
+            workload =
+                    StringArgument.builder("workload")
+                            .description(INFO_MIXRATE_DESCRIPTION_WORKLOAD.get())
+                            .required()
+                            .valuePlaceholder(INFO_FILE_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+
+            verbose = verboseArgument();
+            argParser.addArgument(verbose);
+
+            showUsage = showUsageArgument();
+            argParser.addArgument(showUsage);
+            argParser.setUsageArgument(showUsage, getOutputStream());
+
+            scriptFriendly =
+                    BooleanArgument.builder("scriptFriendly")
+                            .shortIdentifier('S')
+                            .description(INFO_DESCRIPTION_SCRIPT_FRIENDLY.get())
+                            .buildAndAddToParser(argParser);
+        } catch (final ArgumentException ae) {
+            final LocalizableMessage message = ERR_CANNOT_INITIALIZE_ARGS.get(ae.getMessage());
+            errPrintln(message);
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        // Parse the command-line arguments provided to this program.
+        try {
+            argParser.parseArguments(args);
+
+            // If we should just display usage or version information,
+            // then print it and exit.
+            if (argParser.usageOrVersionDisplayed()) {
+                return 0;
+            }
+
+            connectionFactory = connectionFactoryProvider.getAuthenticatedConnectionFactory();
+            runner.bindConnectionFactory = connectionFactoryProvider.getUnauthenticatedConnectionFactory();
+            runner.setBindRequest(connectionFactoryProvider.getBindRequest());
+            runner.validate();
+        } catch (final ArgumentException ae) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        try {
+            runner.readWorkload(workload.getValue());
+        } catch (final ArgumentException e) {
+            errPrintln(e.getMessageObject());
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        } catch (final IOException e) {
+            errPrintln(ERR_MIXRATE_CANNOT_READ_WORKLOAD.get(workload.getValue(), e.getLocalizedMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        try {
+            /* Try it out to make sure the format strings and data sources match. */
+            final Object[] data = DataSource.generateData(runner.getDataSources(), null);
+            for (final WeightedOperation operation : runner.getOperations()) {
+                operation.template.validate(data);
+            }
+        } catch (final Exception ex1) {
+            errPrintln(LocalizableMessage.raw("Error formatting workload parameters: " + ex1));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        return runner.run(connectionFactory);
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.Attribute;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.Modification;
+import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.util.promise.Promise;
+
+import com.forgerock.opendj.cli.ArgumentException;
+
+/**
+ * An LDAP operation described by its type followed by its parameters, as found in the workload files of mixrate and in
+ * the operation streams replayed by ldapreplay.
+ * <p>
+ * Parameters are Java style format strings which are evaluated with generated data when the operation is performed,
+ * or used as is when there is no data. The attribute modifications of modify operations may be prefixed with '+' for
+ * adding values, '-' for deleting values, or '=' for replacing values, which is the default. Consecutive modifications
+ * of the same type and attribute are sent as a single modification with several values.
+ */
+final class OperationTemplate {
+    /** The types of operation which may be described by a template. */
+    enum Type {
+        ADD("add", "add", 2, Integer.MAX_VALUE, "{dn} {attribute:value} ..."),
+        BIND("bind", "bind", 2, 2, "{dn} {password}"),
+        COMPARE("compare", "cmp", 2, 2, "{dn} {attribute:value}"),
+        DELETE("delete", "del", 1, 1, "{dn}"),
+        MODIFY("modify", "mod", 2, Integer.MAX_VALUE, "{dn} [+|-|=]{attribute:value} ..."),
+        MODDN("moddn", "mdn", 3, 4, "{dn} {newRDN} {deleteOldRDN} [{newSuperior}]"),
+        SEARCH("search", "srch", 3, Integer.MAX_VALUE, "{baseDN} {scope} {filter} [{attribute} ...]");
+
+        private final String name;
+        private final String shortName;
+        private final int minParameters;
+        private final int maxParameters;
+        private final String usage;
+
+        private Type(final String name, final String shortName, final int minParameters, final int maxParameters,
+                final String usage) {
+            this.name = name;
+            this.shortName = shortName;
+            this.minParameters = minParameters;
+            this.maxParameters = maxParameters;
+            this.usage = usage;
+        }
+
+        /** Returns the name of this operation type as displayed in the statistics columns. */
+        String getShortName() {
+            return shortName;
+        }
+
+        private static Type forName(final String name) {
+            for (final Type type : values()) {
+                if (type.name.equalsIgnoreCase(name)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** The search results are not needed for measuring the response time of searches. */
+    private static final SearchResultHandler IGNORE_SEARCH_RESULTS = new SearchResultHandler() {
+        @Override
+        public boolean handleEntry(final SearchResultEntry entry) {
+            return true;
+        }
+
+        @Override
+        public boolean handleReference(final SearchResultReference reference) {
+            return true;
+        }
+    };
+
+    private final Type type;
+    private final String dn;
+    private final String[] parameters;
+
+    private OperationTemplate(final Type type, final List<String> parameters) {
+        this.type = type;
+        this.dn = parameters.get(0);
+        this.parameters = parameters.subList(1, parameters.size()).toArray(new String[parameters.size() - 1]);
+    }
+
+    /**
+     * Parses an operation template from the operation type followed by its parameters.
+     *
+     * @param tokens
+     *            The operation type followed by its parameters.
+     * @return The operation template.
+     * @throws ArgumentException
+     *             If the operation type is unknown, or if its parameters are invalid.
+     */
+    static OperationTemplate valueOf(final List<String> tokens) throws ArgumentException {
+        if (tokens.isEmpty()) {
+            throw new ArgumentException(ERR_TOOLS_UNKNOWN_OPERATION.get("", Arrays.toString(Type.values())));
+        }
+        final Type type = Type.forName(tokens.get(0));
+        if (type == null) {
+            throw new ArgumentException(
+                    ERR_TOOLS_UNKNOWN_OPERATION.get(tokens.get(0), Arrays.toString(Type.values())));
+        }
+        final List<String> parameters = tokens.subList(1, tokens.size());
+        if (parameters.size() < type.minParameters || parameters.size() > type.maxParameters) {
+            throw new ArgumentException(ERR_TOOLS_INVALID_OPERATION_PARAMETERS.get(type, type.usage));
+        }
+        switch (type) {
+        case ADD:
+        case COMPARE:
+            for (final String parameter : parameters.subList(1, parameters.size())) {
+                if (parameter.indexOf(':') <= 0) {
+                    throw new ArgumentException(ERR_TOOLS_INVALID_OPERATION_PARAMETERS.get(type, type.usage));
+                }
+            }
+            break;
+        case MODIFY:
+            for (final String parameter : parameters.subList(1, parameters.size())) {
+                final int start = prefixLength(parameter);
+                final int colonPos = parameter.indexOf(':');
+                final int end = colonPos >= 0 ? colonPos : parameter.length();
+                // Values are only optional when deleting or replacing all the values of an attribute
+                if (end <= start
+                        || (colonPos < 0 && (start == 0 || modificationType(parameter) == ModificationType.ADD))) {
+                    throw new ArgumentException(ERR_TOOLS_INVALID_OPERATION_PARAMETERS.get(type, type.usage));
+                }
+            }
+            break;
+        case MODDN:
+            final String deleteOldRDN = parameters.get(2);
+            if (!"true".equalsIgnoreCase(deleteOldRDN) && !"false".equalsIgnoreCase(deleteOldRDN)) {
+                throw new ArgumentException(ERR_TOOLS_INVALID_OPERATION_PARAMETERS.get(type, type.usage));
+            }
+            break;
+        case SEARCH:
+            if (SearchScope.valueOf(parameters.get(1)) == null) {
+                throw new ArgumentException(ERR_TOOLS_INVALID_OPERATION_PARAMETERS.get(type, type.usage));
+            }
+            break;
+        default:
+            break;
+        }
+        return new OperationTemplate(type, parameters);
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    /**
+     * Sends the request described by this template.
+     *
+     * @param connection
+     *            The connection to use.
+     * @param data
+     *            The data used for evaluating the parameters, or {@code null} if the parameters must be used as is.
+     * @return A promise of the result of the operation.
+     */
+    Promise<? extends Result, LdapException> performOperation(final Connection connection, final Object[] data) {
+        final String name = format(dn, data);
+        switch (type) {
+        case ADD:
+            final AddRequest addRequest = Requests.newAddRequest(name);
+            for (final String parameter : parameters) {
+                final String attributeValue = format(parameter, data);
+                final int colonPos = attributeValue.indexOf(':');
+                addRequest.addAttribute(attributeValue.substring(0, colonPos), attributeValue.substring(colonPos + 1));
+            }
+            return connection.addAsync(addRequest);
+        case BIND:
+            return connection.bindAsync(
+                    Requests.newSimpleBindRequest(name, format(parameters[0], data).toCharArray()));
+        case COMPARE:
+            final String assertion = format(parameters[0], data);
+            final int colonPos = assertion.indexOf(':');
+            return connection.compareAsync(Requests.newCompareRequest(
+                    name, assertion.substring(0, colonPos), assertion.substring(colonPos + 1)));
+        case DELETE:
+            return connection.deleteAsync(Requests.newDeleteRequest(name));
+        case MODIFY:
+            return connection.modifyAsync(newModifyRequest(name, data));
+        case MODDN:
+            final ModifyDNRequest modifyDNRequest = Requests.newModifyDNRequest(name, format(parameters[0], data))
+                    .setDeleteOldRDN(Boolean.parseBoolean(parameters[1]));
+            if (parameters.length > 2) {
+                modifyDNRequest.setNewSuperior(format(parameters[2], data));
+            }
+            return connection.modifyDNAsync(modifyDNRequest);
+        default:
+            return connection.searchAsync(Requests.newSearchRequest(name, SearchScope.valueOf(parameters[0]),
+                    format(parameters[1], data), Arrays.copyOfRange(parameters, 2, parameters.length)),
+                    IGNORE_SEARCH_RESULTS);
+        }
+    }
+
+    private ModifyRequest newModifyRequest(final String name, final Object[] data) {
+        final ModifyRequest modifyRequest = Requests.newModifyRequest(name);
+        Modification previous = null;
+        for (final String parameter : parameters) {
+            final ModificationType modificationType = modificationType(parameter);
+            final String modification = format(parameter.substring(prefixLength(parameter)), data);
+            final int colonPos = modification.indexOf(':');
+            final String attributeDescription =
+                    colonPos >= 0 ? modification.substring(0, colonPos) : modification;
+            final Attribute attribute = previous != null ? previous.getAttribute() : null;
+            if (colonPos < 0) {
+                previous = null;
+                modifyRequest.addModification(modificationType, attributeDescription);
+            } else if (attribute != null && previous.getModificationType() == modificationType
+                    && attribute.getAttributeDescriptionAsString().equals(attributeDescription)) {
+                attribute.add(modification.substring(colonPos + 1));
+            } else {
+                modifyRequest.addModification(
+                        modificationType, attributeDescription, modification.substring(colonPos + 1));
+                final List<Modification> modifications = modifyRequest.getModifications();
+                previous = modifications.get(modifications.size() - 1);
+            }
+        }
+        return modifyRequest;
+    }
+
+    /** Evaluates all the format strings, in order to make sure that they match the data sources. */
+    void validate(final Object[] data) {
+        format(dn, data);
+        for (final String parameter : parameters) {
+            format(parameter, data);
+        }
+    }
+
+    /** Returns 1 if the modification starts with its type, or 0 if it is a replacement without prefix. */
+    private static int prefixLength(final String modification) {
+        return !modification.isEmpty() && "+-=".indexOf(modification.charAt(0)) >= 0 ? 1 : 0;
+    }
+
+    private static ModificationType modificationType(final String modification) {
+        switch (prefixLength(modification) > 0 ? modification.charAt(0) : '=') {
+        case '+':
+            return ModificationType.ADD;
+        case '-':
+            return ModificationType.DELETE;
+        default:
+            return ModificationType.REPLACE;
+        }
+    }
+
+    private static String format(final String format, final Object[] data) {
+        return data != null ? String.format(format, data) : format;
+    }
+
+    /**
+     * Splits a line into white space separated tokens. Tokens containing white spaces may be enclosed in double
+     * quotes, in which a double quote or a backslash must be preceded by a backslash.
+     *
+     * @param line
+     *            The line to split.
+     * @return The tokens of the line.
+     * @throws ArgumentException
+     *             If a double quote is not terminated.
+     */
+    static List<String> tokenize(final String line) throws ArgumentException {
+        final List<String> tokens = new ArrayList<>();
+        final StringBuilder token = new StringBuilder();
+        boolean inToken = false;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    quoted = false;
+                } else if (c == '\\' && i + 1 < line.length()) {
+                    token.append(line.charAt(++i));
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+                inToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (quoted) {
+            throw new ArgumentException(ERR_TOOLS_UNTERMINATED_QUOTE.get());
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Appends a token to a line, enclosed in double quotes, so that {@link #tokenize(String)} returns it unchanged.
+     *
+     * @param line
+     *            The line to which the token must be appended.
+     * @param token
+     *            The token to append, which must not contain line breaks.
+     * @return The line.
+     */
+    static StringBuilder appendQuoted(final StringBuilder line, final String token) {
+        line.append('"');
+        for (int i = 0; i < token.length(); i++) {
+            final char c = token.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\');
+            }
+            line.append(c);
+        }
+        return line.append('"');
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.MultiColumnPrinter.column;
+import static com.forgerock.opendj.cli.MultiColumnPrinter.separatorColumn;
+import static com.forgerock.opendj.ldap.tools.StatsThread.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.HdrHistogram.Recorder;
+import org.mpierce.metrics.reservoir.hdrhistogram.HdrHistogramReservoir;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.RatioGauge;
+import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.MultiColumnPrinter;
+
+/**
+ * The throughput and response time statistics of each type of operation performed by a rate tool, which are
+ * reported by its {@link StatsThread} in addition to the statistics of all the operations. Operation types are
+ * identified by their displayed name, which is also the tag of their histograms in the histogram log, if any.
+ * <p>
+ * These statistics are also used for the durations of the phases of the connections opened by authrate, in which case
+ * only the response times of each phase are reported.
+ * <p>
+ * Operation types must be registered before the stats thread is created, so that their columns can be displayed.
+ * Their columns are displayed in the order of their registration.
+ */
+final class OperationTypeStats {
+    private static final int STANDARD_WIDTH = 8;
+    private static final String THROUGHPUT = STAT_ID_PREFIX + "throughput_";
+    private static final String RESPONSE_TIME = STAT_ID_PREFIX + "response_time_";
+
+    /** The statistics of the operations of one type, or of all the operations. */
+    private static final class Stats {
+        private final String name;
+        private volatile IntervalCounter operationCount;
+        private volatile IntervalCounter errorCount;
+        private volatile IntervalCounter responseTimeNsCount;
+        private volatile Histogram responseTimes;
+        /** Records the response times in the histogram log, if any. */
+        private Recorder recorder;
+
+        private Stats(final String name) {
+            this.name = name;
+            reset();
+        }
+
+        private void reset() {
+            operationCount = newIntervalCounter();
+            errorCount = newIntervalCounter();
+            responseTimeNsCount = newIntervalCounter();
+            responseTimes = new Histogram(new HdrHistogramReservoir());
+        }
+
+        private void refreshIntervalCounts() {
+            operationCount.refreshIntervalCount();
+            responseTimeNsCount.refreshIntervalCount();
+        }
+
+        private void addOperation(final boolean failed, final long responseTimeNs) {
+            operationCount.inc();
+            if (failed) {
+                errorCount.inc();
+            }
+            responseTimeNsCount.inc(responseTimeNs);
+            responseTimes.update(responseTimeNs);
+            if (recorder != null) {
+                recorder.recordValue(responseTimeNs);
+            }
+        }
+    }
+
+    private final Map<String, Stats> operationStats = new LinkedHashMap<>();
+    private final Stats aggregateStats = new Stats("all");
+    /** The title of the column of the operation type names in the summary. */
+    private final String title;
+    /** Whether the throughput and the errors of each operation type, and of all the operations, are reported. */
+    private final boolean reportThroughput;
+
+    /** Creates the statistics of operation types, whose throughput and errors are reported as well. */
+    OperationTypeStats() {
+        this("operation", true);
+    }
+
+    /**
+     * Creates statistics whose summary displays the names of the operation types in a column with the provided title.
+     * If {@code reportThroughput} is {@code false}, only the response times of each operation type are reported.
+     */
+    OperationTypeStats(final String title, final boolean reportThroughput) {
+        this.title = title;
+        this.reportThroughput = reportThroughput;
+    }
+
+    /** Registers an operation type, whose statistics will be reported. */
+    void register(final String name) {
+        if (!operationStats.containsKey(name)) {
+            operationStats.put(name, new Stats(name));
+        }
+    }
+
+    /** Adds the response time of an operation of a registered type. */
+    void addOperation(final String name, final boolean failed, final long responseTimeNs) {
+        operationStats.get(name).addOperation(failed, responseTimeNs);
+        aggregateStats.addOperation(failed, responseTimeNs);
+    }
+
+    /** Records the response times of each operation type in the provided histogram log, tagged with its name. */
+    void recordTo(final IntervalHistogramLog histogramLog) {
+        for (final Stats stats : operationStats.values()) {
+            stats.recorder = histogramLog.newRecorder(stats.name);
+        }
+    }
+
+    void reset() {
+        for (final Stats stats : operationStats.values()) {
+            stats.reset();
+        }
+        aggregateStats.reset();
+    }
+
+    /** Registers the throughput and response time gauges of each operation type, and returns their columns. */
+    List<MultiColumnPrinter.Column> registerColumns(final StatsThread statsThread) {
+        final List<MultiColumnPrinter.Column> columns = new ArrayList<>();
+        for (final Stats stats : operationStats.values()) {
+            if (reportThroughput) {
+                statsThread.registry.register(THROUGHPUT + stats.name, new RatioGauge() {
+                    @Override
+                    protected Ratio getRatio() {
+                        stats.refreshIntervalCounts();
+                        return Ratio.of(stats.operationCount.getLastIntervalCount(),
+                                        statsThread.durationMsCount.getLastIntervalCount() / MS_IN_S);
+                    }
+                });
+                columns.add(column(THROUGHPUT + stats.name, stats.name + "/sec", STANDARD_WIDTH, 1));
+            }
+            statsThread.registry.register(RESPONSE_TIME + stats.name, new RatioGauge() {
+                @Override
+                protected Ratio getRatio() {
+                    if (!reportThroughput) {
+                        // Otherwise refreshed by the throughput column, which is computed first.
+                        stats.refreshIntervalCounts();
+                    }
+                    return Ratio.of(stats.responseTimeNsCount.getLastIntervalCount() / NS_IN_MS,
+                                    stats.operationCount.getLastIntervalCount());
+                }
+            });
+            columns.add(column(RESPONSE_TIME + stats.name, stats.name + " ms", STANDARD_WIDTH, 3));
+        }
+        return columns;
+    }
+
+    /**
+     * Prints the statistics of each operation type over the whole run, followed by the statistics of all the operations
+     * if their throughput is reported.
+     */
+    void printSummary(final ConsoleApplication app, final double durationS, final double[] percentiles) {
+        final boolean scriptFriendly = app.isScriptFriendly();
+        final List<MultiColumnPrinter.Column> columns = new ArrayList<>();
+        if (!scriptFriendly) {
+            columns.add(separatorColumn());
+        }
+        columns.add(column(title, title, 9, 0));
+        columns.add(column("count", "count", 10, 0));
+        if (reportThroughput) {
+            columns.add(column("errors", "errors", 8, 0));
+            columns.add(column("throughput", scriptFriendly ? "average throughput" : "ops/sec", 10, 1));
+        }
+        columns.add(column("response_time", scriptFriendly ? "average response time" : "avg ms", 8, 3));
+        for (final double percentile : percentiles) {
+            columns.add(column("percentile" + percentile,
+                    scriptFriendly ? percentile + "% response time" : percentile + "%", STANDARD_WIDTH, 2));
+        }
+        if (!scriptFriendly) {
+            columns.add(separatorColumn());
+        }
+        final MultiColumnPrinter printer = scriptFriendly
+                ? MultiColumnPrinter.builder(app.getOutputStream(), columns).columnSeparator(",").build()
+                : MultiColumnPrinter.builder(app.getOutputStream(), columns).format(true).build();
+
+        app.println();
+        if (!scriptFriendly) {
+            printer.printDashedLine();
+        }
+        printer.printTitleLine();
+        if (!scriptFriendly) {
+            printer.printDashedLine();
+        }
+        final List<Stats> rows = new ArrayList<>(operationStats.values());
+        if (reportThroughput) {
+            rows.add(aggregateStats);
+        }
+        for (final Stats stats : rows) {
+            final long count = stats.operationCount.getCount();
+            printer.printData(stats.name);
+            printer.printData((double) count);
+            if (reportThroughput) {
+                printer.printData((double) stats.errorCount.getCount());
+                printer.printData(durationS > 0 ? count / durationS : Double.NaN);
+            }
+            printer.printData(count > 0 ? stats.responseTimeNsCount.getCount() / NS_IN_MS / count : Double.NaN);
+            for (final double percentile : percentiles) {
+                printer.printData(count > 0
+                        ? stats.responseTimes.getSnapshot().getValue(percentile / 100.0) / NS_IN_MS
+                        : Double.NaN);
+            }
+        }
+        if (!scriptFriendly) {
+            printer.printDashedLine();
+        }
+    }
+}
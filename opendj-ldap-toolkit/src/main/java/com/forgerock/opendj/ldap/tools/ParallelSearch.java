@@ -0,0 +1,514 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldap.DecodeOptions;
+import org.forgerock.opendj.ldap.Filter;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.controls.Control;
+import org.forgerock.opendj.ldap.controls.ProxiedAuthV2RequestControl;
+import org.forgerock.opendj.ldap.controls.SimplePagedResultsControl;
+import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldif.LDIFEntryWriter;
+
+import com.forgerock.opendj.cli.ConsoleApplication;
+
+/**
+ * Performs a search by splitting it into partitions which are searched concurrently, each worker using its own
+ * connection. This is used by {@link LDAPSearch} for exporting large subtrees, which would otherwise be bound by the
+ * throughput of a single connection and of a single encoding thread.
+ * <p>
+ * The entries are either all written to the standard output, or each worker writes the entries it receives to its
+ * own file in an output directory. In the latter case, a checkpoint is recorded in the output directory each time a
+ * partition has been completely written, so that an interrupted search can be resumed by running the same command
+ * again: completed partitions are skipped and the output files are truncated to the end of their last completed
+ * partition.
+ */
+final class ParallelSearch {
+    /** A worker searching partitions one after the other using its own connection. */
+    private final class Worker implements Runnable {
+        private final File file;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private FileOutputStream fileStream;
+        private LDIFEntryWriter writer;
+        private IOException writeError;
+        /** The size of the output file at the end of the last partition which was completely written to it. */
+        private long completedSize;
+
+        private Worker(final int index) {
+            this.file = outputDirectory != null ? getOutputFile(index) : null;
+        }
+
+        @Override
+        public void run() {
+            Connection connection = null;
+            try {
+                openWriter();
+                connection = getConnection();
+                SearchRequest partition;
+                while ((partition = partitions.poll()) != null) {
+                    try {
+                        search(connection, partition);
+                        completed(partition);
+                    } catch (final LdapException e) {
+                        discardIncompletePartition();
+                        failed(partition, e.getResult());
+                        if (!connection.isValid()) {
+                            return;
+                        }
+                    }
+                }
+            } catch (final LdapException e) {
+                recordFailure(e.getResult());
+                Utils.printErrorMessage(app, e);
+            } catch (final IOException e) {
+                ioFailed(file, e);
+            } finally {
+                closeSilently(connection, writer);
+            }
+        }
+
+        private void openWriter() throws IOException {
+            if (file == null) {
+                writer = new LDIFEntryWriter(buffer).setWrapColumn(wrapColumn);
+                return;
+            }
+            // Entries of partitions which were not completed by a previous run have already been discarded.
+            fileStream = new FileOutputStream(file, true);
+            completedSize = fileStream.getChannel().size();
+            writer = new LDIFEntryWriter(new BufferedOutputStream(fileStream, BUFFER_SIZE)).setWrapColumn(wrapColumn);
+        }
+
+        private void search(final Connection connection, final SearchRequest partition)
+                throws LdapException, IOException {
+            final SearchResultHandler handler = new SearchResultHandler() {
+                @Override
+                public boolean handleEntry(final SearchResultEntry entry) {
+                    try {
+                        writer.writeEntry(entry);
+                        if (file == null) {
+                            // Entries are encoded concurrently, and only copied to the output while holding the lock.
+                            writer.flush();
+                            synchronized (out) {
+                                buffer.writeTo(out);
+                            }
+                            buffer.reset();
+                        }
+                        entryCount.incrementAndGet();
+                        return true;
+                    } catch (final IOException e) {
+                        writeError = e;
+                        return false;
+                    }
+                }
+
+                @Override
+                public boolean handleReference(final SearchResultReference reference) {
+                    return true;
+                }
+            };
+
+            while (true) {
+                final Result result = connection.search(partition, handler);
+                if (writeError != null) {
+                    throw writeError;
+                }
+                final ByteString cookie = getPagedResultsCookie(result);
+                if (cookie == null || cookie.isEmpty()) {
+                    break;
+                }
+                setPagedResultsControl(partition, cookie);
+            }
+        }
+
+        private void completed(final SearchRequest partition) throws IOException {
+            if (file != null) {
+                writer.flush();
+                // The entries must be durable before the partition is recorded as completed.
+                fileStream.getFD().sync();
+                completedSize = fileStream.getChannel().size();
+                checkpoint(file.getName(), completedSize, getPartitionId(partition));
+            }
+            completedPartitions.incrementAndGet();
+        }
+
+        private void discardIncompletePartition() throws IOException {
+            if (file != null) {
+                writer.flush();
+                fileStream.getChannel().truncate(completedSize);
+            }
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String OUTPUT_FILE_PREFIX = "search-";
+    private static final String OUTPUT_FILE_SUFFIX = ".ldif";
+    private static final long PROGRESS_INTERVAL_SECONDS = 5;
+
+    private final ConsoleApplication app;
+    private final ConnectionFactory connectionFactory;
+    private final BindRequest bindRequest;
+    private final SearchRequest search;
+    private final int parallelism;
+    private final int pageSize;
+    private final int wrapColumn;
+    private final File outputDirectory;
+    private final OutputStream out;
+
+    private final Queue<SearchRequest> partitions = new ConcurrentLinkedQueue<>();
+    private final Map<String, Long> checkpointOffsets = new HashMap<>();
+    private final Set<String> checkpointedPartitions = new HashSet<>();
+    private final AtomicLong entryCount = new AtomicLong();
+    private final AtomicInteger completedPartitions = new AtomicInteger();
+    private final AtomicInteger failedPartitions = new AtomicInteger();
+    private volatile Result firstFailure;
+    private OutputStream checkpointStream;
+
+    /**
+     * Creates a new parallel search.
+     *
+     * @param app
+     *            The application used for reporting progress and errors.
+     * @param connectionFactory
+     *            The factory used for creating the connection of each worker.
+     * @param bindRequest
+     *            The bind request sent on each connection, or {@code null}.
+     * @param search
+     *            The search request to split into partitions.
+     * @param parallelism
+     *            The number of partitions which are searched concurrently.
+     * @param pageSize
+     *            The page size used for searching each partition with the simple paged results control, or {@code 0}
+     *            if partitions should be searched with a single request.
+     * @param wrapColumn
+     *            The column at which long LDIF lines should be wrapped, or {@code 0} to disable wrapping.
+     * @param outputDirectory
+     *            The directory where each worker writes its entries and where checkpoints are recorded, or
+     *            {@code null} if all the entries should be written to the standard output.
+     */
+    ParallelSearch(final ConsoleApplication app, final ConnectionFactory connectionFactory,
+            final BindRequest bindRequest, final SearchRequest search, final int parallelism, final int pageSize,
+            final int wrapColumn, final File outputDirectory) {
+        this.app = app;
+        this.connectionFactory = connectionFactory;
+        this.bindRequest = bindRequest;
+        this.search = search;
+        this.parallelism = parallelism;
+        this.pageSize = pageSize;
+        this.wrapColumn = wrapColumn;
+        this.outputDirectory = outputDirectory;
+        this.out = app.getOutputStream();
+    }
+
+    /**
+     * Returns the partitions of the search made of ranges of values of an attribute. Entries whose value is greater
+     * or equal to a boundary and lower than the next one belong to the same partition. The entries which are lower
+     * than the first boundary, greater or equal to the last one, or which do not have any value belong to their own
+     * partitions. The attribute should be single valued, otherwise entries may be returned more than once.
+     *
+     * @param search
+     *            The search request to split into partitions.
+     * @param attribute
+     *            The attribute whose values are used for partitioning the entries.
+     * @param boundaries
+     *            The values at which a new partition starts, in increasing order.
+     * @return The partitions of the search.
+     */
+    static List<SearchRequest> partitionByRanges(final SearchRequest search, final String attribute,
+            final List<String> boundaries) {
+        final List<SearchRequest> ranges = new ArrayList<>(boundaries.size() + 2);
+        final Filter present = Filter.present(attribute);
+        ranges.add(newPartition(search, Filter.not(present)));
+        // Presence is checked explicitly because servers may not agree on how to negate an undefined assertion.
+        Filter lowerBound = present;
+        for (final String boundary : boundaries) {
+            ranges.add(newPartition(search, lowerBound, Filter.not(Filter.greaterOrEqual(attribute, boundary))));
+            lowerBound = Filter.greaterOrEqual(attribute, boundary);
+        }
+        ranges.add(newPartition(search, lowerBound));
+        return ranges;
+    }
+
+    private static SearchRequest newPartition(final SearchRequest search, final Filter... range) {
+        final List<Filter> filters = new ArrayList<>(range.length + 1);
+        filters.add(search.getFilter());
+        filters.addAll(Arrays.asList(range));
+        return Requests.copyOfSearchRequest(search).setFilter(Filter.and(filters));
+    }
+
+    /**
+     * Returns the partitions of a subtree search made of the base entry and of the subtree of each of its children,
+     * which are discovered using a one-level search.
+     *
+     * @return The partitions of the search.
+     * @throws LdapException
+     *             If the children of the base entry could not be retrieved.
+     */
+    List<SearchRequest> partitionByChildren() throws LdapException {
+        final List<SearchRequest> children = new ArrayList<>();
+        if (search.getScope() == SearchScope.WHOLE_SUBTREE) {
+            children.add(Requests.copyOfSearchRequest(search).setScope(SearchScope.BASE_OBJECT));
+        }
+
+        final SearchRequest request =
+                Requests.newSearchRequest(search.getName(), SearchScope.SINGLE_LEVEL, Filter.objectClassPresent(),
+                        "1.1").setDereferenceAliasesPolicy(search.getDereferenceAliasesPolicy());
+        for (final Control control : search.getControls()) {
+            if (ProxiedAuthV2RequestControl.OID.equals(control.getOID())) {
+                request.addControl(control);
+            }
+        }
+        try (Connection connection = getConnection()) {
+            connection.search(request, new SearchResultHandler() {
+                @Override
+                public boolean handleEntry(final SearchResultEntry entry) {
+                    children.add(Requests.copyOfSearchRequest(search).setName(entry.getName())
+                                         .setScope(SearchScope.WHOLE_SUBTREE));
+                    return true;
+                }
+
+                @Override
+                public boolean handleReference(final SearchResultReference reference) {
+                    return true;
+                }
+            });
+        }
+        return children;
+    }
+
+    /**
+     * Searches the provided partitions, reporting progress on the error stream until all of them have been searched.
+     *
+     * @param searchPartitions
+     *            The partitions of the search.
+     * @return The exit code of the tool.
+     */
+    int run(final List<SearchRequest> searchPartitions) {
+        if (outputDirectory != null) {
+            try {
+                readCheckpoint();
+            } catch (final IOException e) {
+                ioFailed(new File(outputDirectory, CHECKPOINT_FILE), e);
+                return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+            }
+        }
+        for (final SearchRequest partition : searchPartitions) {
+            if (!checkpointedPartitions.contains(getPartitionId(partition))) {
+                partitions.add(partition);
+            }
+        }
+        final int total = partitions.size();
+        if (total < searchPartitions.size() && !app.isQuiet()) {
+            app.errPrintln(INFO_LDAPSEARCH_PARALLEL_RESUMING.get(searchPartitions.size() - total));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                executor.execute(new Worker(i));
+            }
+            executor.shutdown();
+            final long startTime = System.currentTimeMillis();
+            while (!executor.awaitTermination(PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+                printProgress(total, startTime);
+            }
+            printProgress(total, startTime);
+        } catch (final InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            return ResultCode.CLIENT_SIDE_USER_CANCELLED.intValue();
+        } finally {
+            closeSilently(checkpointStream);
+        }
+
+        final Result failure = firstFailure;
+        if (failure != null) {
+            return failure.getResultCode().intValue();
+        } else if (failedPartitions.get() > 0 || completedPartitions.get() < total) {
+            return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+        }
+        return ResultCode.SUCCESS.intValue();
+    }
+
+    /**
+     * Returns the number of entries returned by the search.
+     *
+     * @return The number of entries returned by the search.
+     */
+    long getEntryCount() {
+        return entryCount.get();
+    }
+
+    private void printProgress(final int total, final long startTime) {
+        if (!app.isQuiet()) {
+            final long entries = entryCount.get();
+            final long elapsedMillis = Math.max(System.currentTimeMillis() - startTime, 1);
+            app.errPrintln(INFO_LDAPSEARCH_PARALLEL_PROGRESS.get(completedPartitions.get(), total, entries,
+                    entries * 1000 / elapsedMillis));
+        }
+    }
+
+    private ByteString getPagedResultsCookie(final Result result) {
+        if (pageSize == 0) {
+            return null;
+        }
+        try {
+            final SimplePagedResultsControl control =
+                    result.getControl(SimplePagedResultsControl.DECODER, new DecodeOptions());
+            return control != null ? control.getCookie() : null;
+        } catch (final DecodeException e) {
+            app.errPrintln(ERR_DECODE_CONTROL_FAILURE.get(e.getLocalizedMessage()));
+            return null;
+        }
+    }
+
+    private void setPagedResultsControl(final SearchRequest partition, final ByteString cookie) {
+        final Iterator<Control> iterator = partition.getControls().iterator();
+        while (iterator.hasNext()) {
+            if (SimplePagedResultsControl.OID.equals(iterator.next().getOID())) {
+                iterator.remove();
+            }
+        }
+        partition.addControl(SimplePagedResultsControl.newControl(true, pageSize, cookie));
+    }
+
+    private Connection getConnection() throws LdapException {
+        final Connection connection = connectionFactory.getConnection();
+        if (bindRequest != null) {
+            try {
+                connection.bind(bindRequest);
+            } catch (final LdapException e) {
+                connection.close();
+                throw e;
+            }
+        }
+        return connection;
+    }
+
+    private void failed(final SearchRequest partition, final Result result) {
+        failedPartitions.incrementAndGet();
+        recordFailure(result);
+        final String diagnosticMessage = result.getDiagnosticMessage() != null ? result.getDiagnosticMessage() : "";
+        app.errPrintln(ERR_LDAPSEARCH_PARALLEL_PARTITION_FAILED.get(getPartitionId(partition),
+                result.getResultCode().intValue(), result.getResultCode().toString(), diagnosticMessage));
+    }
+
+    private synchronized void recordFailure(final Result result) {
+        if (firstFailure == null) {
+            firstFailure = result;
+        }
+    }
+
+    private void ioFailed(final File file, final IOException e) {
+        failedPartitions.incrementAndGet();
+        app.errPrintln(ERR_LDAPSEARCH_PARALLEL_IO_ERROR.get(file, e.getLocalizedMessage()));
+    }
+
+    /**
+     * Reads the partitions completed by a previous run, and the size of each output file at the end of the last
+     * partition which was completely written to it.
+     */
+    private void readCheckpoint() throws IOException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Unable to create the directory '" + outputDirectory + "'");
+        }
+        final File checkpoint = new File(outputDirectory, CHECKPOINT_FILE);
+        if (checkpoint.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(checkpoint), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // A line may be incomplete if the previous run was interrupted while writing it.
+                    final String[] fields = line.split(" ", 3);
+                    if (fields.length == 3) {
+                        checkpointOffsets.put(fields[0], Long.valueOf(fields[1]));
+                        checkpointedPartitions.add(fields[2]);
+                    }
+                }
+            } catch (final NumberFormatException e) {
+                throw new IOException(e);
+            }
+        }
+        // Output files from a previous run with more workers will not be reopened.
+        for (final File file : outputDirectory.listFiles()) {
+            final String name = file.getName();
+            if (name.startsWith(OUTPUT_FILE_PREFIX) && name.endsWith(OUTPUT_FILE_SUFFIX)) {
+                final Long offset = checkpointOffsets.get(name);
+                try (FileOutputStream stream = new FileOutputStream(file, true)) {
+                    stream.getChannel().truncate(offset != null ? offset : 0);
+                }
+            }
+        }
+        checkpointStream = new FileOutputStream(checkpoint, true);
+    }
+
+    private synchronized void checkpoint(final String fileName, final long offset, final String partitionId)
+            throws IOException {
+        checkpointStream.write((fileName + " " + offset + " " + partitionId + "\n").getBytes(StandardCharsets.UTF_8));
+        checkpointStream.flush();
+    }
+
+    private File getOutputFile(final int index) {
+        return new File(outputDirectory, OUTPUT_FILE_PREFIX + index + OUTPUT_FILE_SUFFIX);
+    }
+
+    /** Returns an identifier of the partition which does not change from one run to the next. */
+    private static String getPartitionId(final SearchRequest partition) {
+        return partition.getScope() + " " + partition.getFilter() + " " + partition.getName();
+    }
+}
@@ -23,6 +23,7 @@ import static org.forgerock.util.Utils.*;
 
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -34,6 +35,7 @@ import org.forgerock.opendj.ldap.ConnectionEventListener;
 import org.forgerock.opendj.ldap.ConnectionFactory;
 import org.forgerock.opendj.ldap.LdapException;
 import org.forgerock.opendj.ldap.LdapResultHandler;
+import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.requests.BindRequest;
 import org.forgerock.opendj.ldap.responses.ExtendedResult;
 import org.forgerock.opendj.ldap.responses.Result;
@@ -91,6 +93,7 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         public final void handleException(final LdapException exception) {
             statsThread.incrementFailedCount();
             updateResponseTime();
+            updateAdditionalStatsOnException();
             app.errPrintVerboseMessage(LocalizableMessage.raw(exception.getResult().toString()));
         }
 
@@ -104,6 +107,9 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         /** Do nothing by default, child classes which manage additional stats need to override this method. */
         void updateAdditionalStatsOnResult() { }
 
+        /** Do nothing by default, child classes which manage additional stats need to override this method. */
+        void updateAdditionalStatsOnException() { }
+
         private void updateResponseTime() {
             statsThread.addResponseTime(System.nanoTime() - operationStartTimeNs);
         }
@@ -132,8 +138,7 @@ abstract class PerformanceRunner implements ConnectionEventListener {
             final double targetTimeMs = 1000.0 / (targetThroughput / (double) (numThreads * numConnections));
             double sleepTimeMs = 0;
 
-            while (!stopRequested && !localStopRequested
-                    && (maxIterations <= 0 || count < maxIterations)) {
+            while (!isStopRequested()) {
                 try {
                     connection = getConnectionToUse();
                 } catch (final InterruptedException e) {
@@ -143,6 +148,10 @@ abstract class PerformanceRunner implements ConnectionEventListener {
                     handleConnectionError(false, e);
                     break;
                 }
+                if (connection == null) {
+                    // No more operations to perform
+                    break;
+                }
 
                 long startTimeNs = System.nanoTime();
                 promise = performOperation(connection, dataSources.get(), startTimeNs);
@@ -153,16 +162,12 @@ abstract class PerformanceRunner implements ConnectionEventListener {
                     // Ignore and check stop requested
                     continue;
                 } catch (final LdapException e) {
-                    if (!stopRequested && e.getCause() instanceof IOException) {
-                        e.getCause().printStackTrace(app.getErrorStream());
-                        stopTool(true);
+                    if (handleOperationError(e)) {
                         break;
                     }
                     // Ignore. Handled by result handler
                 } finally {
-                    if (this.connection == null) {
-                        connection.close();
-                    }
+                    releaseConnection(connection);
                 }
 
                 if (targetThroughput > 0) {
@@ -184,7 +189,11 @@ abstract class PerformanceRunner implements ConnectionEventListener {
             }
         }
 
-        private Connection getConnectionToUse() throws InterruptedException, LdapException {
+        /**
+         * Returns the connection to use for the next operation, or {@code null} if this worker has no more operations
+         * to perform.
+         */
+        Connection getConnectionToUse() throws InterruptedException, LdapException {
             if (this.connection == null) {
                 return connectionFactory.getConnectionAsync().getOrThrow();
             } else {
@@ -196,9 +205,21 @@ abstract class PerformanceRunner implements ConnectionEventListener {
             }
         }
 
+        /** Releases the connection used by an operation, once its result has been received. */
+        void releaseConnection(final Connection connection) {
+            if (this.connection == null) {
+                connection.close();
+            }
+        }
+
         void incrementIterationCount() {
             count++;
         }
+
+        /** Returns {@code true} if the tool is stopping, or if this worker has performed all its iterations. */
+        boolean isStopRequested() {
+            return localStopRequested || PerformanceRunner.this.isStopRequested(count);
+        }
     }
 
     private final ConsoleApplication app;
@@ -238,6 +259,7 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     private final IntegerArgument targetThroughputArgument;
     private final IntegerArgument numConnectionsArgument;
     private final IntegerArgument percentilesArgument;
+    private final StringArgument histogramLogArgument;
     private final BooleanArgument keepConnectionsOpen;
     private final BooleanArgument noRebindArgument;
     private final StringArgument arguments;
@@ -246,6 +268,7 @@ abstract class PerformanceRunner implements ConnectionEventListener {
 
     private final List<Thread> workerThreads = new ArrayList<>();
     StatsThread statsThread;
+    private IntervalHistogramLog histogramLog;
 
     PerformanceRunner(final PerformanceRunnerOptions options) throws ArgumentException {
         ArgumentParser argParser = options.getArgumentParser();
@@ -320,11 +343,20 @@ abstract class PerformanceRunner implements ConnectionEventListener {
                         .range(0, 100)
                         .valuePlaceholder(LocalizableMessage.raw("{percentile}"))
                         .buildAndAddToParser(argParser);
+        histogramLogArgument =
+                StringArgument.builder("histogramLog")
+                        .description(LocalizableMessage.raw("Write the response times of each interval to a file, "
+                                + "as an HdrHistogram interval log which can be merged with the logs of other runs"))
+                        .valuePlaceholder(LocalizableMessage.raw("{file}"))
+                        .buildAndAddToParser(argParser);
         keepConnectionsOpen =
                 BooleanArgument.builder("keepConnectionsOpen")
                         .shortIdentifier('f')
                         .description(LocalizableMessage.raw("Keep connections open"))
-                        .buildAndAddToParser(argParser);
+                        .buildArgument();
+        if (options.supportsKeepConnectionsOpen()) {
+            argParser.addArgument(keepConnectionsOpen);
+        }
         noRebindArgument =
                 BooleanArgument.builder("noRebind")
                         .shortIdentifier('F')
@@ -406,7 +438,13 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         return dataSourcePrototypes;
     }
 
-    abstract WorkerThread newWorkerThread(final Connection connection, final ConnectionFactory connectionFactory);
+    /**
+     * Returns a new worker thread performing operations with the provided connection, or with connections obtained
+     * from the provided factory if the connection is {@code null}. Most tools return a {@link WorkerThread}, which
+     * performs one operation at a time. Tools which schedule their operations differently may return any thread which
+     * stops once {@link #isStopRequested(int)} returns {@code true}.
+     */
+    abstract Thread newWorkerThread(final Connection connection, final ConnectionFactory connectionFactory);
     abstract StatsThread newStatsThread(final PerformanceRunner performanceRunner, final ConsoleApplication app);
 
     TimerThread newEndTimerThread(final long timeToWait) {
@@ -415,6 +453,15 @@ abstract class PerformanceRunner implements ConnectionEventListener {
 
     final int run(final ConnectionFactory connectionFactory) {
         final List<Connection> connections = new ArrayList<>();
+        if (histogramLogArgument.isPresent()) {
+            try {
+                histogramLog = new IntervalHistogramLog(new File(histogramLogArgument.getValue()));
+            } catch (final IOException e) {
+                app.errPrintln(ERR_RATE_TOOLS_CANNOT_WRITE_HISTOGRAM_LOG.get(
+                        histogramLogArgument.getValue(), e.getMessage()));
+                return ResultCode.CLIENT_SIDE_LOCAL_ERROR.intValue();
+            }
+        }
         statsThread = newStatsThread(this, app);
 
         try {
@@ -448,6 +495,7 @@ abstract class PerformanceRunner implements ConnectionEventListener {
             return e.getResult().getResultCode().intValue();
         } finally {
             closeSilently(connections);
+            closeSilently(histogramLog);
         }
 
         return 0;
@@ -458,6 +506,28 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         connectionFactory.getConnection().close();
     }
 
+    /**
+     * Stops the tool if an operation failed because the connection to the server has been lost.
+     *
+     * @return {@code true} if the tool has been stopped because of this error.
+     */
+    synchronized boolean handleOperationError(final LdapException error) {
+        if (!stopRequested && error.getCause() instanceof IOException) {
+            error.getCause().printStackTrace(app.getErrorStream());
+            stopTool(true);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if the tool is stopping, or if a worker thread which has performed the provided number of
+     * iterations has performed all its iterations.
+     */
+    final boolean isStopRequested(final int iterationCount) {
+        return stopRequested || (maxIterations > 0 && iterationCount >= maxIterations);
+    }
+
     synchronized void stopTool() {
         stopTool(false);
     }
@@ -493,6 +563,11 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         return DEFAULT_PERCENTILES;
     }
 
+    /** Returns the HdrHistogram interval log of the response times, or {@code null} if it was not requested. */
+    IntervalHistogramLog getHistogramLog() {
+        return histogramLog;
+    }
+
     long getWarmUpDurationMs() {
         return warmUpDurationMs;
     }
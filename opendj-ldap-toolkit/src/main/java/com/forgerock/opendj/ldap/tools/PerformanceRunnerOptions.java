@@ -29,6 +29,7 @@ class PerformanceRunnerOptions {
     private boolean supportsRebind = true;
     private boolean supportsMultipleThreadsPerConnection = true;
     private boolean supportsGeneratorArgument = true;
+    private boolean supportsKeepConnectionsOpen = true;
 
     PerformanceRunnerOptions(ArgumentParser argParser, ConsoleApplication app) {
         this.argParser = argParser;
@@ -59,6 +60,14 @@ class PerformanceRunnerOptions {
         this.supportsGeneratorArgument = supportsGeneratorArgument;
     }
 
+    boolean supportsKeepConnectionsOpen() {
+        return supportsKeepConnectionsOpen;
+    }
+
+    void setSupportsKeepConnectionsOpen(boolean supportsKeepConnectionsOpen) {
+        this.supportsKeepConnectionsOpen = supportsKeepConnectionsOpen;
+    }
+
     ArgumentParser getArgumentParser() {
         return argParser;
     }
@@ -0,0 +1,383 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.MultiColumnPrinter.column;
+import static com.forgerock.opendj.cli.MultiColumnPrinter.separatorColumn;
+import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
+import static com.forgerock.opendj.cli.Utils.filterExitCode;
+import static com.forgerock.opendj.ldap.tools.StatsThread.MS_IN_S;
+import static com.forgerock.opendj.ldap.tools.StatsThread.NS_IN_MS;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+import static com.forgerock.opendj.cli.CommonArguments.*;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.HdrHistogram.EncodableHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.cli.ArgumentParser;
+import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.IntegerArgument;
+import com.forgerock.opendj.cli.MultiColumnPrinter;
+import com.forgerock.opendj.cli.StringArgument;
+
+/**
+ * This utility reads the HdrHistogram interval logs written by the rate tools, merges them and reports the
+ * throughput and response time percentiles of each operation type, for the whole run and optionally for each
+ * interval of a given length.
+ * <p>
+ * Histograms are merged without loss of precision, so the logs written by several load generators which were run
+ * against the same directory service at the same time produce the exact percentiles of the whole load.
+ */
+public final class RateReport extends ConsoleApplication {
+    private static final double[] DEFAULT_PERCENTILES = new double[] { 50, 90, 99, 99.9, 99.99, 99.999 };
+    private static final int SIGNIFICANT_VALUE_DIGITS = 3;
+    /** The name used for untagged histograms, which contain the response times of all the operations. */
+    private static final String ALL_OPERATIONS = "all";
+
+    /** The merged histograms of one operation type. */
+    private static final class OperationHistograms {
+        private final String name;
+        private final Histogram total = new Histogram(SIGNIFICANT_VALUE_DIGITS);
+        private final SortedMap<Long, Histogram> intervals = new TreeMap<>();
+
+        private OperationHistograms(final String name) {
+            this.name = name;
+        }
+
+        private void add(final Histogram histogram, final Long interval) {
+            total.add(histogram);
+            if (interval != null) {
+                Histogram intervalHistogram = intervals.get(interval);
+                if (intervalHistogram == null) {
+                    intervalHistogram = new Histogram(SIGNIFICANT_VALUE_DIGITS);
+                    intervals.put(interval, intervalHistogram);
+                }
+                intervalHistogram.add(histogram);
+            }
+        }
+    }
+
+    /**
+     * The main method for RateReport tool.
+     *
+     * @param args
+     *            The command-line arguments provided to this program.
+     */
+    public static void main(final String[] args) {
+        final int retCode = new RateReport().run(args);
+        System.exit(filterExitCode(retCode));
+    }
+
+    private final Map<String, OperationHistograms> operations = new LinkedHashMap<>();
+    private BooleanArgument scriptFriendly;
+    private long startTimeMs = Long.MAX_VALUE;
+    private long endTimeMs = Long.MIN_VALUE;
+
+    private RateReport() {
+        // Nothing to do.
+    }
+
+    /** To allow tests. */
+    RateReport(final PrintStream out, final PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return false;
+    }
+
+    @Override
+    public boolean isScriptFriendly() {
+        return scriptFriendly.isPresent();
+    }
+
+    int run(final String[] args) {
+        // Create the command-line argument parser for use with this program.
+        final LocalizableMessage toolDescription = INFO_RATEREPORT_TOOL_DESCRIPTION.get(ALL_OPERATIONS);
+        final ArgumentParser argParser = new ArgumentParser(
+            RateReport.class.getName(), toolDescription, false, true, 1, 0, "log [log ...]");
+        argParser.setVersionHandler(newSdkVersionHandler());
+        argParser.setShortToolDescription(REF_SHORT_DESC_RATEREPORT.get());
+
+        final IntegerArgument interval;
+        final StringArgument percentilesArgument;
+        final StringArgument operationTypes;
+        final BooleanArgument distribution;
+        final BooleanArgument showUsage;
+        try {
+            interval =
+                    IntegerArgument.builder("interval")
+                            .shortIdentifier('i')
+                            .description(INFO_RATEREPORT_DESCRIPTION_INTERVAL.get())
+                            .lowerBound(1)
+                            .valuePlaceholder(INFO_INTERVAL_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            percentilesArgument =
+                    StringArgument.builder("percentile")
+                            .shortIdentifier('e')
+                            .description(INFO_RATEREPORT_DESCRIPTION_PERCENTILE.get())
+                            .multiValued()
+                            .valuePlaceholder(INFO_PERCENTILE_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            operationTypes =
+                    StringArgument.builder("operation")
+                            .description(INFO_RATEREPORT_DESCRIPTION_OPERATION.get(ALL_OPERATIONS))
+                            .multiValued()
+                            .valuePlaceholder(INFO_OPERATION_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            distribution =
+                    BooleanArgument.builder("distribution")
+                            .description(INFO_RATEREPORT_DESCRIPTION_DISTRIBUTION.get())
+                            .buildAndAddToParser(argParser);
+            scriptFriendly =
+                    BooleanArgument.builder("scriptFriendly")
+                            .shortIdentifier('S')
+                            .description(INFO_DESCRIPTION_SCRIPT_FRIENDLY.get())
+                            .buildAndAddToParser(argParser);
+
+            showUsage = showUsageArgument();
+            argParser.addArgument(showUsage);
+            argParser.setUsageArgument(showUsage, getOutputStream());
+        } catch (final ArgumentException ae) {
+            final LocalizableMessage message = ERR_CANNOT_INITIALIZE_ARGS.get(ae.getMessage());
+            errPrintln(message);
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        final double[] percentiles;
+        final long intervalMs;
+        // Parse the command-line arguments provided to this program.
+        try {
+            argParser.parseArguments(args);
+
+            /* If we should just display usage or version information, then print it and exit. */
+            if (argParser.usageOrVersionDisplayed()) {
+                return ResultCode.SUCCESS.intValue();
+            }
+            percentiles = parsePercentiles(percentilesArgument);
+            intervalMs = interval.isPresent() ? interval.getIntValue() * (long) MS_IN_S : 0;
+        } catch (final ArgumentException ae) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        final List<String> logFiles = argParser.getTrailingArguments();
+        try {
+            if (intervalMs > 0) {
+                // Intervals are aligned on the earliest start time of the logs.
+                for (final String logFile : logFiles) {
+                    readLog(logFile, 0, true);
+                }
+            }
+            for (final String logFile : logFiles) {
+                readLog(logFile, intervalMs, false);
+            }
+        } catch (final ArgumentException e) {
+            errPrintln(e.getMessageObject());
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+        if (operations.isEmpty()) {
+            errPrintln(ERR_RATEREPORT_NO_HISTOGRAMS.get());
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        final List<OperationHistograms> reported = new ArrayList<>();
+        if (operationTypes.isPresent()) {
+            for (final String operationType : operationTypes.getValues()) {
+                final OperationHistograms histograms = operations.get(operationType);
+                if (histograms == null) {
+                    errPrintln(ERR_RATEREPORT_UNKNOWN_OPERATION.get(operationType, operations.keySet()));
+                    return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+                }
+                reported.add(histograms);
+            }
+        } else {
+            reported.addAll(operations.values());
+        }
+
+        if (intervalMs > 0) {
+            printIntervals(reported, percentiles, intervalMs);
+            println();
+        }
+        printSummary(reported, percentiles);
+        if (distribution.isPresent()) {
+            for (final OperationHistograms histograms : reported) {
+                println();
+                println(INFO_RATEREPORT_DISTRIBUTION_TITLE.get(histograms.name));
+                histograms.total.outputPercentileDistribution(getOutputStream(), 5, NS_IN_MS, isScriptFriendly());
+            }
+        }
+        return ResultCode.SUCCESS.intValue();
+    }
+
+    private static double[] parsePercentiles(final StringArgument percentilesArgument) throws ArgumentException {
+        if (!percentilesArgument.isPresent()) {
+            return DEFAULT_PERCENTILES;
+        }
+        final double[] percentiles = new double[percentilesArgument.getValues().size()];
+        int index = 0;
+        for (final String value : percentilesArgument.getValues()) {
+            try {
+                percentiles[index] = Double.parseDouble(value);
+            } catch (final NumberFormatException e) {
+                throw new ArgumentException(ERR_RATEREPORT_INVALID_PERCENTILE.get(value));
+            }
+            if (percentiles[index] <= 0 || percentiles[index] > 100) {
+                throw new ArgumentException(ERR_RATEREPORT_INVALID_PERCENTILE.get(value));
+            }
+            index++;
+        }
+        Arrays.sort(percentiles);
+        return percentiles;
+    }
+
+    /**
+     * Reads the interval histograms of a log. Histograms are assigned to the report interval containing their start
+     * time, if {@code intervalMs} is positive. If {@code timesOnly} is {@code true}, only the time range of the log
+     * is taken into account.
+     */
+    private void readLog(final String logFile, final long intervalMs, final boolean timesOnly)
+            throws ArgumentException {
+        try (InputStream inputStream = new FileInputStream(logFile)) {
+            final HistogramLogReader reader = new HistogramLogReader(inputStream);
+            EncodableHistogram encodedHistogram;
+            while ((encodedHistogram = reader.nextIntervalHistogram()) != null) {
+                if (!(encodedHistogram instanceof Histogram)) {
+                    throw new ArgumentException(ERR_RATEREPORT_UNSUPPORTED_HISTOGRAM.get(logFile));
+                }
+                final Histogram histogram = (Histogram) encodedHistogram;
+                startTimeMs = Math.min(startTimeMs, histogram.getStartTimeStamp());
+                endTimeMs = Math.max(endTimeMs, histogram.getEndTimeStamp());
+                if (timesOnly) {
+                    continue;
+                }
+
+                final String name = histogram.getTag() != null ? histogram.getTag() : ALL_OPERATIONS;
+                OperationHistograms histograms = operations.get(name);
+                if (histograms == null) {
+                    histograms = new OperationHistograms(name);
+                    operations.put(name, histograms);
+                }
+                histograms.add(histogram,
+                               intervalMs > 0 ? (histogram.getStartTimeStamp() - startTimeMs) / intervalMs : null);
+            }
+        } catch (final IOException | RuntimeException e) {
+            // The log reader reports malformed lines with runtime exceptions.
+            throw new ArgumentException(ERR_RATEREPORT_CANNOT_READ_LOG.get(logFile, e.toString()), e);
+        }
+    }
+
+    private void printIntervals(final List<OperationHistograms> reported, final double[] percentiles,
+            final long intervalMs) {
+        final MultiColumnPrinter printer = newPrinter(percentiles, true);
+        printTitle(printer);
+        final long intervalCount = (endTimeMs - startTimeMs + intervalMs - 1) / intervalMs;
+        for (long interval = 0; interval < intervalCount; interval++) {
+            final long intervalStartMs = interval * intervalMs;
+            final double durationS = Math.min(intervalMs, endTimeMs - startTimeMs - intervalStartMs) / MS_IN_S;
+            for (final OperationHistograms histograms : reported) {
+                final Histogram histogram = histograms.intervals.get(interval);
+                if (histogram != null) {
+                    printer.printData(intervalStartMs / MS_IN_S);
+                    printRow(printer, histograms.name, histogram, durationS, percentiles);
+                }
+            }
+        }
+        printEnd(printer);
+    }
+
+    private void printSummary(final List<OperationHistograms> reported, final double[] percentiles) {
+        final MultiColumnPrinter printer = newPrinter(percentiles, false);
+        printTitle(printer);
+        final double durationS = (endTimeMs - startTimeMs) / MS_IN_S;
+        for (final OperationHistograms histograms : reported) {
+            printRow(printer, histograms.name, histograms.total, durationS, percentiles);
+        }
+        printEnd(printer);
+    }
+
+    private MultiColumnPrinter newPrinter(final double[] percentiles, final boolean withTime) {
+        final boolean csv = isScriptFriendly();
+        final List<MultiColumnPrinter.Column> columns = new ArrayList<>();
+        if (!csv) {
+            columns.add(separatorColumn());
+        }
+        if (withTime) {
+            columns.add(column("time", "time", 8, 0));
+        }
+        columns.add(column("operation", "operation", 9, 0));
+        columns.add(column("count", "count", 10, 0));
+        columns.add(column("throughput", csv ? "throughput" : "ops/sec", 10, 1));
+        columns.add(column("response_time", csv ? "average response time" : "avg ms", 8, 3));
+        for (final double percentile : percentiles) {
+            columns.add(column("percentile" + percentile, csv ? percentile + "% response time" : percentile + "%",
+                               8, 2));
+        }
+        columns.add(column("max", csv ? "max response time" : "max ms", 8, 2));
+        if (!csv) {
+            columns.add(separatorColumn());
+            return MultiColumnPrinter.builder(getOutputStream(), columns).format(true).build();
+        }
+        return MultiColumnPrinter.builder(getOutputStream(), columns).columnSeparator(",").build();
+    }
+
+    private void printTitle(final MultiColumnPrinter printer) {
+        if (!isScriptFriendly()) {
+            printer.printDashedLine();
+        }
+        printer.printTitleLine();
+        if (!isScriptFriendly()) {
+            printer.printDashedLine();
+        }
+    }
+
+    private void printEnd(final MultiColumnPrinter printer) {
+        if (!isScriptFriendly()) {
+            printer.printDashedLine();
+        }
+    }
+
+    private void printRow(final MultiColumnPrinter printer, final String name, final Histogram histogram,
+            final double durationS, final double[] percentiles) {
+        final long count = histogram.getTotalCount();
+        printer.printData(name);
+        printer.printData((double) count);
+        printer.printData(durationS > 0 ? count / durationS : Double.NaN);
+        printer.printData(count > 0 ? histogram.getMean() / NS_IN_MS : Double.NaN);
+        for (final double percentile : percentiles) {
+            printer.printData(count > 0 ? histogram.getValueAtPercentile(percentile) / NS_IN_MS : Double.NaN);
+        }
+        printer.printData(count > 0 ? histogram.getMaxValue() / NS_IN_MS : Double.NaN);
+    }
+}
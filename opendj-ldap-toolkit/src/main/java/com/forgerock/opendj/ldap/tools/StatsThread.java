@@ -253,14 +253,15 @@ class StatsThread extends Thread {
 
     IntervalCounter waitDurationNsCount;
     IntervalCounter successCount;
+    IntervalCounter durationMsCount;
     private IntervalCounter operationCount;
     private IntervalCounter errorCount;
-    private IntervalCounter durationMsCount;
 
     private final ConsoleApplication app;
     private final double[] percentiles;
     private final PerformanceRunner performanceRunner;
     private final RateReporter reporter;
+    private final IntervalHistogramLog histogramLog;
     private long startTimeMs;
     private volatile boolean warmingUp;
     private final ScheduledExecutorService statThreadScheduler = Executors.newSingleThreadScheduledExecutor();
@@ -271,6 +272,7 @@ class StatsThread extends Thread {
         this.performanceRunner = performanceRunner;
         this.app = application;
         this.percentiles = performanceRunner.getPercentiles();
+        this.histogramLog = performanceRunner.getHistogramLog();
         this.reporter = app.isScriptFriendly() ? new CsvRateReporter()
                                                : new ConsoleRateReporter();
         registerStats();
@@ -358,6 +360,9 @@ class StatsThread extends Thread {
 
     private void init() {
         reporter.printTitle();
+        if (histogramLog != null) {
+            histogramLog.start();
+        }
         timerMs.start();
         gcTimerMs.start();
         startTimeMs = System.currentTimeMillis();
@@ -387,12 +392,18 @@ class StatsThread extends Thread {
         waitDurationNsCount.refreshIntervalCount();
 
         reporter.report();
+        if (histogramLog != null) {
+            histogramLog.writeIntervalHistograms();
+        }
     }
 
     void addResponseTime(final long responseTimeNs) {
         if (!warmingUp) {
             waitDurationNsCount.inc(responseTimeNs);
             responseTimes.update(responseTimeNs);
+            if (histogramLog != null) {
+                histogramLog.recordValue(responseTimeNs);
+            }
         }
     }
 
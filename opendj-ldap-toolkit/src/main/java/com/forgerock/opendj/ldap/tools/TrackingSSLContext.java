@@ -0,0 +1,123 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * An SSL context which delegates to an initialized SSL context, and keeps track of the last SSL engine it created.
+ * <p>
+ * An SSL engine is created by the LDAP connections once their TCP connection is established, right before the TLS
+ * handshake starts: rate tools use this to measure the TCP connect and TLS handshake times separately. The SSL
+ * sessions are cached by the delegate SSL context, so that contexts sharing the same delegate can resume them.
+ * <p>
+ * This class is not thread safe: it must only be used by one connection at a time.
+ */
+final class TrackingSSLContext extends SSLContext {
+    private static final class TrackingSSLContextSpi extends SSLContextSpi {
+        private final SSLContext delegate;
+        private volatile SSLEngine lastEngine;
+        private volatile long lastEngineCreationTimeNs;
+
+        private TrackingSSLContextSpi(final SSLContext delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected void engineInit(final KeyManager[] km, final TrustManager[] tm, final SecureRandom random)
+                throws KeyManagementException {
+            throw new UnsupportedOperationException("The delegate SSL context is already initialized");
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return delegate.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            return track(delegate.createSSLEngine());
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(final String host, final int port) {
+            return track(delegate.createSSLEngine(host, port));
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return delegate.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return delegate.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+
+        private SSLEngine track(final SSLEngine engine) {
+            lastEngineCreationTimeNs = System.nanoTime();
+            lastEngine = engine;
+            return engine;
+        }
+    }
+
+    private final TrackingSSLContextSpi spi;
+
+    TrackingSSLContext(final SSLContext delegate) {
+        this(new TrackingSSLContextSpi(delegate), delegate);
+    }
+
+    private TrackingSSLContext(final TrackingSSLContextSpi spi, final SSLContext delegate) {
+        super(spi, delegate.getProvider(), delegate.getProtocol());
+        this.spi = spi;
+    }
+
+    /** Returns the last SSL engine created by this context, or {@code null} if none has been created yet. */
+    SSLEngine getLastEngine() {
+        return spi.lastEngine;
+    }
+
+    /** Returns the value of {@link System#nanoTime()} when the last SSL engine has been created. */
+    long getLastEngineCreationTimeNs() {
+        return spi.lastEngineCreationTimeNs;
+    }
+}
@@ -19,6 +19,12 @@ package com.forgerock.opendj.ldap.tools;
 import static com.forgerock.opendj.cli.Utils.readBytesFromFile;
 import static com.forgerock.opendj.cli.Utils.secondsToTimeString;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.ByteString;
@@ -37,6 +43,9 @@ import org.forgerock.opendj.ldap.controls.PasswordPolicyResponseControl;
 import org.forgerock.opendj.ldap.controls.PasswordPolicyWarningType;
 import org.forgerock.opendj.ldap.controls.SubtreeDeleteRequestControl;
 import org.forgerock.opendj.ldap.responses.BindResult;
+import org.forgerock.opendj.ldif.EntryReader;
+import org.forgerock.opendj.ldif.LDIF;
+import org.forgerock.opendj.ldif.LDIFEntryReader;
 
 import com.forgerock.opendj.cli.ConsoleApplication;
 import com.forgerock.opendj.ldap.controls.AccountUsabilityRequestControl;
@@ -260,6 +269,38 @@ final class Utils {
         }
     }
 
+    /**
+     * Returns an entry reader returning the entries of the provided LDIF input
+     * streams as a single stream of entries sorted by DN. Unless they are
+     * already sorted, the entries of each input stream are sorted first, using
+     * temporary files if they do not fit in memory.
+     *
+     * @param inputs
+     *            The LDIF input streams.
+     * @param isSorted
+     *            Whether the entries of each input stream are already sorted
+     *            by DN.
+     * @return The entry reader, which closes the input streams when closed.
+     * @throws IOException
+     *             If an error occurs while sorting the entries.
+     */
+    static EntryReader newSortedEntryReader(final List<InputStream> inputs, final boolean isSorted)
+            throws IOException {
+        // The sorted entries of the last part of each input remain in memory until they are read.
+        final long bufferSize = Runtime.getRuntime().maxMemory() / 4 / inputs.size();
+        final List<EntryReader> readers = new ArrayList<>(inputs.size());
+        try {
+            for (final InputStream input : inputs) {
+                final EntryReader reader = new LDIFEntryReader(input);
+                readers.add(isSorted ? reader : LDIF.sort(reader, null, bufferSize));
+            }
+        } catch (final IOException e) {
+            closeSilently(readers);
+            throw e;
+        }
+        return readers.size() == 1 ? readers.get(0) : LDIF.merge(readers);
+    }
+
     /** Prevent instantiation. */
     private Utils() {
         // Do nothing.
@@ -16,11 +16,15 @@
 package com.forgerock.opendj.ldap.tools;
 
 import static com.forgerock.opendj.cli.CliMessages.*;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_AUTHRATE_ARG_REQUIRES_MEASURE_CONNECTIONS;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_ERROR_PARSING_ARGS;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.INFO_TOOL_WARMING_UP;
 import static org.fest.assertions.Assertions.assertThat;
 
+import java.io.File;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 import org.forgerock.opendj.ldap.ByteStringBuilder;
 import org.forgerock.opendj.ldap.TestCaseUtils;
@@ -45,6 +49,15 @@ public class AuthRateITCase extends ToolsITCase {
                      "-i", "1", "-m", "10", "-f", "-B", "1"),
                 INFO_TOOL_WARMING_UP.get(1), "" },
 
+            // Session resumption is only disabled for the measured connections
+            {
+                args("-h", TestCaseUtils.getServerSocketAddress().getHostName(),
+                     "-p", Integer.toString(TestCaseUtils.getServerSocketAddress().getPort()),
+                     "-g", "rand(0,1000)", "-D", "uid=%d,ou=people,o=test", "-w", "password",
+                     "-i", "1", "-m", "10", "-f", "--noTLSSessionResumption"),
+                "", ERR_AUTHRATE_ARG_REQUIRES_MEASURE_CONNECTIONS.get("noTLSSessionResumption",
+                        "measureConnections") },
+
             // Correct test case
             {
                 args("-h", TestCaseUtils.getServerSocketAddress().getHostName(),
@@ -79,4 +92,37 @@ public class AuthRateITCase extends ToolsITCase {
             }
         }
     }
+
+    @Test
+    public void testITAuthRateMeasureConnections() throws Exception {
+        final File histogramLog = File.createTempFile("authrate", ".hlog");
+        try {
+            final ByteStringBuilder out = new ByteStringBuilder();
+            final ByteStringBuilder err = new ByteStringBuilder();
+            try (PrintStream outStream = new PrintStream(out.asOutputStream());
+                PrintStream errStream = new PrintStream(err.asOutputStream())) {
+                new AuthRate(outStream, errStream).run(args(
+                        "-h", TestCaseUtils.getServerSocketAddress().getHostName(),
+                        "-p", Integer.toString(TestCaseUtils.getServerSocketAddress().getPort()),
+                        "-g", "rand(0,1000)", "-D", "uid=%d,ou=people,o=test", "-w", "password",
+                        "-i", "1", "-c", "1", "-m", "10", "-S", "-B", "0",
+                        "--measureConnections", "--noTLSSessionResumption",
+                        "--histogramLog", histogramLog.getPath()));
+            }
+            assertThat(err.toString()).isEmpty();
+
+            // The durations of each phase are reported, but the connections are not secured.
+            final String outContent = out.toString();
+            assertThat(outContent).contains("connect ms").contains("bind ms").contains("close ms");
+            assertThat(outContent).doesNotContain("tls ms");
+            assertThat(outContent).contains("phase");
+
+            // Phases are tagged with their displayed names, like operation types.
+            final String log = new String(Files.readAllBytes(histogramLog.toPath()), StandardCharsets.UTF_8);
+            assertThat(log).contains("Tag=connect,").contains("Tag=bind,").contains("Tag=close,");
+            assertThat(log).doesNotContain("Tag=CONNECT").doesNotContain("Tag=tls");
+        } finally {
+            histogramLog.delete();
+        }
+    }
 }
@@ -0,0 +1,256 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.TestCaseUtils.findFreeSocketAddress;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.Connections;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.IntermediateResponseHandler;
+import org.forgerock.opendj.ldap.LDAPListener;
+import org.forgerock.opendj.ldap.LdapResultHandler;
+import org.forgerock.opendj.ldap.MemoryBackend;
+import org.forgerock.opendj.ldap.RequestContext;
+import org.forgerock.opendj.ldap.RequestHandler;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.requests.AddRequest;
+import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.CompareRequest;
+import org.forgerock.opendj.ldap.requests.DeleteRequest;
+import org.forgerock.opendj.ldap.requests.ExtendedRequest;
+import org.forgerock.opendj.ldap.requests.ModifyDNRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.BindResult;
+import org.forgerock.opendj.ldap.responses.CompareResult;
+import org.forgerock.opendj.ldap.responses.ExtendedResult;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class LDAPImportITCase extends ToolsITCase {
+    /** Rejects the first add request of each of the provided entries because the server is busy. */
+    private static final class BusyBackend implements RequestHandler<RequestContext> {
+        private final MemoryBackend backend;
+        private final Set<DN> busyEntries = Collections.synchronizedSet(new HashSet<DN>());
+
+        private BusyBackend(final MemoryBackend backend) {
+            this.backend = backend;
+        }
+
+        @Override
+        public void handleAdd(final RequestContext requestContext, final AddRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<Result> resultHandler) {
+            if (busyEntries.remove(request.getName())) {
+                resultHandler.handleException(newLdapException(ResultCode.BUSY));
+            } else {
+                backend.handleAdd(requestContext, request, intermediateResponseHandler, resultHandler);
+            }
+        }
+
+        @Override
+        public void handleBind(final RequestContext requestContext, final int version, final BindRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<BindResult> resultHandler) {
+            backend.handleBind(requestContext, version, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public void handleCompare(final RequestContext requestContext, final CompareRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<CompareResult> resultHandler) {
+            backend.handleCompare(requestContext, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public void handleDelete(final RequestContext requestContext, final DeleteRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<Result> resultHandler) {
+            backend.handleDelete(requestContext, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public <R extends ExtendedResult> void handleExtendedRequest(final RequestContext requestContext,
+                final ExtendedRequest<R> request, final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<R> resultHandler) {
+            backend.handleExtendedRequest(requestContext, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public void handleModify(final RequestContext requestContext, final ModifyRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<Result> resultHandler) {
+            backend.handleModify(requestContext, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public void handleModifyDN(final RequestContext requestContext, final ModifyDNRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler,
+                final LdapResultHandler<Result> resultHandler) {
+            backend.handleModifyDN(requestContext, request, intermediateResponseHandler, resultHandler);
+        }
+
+        @Override
+        public void handleSearch(final RequestContext requestContext, final SearchRequest request,
+                final IntermediateResponseHandler intermediateResponseHandler, final SearchResultHandler entryHandler,
+                final LdapResultHandler<Result> resultHandler) {
+            backend.handleSearch(requestContext, request, intermediateResponseHandler, entryHandler, resultHandler);
+        }
+    }
+
+    private MemoryBackend backend;
+    private BusyBackend busyBackend;
+    private LDAPListener listener;
+    private File ldifFile;
+    private File rejectFile;
+    private ByteStringBuilder err;
+
+    @BeforeMethod
+    public void startListener() throws Exception {
+        backend = new MemoryBackend();
+        busyBackend = new BusyBackend(backend);
+        listener = new LDAPListener(findFreeSocketAddress(), Connections.newServerConnectionFactory(busyBackend));
+        ldifFile = File.createTempFile("ldapimport", ".ldif");
+        rejectFile = File.createTempFile("ldapimport", ".rejects");
+        err = new ByteStringBuilder();
+    }
+
+    @AfterMethod
+    public void stopListener() {
+        closeSilently(listener);
+        ldifFile.delete();
+        rejectFile.delete();
+    }
+
+    @Test
+    public void entriesShouldBeAddedAfterTheirParent() throws Exception {
+        final List<String> ldif = new ArrayList<>(entry("dc=example,dc=com", "domain"));
+        for (int i = 0; i < 20; i++) {
+            final String ou = "ou=unit." + i + ",dc=example,dc=com";
+            ldif.addAll(entry(ou, "organizationalUnit"));
+            for (int j = 0; j < 20; j++) {
+                ldif.addAll(entry("uid=user." + j + "," + ou, "person"));
+            }
+        }
+        assertThat(importLdif(ldif, "-c", "4", "--maxPendingRequests", "8", "-t", "2")).isEqualTo(0);
+        assertThat(backend.size()).isEqualTo(1 + 20 + 20 * 20);
+        assertThat(backend.contains("uid=user.19,ou=unit.19,dc=example,dc=com")).isTrue();
+    }
+
+    @Test
+    public void rejectedRecordsShouldBeWrittenToTheRejectFile() throws Exception {
+        final List<String> ldif = new ArrayList<>(entry("dc=example,dc=com", "domain"));
+        ldif.addAll(Arrays.asList("dn: =invalid", "objectClass: top", ""));
+        ldif.addAll(entry("uid=orphan,ou=missing,dc=example,dc=com", "person"));
+        ldif.addAll(entry("uid=user.0,dc=example,dc=com", "person"));
+
+        final int retCode = importLdif(ldif, "-R", rejectFile.getPath());
+        assertThat(retCode).isEqualTo(ResultCode.CLIENT_SIDE_DECODING_ERROR.intValue());
+        assertThat(backend.size()).isEqualTo(2);
+        assertThat(backend.contains("uid=user.0,dc=example,dc=com")).isTrue();
+
+        final String rejects = new String(Files.readAllBytes(rejectFile.toPath()), UTF_8);
+        assertThat(rejects).contains("# dn: =invalid");
+        assertThat(rejects).contains("dn: uid=orphan,ou=missing,dc=example,dc=com");
+        assertThat(rejects).contains(Integer.toString(ResultCode.NO_SUCH_OBJECT.intValue()));
+        assertThat(rejects).doesNotContain("dn: uid=user.0,dc=example,dc=com");
+    }
+
+    @Test
+    public void busyRequestsShouldBeRetried() throws Exception {
+        busyBackend.busyEntries.add(DN.valueOf("dc=example,dc=com"));
+        busyBackend.busyEntries.add(DN.valueOf("uid=user.1,dc=example,dc=com"));
+        final List<String> ldif = new ArrayList<>(entry("dc=example,dc=com", "domain"));
+        for (int i = 0; i < 3; i++) {
+            ldif.addAll(entry("uid=user." + i + ",dc=example,dc=com", "person"));
+        }
+
+        assertThat(importLdif(ldif, "--maxRetries", "1")).isEqualTo(0);
+        assertThat(backend.size()).isEqualTo(4);
+        assertThat(busyBackend.busyEntries).isEmpty();
+        assertThat(err.toString()).contains("4 entries added, 0 entries rejected, 2 requests retried");
+    }
+
+    @Test
+    public void busyRequestsShouldBeRejectedAfterTheLastRetry() throws Exception {
+        busyBackend.busyEntries.add(DN.valueOf("uid=user.0,dc=example,dc=com"));
+        final List<String> ldif = new ArrayList<>(entry("dc=example,dc=com", "domain"));
+        ldif.addAll(entry("uid=user.0,dc=example,dc=com", "person"));
+
+        assertThat(importLdif(ldif, "--maxRetries", "0", "-R", rejectFile.getPath()))
+                .isEqualTo(ResultCode.BUSY.intValue());
+        assertThat(backend.size()).isEqualTo(1);
+        assertThat(new String(Files.readAllBytes(rejectFile.toPath()), UTF_8))
+                .contains("dn: uid=user.0,dc=example,dc=com");
+    }
+
+    @Test
+    public void quietShouldNotReportTheProgress() throws Exception {
+        final List<String> ldif = entry("dc=example,dc=com", "domain");
+        assertThat(importLdif(ldif, "--quiet")).isEqualTo(0);
+        assertThat(backend.size()).isEqualTo(1);
+        assertThat(err.toString()).isEmpty();
+    }
+
+    private int importLdif(final List<String> ldif, final String... arguments) throws Exception {
+        Files.write(ldifFile.toPath(), ldif, UTF_8);
+        final List<String> args = new ArrayList<>(Arrays.asList(
+                "-h", listener.getHostName(), "-p", Integer.toString(listener.getPort()), "-f", ldifFile.getPath()));
+        args.addAll(Arrays.asList(arguments));
+        try (PrintStream outStream = new PrintStream(new ByteStringBuilder().asOutputStream());
+            PrintStream errStream = new PrintStream(err.asOutputStream())) {
+            return new LDAPImport(outStream, errStream).run(args(args.toArray(new String[args.size()])));
+        }
+    }
+
+    private static List<String> entry(final String dn, final String objectClass) {
+        final String rdnValue = dn.substring(dn.indexOf('=') + 1, dn.indexOf(','));
+        final List<String> lines = new ArrayList<>(Arrays.asList("dn: " + dn, "objectClass: top",
+                "objectClass: " + objectClass));
+        switch (objectClass) {
+        case "domain":
+            lines.add("dc: " + rdnValue);
+            break;
+        case "organizationalUnit":
+            lines.add("ou: " + rdnValue);
+            break;
+        default:
+            lines.addAll(Arrays.asList("uid: " + rdnValue, "cn: " + rdnValue, "sn: " + rdnValue));
+            break;
+        }
+        lines.add("");
+        return lines;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.Utils.MAX_LINE_WIDTH;
+import static com.forgerock.opendj.cli.Utils.wrapText;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_LDAPREPLAY_CHANGE_NOT_CONVERTED;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_LDAPREPLAY_LINE_BREAK;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests the conversion of LDIF change records by {@code LDAPReplay}. */
+@SuppressWarnings("javadoc")
+public final class LDAPReplayTestCase extends ToolsTestCase {
+    private ByteStringBuilder out;
+    private ByteStringBuilder err;
+    private PrintStream outStream;
+    private PrintStream errStream;
+    private File ldifFile;
+
+    @BeforeMethod
+    private void refreshStreams() throws Exception {
+        out = new ByteStringBuilder();
+        err = new ByteStringBuilder();
+        outStream = new PrintStream(out.asOutputStream());
+        errStream = new PrintStream(err.asOutputStream());
+        ldifFile = File.createTempFile("ldapreplay", ".ldif");
+    }
+
+    @AfterMethod
+    private void closeStreams() {
+        closeSilently(outStream, errStream);
+        ldifFile.delete();
+    }
+
+    @Test
+    public void convertLdifShouldWriteTheOperationsOfASingleConnection() throws Exception {
+        final List<String> operations = convertLdif(
+                "dn: uid=bjensen,ou=people,dc=example,dc=com",
+                "changetype: add",
+                "objectClass: person",
+                "cn: Barbara \"Babs\" Jensen",
+                "sn: Jensen",
+                "",
+                "dn: uid=bjensen,ou=people,dc=example,dc=com",
+                "changetype: modify",
+                "add: mail",
+                "mail: a@example.com",
+                "mail: b@example.com",
+                "-",
+                "replace: description",
+                "description: C:\\temp",
+                "-",
+                "delete: telephoneNumber",
+                "-",
+                "",
+                "dn: uid=bjensen,ou=people,dc=example,dc=com",
+                "changetype: moddn",
+                "newrdn: uid=babs",
+                "deleteoldrdn: 1",
+                "newsuperior: ou=admins,dc=example,dc=com",
+                "",
+                "dn: uid=babs,ou=admins,dc=example,dc=com",
+                "changetype: delete");
+        assertThat(err.toString()).isEmpty();
+        assertThat(operations).containsExactly(
+                "0 1 add \"uid=bjensen,ou=people,dc=example,dc=com\" \"objectClass:person\" "
+                        + "\"cn:Barbara \\\"Babs\\\" Jensen\" \"sn:Jensen\"",
+                "0 1 modify \"uid=bjensen,ou=people,dc=example,dc=com\" \"+mail:a@example.com\" "
+                        + "\"+mail:b@example.com\" \"=description:C:\\\\temp\" \"-telephoneNumber\"",
+                "0 1 moddn \"uid=bjensen,ou=people,dc=example,dc=com\" \"uid=babs\" \"true\" "
+                        + "\"ou=admins,dc=example,dc=com\"",
+                "0 1 delete \"uid=babs,ou=admins,dc=example,dc=com\"");
+    }
+
+    @Test
+    public void convertedOperationsShouldBeReplayable() throws Exception {
+        final List<String> operations = convertLdif(
+                "dn: cn=Barbara Jensen,dc=example,dc=com",
+                "changetype: add",
+                "objectClass: person",
+                "cn: Barbara Jensen",
+                "sn: Jensen",
+                "",
+                "dn: cn=Barbara Jensen,dc=example,dc=com",
+                "changetype: modify",
+                "delete: description",
+                "-");
+        assertThat(operations).hasSize(2);
+
+        final List<String> add = OperationTemplate.tokenize(operations.get(0));
+        assertThat(add).isEqualTo(Arrays.asList("0", "1", "add", "cn=Barbara Jensen,dc=example,dc=com",
+                "objectClass:person", "cn:Barbara Jensen", "sn:Jensen"));
+        assertThat(OperationTemplate.valueOf(add.subList(2, add.size())).getType())
+                .isEqualTo(OperationTemplate.Type.ADD);
+
+        final List<String> modify = OperationTemplate.tokenize(operations.get(1));
+        assertThat(OperationTemplate.valueOf(modify.subList(2, modify.size())).getType())
+                .isEqualTo(OperationTemplate.Type.MODIFY);
+    }
+
+    @Test
+    public void changesWithLineBreaksShouldBeReportedAndSkipped() throws Exception {
+        final List<String> operations = convertLdif(
+                "dn: cn=multi-line,dc=example,dc=com",
+                "changetype: add",
+                "objectClass: person",
+                "description:: bGluZTEKbGluZTI=",
+                "",
+                "dn: cn=single-line,dc=example,dc=com",
+                "changetype: delete");
+        assertThat(operations).containsExactly("0 1 delete \"cn=single-line,dc=example,dc=com\"");
+        assertThat(err.toString()).contains(wrapText(ERR_LDAPREPLAY_CHANGE_NOT_CONVERTED.get(
+                "cn=multi-line,dc=example,dc=com", ERR_LDAPREPLAY_LINE_BREAK.get()), MAX_LINE_WIDTH));
+    }
+
+    private List<String> convertLdif(final String... ldifLines) throws Exception {
+        Files.write(ldifFile.toPath(), Arrays.asList(ldifLines), UTF_8);
+        final int retCode = new LDAPReplay(outStream, errStream).run(
+                new String[] { "--convertLdif", ldifFile.getPath() });
+        assertThat(retCode).isEqualTo(0);
+        final List<String> operations = new ArrayList<>();
+        for (final String line : out.toString().split(System.getProperty("line.separator"))) {
+            if (!line.isEmpty()) {
+                operations.add(line);
+            }
+        }
+        return operations;
+    }
+}
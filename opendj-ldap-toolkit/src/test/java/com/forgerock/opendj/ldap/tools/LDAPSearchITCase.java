@@ -17,6 +17,8 @@ package com.forgerock.opendj.ldap.tools;
 
 import static com.forgerock.opendj.cli.CliMessages.*;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_ERROR_PARSING_ARGS;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_LDAPSEARCH_ARG_REQUIRES_ARG;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_LDAPSEARCH_PARALLEL_REQUIRES_SUBTREE_SCOPE;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_TOOL_RESULT_CODE;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.INFO_LDAPSEARCH_MATCHING_ENTRY_COUNT;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.INFO_LDAPSEARCH_TOOL_DESCRIPTION;
@@ -35,7 +37,7 @@ import org.testng.annotations.Test;
 @SuppressWarnings("javadoc")
 public class LDAPSearchITCase extends ToolsITCase {
     private static final int NB_RAND_SIMPLE_SEARCH = 10;
-    private static final int NB_OTHER_SIMPLE_SEARCH = 3;
+    private static final int NB_OTHER_SIMPLE_SEARCH = 6;
 
     @DataProvider
     public Object[][] ldapSearchArgs() throws Exception {
@@ -52,6 +54,14 @@ public class LDAPSearchITCase extends ToolsITCase {
         data[2] = new Object[] {
             args("-42"), "", INFO_GLOBAL_HELP_REFERENCE.get("java " + LDAPSearch.class.getCanonicalName()) };
 
+        // Check that the arguments of parallel searches are validated
+        data[3] = new Object[] { args("-b", "o=test", "--outputDirectory", "export", "(objectClass=*)"), "",
+            ERR_LDAPSEARCH_ARG_REQUIRES_ARG.get("outputDirectory", "parallel") };
+        data[4] = new Object[] { args("-b", "o=test", "-s", "one", "--parallel", "4", "(objectClass=*)"), "",
+            ERR_LDAPSEARCH_PARALLEL_REQUIRES_SUBTREE_SCOPE.get("partitionAttribute") };
+        data[5] = new Object[] { args("-b", "o=test", "--parallel", "4", "--sizeLimit", "10", "(objectClass=*)"), "",
+            ERR_TOOL_CONFLICTING_ARGS.get("parallel", "sizeLimit") };
+
         // Perform some basic ldapsearch for random user in the test server
         for (int i = 0; i < NB_RAND_SIMPLE_SEARCH; i++) {
             long userID = new Random().nextInt(1000);
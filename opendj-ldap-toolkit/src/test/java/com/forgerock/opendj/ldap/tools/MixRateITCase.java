@@ -0,0 +1,146 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.TestCaseUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class MixRateITCase extends ToolsITCase {
+
+    private ByteStringBuilder out;
+    private ByteStringBuilder err;
+    private PrintStream outStream;
+    private PrintStream errStream;
+    private File workloadFile;
+
+    @BeforeMethod
+    private void refreshStreams() throws Exception {
+        out = new ByteStringBuilder();
+        err = new ByteStringBuilder();
+        outStream = new PrintStream(out.asOutputStream());
+        errStream = new PrintStream(err.asOutputStream());
+        workloadFile = File.createTempFile("mixrate", ".workload");
+    }
+
+    @AfterMethod
+    private void closeStreams() {
+        closeSilently(outStream, errStream);
+        workloadFile.delete();
+    }
+
+    @DataProvider
+    public Object[][] invalidWorkloads() throws Exception {
+        return new Object[][] {
+            { new String[] { "# Comment", "", "x search o=test sub (uid=*)" }, 3, ERR_MIXRATE_INVALID_WEIGHT.get("x") },
+            { new String[] { "1 search o=test sub (uid=*)", "0 delete o=test" }, 2,
+              ERR_MIXRATE_INVALID_WEIGHT.get("0") },
+            { new String[] { "1 search o=test sub \"(uid=*)" }, 1, ERR_TOOLS_UNTERMINATED_QUOTE.get() },
+        };
+    }
+
+    @Test(dataProvider = "invalidWorkloads")
+    public void malformedWorkloadLinesShouldBeRejected(final String[] workload, final int lineNumber,
+            final Object lineError) throws Exception {
+        final int retCode = mixRate(workload);
+        checkOuputStreams(out, err, "",
+                ERR_MIXRATE_INVALID_WORKLOAD_LINE.get(lineNumber, workloadFile.getPath(), lineError));
+        assertThat(retCode).isEqualTo(ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue());
+    }
+
+    @Test
+    public void emptyWorkloadsShouldBeRejected() throws Exception {
+        final int retCode = mixRate("# Only comments");
+        checkOuputStreams(out, err, "", ERR_MIXRATE_EMPTY_WORKLOAD.get(workloadFile.getPath()));
+        assertThat(retCode).isEqualTo(ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue());
+    }
+
+    @Test(timeOut = 10000)
+    public void statisticsShouldBeReportedForEachOperationType() throws Exception {
+        final int retCode = mixRate(
+                "3 search ou=people,o=test sub \"(uid=user.%1$d)\"",
+                "1 compare uid=user.%1$d,ou=people,o=test uid:user.%1$d");
+        assertThat(retCode).isEqualTo(0);
+        assertThat(err.toString()).isEmpty();
+
+        final String[] lines = out.toString().split(System.getProperty("line.separator"));
+        final String title = lines[0];
+        assertThat(title).contains("srch/sec");
+        assertThat(title).contains("srch ms");
+        assertThat(title).contains("cmp/sec");
+        assertThat(title).contains("cmp ms");
+        // The search columns come first, in the order of the workload.
+        assertThat(title.indexOf("srch/sec")).isLessThan(title.indexOf("cmp/sec"));
+        assertThat(title).doesNotContain("add/sec");
+
+        // The summary reports the operations of each type.
+        boolean searchSummary = false;
+        boolean compareSummary = false;
+        for (final String line : lines) {
+            searchSummary |= line.startsWith("srch,");
+            compareSummary |= line.startsWith("cmp,");
+        }
+        assertThat(searchSummary).isTrue();
+        assertThat(compareSummary).isTrue();
+    }
+
+    @Test(timeOut = 10000)
+    public void bindsShouldNotConflictWithOperationsOfOtherThreads() throws Exception {
+        // Worker threads share the connection, on which a bind would fail while other operations are pending.
+        final int retCode = mixRateWithThreads(4,
+                "1 bind uid=user.%1$d,ou=people,o=test password",
+                "1 search ou=people,o=test sub \"(uid=user.%1$d)\"");
+        assertThat(retCode).isEqualTo(0);
+        // Failed operations are reported on the error stream in verbose mode.
+        assertThat(err.toString()).isEmpty();
+        assertThat(out.toString()).contains("bind/sec").contains("srch/sec");
+    }
+
+    private int mixRate(final String... workload) throws Exception {
+        return mixRateWithThreads(1, workload);
+    }
+
+    private int mixRateWithThreads(final int numThreads, final String... workload) throws Exception {
+        Files.write(workloadFile.toPath(), Arrays.asList(workload), UTF_8);
+        final List<String> arguments = new ArrayList<>(Arrays.asList(
+                "-h", TestCaseUtils.getServerSocketAddress().getHostName(),
+                "-p", Integer.toString(TestCaseUtils.getServerSocketAddress().getPort()),
+                "-c", "1", "-t", Integer.toString(numThreads), "-i", "1", "-m", Integer.toString(100 * numThreads),
+                "-S", "-v", "-g", "rand(0,1000)", "--workload", workloadFile.getPath()));
+        if (numThreads > 1) {
+            // Several threads per connection require the connection to be kept open without rebinding.
+            arguments.add("-F");
+        }
+        return new MixRate(outStream, errStream).run(args(arguments.toArray(new String[arguments.size()])));
+    }
+}
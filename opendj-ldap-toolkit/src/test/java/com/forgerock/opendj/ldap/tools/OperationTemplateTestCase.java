@@ -0,0 +1,180 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static java.util.Arrays.asList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.Modification;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.forgerock.opendj.cli.ArgumentException;
+
+/** Tests {@code OperationTemplate}. */
+@SuppressWarnings("javadoc")
+public final class OperationTemplateTestCase extends ToolsTestCase {
+    @DataProvider
+    public Object[][] lines() {
+        return new Object[][] {
+            { "", Collections.<String> emptyList() },
+            { "  search\tdc=example,dc=com  sub ", asList("search", "dc=example,dc=com", "sub") },
+            { "add \"cn=a b,dc=example,dc=com\" \"cn:a b\"", asList("add", "cn=a b,dc=example,dc=com", "cn:a b") },
+            { "bind \"\" \"\"", asList("bind", "", "") },
+            { "compare dn \"description:say \\\"hello\\\"\"", asList("compare", "dn", "description:say \"hello\"") },
+            { "compare dn \"description:C:\\\\temp\"", asList("compare", "dn", "description:C:\\temp") },
+            { "modify dn +\"description:a b\"", asList("modify", "dn", "+description:a b") },
+        };
+    }
+
+    @Test(dataProvider = "lines")
+    public void tokenizeShouldSplitLines(final String line, final List<String> expectedTokens) throws Exception {
+        assertThat(OperationTemplate.tokenize(line)).isEqualTo(expectedTokens);
+    }
+
+    @DataProvider
+    public Object[][] tokens() {
+        return new Object[][] {
+            { "" },
+            { "token" },
+            { "two words" },
+            { " leading and trailing spaces " },
+            { "tab\tseparated" },
+            { "\"quoted\"" },
+            { "back\\slash\\" },
+            { "\\\"" },
+        };
+    }
+
+    @Test(dataProvider = "tokens")
+    public void appendQuotedShouldBeReversedByTokenize(final String token) throws Exception {
+        final StringBuilder line = new StringBuilder("add");
+        OperationTemplate.appendQuoted(line.append(' '), token);
+        OperationTemplate.appendQuoted(line.append(' '), token);
+        assertThat(OperationTemplate.tokenize(line.toString())).isEqualTo(asList("add", token, token));
+    }
+
+    @Test(expectedExceptions = ArgumentException.class)
+    public void tokenizeShouldRejectUnterminatedQuotes() throws Exception {
+        OperationTemplate.tokenize("add \"cn=a,dc=example,dc=com");
+    }
+
+    @DataProvider
+    public Object[][] validOperations() {
+        return new Object[][] {
+            { "add dn cn:a sn:b", OperationTemplate.Type.ADD },
+            { "BIND dn password", OperationTemplate.Type.BIND },
+            { "compare dn cn:a", OperationTemplate.Type.COMPARE },
+            { "delete dn", OperationTemplate.Type.DELETE },
+            { "modify dn +cn:a -sn:b =description:c mail:d", OperationTemplate.Type.MODIFY },
+            { "modify dn -description =cn", OperationTemplate.Type.MODIFY },
+            { "moddn dn cn=b false", OperationTemplate.Type.MODDN },
+            { "moddn dn cn=b TRUE ou=people", OperationTemplate.Type.MODDN },
+            { "search dn sub (objectClass=*)", OperationTemplate.Type.SEARCH },
+            { "search dn one (cn=a) cn sn", OperationTemplate.Type.SEARCH },
+        };
+    }
+
+    @Test(dataProvider = "validOperations")
+    public void valueOfShouldAcceptValidOperations(final String line, final OperationTemplate.Type expectedType)
+            throws Exception {
+        assertThat(OperationTemplate.valueOf(OperationTemplate.tokenize(line)).getType()).isEqualTo(expectedType);
+    }
+
+    @DataProvider
+    public Object[][] invalidOperations() {
+        return new Object[][] {
+            { "" },
+            { "unbind dn" },
+            { "add dn" },
+            { "add dn cn" },
+            { "add dn :a" },
+            { "bind dn" },
+            { "bind dn password extra" },
+            { "compare dn cn" },
+            { "delete" },
+            { "delete dn extra" },
+            { "modify dn" },
+            { "modify dn +cn" },
+            { "modify dn cn" },
+            { "modify dn +:a" },
+            { "modify dn -" },
+            { "moddn dn cn=b" },
+            { "moddn dn cn=b yes" },
+            { "moddn dn cn=b false ou=people extra" },
+            { "search dn sub" },
+            { "search dn everything (cn=a)" },
+        };
+    }
+
+    @Test(dataProvider = "invalidOperations", expectedExceptions = ArgumentException.class)
+    public void valueOfShouldRejectInvalidOperations(final String line) throws Exception {
+        OperationTemplate.valueOf(OperationTemplate.tokenize(line));
+    }
+
+    @Test
+    public void consecutiveModificationsShouldBeMerged() throws Exception {
+        final List<String> modifications = sendModifyRequest("modify uid=bjensen,dc=example,dc=com "
+                + "+mail:a +mail:b -mail:c +mail:d +description:e =cn:f cn:g -description -sn:h -sn:i");
+        assertThat(modifications).containsExactly(
+                "add \"mail\":[\"a\",\"b\"]",
+                "delete \"mail\":[\"c\"]",
+                "add \"mail\":[\"d\"]",
+                "add \"description\":[\"e\"]",
+                "replace \"cn\":[\"f\",\"g\"]",
+                "delete \"description\":[]",
+                "delete \"sn\":[\"h\",\"i\"]");
+    }
+
+    @Test
+    public void modificationsWithoutValuesShouldNotBeMerged() throws Exception {
+        final List<String> modifications = sendModifyRequest("modify dn -description -description:a =cn =cn");
+        assertThat(modifications).containsExactly(
+                "delete \"description\":[]",
+                "delete \"description\":[\"a\"]",
+                "replace \"cn\":[]",
+                "replace \"cn\":[]");
+    }
+
+    @Test
+    public void parametersShouldBeFormattedWithTheData() throws Exception {
+        final List<String> modifications =
+                sendModifyRequest("modify uid=user.%d,dc=example,dc=com +mail:%2$s +mail:%2$s.%1$d", 42, "user");
+        assertThat(modifications).containsExactly("add \"mail\":[\"user\",\"user.42\"]");
+    }
+
+    private static List<String> sendModifyRequest(final String line, final Object... data) throws Exception {
+        final Connection connection = mock(Connection.class);
+        OperationTemplate.valueOf(OperationTemplate.tokenize(line))
+                .performOperation(connection, data.length > 0 ? data : null);
+        final ArgumentCaptor<ModifyRequest> request = ArgumentCaptor.forClass(ModifyRequest.class);
+        verify(connection).modifyAsync(request.capture());
+        final List<String> modifications = new ArrayList<>();
+        for (final Modification modification : request.getValue().getModifications()) {
+            modifications.add(modification.getModificationType() + " " + modification.getAttribute());
+        }
+        return modifications;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.INFO_LDAPSEARCH_PARALLEL_RESUMING;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.opendj.ldap.TestCaseUtils.findFreeSocketAddress;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.Connections;
+import org.forgerock.opendj.ldap.LDAPListener;
+import org.forgerock.opendj.ldap.MemoryBackend;
+import org.forgerock.opendj.ldif.LDIFEntryReader;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests the --parallel option of ldapsearch against an in-memory backend. */
+@SuppressWarnings("javadoc")
+public class ParallelSearchITCase extends ToolsITCase {
+    private static final String BASE_DN = "dc=example,dc=com";
+
+    private LDAPListener listener;
+    private File outputDirectory;
+    private ByteStringBuilder err;
+
+    @BeforeMethod
+    public void startListener() throws Exception {
+        final List<String> ldif = new ArrayList<>(Arrays.asList(
+                "dn: " + BASE_DN, "objectClass: top", "objectClass: domain", "dc: example", "",
+                "dn: ou=empty," + BASE_DN, "objectClass: top", "objectClass: organizationalUnit", "ou: empty", ""));
+        for (final String ou : Arrays.asList("people", "groups", "devices")) {
+            ldif.addAll(Arrays.asList(
+                    "dn: ou=" + ou + "," + BASE_DN, "objectClass: top", "objectClass: organizationalUnit",
+                    "ou: " + ou, ""));
+            for (int i = 0; i < 50; i++) {
+                ldif.addAll(Arrays.asList(
+                        "dn: cn=" + ou + "." + i + ",ou=" + ou + "," + BASE_DN, "objectClass: top",
+                        "objectClass: device", "cn: " + ou + "." + i, "description: entry " + i + " of " + ou, ""));
+            }
+        }
+        final MemoryBackend backend = new MemoryBackend(new LDIFEntryReader(ldif));
+        listener = new LDAPListener(findFreeSocketAddress(), Connections.newServerConnectionFactory(backend));
+        outputDirectory = Files.createTempDirectory("parallelsearch").toFile();
+        err = new ByteStringBuilder();
+    }
+
+    @AfterMethod
+    public void stopListener() {
+        closeSilently(listener);
+        final File[] files = outputDirectory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        outputDirectory.delete();
+    }
+
+    @Test
+    public void parallelSearchShouldReturnTheEntriesOfAPlainSearch() throws Exception {
+        final List<String> expected = toEntries(search());
+        assertThat(expected).hasSize(1 + 4 + 3 * 50);
+
+        final List<String> actual = toEntries(search("--parallel", "3"));
+        assertThat(actual).hasSize(expected.size());
+        assertThat(actual).containsOnly(expected.toArray());
+    }
+
+    @Test
+    public void resumedSearchShouldNotDuplicateEntries() throws Exception {
+        final List<String> expected = toEntries(search());
+        search("--parallel", "2", "--outputDirectory", outputDirectory.getPath());
+        assertThat(toEntries(readOutputFiles())).containsOnly(expected.toArray());
+
+        // Simulate a search interrupted after the first partition was checkpointed: the output files also contain
+        // the entries of partitions which were not recorded as completed.
+        final File checkpoint = new File(outputDirectory, "checkpoint");
+        final List<String> checkpoints = Files.readAllLines(checkpoint.toPath(), UTF_8);
+        assertThat(checkpoints).hasSize(5);
+        Files.write(checkpoint.toPath(), checkpoints.subList(0, 1), UTF_8);
+
+        err = new ByteStringBuilder();
+        search("--parallel", "2", "--outputDirectory", outputDirectory.getPath());
+        checkOutputStream(err, INFO_LDAPSEARCH_PARALLEL_RESUMING.get(1));
+        assertThat(Files.readAllLines(checkpoint.toPath(), UTF_8)).hasSize(5);
+
+        final List<String> actual = toEntries(readOutputFiles());
+        assertThat(actual).hasSize(expected.size());
+        assertThat(actual).containsOnly(expected.toArray());
+    }
+
+    private String search(final String... arguments) throws Exception {
+        final List<String> args = new ArrayList<>(Arrays.asList(
+                "-h", listener.getHostName(), "-p", Integer.toString(listener.getPort()), "-b", BASE_DN));
+        args.addAll(Arrays.asList(arguments));
+        args.add("(objectClass=*)");
+        final ByteStringBuilder out = new ByteStringBuilder();
+        try (PrintStream outStream = new PrintStream(out.asOutputStream());
+            PrintStream errStream = new PrintStream(err.asOutputStream())) {
+            assertThat(new LDAPSearch(outStream, errStream).run(args(args.toArray(new String[args.size()]))))
+                    .isEqualTo(0);
+        }
+        return out.toString();
+    }
+
+    private String readOutputFiles() throws Exception {
+        final StringBuilder builder = new StringBuilder();
+        for (final File file : outputDirectory.listFiles()) {
+            if (file.getName().endsWith(".ldif")) {
+                builder.append(new String(Files.readAllBytes(file.toPath()), UTF_8));
+            }
+        }
+        return builder.toString();
+    }
+
+    /** Returns the LDIF of each entry of the output, in the order they were returned. */
+    private static List<String> toEntries(final String output) {
+        final List<String> entries = new ArrayList<>();
+        for (final String block : output.split("\\r?\\n\\r?\\n")) {
+            final String entry = block.trim();
+            if (entry.startsWith("dn: ")) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+}
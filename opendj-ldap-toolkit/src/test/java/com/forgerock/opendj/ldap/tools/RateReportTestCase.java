@@ -0,0 +1,202 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.Utils.MAX_LINE_WIDTH;
+import static com.forgerock.opendj.cli.Utils.wrapText;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_RATEREPORT_UNKNOWN_OPERATION;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests the merge of the histogram logs by {@code RateReport}. */
+@SuppressWarnings("javadoc")
+public final class RateReportTestCase extends ToolsTestCase {
+    private static final long START_TIME_MS = TimeUnit.SECONDS.toMillis(System.currentTimeMillis() / 1000);
+
+    private ByteStringBuilder out;
+    private ByteStringBuilder err;
+    private PrintStream outStream;
+    private PrintStream errStream;
+    private File searchLog;
+    private File modifyLog;
+
+    @BeforeMethod
+    private void writeLogs() throws Exception {
+        out = new ByteStringBuilder();
+        err = new ByteStringBuilder();
+        outStream = new PrintStream(out.asOutputStream());
+        errStream = new PrintStream(err.asOutputStream());
+
+        // Two load generators running for two seconds: the first one performs 10 searches per second, taking 1ms
+        // then 2ms, and the second one performs 5 modifications per second, taking 3ms then 4ms.
+        searchLog = File.createTempFile("ratereport", ".hlog");
+        writeLog(searchLog, "search", 10, 1, 2);
+        modifyLog = File.createTempFile("ratereport", ".hlog");
+        writeLog(modifyLog, "modify", 5, 3, 4);
+    }
+
+    @AfterMethod
+    private void deleteLogs() {
+        closeSilently(outStream, errStream);
+        searchLog.delete();
+        modifyLog.delete();
+    }
+
+    @Test
+    public void summaryShouldMergeTheLogs() throws Exception {
+        final List<List<String>> reports = rateReport();
+        assertThat(reports).hasSize(1);
+        final List<String> summary = reports.get(0);
+        assertThat(summary).hasSize(4);
+        assertThat(summary.get(0)).startsWith("operation,count,throughput,");
+        // The untagged histograms of both logs are merged as the "all" operation.
+        assertThat(summary.get(1)).startsWith("all,30,15.0,");
+        assertThat(summary.get(1)).endsWith(",4.00");
+        assertThat(summary.get(2)).startsWith("search,20,10.0,");
+        assertThat(summary.get(2)).endsWith(",2.00");
+        assertThat(summary.get(3)).startsWith("modify,10,5.0,");
+        assertThat(summary.get(3)).endsWith(",4.00");
+    }
+
+    @Test
+    public void intervalsShouldMatchTheLoggedIntervals() throws Exception {
+        final List<String> intervals = rateReport("-i", "1").get(0);
+        assertThat(intervals).hasSize(7);
+        assertThat(intervals.get(0)).startsWith("time,operation,count,throughput,");
+        assertThat(intervals.get(1)).startsWith("0,all,15,15.0,");
+        assertThat(intervals.get(2)).startsWith("0,search,10,10.0,");
+        assertThat(intervals.get(3)).startsWith("0,modify,5,5.0,");
+        assertThat(intervals.get(4)).startsWith("1,all,15,15.0,");
+        assertThat(intervals.get(5)).startsWith("1,search,10,10.0,");
+        assertThat(intervals.get(6)).startsWith("1,modify,5,5.0,");
+        assertThat(intervals.get(6)).endsWith(",4.00");
+    }
+
+    @Test
+    public void intervalsShouldMergeTheLoggedIntervals() throws Exception {
+        final List<List<String>> reports = rateReport("-i", "2", "--operation", "search", "--operation", "all");
+        assertThat(reports).hasSize(2);
+        assertThat(reports.get(0)).containsExactly("time,operation,count,throughput,average response time,"
+                + "50.0% response time,max response time",
+                "0,search,20,10.0,1.500,1.00,2.00",
+                "0,all,30,15.0,2.167,2.00,4.00");
+        assertThat(reports.get(1)).hasSize(3);
+        assertThat(reports.get(1).get(1)).startsWith("search,20,10.0,");
+        assertThat(reports.get(1).get(2)).startsWith("all,30,15.0,");
+    }
+
+    @Test
+    public void intervalHistogramLogsShouldBeReported() throws Exception {
+        final File log = File.createTempFile("ratereport", ".hlog");
+        try {
+            try (IntervalHistogramLog histogramLog = new IntervalHistogramLog(log)) {
+                final Recorder searches = histogramLog.newRecorder("search");
+                histogramLog.start();
+                for (int i = 0; i < 3; i++) {
+                    histogramLog.recordValue(TimeUnit.MILLISECONDS.toNanos(1));
+                    searches.recordValue(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+                histogramLog.writeIntervalHistograms();
+            }
+            final int retCode = new RateReport(outStream, errStream).run(new String[] { "-S", log.getPath() });
+            assertThat(retCode).isEqualTo(ResultCode.SUCCESS.intValue());
+            final String[] summary = out.toString().split("\\r?\\n");
+            assertThat(summary).hasSize(3);
+            assertThat(summary[1]).startsWith("all,3,");
+            assertThat(summary[2]).startsWith("search,3,");
+        } finally {
+            log.delete();
+        }
+    }
+
+    @Test
+    public void unknownOperationsShouldBeRejected() throws Exception {
+        final int retCode = new RateReport(outStream, errStream).run(new String[] {
+            "--operation", "delete", searchLog.getPath(), modifyLog.getPath() });
+        assertThat(retCode).isEqualTo(ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue());
+        assertThat(out.toString()).isEmpty();
+        assertThat(err.toString()).contains(wrapText(
+                ERR_RATEREPORT_UNKNOWN_OPERATION.get("delete", "[all, search, modify]"), MAX_LINE_WIDTH));
+    }
+
+    /** Writes a log like the rate tools do: one untagged and one tagged histogram per second. */
+    private static void writeLog(final File file, final String operation, final int count, final long... valuesMs)
+            throws Exception {
+        try (PrintStream stream = new PrintStream(file, "UTF-8")) {
+            final HistogramLogWriter writer = new HistogramLogWriter(stream);
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(START_TIME_MS);
+            writer.setBaseTime(START_TIME_MS);
+            writer.outputLegend();
+            for (int interval = 0; interval < valuesMs.length; interval++) {
+                final long startTimeMs = START_TIME_MS + TimeUnit.SECONDS.toMillis(interval);
+                final long endTimeMs = startTimeMs + TimeUnit.SECONDS.toMillis(1);
+                writer.outputIntervalHistogram(newHistogram(null, startTimeMs, endTimeMs, count, valuesMs[interval]));
+                writer.outputIntervalHistogram(
+                        newHistogram(operation, startTimeMs, endTimeMs, count, valuesMs[interval]));
+            }
+        }
+    }
+
+    private static Histogram newHistogram(final String tag, final long startTimeMs, final long endTimeMs,
+            final int count, final long valueMs) {
+        final Histogram histogram = new Histogram(3);
+        histogram.recordValueWithCount(TimeUnit.MILLISECONDS.toNanos(valueMs), count);
+        histogram.setStartTimeStamp(startTimeMs);
+        histogram.setEndTimeStamp(endTimeMs);
+        histogram.setTag(tag);
+        return histogram;
+    }
+
+    /** Runs the tool with CSV output, returning the lines of each printed table. */
+    private List<List<String>> rateReport(final String... arguments) throws Exception {
+        final List<String> args = new ArrayList<>(Arrays.asList(arguments));
+        args.addAll(Arrays.asList("-S", "-e", "50", searchLog.getPath(), modifyLog.getPath()));
+        final int retCode = new RateReport(outStream, errStream).run(args.toArray(new String[args.size()]));
+        assertThat(err.toString()).isEmpty();
+        assertThat(retCode).isEqualTo(ResultCode.SUCCESS.intValue());
+
+        final List<List<String>> reports = new ArrayList<>();
+        List<String> report = new ArrayList<>();
+        for (final String line : out.toString().split("\\r?\\n", -1)) {
+            if (line.isEmpty()) {
+                if (!report.isEmpty()) {
+                    reports.add(report);
+                    report = new ArrayList<>();
+                }
+            } else {
+                report.add(line);
+            }
+        }
+        return reports;
+    }
+}
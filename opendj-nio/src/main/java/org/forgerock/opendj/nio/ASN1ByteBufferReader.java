@@ -0,0 +1,409 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import static com.forgerock.opendj.ldap.CoreMessages.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.io.ASN1;
+import org.forgerock.opendj.io.ASN1Reader;
+import org.forgerock.opendj.io.AbstractASN1Reader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.opendj.ldap.DecodeException;
+
+/**
+ * An ASN.1 reader which decodes BER elements directly from a
+ * {@link ByteBuffer}, typically the direct buffer into which a connection's
+ * socket channel has been read.
+ * <p>
+ * The buffer must be in "read mode", i.e. its position and limit delimit the
+ * bytes which have been received but not yet decoded. Top-level elements may
+ * be incomplete: {@link #elementAvailable()} never consumes the bytes of an
+ * incomplete element header, so the owner of the buffer may compact it and
+ * read more bytes from the network before trying again. Nested sequences are
+ * decoded by temporarily narrowing the buffer's limit, which is restored when
+ * the sequence is ended.
+ */
+final class ASN1ByteBufferReader extends AbstractASN1Reader {
+    private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+    private static final int MAX_STRING_BUFFER_SIZE = 1024;
+
+    private int state = ASN1.ELEMENT_READ_STATE_NEED_TYPE;
+    private byte peekType;
+    private int peekLength = -1;
+    private final int maxElementSize;
+    private final byte[] stringBuffer = new byte[MAX_STRING_BUFFER_SIZE];
+    private ByteBuffer buffer;
+
+    /** The limits of the enclosing sequences, innermost last. */
+    private int[] limitStack = new int[16];
+    private int depth;
+
+    /**
+     * Creates a new ASN.1 reader having a user defined maximum BER element
+     * size.
+     *
+     * @param maxElementSize
+     *            The maximum BER element size, or <code>0</code> to indicate
+     *            that there is no limit.
+     */
+    ASN1ByteBufferReader(final int maxElementSize) {
+        this.maxElementSize = maxElementSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        depth = 0;
+    }
+
+    @Override
+    public boolean elementAvailable() throws IOException {
+        return (state != ASN1.ELEMENT_READ_STATE_NEED_TYPE || needTypeState(false))
+            && (state != ASN1.ELEMENT_READ_STATE_NEED_FIRST_LENGTH_BYTE || needFirstLengthByteState(false))
+            && peekLength <= buffer.remaining();
+    }
+
+    @Override
+    public boolean hasNextElement() throws IOException {
+        return state != ASN1.ELEMENT_READ_STATE_NEED_TYPE || needTypeState(false);
+    }
+
+    @Override
+    public int peekLength() throws IOException {
+        peekType();
+
+        if (state == ASN1.ELEMENT_READ_STATE_NEED_FIRST_LENGTH_BYTE) {
+            needFirstLengthByteState(true);
+        }
+
+        return peekLength;
+    }
+
+    @Override
+    public byte peekType() throws IOException {
+        if (state == ASN1.ELEMENT_READ_STATE_NEED_TYPE) {
+            needTypeState(true);
+        }
+
+        return peekType;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        // Read the header if haven't done so already
+        peekLength();
+
+        if (peekLength != 1) {
+            final LocalizableMessage message = ERR_ASN1_BOOLEAN_INVALID_LENGTH.get(peekLength);
+            throw DecodeException.fatalError(message);
+        }
+
+        if (buffer.remaining() < peekLength) {
+            final LocalizableMessage message = ERR_ASN1_BOOLEAN_TRUNCATED_VALUE.get(peekLength);
+            throw DecodeException.fatalError(message);
+        }
+        final int readByte = buffer.get();
+
+        state = ASN1.ELEMENT_READ_STATE_NEED_TYPE;
+        return readByte != 0x00;
+    }
+
+    @Override
+    public void readEndSequence() throws IOException {
+        if (depth == 0) {
+            final LocalizableMessage message = ERR_ASN1_SEQUENCE_READ_NOT_STARTED.get();
+            throw new IllegalStateException(message.toString());
+        }
+
+        if (buffer.hasRemaining()) {
+            logger.debug(LocalizableMessage.raw(
+                    "Ignoring %d unused trailing bytes in ASN.1 SEQUENCE", buffer.remaining()));
+            buffer.position(buffer.limit());
+        }
+        buffer.limit(limitStack[--depth]);
+
+        // Reset the state
+        state = ASN1.ELEMENT_READ_STATE_NEED_TYPE;
+    }
+
+    @Override
+    public void readEndExplicitTag() throws DecodeException, IOException {
+        readEndSequence();
+    }
+
+    @Override
+    public void readEndSet() throws IOException {
+        // From an implementation point of view, a set is equivalent to a
+        // sequence.
+        readEndSequence();
+    }
+
+    @Override
+    public int readEnumerated() throws IOException {
+        // Read the header if haven't done so already
+        peekLength();
+
+        if (peekLength < 1 || peekLength > 4) {
+            final LocalizableMessage message = ERR_ASN1_INTEGER_INVALID_LENGTH.get(peekLength);
+            throw DecodeException.fatalError(message);
+        }
+
+        // From an implementation point of view, an enumerated value is
+        // equivalent to an integer.
+        return (int) readInteger();
+    }
+
+    @Override
+    public long readInteger() throws IOException {
+        // Read the header if haven't done so already
+        peekLength();
+
+        if (peekLength < 1 || peekLength > 8) {
+            final LocalizableMessage message = ERR_ASN1_INTEGER_INVALID_LENGTH.get(peekLength);
+            throw DecodeException.fatalError(message);
+        }
+
+        if (buffer.remaining() < peekLength) {
+            final LocalizableMessage message = ERR_ASN1_INTEGER_TRUNCATED_VALUE.get(peekLength);
+            throw DecodeException.fatalError(message);
+        }
+
+        long value = 0;
+        for (int i = 0; i < peekLength; i++) {
+            final int readByte = buffer.get();
+            if (i == 0 && readByte < 0) {
+                value = 0xFFFFFFFFFFFFFFFFL;
+            }
+            value = (value << 8) | (readByte & 0xFF);
+        }
+
+        state = ASN1.ELEMENT_READ_STATE_NEED_TYPE;
+        return value;
+    }
+
+    @Override
+    public void readNull() throws IOException {
+        // Read the header if haven't done so already
+        peekLength();
+
+        // Make sure that the decoded length is exactly zero byte.
+        if (peekLength != 0) {
+            final LocalizableMessage message = ERR_ASN1_NULL_INVALID_LENGTH.get(peekLength);
+            throw DecodeException.fatalError(message);
+        }
+
+        state = ASN1.ELEMENT_READ_STATE_NEED_TYPE;
+    }
+
+    @Override
+    public ByteString readOctetString() throws IOException {
+        // Read the header if haven't done so already
+        peekLength();
+
+        checkOctetStringLength();
+        state = ASN1.ELEMENT_READ_STATE_NEED_TYPE;
+        if (peekLength == 0) {
+            return ByteString.empty();
+        }
+        final byte[] value = new byte[peekLength];
+        buffer.get(value);
+        return ByteString.wrap(value);
+    }
+
+    @Override
+    public ByteStringBuilder readOctetString(final ByteStringBuilder builder) throws IOException {
+        // Read the header if haven't done so already
+        peekLength();
+
+        checkOctetStringLength();
+        builder.appendBytes(buffer, peekLength);
+
+        state = ASN1.ELEMENT_READ_STATE_NEED_TYPE;
+        return builder;
+    }
+
+    @Override
+    public String readOctetStringAsString() throws IOException {
+        // Read the header if haven't done so already
+        peekLength();
+
+        checkOctetStringLength();
+        state = ASN1.ELEMENT_READ_STATE_NEED_TYPE;
+        if (peekLength == 0) {
+            return "";
+        }
+
+        final byte[] readBuffer = peekLength <= stringBuffer.length ? stringBuffer : new byte[peekLength];
+        buffer.get(readBuffer, 0, peekLength);
+        return ByteString.wrap(readBuffer, 0, peekLength).toString();
+    }
+
+    @Override
+    public void readStartSequence() throws IOException {
+        // Read the header if haven't done so already
+        peekLength();
+
+        if (buffer.remaining() < peekLength) {
+            final LocalizableMessage message = ERR_ASN1_SEQUENCE_SET_TRUNCATED_VALUE.get(peekLength);
+            throw DecodeException.fatalError(message);
+        }
+
+        if (depth == limitStack.length) {
+            limitStack = Arrays.copyOf(limitStack, depth * 2);
+        }
+        limitStack[depth++] = buffer.limit();
+        buffer.limit(buffer.position() + peekLength);
+
+        // Reset the state
+        state = ASN1.ELEMENT_READ_STATE_NEED_TYPE;
+    }
+
+    @Override
+    public void readStartExplicitTag() throws DecodeException, IOException {
+        readStartSequence();
+    }
+
+    @Override
+    public void readStartSet() throws IOException {
+        // From an implementation point of view, a set is equivalent to a
+        // sequence.
+        readStartSequence();
+    }
+
+    @Override
+    public ASN1Reader skipElement() throws IOException {
+        // Read the header if haven't done so already
+        peekLength();
+
+        if (buffer.remaining() < peekLength) {
+            final LocalizableMessage message = ERR_ASN1_SKIP_TRUNCATED_VALUE.get(peekLength);
+            throw DecodeException.fatalError(message);
+        }
+
+        state = ASN1.ELEMENT_READ_STATE_NEED_TYPE;
+        buffer.position(buffer.position() + peekLength);
+        return this;
+    }
+
+    /**
+     * Sets the buffer from which elements will be decoded. The buffer must be
+     * in read mode and no sequence may be in progress.
+     *
+     * @param buffer
+     *            The buffer containing the bytes to be decoded.
+     */
+    void setBuffer(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.depth = 0;
+    }
+
+    private void checkOctetStringLength() throws DecodeException {
+        if (buffer.remaining() < peekLength) {
+            final LocalizableMessage message = ERR_ASN1_OCTET_STRING_TRUNCATED_VALUE.get(peekLength);
+            throw DecodeException.fatalError(message);
+        }
+    }
+
+    /**
+     * Internal helper method reading the length bytes and transition to the
+     * next state if successful. Nothing is consumed unless all of the length
+     * bytes are available.
+     *
+     * @param throwEofException
+     *            <code>true</code> to throw an exception when the end of the
+     *            buffer is encountered.
+     * @return <code>true</code> if the length bytes were successfully read.
+     * @throws IOException
+     *             If an error occurs while trying to decode an ASN1 element.
+     */
+    private boolean needFirstLengthByteState(final boolean throwEofException) throws IOException {
+        if (!buffer.hasRemaining()) {
+            if (throwEofException) {
+                final LocalizableMessage message = ERR_ASN1_TRUNCATED_LENGTH_BYTE.get();
+                throw DecodeException.fatalError(message);
+            }
+            return false;
+        }
+
+        final int position = buffer.position();
+        int length = buffer.get(position) & 0x7F;
+        int lengthBytesNeeded = 0;
+        if (length != buffer.get(position)) {
+            // Multi-byte length.
+            lengthBytesNeeded = length;
+            if (lengthBytesNeeded > 4) {
+                final LocalizableMessage message = ERR_ASN1_INVALID_NUM_LENGTH_BYTES.get(lengthBytesNeeded);
+                throw DecodeException.fatalError(message);
+            }
+            if (buffer.remaining() < 1 + lengthBytesNeeded) {
+                if (throwEofException) {
+                    final LocalizableMessage message = ERR_ASN1_TRUNCATED_LENGTH_BYTES.get(lengthBytesNeeded);
+                    throw DecodeException.fatalError(message);
+                }
+                return false;
+            }
+            length = 0x00;
+            for (int i = 1; i <= lengthBytesNeeded; i++) {
+                length = (length << 8) | (buffer.get(position + i) & 0xFF);
+            }
+        }
+
+        // Make sure that the element is not larger than the maximum allowed
+        // message size.
+        if (maxElementSize > 0 && length > maxElementSize) {
+            final LocalizableMessage message =
+                    ERR_LDAP_CLIENT_DECODE_MAX_REQUEST_SIZE_EXCEEDED.get(length, maxElementSize);
+            throw DecodeException.fatalError(message);
+        }
+
+        buffer.position(position + 1 + lengthBytesNeeded);
+        peekLength = length;
+        state = ASN1.ELEMENT_READ_STATE_NEED_VALUE_BYTES;
+        return true;
+    }
+
+    /**
+     * Internal helper method reading the ASN.1 type byte and transition to the
+     * next state if successful.
+     *
+     * @param throwEofException
+     *            <code>true</code> to throw an exception when the end of the
+     *            buffer is encountered.
+     * @return <code>true</code> if the type byte was successfully read.
+     * @throws IOException
+     *             If an error occurs while trying to decode an ASN1 element.
+     */
+    private boolean needTypeState(final boolean throwEofException) throws IOException {
+        if (!buffer.hasRemaining()) {
+            if (throwEofException) {
+                final LocalizableMessage message = ERR_ASN1_TRUCATED_TYPE_BYTE.get();
+                throw DecodeException.fatalError(message);
+            }
+            return false;
+        }
+        peekType = buffer.get();
+        state = ASN1.ELEMENT_READ_STATE_NEED_FIRST_LENGTH_BYTE;
+        return true;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import java.io.IOException;
+
+import com.forgerock.opendj.util.ReferenceCountedObject;
+
+/**
+ * The default {@link NIOTransport} which all {@code LDAPConnectionFactory}s
+ * and {@code LDAPListener}s will use unless otherwise specified in their
+ * options.
+ * <p>
+ * The number of selector threads may be configured using the
+ * {@code org.forgerock.opendj.transport.selectors} system property, which is
+ * also honored by the Grizzly transport provider.
+ */
+final class DefaultNIOTransport extends ReferenceCountedObject<NIOTransport> {
+    static final DefaultNIOTransport DEFAULT_TRANSPORT = new DefaultNIOTransport();
+
+    private DefaultNIOTransport() {
+        // Prevent instantiation.
+    }
+
+    @Override
+    protected void destroyInstance(final NIOTransport instance) {
+        instance.shutdownNow();
+    }
+
+    @Override
+    protected NIOTransport newInstance() {
+        /*
+         * Handlers are invoked directly by the selector threads, so use the
+         * same default as the Grizzly same thread IO strategy.
+         */
+        final String selectorsStr = System.getProperty("org.forgerock.opendj.transport.selectors");
+        final int selectorThreadCount;
+        if (selectorsStr != null) {
+            selectorThreadCount = Integer.parseInt(selectorsStr);
+        } else {
+            final int cpus = Runtime.getRuntime().availableProcessors();
+            selectorThreadCount = Math.max(5, (cpus / 2) - 1);
+        }
+
+        try {
+            return new NIOTransport("OpenDJ LDAP SDK NIO selector thread", selectorThreadCount);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
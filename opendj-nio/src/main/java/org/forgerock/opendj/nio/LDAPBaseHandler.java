@@ -0,0 +1,54 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import java.io.IOException;
+
+import org.forgerock.opendj.io.AbstractLDAPMessageHandler;
+
+/**
+ * Base class for the client and server side handlers of an
+ * {@link NIOConnection}. In addition to the decoded LDAP messages, the handler
+ * receives the events which terminate the connection.
+ * <p>
+ * All the methods of this class are invoked by the selector thread of the
+ * connection.
+ */
+abstract class LDAPBaseHandler extends AbstractLDAPMessageHandler {
+    /**
+     * Invoked when the connection has been closed, either by the peer or
+     * locally.
+     */
+    abstract void handleClose();
+
+    /**
+     * Invoked when an error occurred while reading from, writing to or securing
+     * the connection. The connection has been closed.
+     *
+     * @param error
+     *            The error which occurred.
+     */
+    abstract void handleException(Throwable error);
+
+    /**
+     * Invoked when the bytes received from the peer could not be decoded as
+     * an LDAP message. The connection has been closed.
+     *
+     * @param error
+     *            The decoding error.
+     */
+    abstract void handleReadException(IOException error);
+}
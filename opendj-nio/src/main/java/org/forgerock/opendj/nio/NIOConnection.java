@@ -0,0 +1,788 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+import org.forgerock.opendj.io.LDAP;
+import org.forgerock.opendj.io.LDAPReader;
+import org.forgerock.opendj.ldap.ConnectionSecurityLayer;
+import org.forgerock.opendj.ldap.DecodeOptions;
+import org.forgerock.opendj.ldap.LdapException;
+
+/**
+ * A non-blocking socket channel transporting LDAP messages.
+ * <p>
+ * Incoming bytes are read into a direct buffer owned by the connection and
+ * decoded in place by an {@link ASN1ByteBufferReader}, without any
+ * intermediate copy unless a TLS or SASL security layer is active. Decoded
+ * messages and connection events are passed to the {@link LDAPBaseHandler}
+ * of the connection by its selector thread.
+ * <p>
+ * Outgoing messages may be written by any thread. They are passed through the
+ * security layers as soon as they are submitted and queued, and the queue is
+ * then flushed to the socket using gathering writes, either immediately by
+ * the writing thread or later by the selector thread once the socket becomes
+ * writable again.
+ */
+final class NIOConnection implements SelectorLoop.SelectionHandler {
+    /** Receives the outcome of a TLS handshake. */
+    interface HandshakeListener {
+        /** Invoked when the TLS handshake has completed successfully. */
+        void handshakeCompleted();
+
+        /**
+         * Invoked when the TLS handshake has failed. The connection will be
+         * closed.
+         *
+         * @param error
+         *            The reason why the handshake failed.
+         */
+        void handshakeFailed(Throwable error);
+    }
+
+    /** The TLS layer of a connection. */
+    private final class TLSLayer {
+        private final SSLEngine engine;
+        private final HandshakeListener listener;
+        /** Decrypted bytes, in write mode. Only accessed by the selector thread. */
+        private ByteBuffer appIn;
+        /** Encrypted bytes produced by the engine. Guarded by writeLock. */
+        private final ByteBuffer netOut;
+        /** Messages waiting for the completion of the handshake. Guarded by writeLock. */
+        private final List<ByteBuffer> pendingWrites = new ArrayList<>();
+        /** Guarded by writeLock. */
+        private boolean isHandshakeComplete;
+
+        private TLSLayer(final SSLEngine engine, final HandshakeListener listener) {
+            this.engine = engine;
+            this.listener = listener;
+            final SSLSession session = engine.getSession();
+            this.appIn = ByteBuffer.allocateDirect(session.getApplicationBufferSize());
+            this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        }
+
+        private int getPacketBufferSize() {
+            return engine.getSession().getPacketBufferSize();
+        }
+
+        /**
+         * Decrypts as many records as possible from the provided buffer.
+         *
+         * @return {@code false} if the peer has closed the TLS session.
+         */
+        private boolean unwrap(final ByteBuffer src) throws IOException {
+            while (true) {
+                final SSLEngineResult result = engine.unwrap(src, appIn);
+                switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    appIn = resize(appIn, appIn.capacity() + engine.getSession().getApplicationBufferSize());
+                    continue;
+                case BUFFER_UNDERFLOW:
+                    return true;
+                case CLOSED:
+                    return false;
+                default:
+                    break;
+                }
+                final boolean handshakeProgressed = processHandshakeStatus(result.getHandshakeStatus());
+                if (!src.hasRemaining()
+                        || (result.bytesConsumed() == 0 && result.bytesProduced() == 0 && !handshakeProgressed)) {
+                    return true;
+                }
+            }
+        }
+
+        /** Encrypts the provided message, or defers it until the end of the handshake. */
+        private void wrap(final ByteBuffer src) throws IOException {
+            if (!isHandshakeComplete) {
+                pendingWrites.add(src);
+                return;
+            }
+            do {
+                processHandshakeStatus(wrap0(src));
+            } while (src.hasRemaining());
+        }
+
+        private HandshakeStatus wrap0(final ByteBuffer src) throws IOException {
+            netOut.clear();
+            final SSLEngineResult result = engine.wrap(src, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("The TLS session has been closed");
+            }
+            netOut.flip();
+            if (netOut.hasRemaining()) {
+                final ByteBuffer record = ByteBuffer.allocate(netOut.remaining());
+                record.put(netOut).flip();
+                enqueue(record);
+            }
+            return result.getHandshakeStatus();
+        }
+
+        /**
+         * Performs the handshake actions required by the provided status.
+         *
+         * @return {@code true} if some progress has been made.
+         */
+        private boolean processHandshakeStatus(HandshakeStatus status) throws IOException {
+            boolean progressed = false;
+            while (true) {
+                switch (status) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    status = engine.getHandshakeStatus();
+                    break;
+                case NEED_WRAP:
+                    synchronized (writeLock) {
+                        status = wrap0(EMPTY_BUFFER);
+                        flush();
+                    }
+                    break;
+                case FINISHED:
+                    handshakeCompleted();
+                    return true;
+                default:
+                    return progressed;
+                }
+                progressed = true;
+            }
+        }
+
+        private void handshakeCompleted() throws IOException {
+            synchronized (writeLock) {
+                if (isHandshakeComplete) {
+                    return;
+                }
+                isHandshakeComplete = true;
+                for (final ByteBuffer pendingWrite : pendingWrites) {
+                    wrap(pendingWrite);
+                }
+                pendingWrites.clear();
+                flush();
+            }
+            if (listener != null) {
+                listener.handshakeCompleted();
+            }
+        }
+    }
+
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    /** The initial size of the read buffers. */
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /** Read buffers which have grown beyond this size are released once they are empty. */
+    private static final int MAX_RETAINED_READ_BUFFER_SIZE = 256 * 1024;
+
+    /** The maximum number of buffers passed to a single gathering write. */
+    private static final int MAX_GATHERED_BUFFERS = 64;
+
+    /**
+     * Threads other than the selector thread are blocked while more than this
+     * number of bytes are waiting to be written.
+     */
+    private static final long MAX_PENDING_WRITE_BYTES = 4 * 1024 * 1024;
+
+    /** The maximum size of the chunks passed to a SASL security layer. */
+    private static final int SASL_BUFFER_SIZE = 4096;
+
+    private final SocketChannel channel;
+    private final SelectorLoop loop;
+    private final InetSocketAddress localAddress;
+    private final InetSocketAddress peerAddress;
+    private final LDAPReader<ASN1ByteBufferReader> reader;
+    private LDAPBaseHandler handler;
+
+    /** The following fields are only accessed by the selector thread. */
+    private SelectionKey key;
+    private ByteBuffer netIn = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private ByteBuffer saslIn;
+    private boolean isClosed;
+    private boolean isDecoding;
+
+    /** Indicates whether the application has asked to stop reading messages. */
+    private volatile boolean isReadSuspended;
+
+    /** The security layers, which are installed under the write lock. */
+    private volatile TLSLayer tls;
+    private volatile ConnectionSecurityLayer sasl;
+    private volatile int layerCount;
+
+    private final Object writeLock = new Object();
+    /** The following fields are guarded by writeLock. */
+    private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private final ByteBuffer[] gatheredBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+    private long pendingWriteBytes;
+    private boolean isWriteInterested;
+    private boolean isClosing;
+    private boolean isOutputShutdown;
+
+    /**
+     * Creates a new connection for the provided connected channel. The
+     * connection does not read anything until it is started.
+     *
+     * @param channel
+     *            The connected socket channel, which must be in non-blocking
+     *            mode.
+     * @param loop
+     *            The selector loop which will perform the IO of this connection.
+     * @param decodeOptions
+     *            The options to use when decoding LDAP messages.
+     * @param maxASN1ElementSize
+     *            The maximum BER element size, or <code>0</code> to indicate
+     *            that there is no limit.
+     */
+    NIOConnection(final SocketChannel channel, final SelectorLoop loop, final DecodeOptions decodeOptions,
+            final int maxASN1ElementSize) {
+        this.channel = channel;
+        this.loop = loop;
+        this.localAddress = (InetSocketAddress) channel.socket().getLocalSocketAddress();
+        this.peerAddress = (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+        this.reader = LDAP.getReader(new ASN1ByteBufferReader(maxASN1ElementSize), decodeOptions);
+    }
+
+    /**
+     * Starts reading messages from this connection and passing them to the
+     * provided handler.
+     *
+     * @param handler
+     *            The handler which will receive the messages and events of
+     *            this connection.
+     */
+    void start(final LDAPBaseHandler handler) {
+        this.handler = handler;
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    key = loop.register(channel, 0, NIOConnection.this);
+                    synchronized (writeLock) {
+                        if (isWriteInterested) {
+                            key.interestOps(SelectionKey.OP_WRITE);
+                        }
+                    }
+                    updateReadInterest();
+                } catch (final ClosedChannelException e) {
+                    closeNow(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes this connection once all the pending messages have been written.
+     * The handler of this connection will be notified on the selector thread.
+     */
+    void close() {
+        synchronized (writeLock) {
+            if (isClosing) {
+                return;
+            }
+            isClosing = true;
+            if (!writeQueue.isEmpty() && !isOutputShutdown) {
+                // The selector thread will close the connection once the queue has been flushed.
+                return;
+            }
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeNow(null);
+            }
+        });
+    }
+
+    /**
+     * Installs a SASL security layer above any TLS layer. All the bytes
+     * received and written after this call will be processed by the layer.
+     *
+     * @param layer
+     *            The SASL security layer.
+     */
+    void enableConnectionSecurityLayer(final ConnectionSecurityLayer layer) {
+        synchronized (writeLock) {
+            sasl = layer;
+            layerCount++;
+        }
+    }
+
+    /**
+     * Installs a TLS layer and starts the handshake. All the bytes received
+     * and written after this call will be processed by the layer.
+     *
+     * @param engine
+     *            The configured SSL engine.
+     * @param listener
+     *            The listener which will be notified of the outcome of the
+     *            handshake, may be {@code null}.
+     * @throws IOException
+     *             If the handshake could not be started.
+     */
+    void enableTLS(final SSLEngine engine, final HandshakeListener listener) throws IOException {
+        synchronized (writeLock) {
+            if (tls != null) {
+                throw new IllegalStateException("TLS already enabled");
+            }
+            final TLSLayer layer = new TLSLayer(engine, listener);
+            tls = layer;
+            layerCount++;
+            engine.beginHandshake();
+            layer.processHandshakeStatus(engine.getHandshakeStatus());
+            flush();
+        }
+    }
+
+    /**
+     * Stops reading and decoding messages until {@link #resumeReads()} is
+     * called. The message being handled when this method is called from the
+     * handler is the last one decoded, and the remaining bytes are kept in
+     * the read buffer, so that the peer eventually blocks once the socket
+     * buffers are full.
+     */
+    void suspendReads() {
+        isReadSuspended = true;
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                updateReadInterest();
+            }
+        });
+    }
+
+    /** Resumes decoding the buffered messages and reading from the socket. */
+    void resumeReads() {
+        isReadSuspended = false;
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (isClosed || isReadSuspended) {
+                    return;
+                }
+                if (!isDecoding) {
+                    // Process the messages which were left in the buffer when reads were suspended.
+                    processInput();
+                }
+                updateReadInterest();
+            }
+        });
+    }
+
+    InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    InetSocketAddress getPeerAddress() {
+        return peerAddress;
+    }
+
+    /**
+     * Returns the TLS session of this connection, or {@code null} if TLS is not
+     * enabled.
+     *
+     * @return The TLS session of this connection, or {@code null} if TLS is not
+     *         enabled.
+     */
+    SSLSession getSSLSession() {
+        final TLSLayer layer = tls;
+        return layer != null ? layer.engine.getSession() : null;
+    }
+
+    boolean isTLSEnabled() {
+        return tls != null;
+    }
+
+    @Override
+    public void handleSelect(final SelectionKey key) {
+        if (key.isWritable()) {
+            flushFromSelector();
+        }
+        if (key.isValid() && key.isReadable() && !isReadSuspended) {
+            read();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NIOConnection(" + localAddress + ',' + peerAddress + ')';
+    }
+
+    /**
+     * Writes a message to this connection. Messages submitted after the
+     * connection has been closed are discarded.
+     *
+     * @param message
+     *            The encoded message, which must not be modified by the
+     *            caller afterwards.
+     */
+    void write(final ByteBuffer message) {
+        IOException error = null;
+        synchronized (writeLock) {
+            if (isClosing) {
+                return;
+            }
+            try {
+                ByteBuffer data = message;
+                final ConnectionSecurityLayer saslLayer = sasl;
+                if (saslLayer != null) {
+                    data = wrapSASL(saslLayer, data);
+                }
+                final TLSLayer tlsLayer = tls;
+                if (tlsLayer != null) {
+                    tlsLayer.wrap(data);
+                } else {
+                    enqueue(data);
+                }
+                flush();
+
+                // Apply back pressure to the application threads if the peer is not reading.
+                if (!loop.inLoop()) {
+                    while (pendingWriteBytes > MAX_PENDING_WRITE_BYTES && !isOutputShutdown) {
+                        writeLock.wait();
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            failed(error);
+        }
+    }
+
+    /** Must be called with the write lock held. */
+    private void enqueue(final ByteBuffer buffer) {
+        if (buffer.hasRemaining()) {
+            writeQueue.add(buffer);
+            pendingWriteBytes += buffer.remaining();
+        }
+    }
+
+    /**
+     * Writes as much of the queue as possible without blocking, and registers
+     * interest in write readiness if the queue could not be emptied. Must be
+     * called with the write lock held.
+     */
+    private void flush() throws IOException {
+        if (isWriteInterested || isOutputShutdown) {
+            // The selector thread will flush the queue when the socket becomes writable.
+            return;
+        }
+        if (!writeQueued()) {
+            isWriteInterested = true;
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (key != null && key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the queued buffers using gathering writes. Must be called with the
+     * write lock held.
+     *
+     * @return {@code true} if the queue has been emptied.
+     */
+    private boolean writeQueued() throws IOException {
+        while (!writeQueue.isEmpty()) {
+            int count = 0;
+            for (final ByteBuffer buffer : writeQueue) {
+                gatheredBuffers[count++] = buffer;
+                if (count == MAX_GATHERED_BUFFERS) {
+                    break;
+                }
+            }
+            final long written = channel.write(gatheredBuffers, 0, count);
+            pendingWriteBytes -= written;
+            while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+                writeQueue.poll();
+            }
+            for (int i = 0; i < count; i++) {
+                gatheredBuffers[i] = null;
+            }
+            if (written == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void flushFromSelector() {
+        IOException error = null;
+        boolean closeNow = false;
+        synchronized (writeLock) {
+            try {
+                if (writeQueued()) {
+                    isWriteInterested = false;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    closeNow = isClosing;
+                }
+            } catch (final IOException e) {
+                error = e;
+            }
+            writeLock.notifyAll();
+        }
+        if (error != null) {
+            closeNow(error);
+        } else if (closeNow) {
+            closeNow(null);
+        }
+    }
+
+    /** Must be invoked by the selector thread. */
+    private void updateReadInterest() {
+        if (key != null && key.isValid()) {
+            final int ops = key.interestOps();
+            key.interestOps(isReadSuspended ? ops & ~SelectionKey.OP_READ : ops | SelectionKey.OP_READ);
+        }
+    }
+
+    private void read() {
+        final int bytesRead;
+        try {
+            bytesRead = channel.read(netIn);
+        } catch (final IOException e) {
+            closeNow(e);
+            return;
+        }
+        if (bytesRead < 0) {
+            closeNow(null);
+        } else if (bytesRead > 0) {
+            processInput();
+        }
+    }
+
+    /** Passes the received bytes through the security layers and decodes them. */
+    private void processInput() {
+        int layers;
+        do {
+            layers = layerCount;
+            ByteBuffer in = netIn;
+            final TLSLayer tlsLayer = tls;
+            try {
+                if (tlsLayer != null) {
+                    netIn.flip();
+                    final boolean isOpen = tlsLayer.unwrap(netIn);
+                    netIn = compact(netIn, tlsLayer.getPacketBufferSize());
+                    if (!isOpen) {
+                        closeNow(null);
+                        return;
+                    }
+                    in = tlsLayer.appIn;
+                }
+                final ConnectionSecurityLayer saslLayer = sasl;
+                if (saslLayer != null) {
+                    in.flip();
+                    unwrapSASL(saslLayer, in);
+                    in.clear();
+                    in = saslIn;
+                }
+            } catch (final IOException e) {
+                closeNow(e);
+                return;
+            }
+
+            in = decode(in);
+            if (isClosed) {
+                return;
+            } else if (sasl != null && layers == layerCount) {
+                saslIn = in;
+            } else if (tlsLayer != null) {
+                tlsLayer.appIn = in;
+            } else {
+                netIn = in;
+            }
+            // A security layer installed while decoding must process the remaining bytes.
+        } while (layers != layerCount);
+    }
+
+    /**
+     * Decodes and handles the LDAP messages available in the provided buffer.
+     *
+     * @return The buffer which should receive the next bytes.
+     */
+    private ByteBuffer decode(final ByteBuffer in) {
+        in.flip();
+        reader.getASN1Reader().setBuffer(in);
+        final int layers = layerCount;
+        isDecoding = true;
+        try {
+            while (!isClosed && !isReadSuspended && layers == layerCount && reader.hasMessageAvailable()) {
+                reader.readMessage(handler);
+            }
+        } catch (final IOException e) {
+            if (!isClosed) {
+                handler.handleReadException(e);
+                closeNow(e, false);
+            }
+            return in;
+        } catch (final RuntimeException e) {
+            closeNow(e);
+            return in;
+        } finally {
+            isDecoding = false;
+        }
+        return compact(in, READ_BUFFER_SIZE);
+    }
+
+    private void unwrapSASL(final ConnectionSecurityLayer layer, final ByteBuffer src) throws IOException {
+        if (saslIn == null) {
+            saslIn = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        }
+        final byte[] chunk = new byte[Math.min(SASL_BUFFER_SIZE, src.remaining())];
+        while (src.hasRemaining()) {
+            final int length = Math.min(chunk.length, src.remaining());
+            src.get(chunk, 0, length);
+            final byte[] unwrapped;
+            try {
+                unwrapped = layer.unwrap(chunk, 0, length);
+            } catch (final LdapException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            if (saslIn.remaining() < unwrapped.length) {
+                saslIn = resize(saslIn, saslIn.position() + Math.max(unwrapped.length, saslIn.capacity()));
+            }
+            saslIn.put(unwrapped);
+        }
+    }
+
+    private static ByteBuffer wrapSASL(final ConnectionSecurityLayer layer, final ByteBuffer src) throws IOException {
+        final byte[] chunk = new byte[Math.min(SASL_BUFFER_SIZE, src.remaining())];
+        ByteBuffer wrapped = ByteBuffer.allocate(src.remaining());
+        while (src.hasRemaining()) {
+            final int length = Math.min(chunk.length, src.remaining());
+            src.get(chunk, 0, length);
+            final byte[] bytes;
+            try {
+                bytes = layer.wrap(chunk, 0, length);
+            } catch (final LdapException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            if (wrapped.remaining() < bytes.length) {
+                wrapped = resize(wrapped, wrapped.position() + bytes.length + src.remaining());
+            }
+            wrapped.put(bytes);
+        }
+        wrapped.flip();
+        return wrapped;
+    }
+
+    /**
+     * Compacts a read buffer after its content has been consumed. The buffer
+     * is grown if it is full, or released if it is empty but has grown too
+     * large.
+     */
+    private static ByteBuffer compact(final ByteBuffer buffer, final int minCapacity) {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            return resize(buffer, Math.max(buffer.capacity() * 2, minCapacity));
+        } else if (buffer.capacity() < minCapacity) {
+            return resize(buffer, minCapacity);
+        } else if (buffer.position() == 0 && buffer.capacity() > MAX_RETAINED_READ_BUFFER_SIZE) {
+            return ByteBuffer.allocateDirect(Math.max(READ_BUFFER_SIZE, minCapacity));
+        }
+        return buffer;
+    }
+
+    /** Returns a buffer of the requested capacity containing the buffer's bytes, in write mode. */
+    private static ByteBuffer resize(final ByteBuffer buffer, final int capacity) {
+        final ByteBuffer newBuffer = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity)
+                                                       : ByteBuffer.allocate(capacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+
+    /** Closes the connection after a write failure, notifying the handler from the selector thread. */
+    private void failed(final IOException error) {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeNow(error);
+            }
+        });
+    }
+
+    private void closeNow(final Throwable error) {
+        closeNow(error, true);
+    }
+
+    /**
+     * Closes the channel and notifies the handler. Must be invoked by the
+     * selector thread.
+     */
+    private void closeNow(final Throwable error, final boolean notifyHandler) {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        synchronized (writeLock) {
+            isClosing = true;
+            isOutputShutdown = true;
+            writeQueue.clear();
+            pendingWriteBytes = 0;
+            writeLock.notifyAll();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        closeSilently(channel);
+
+        final TLSLayer tlsLayer = tls;
+        if (tlsLayer != null && tlsLayer.listener != null && error != null) {
+            boolean isHandshakeComplete;
+            synchronized (writeLock) {
+                isHandshakeComplete = tlsLayer.isHandshakeComplete;
+            }
+            if (!isHandshakeComplete) {
+                tlsLayer.listener.handshakeFailed(error);
+            }
+        }
+
+        if (notifyHandler && handler != null) {
+            if (error == null || error instanceof EOFException) {
+                handler.handleClose();
+            } else {
+                handler.handleException(error);
+            }
+        }
+    }
+}
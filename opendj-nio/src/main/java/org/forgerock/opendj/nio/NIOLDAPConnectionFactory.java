@@ -0,0 +1,282 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import static com.forgerock.opendj.nio.NioMessages.LDAP_CONNECTION_CONNECT_TIMEOUT;
+import static org.forgerock.opendj.ldap.LDAPConnectionFactory.CONNECT_TIMEOUT;
+import static org.forgerock.opendj.ldap.LDAPConnectionFactory.LDAP_DECODE_OPTIONS;
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.TimeoutChecker.TIMEOUT_CHECKER;
+import static org.forgerock.opendj.nio.DefaultNIOTransport.DEFAULT_TRANSPORT;
+import static org.forgerock.opendj.nio.NIOUtils.configureConnection;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.TimeoutChecker;
+import org.forgerock.opendj.ldap.TimeoutEventListener;
+import org.forgerock.opendj.ldap.spi.LDAPConnectionFactoryImpl;
+import org.forgerock.opendj.ldap.spi.LDAPConnectionImpl;
+import org.forgerock.util.Option;
+import org.forgerock.util.Options;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.time.Duration;
+
+import com.forgerock.opendj.util.ReferenceCountedObject;
+
+/**
+ * LDAP connection factory implementation using the JDK NIO APIs for transport.
+ */
+public final class NIOLDAPConnectionFactory implements LDAPConnectionFactoryImpl {
+    private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+    /**
+     * Establishes a connection in non-blocking mode and adapts it to an LDAP
+     * connection promise.
+     */
+    private final class ConnectHandler implements SelectorLoop.SelectionHandler, TimeoutEventListener {
+        private final PromiseImpl<LDAPConnectionImpl, LdapException> promise;
+        private final long timeoutEndTime;
+        private final SelectorLoop loop;
+        private SocketChannel channel;
+        /** Only accessed by the selector thread once the connection attempt has started. */
+        private boolean isDone;
+
+        private ConnectHandler(final PromiseImpl<LDAPConnectionImpl, LdapException> promise) {
+            this.promise = promise;
+            this.loop = transport.get().nextSelectorLoop();
+            final long timeoutMS = getTimeout();
+            this.timeoutEndTime = timeoutMS > 0 ? System.currentTimeMillis() + timeoutMS : 0;
+            timeoutChecker.get().addListener(this);
+        }
+
+        private void connect() {
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                final boolean isConnected = channel.connect(getSocketAddress());
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isConnected) {
+                            completed();
+                        } else {
+                            try {
+                                loop.register(channel, SelectionKey.OP_CONNECT, ConnectHandler.this);
+                            } catch (final IOException e) {
+                                failed(e);
+                            }
+                        }
+                    }
+                });
+            } catch (final IOException e) {
+                closeSilently(channel);
+                timeoutChecker.get().removeListener(this);
+                promise.handleException(adaptConnectionException(e));
+                releaseTransportAndTimeoutChecker();
+            }
+        }
+
+        @Override
+        public void handleSelect(final SelectionKey key) {
+            if (key.isConnectable()) {
+                try {
+                    if (channel.finishConnect()) {
+                        key.interestOps(0);
+                        completed();
+                    }
+                } catch (final IOException e) {
+                    failed(e);
+                }
+            }
+        }
+
+        private void completed() {
+            if (isDone) {
+                return;
+            }
+            isDone = true;
+            timeoutChecker.get().removeListener(this);
+
+            // Adapt the connection.
+            configureConnection(channel, logger, options);
+            final NIOConnection connection =
+                    new NIOConnection(channel, loop, options.get(LDAP_DECODE_OPTIONS), 0);
+            final NIOLDAPConnection ldapConnection = new NIOLDAPConnection(connection, NIOLDAPConnectionFactory.this);
+            timeoutChecker.get().addListener(ldapConnection);
+            connection.start(new LDAPClientHandler(connection, ldapConnection));
+            if (!promise.tryHandleResult(ldapConnection)) {
+                // The connection has been either cancelled or it has timed out.
+                ldapConnection.close();
+            }
+        }
+
+        private void failed(final Throwable throwable) {
+            if (isDone) {
+                return;
+            }
+            isDone = true;
+            closeSilently(channel);
+            timeoutChecker.get().removeListener(this);
+            promise.handleException(adaptConnectionException(throwable));
+            releaseTransportAndTimeoutChecker();
+        }
+
+        private LdapException adaptConnectionException(final Throwable t) {
+            if (t instanceof LdapException) {
+                return (LdapException) t;
+            } else {
+                return newLdapException(ResultCode.CLIENT_SIDE_CONNECT_ERROR, t.getMessage(), t);
+            }
+        }
+
+        @Override
+        public long handleTimeout(final long currentTime) {
+            if (timeoutEndTime == 0) {
+                return 0;
+            } else if (timeoutEndTime > currentTime) {
+                return timeoutEndTime - currentTime;
+            } else {
+                final LdapException timeout = newLdapException(ResultCode.CLIENT_SIDE_CONNECT_ERROR,
+                        LDAP_CONNECTION_CONNECT_TIMEOUT.get(getSocketAddress(), getTimeout()).toString());
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Abort the connection attempt and release its resources.
+                        failed(timeout);
+                    }
+                });
+                return 0;
+            }
+        }
+
+        @Override
+        public long getTimeout() {
+            final Duration duration = options.get(CONNECT_TIMEOUT);
+            return duration.isUnlimited() ? 0L : duration.to(TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private final Options options;
+    private final String host;
+    private final int port;
+
+    /**
+     * Prevents the transport and timeoutChecker being released when there are
+     * remaining references (this factory or any connections). It is initially
+     * set to 1 because this factory has a reference.
+     */
+    private final AtomicInteger referenceCount = new AtomicInteger(1);
+
+    /**
+     * Indicates whether this factory has been closed or not.
+     */
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+
+    private final ReferenceCountedObject<NIOTransport>.Reference transport;
+    private final ReferenceCountedObject<TimeoutChecker>.Reference timeoutChecker = TIMEOUT_CHECKER.acquire();
+
+    /**
+     * NIO transport to use for connections. If {@code null}, default transport will be used.
+     */
+    public static final Option<NIOTransport> NIO_TRANSPORT = Option.of(NIOTransport.class, null);
+
+    /**
+     * Creates a new LDAP connection factory based on the JDK NIO APIs which can be used to create connections to
+     * the Directory Server at the provided host and port address using provided connection options.
+     *
+     * @param host
+     *         The hostname of the Directory Server to connect to.
+     * @param port
+     *         The port number of the Directory Server to connect to.
+     * @param options
+     *         The LDAP connection options to use when creating connections.
+     */
+    public NIOLDAPConnectionFactory(final String host, final int port, final Options options) {
+        this.transport = DEFAULT_TRANSPORT.acquireIfNull(options.get(NIO_TRANSPORT));
+        this.host = host;
+        this.port = port;
+        this.options = options;
+    }
+
+    @Override
+    public void close() {
+        if (isClosed.compareAndSet(false, true)) {
+            releaseTransportAndTimeoutChecker();
+        }
+    }
+
+    @Override
+    public Promise<LDAPConnectionImpl, LdapException> getConnectionAsync() {
+        acquireTransportAndTimeoutChecker(); // Protect resources.
+        final PromiseImpl<LDAPConnectionImpl, LdapException> promise = PromiseImpl.create();
+        new ConnectHandler(promise).connect();
+        return promise;
+    }
+
+    @Override
+    public InetSocketAddress getSocketAddress() {
+        return new InetSocketAddress(host, port);
+    }
+
+    @Override
+    public String getHostName() {
+        return host;
+    }
+
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    TimeoutChecker getTimeoutChecker() {
+        return timeoutChecker.get();
+    }
+
+    Options getLDAPOptions() {
+        return options;
+    }
+
+    void releaseTransportAndTimeoutChecker() {
+        if (referenceCount.decrementAndGet() == 0) {
+            transport.release();
+            timeoutChecker.release();
+        }
+    }
+
+    private void acquireTransportAndTimeoutChecker() {
+        /*
+         * If the factory is not closed then we need to prevent the resources
+         * (transport, timeout checker) from being released while the connection
+         * attempt is in progress.
+         */
+        referenceCount.incrementAndGet();
+        if (isClosed.get()) {
+            releaseTransportAndTimeoutChecker();
+            throw new IllegalStateException("Attempted to get a connection after factory close");
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import static com.forgerock.opendj.nio.NioMessages.WARN_NIO_LISTENER_ACCEPT_FAILED;
+import static com.forgerock.opendj.util.StaticUtils.getExceptionMessage;
+import static org.forgerock.opendj.ldap.LDAPListener.*;
+import static org.forgerock.opendj.nio.DefaultNIOTransport.DEFAULT_TRANSPORT;
+import static org.forgerock.opendj.nio.NIOUtils.configureConnection;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.Connections;
+import org.forgerock.opendj.ldap.DecodeOptions;
+import org.forgerock.opendj.ldap.LDAPClientContext;
+import org.forgerock.opendj.ldap.ServerConnectionFactory;
+import org.forgerock.opendj.ldap.spi.LDAPListenerImpl;
+import org.forgerock.util.Options;
+
+import com.forgerock.opendj.util.ReferenceCountedObject;
+
+/**
+ * LDAP listener implementation using the JDK NIO APIs for transport.
+ * <p>
+ * Client connections are accepted by one of the selector threads of the
+ * transport and are then assigned to the selector threads in a round-robin
+ * fashion.
+ */
+public final class NIOLDAPListener implements LDAPListenerImpl {
+    private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+    private final ReferenceCountedObject<NIOTransport>.Reference transport;
+    private final ServerConnectionFactory<LDAPClientContext, Integer> connectionFactory;
+    private final ServerSocketChannel serverChannel;
+    private final SelectorLoop acceptLoop;
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+    private final InetSocketAddress socketAddress;
+    private final Options options;
+    private final DecodeOptions decodeOptions;
+    private final int maxRequestSize;
+
+    /**
+     * Creates a new LDAP listener implementation which will listen for LDAP
+     * client connections using the provided address and connection options.
+     *
+     * @param address
+     *            The address to listen on.
+     * @param factory
+     *            The server connection factory which will be used to create
+     *            server connections.
+     * @param options
+     *            The LDAP listener options.
+     * @throws IOException
+     *             If an error occurred while trying to listen on the provided
+     *             address.
+     */
+    public NIOLDAPListener(final InetSocketAddress address,
+            final ServerConnectionFactory<LDAPClientContext, Integer> factory,
+            final Options options) throws IOException {
+        this(address, factory, options, null);
+    }
+
+    /**
+     * Creates a new LDAP listener implementation which will listen for LDAP
+     * client connections using the provided address, connection options and
+     * provided NIO transport.
+     *
+     * @param address
+     *            The address to listen on.
+     * @param factory
+     *            The server connection factory which will be used to create
+     *            server connections.
+     * @param options
+     *            The LDAP listener options.
+     * @param transport
+     *            NIO transport to use for connections. If {@code null},
+     *            default transport will be used.
+     * @throws IOException
+     *             If an error occurred while trying to listen on the provided
+     *             address.
+     */
+    public NIOLDAPListener(final InetSocketAddress address,
+            final ServerConnectionFactory<LDAPClientContext, Integer> factory,
+            final Options options, final NIOTransport transport) throws IOException {
+        this.transport = DEFAULT_TRANSPORT.acquireIfNull(transport);
+        this.connectionFactory = factory;
+        this.options = Options.copyOf(options);
+        this.decodeOptions = options.get(LDAP_DECODE_OPTIONS);
+        final int maxASN1ElementSize = options.get(REQUEST_MAX_SIZE_IN_BYTES);
+        this.maxRequestSize =
+                maxASN1ElementSize <= 0 ? LDAPServerHandler.DEFAULT_MAX_REQUEST_SIZE : maxASN1ElementSize;
+
+        try {
+            this.serverChannel = ServerSocketChannel.open();
+            try {
+                serverChannel.socket().setReuseAddress(true);
+                serverChannel.socket().bind(address, options.get(CONNECT_MAX_BACKLOG));
+                serverChannel.configureBlocking(false);
+
+                /*
+                 * Get the socket address now, ensuring that the host is the same as the
+                 * one provided in the constructor. The port will have changed if 0 was
+                 * passed in.
+                 */
+                final int port = serverChannel.socket().getLocalPort();
+                this.socketAddress = new InetSocketAddress(Connections.getHostString(address), port);
+                this.acceptLoop = this.transport.get().nextSelectorLoop();
+                registerServerChannel();
+            } catch (final IOException e) {
+                closeSilently(serverChannel);
+                throw e;
+            }
+        } catch (final IOException | RuntimeException e) {
+            this.transport.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (isClosed.compareAndSet(false, true)) {
+            if (transport.get().isShutdown()) {
+                closeSilently(serverChannel);
+                transport.release();
+                return;
+            }
+
+            // Close the channel from the selector thread so that the port is released immediately.
+            final CountDownLatch closed = new CountDownLatch(1);
+            acceptLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Closing the channel also cancels its registration with the selector.
+                    closeSilently(serverChannel);
+                    closed.countDown();
+                }
+            });
+            try {
+                closed.await();
+            } catch (final InterruptedException e) {
+                // Cannot handle here.
+                Thread.currentThread().interrupt();
+            }
+            transport.release();
+        }
+    }
+
+    @Override
+    public InetSocketAddress getSocketAddress() {
+        return socketAddress;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("LDAPListener(");
+        builder.append(getSocketAddress());
+        builder.append(')');
+        return builder.toString();
+    }
+
+    ServerConnectionFactory<LDAPClientContext, Integer> getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    Options getLDAPListenerOptions() {
+        return options;
+    }
+
+    private void registerServerChannel() throws IOException {
+        final CountDownLatch registered = new CountDownLatch(1);
+        final IOException[] error = new IOException[1];
+        acceptLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acceptLoop.register(serverChannel, SelectionKey.OP_ACCEPT, new SelectorLoop.SelectionHandler() {
+                        @Override
+                        public void handleSelect(final SelectionKey key) {
+                            acceptConnections();
+                        }
+                    });
+                } catch (final ClosedChannelException e) {
+                    error[0] = e;
+                } finally {
+                    registered.countDown();
+                }
+            }
+        });
+        try {
+            registered.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
+    /** Accepts all the pending client connections. Invoked by the selector thread. */
+    private void acceptConnections() {
+        while (true) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+                if (channel == null) {
+                    return;
+                }
+                channel.configureBlocking(false);
+            } catch (final IOException e) {
+                logger.warn(WARN_NIO_LISTENER_ACCEPT_FAILED.get(socketAddress, getExceptionMessage(e)));
+                return;
+            }
+
+            try {
+                configureConnection(channel, logger, options);
+                final NIOConnection connection =
+                        new NIOConnection(channel, transport.get().nextSelectorLoop(), decodeOptions, maxRequestSize);
+                LDAPServerHandler.handleAccept(connection, connectionFactory);
+            } catch (final RuntimeException e) {
+                logger.warn(WARN_NIO_LISTENER_ACCEPT_FAILED.get(socketAddress, getExceptionMessage(e)));
+                closeSilently(channel);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.util.Reject;
+
+/**
+ * A group of selector threads, each running an event loop which performs the
+ * network IO of the connections and listeners assigned to it. Connections are
+ * assigned to the selector threads in a round-robin fashion and remain bound
+ * to the same thread for their lifetime.
+ * <p>
+ * Completion handlers, result handlers and server request handlers are invoked
+ * directly by the selector threads, so they must not block. Applications which
+ * need to block should use the synchronous {@code Connection} API from their
+ * own threads, or increase the number of selector threads.
+ */
+public final class NIOTransport {
+    private final SelectorLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicBoolean isShutdown = new AtomicBoolean();
+
+    /**
+     * Creates and starts a new transport having the provided number of
+     * selector threads.
+     *
+     * @param name
+     *            The name of the transport, which will be used for naming its
+     *            selector threads.
+     * @param selectorThreadCount
+     *            The number of selector threads, which must be greater than
+     *            zero.
+     * @throws IOException
+     *             If the selectors could not be opened.
+     */
+    public NIOTransport(final String name, final int selectorThreadCount) throws IOException {
+        Reject.ifNull(name);
+        Reject.ifFalse(selectorThreadCount > 0, "The number of selector threads must be greater than zero");
+        loops = new SelectorLoop[selectorThreadCount];
+        for (int i = 0; i < selectorThreadCount; i++) {
+            loops[i] = new SelectorLoop(name + " " + (i + 1));
+        }
+        for (final SelectorLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    /**
+     * Returns the number of selector threads of this transport.
+     *
+     * @return The number of selector threads of this transport.
+     */
+    public int getSelectorThreadCount() {
+        return loops.length;
+    }
+
+    /**
+     * Indicates whether this transport has been shut down.
+     *
+     * @return {@code true} if this transport has been shut down.
+     */
+    public boolean isShutdown() {
+        return isShutdown.get();
+    }
+
+    /**
+     * Stops the selector threads of this transport, abruptly closing all the
+     * connections and listeners which are using it.
+     */
+    public void shutdownNow() {
+        if (isShutdown.compareAndSet(false, true)) {
+            for (final SelectorLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NIOTransport(" + loops[0] + ", selectors=" + loops.length + ')';
+    }
+
+    /**
+     * Returns the selector loop which should be used for the next channel.
+     *
+     * @return The selector loop which should be used for the next channel.
+     */
+    SelectorLoop nextSelectorLoop() {
+        if (isShutdown.get()) {
+            throw new IllegalStateException("The NIO transport has been shut down");
+        }
+        return loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import static org.forgerock.opendj.ldap.LDAPConnectionFactory.*;
+
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+import javax.net.ssl.SSLEngine;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.io.ASN1;
+import org.forgerock.opendj.io.ASN1Writer;
+import org.forgerock.opendj.io.LDAP;
+import org.forgerock.opendj.io.LDAPWriter;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.forgerock.util.Options;
+
+/** Common utility methods for the NIO transport provider. */
+final class NIOUtils {
+    /** The initial size of the thread local encoding buffers. */
+    private static final int ENCODING_BUFFER_INIT_SIZE = 512;
+
+    /** Encoding buffers which have grown beyond this size are released after use. */
+    private static final int ENCODING_BUFFER_MAX_SIZE = 32 * 1024;
+
+    /** An LDAP writer and the buffer holding the message it encodes. */
+    private static final class MessageEncoder {
+        private final ByteStringBuilder buffer = new ByteStringBuilder(ENCODING_BUFFER_INIT_SIZE);
+        private final LDAPWriter<ASN1Writer> writer = LDAP.getWriter(ASN1.getWriter(buffer));
+    }
+
+    private static final ThreadLocal<MessageEncoder> ENCODERS = new ThreadLocal<MessageEncoder>() {
+        @Override
+        protected MessageEncoder initialValue() {
+            return new MessageEncoder();
+        }
+    };
+
+    /**
+     * Returns the calling thread's LDAP writer. The message written with the
+     * returned writer must be retrieved using {@link #getEncodedMessage()}
+     * before the writer is used again.
+     *
+     * @return The calling thread's LDAP writer.
+     */
+    static LDAPWriter<ASN1Writer> getWriter() {
+        final MessageEncoder encoder = ENCODERS.get();
+        encoder.buffer.clear();
+        return encoder.writer;
+    }
+
+    /**
+     * Returns the message which has been written with the calling thread's
+     * LDAP writer and resets the writer.
+     *
+     * @return A buffer containing the encoded message, ready to be passed to
+     *         {@link NIOConnection#write(ByteBuffer)}.
+     */
+    static ByteBuffer getEncodedMessage() {
+        final ByteStringBuilder buffer = ENCODERS.get().buffer;
+        final ByteBuffer message = ByteBuffer.wrap(buffer.toByteArray());
+        buffer.clearAndTruncate(ENCODING_BUFFER_MAX_SIZE, ENCODING_BUFFER_INIT_SIZE);
+        return message;
+    }
+
+    /**
+     * Restricts the protocols and cipher suites enabled by an SSL engine.
+     *
+     * @param engine
+     *            The SSL engine.
+     * @param protocols
+     *            The protocols to enable, or an empty list for the SSL
+     *            context's defaults.
+     * @param cipherSuites
+     *            The cipher suites to enable, or an empty list for the SSL
+     *            context's defaults.
+     */
+    static void configureSSLEngine(final SSLEngine engine, final List<String> protocols,
+            final List<String> cipherSuites) {
+        if (protocols != null && !protocols.isEmpty()) {
+            engine.setEnabledProtocols(protocols.toArray(new String[protocols.size()]));
+        }
+        if (cipherSuites != null && !cipherSuites.isEmpty()) {
+            engine.setEnabledCipherSuites(cipherSuites.toArray(new String[cipherSuites.size()]));
+        }
+    }
+
+    static void configureConnection(final SocketChannel channel, final LocalizedLogger logger,
+            final Options options) {
+        final Socket socket = channel.socket();
+        final boolean tcpNoDelay = options.get(TCP_NO_DELAY);
+        final boolean keepAlive = options.get(SO_KEEPALIVE);
+        final boolean reuseAddress = options.get(SO_REUSE_ADDRESS);
+        final int linger = options.get(SO_LINGER_IN_SECONDS);
+        try {
+            socket.setTcpNoDelay(tcpNoDelay);
+        } catch (final SocketException e) {
+            logger.traceException(e, "Unable to set TCP_NODELAY to %d on client connection",
+                    tcpNoDelay);
+        }
+        try {
+            socket.setKeepAlive(keepAlive);
+        } catch (final SocketException e) {
+            logger.traceException(e, "Unable to set SO_KEEPALIVE to %d on client connection",
+                    keepAlive);
+        }
+        try {
+            socket.setReuseAddress(reuseAddress);
+        } catch (final SocketException e) {
+            logger.traceException(e, "Unable to set SO_REUSEADDR to %d on client connection",
+                    reuseAddress);
+        }
+        try {
+            if (linger < 0) {
+                socket.setSoLinger(false, 0);
+            } else {
+                socket.setSoLinger(true, linger);
+            }
+        } catch (final SocketException e) {
+            logger.traceException(e, "Unable to set SO_LINGER to %d on client connection", linger);
+        }
+    }
+
+    /** Prevent instantiation. */
+    private NIOUtils() {
+        // No implementation required.
+    }
+}
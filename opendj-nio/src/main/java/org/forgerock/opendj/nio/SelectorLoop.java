@@ -0,0 +1,177 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import static com.forgerock.opendj.nio.NioMessages.WARN_NIO_SELECTOR_LOOP_UNEXPECTED_ERROR;
+import static com.forgerock.opendj.util.StaticUtils.getExceptionMessage;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+
+/**
+ * A single threaded event loop multiplexing the readiness events of a set of
+ * channels using a {@link Selector}.
+ * <p>
+ * Readiness events are dispatched to the {@link SelectionHandler} attached to
+ * each selection key. Registrations and changes of interest are performed on
+ * the loop's own thread, so other threads must submit them using
+ * {@link #execute(Runnable)}.
+ */
+final class SelectorLoop implements Runnable {
+    /** Receives the readiness events of a channel registered with a selector loop. */
+    interface SelectionHandler {
+        /**
+         * Invoked by the selector thread when the channel is ready for one or
+         * more of the operations in its interest set.
+         *
+         * @param key
+         *            The selection key of the channel.
+         */
+        void handleSelect(SelectionKey key);
+    }
+
+    private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean isShutdown;
+
+    /**
+     * Creates a new selector loop whose thread has the provided name. The
+     * thread is not started.
+     *
+     * @param threadName
+     *            The name of the selector thread.
+     * @throws IOException
+     *             If the selector could not be opened.
+     */
+    SelectorLoop(final String threadName) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, threadName);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Submits a task for execution on the selector thread. The task is run
+     * immediately if the caller is the selector thread.
+     *
+     * @param task
+     *            The task to be executed.
+     */
+    void execute(final Runnable task) {
+        if (inLoop()) {
+            task.run();
+        } else {
+            tasks.add(task);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the calling thread is the selector thread.
+     *
+     * @return {@code true} if the calling thread is the selector thread.
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Registers a channel with this loop's selector. This method must be
+     * called from the selector thread.
+     *
+     * @param channel
+     *            The channel to be registered.
+     * @param interestOps
+     *            The initial interest set.
+     * @param handler
+     *            The handler which will receive readiness events.
+     * @return The selection key of the channel.
+     * @throws ClosedChannelException
+     *             If the channel has already been closed.
+     */
+    SelectionKey register(final SelectableChannel channel, final int interestOps,
+            final SelectionHandler handler) throws ClosedChannelException {
+        return channel.register(selector, interestOps, handler);
+    }
+
+    @Override
+    public void run() {
+        while (!isShutdown) {
+            try {
+                selector.select();
+                runTasks();
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        ((SelectionHandler) key.attachment()).handleSelect(key);
+                    } catch (final CancelledKeyException ignored) {
+                        // The channel was closed while it was being processed.
+                    }
+                }
+            } catch (final Throwable t) {
+                logger.warn(WARN_NIO_SELECTOR_LOOP_UNEXPECTED_ERROR.get(thread.getName(), getExceptionMessage(t)));
+            }
+        }
+
+        // Release all the channels still registered with this loop.
+        runTasks();
+        for (final SelectionKey key : selector.keys()) {
+            closeSilently(key.channel());
+        }
+        closeSilently(selector);
+    }
+
+    /** Starts the selector thread. */
+    void start() {
+        thread.start();
+    }
+
+    /** Stops the selector thread, closing all the channels registered with it. */
+    void shutdown() {
+        isShutdown = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public String toString() {
+        return thread.getName();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                logger.warn(WARN_NIO_SELECTOR_LOOP_UNEXPECTED_ERROR.get(thread.getName(), getExceptionMessage(e)));
+            }
+        }
+    }
+}
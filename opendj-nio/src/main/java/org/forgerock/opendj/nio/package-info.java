@@ -0,0 +1,36 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+/**
+ * Provides an implementation of a transport provider relying solely on the
+ * JDK NIO APIs. This provider is named "NIO".
+ * <p>
+ * To be used, this implementation must be declared in the
+ * provider-configuration file
+ * {@code META-INF/services/org.forgerock.opendj.ldap.spi.TransportProvider}
+ * with this single line:
+ *
+ * <pre>
+ * com.forgerock.opendj.nio.NIOTransportProvider
+ * </pre>
+ *
+ * To require that this implementation is used, you must set the transport
+ * provider to "NIO" using the {@code TRANSPORT_PROVIDER}
+ * option when requesting a {@code LDAPConnectionFactory} or a
+ * {@code LDAPListener}. Otherwise there is no guarantee that this
+ * implementation will be used.
+ */
+package org.forgerock.opendj.nio;
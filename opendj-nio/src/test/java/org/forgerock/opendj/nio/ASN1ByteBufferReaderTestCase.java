@@ -0,0 +1,34 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.forgerock.opendj.io.ASN1Reader;
+import org.forgerock.opendj.io.ASN1ReaderTestCase;
+
+/**
+ * This class provides test cases for ASN1ByteBufferReader.
+ */
+public class ASN1ByteBufferReaderTestCase extends ASN1ReaderTestCase {
+    @Override
+    protected ASN1Reader getReader(final byte[] b, final int maxElementSize) throws IOException {
+        final ASN1ByteBufferReader reader = new ASN1ByteBufferReader(maxElementSize);
+        reader.setBuffer(ByteBuffer.wrap(b));
+        return reader;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static org.forgerock.opendj.ldap.LDAPConnectionFactory.TRANSPORT_PROVIDER;
+import static org.forgerock.opendj.ldap.requests.Requests.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.Connections;
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.LDAPConnectionFactory;
+import org.forgerock.opendj.ldap.LDAPListener;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.LdapPromise;
+import org.forgerock.opendj.ldap.MemoryBackend;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SdkTestCase;
+import org.forgerock.opendj.ldap.SearchResultSubscriber;
+import org.forgerock.opendj.ldap.SearchResultSubscription;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.TestCaseUtils;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldap.spi.LDAPConnectionFactoryImpl;
+import org.forgerock.opendj.ldif.LDIFEntryReader;
+import org.forgerock.util.Options;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the NIO connection factory and listener against an in-memory backend,
+ * using the transport provider lookup of the SDK.
+ */
+@SuppressWarnings("javadoc")
+public class NIOLDAPConnectionFactoryTestCase extends SdkTestCase {
+    private MemoryBackend backend;
+    private LDAPListener listener;
+    private LDAPConnectionFactory factory;
+
+    @BeforeClass
+    public void startServer() throws Exception {
+        backend = new MemoryBackend(new LDIFEntryReader(
+                "dn: dc=example,dc=com",
+                "objectClass: top",
+                "objectClass: domain",
+                "dc: example"));
+        final Options options = Options.defaultOptions().set(TRANSPORT_PROVIDER, "NIO");
+        listener = new LDAPListener(TestCaseUtils.findFreeSocketAddress(),
+                Connections.newServerConnectionFactory(backend), options);
+        final InetSocketAddress address = listener.getSocketAddress();
+        factory = new LDAPConnectionFactory(address.getHostName(), address.getPort(), options);
+    }
+
+    @AfterClass
+    public void stopServer() {
+        factory.close();
+        listener.close();
+    }
+
+    @Test
+    public void testProviderIsNIO() {
+        assertThat(factory.getProviderName()).isEqualTo("NIO");
+        assertThat(listener.getProviderName()).isEqualTo("NIO");
+    }
+
+    @Test
+    public void testAddSearchModifyDelete() throws Exception {
+        final Connection ldapConnection = factory.getConnection();
+        try {
+            ldapConnection.add("dn: cn=test,dc=example,dc=com", "objectClass: person", "cn: test", "sn: test");
+            assertThat(backend.get("cn=test,dc=example,dc=com").getAttribute("sn").firstValueAsString())
+                    .isEqualTo("test");
+
+            ldapConnection.modify("dn: cn=test,dc=example,dc=com", "changetype: modify", "replace: sn",
+                    "sn: modified");
+            final SearchResultEntry entry = ldapConnection.searchSingleEntry(
+                    newSearchRequest("dc=example,dc=com", SearchScope.SUBORDINATES, "(cn=test)"));
+            assertThat(entry.getAttribute("sn").firstValueAsString()).isEqualTo("modified");
+            assertThat(ldapConnection.compare("cn=test,dc=example,dc=com", "sn", "modified").matched()).isTrue();
+
+            ldapConnection.delete("cn=test,dc=example,dc=com");
+            assertThat(backend.get("cn=test,dc=example,dc=com")).isNull();
+        } finally {
+            ldapConnection.close();
+        }
+    }
+
+    /** Exercises the growth of the read buffers and writes which cannot be completed at once. */
+    @Test
+    public void testLargeEntry() throws Exception {
+        final char[] chars = new char[1024 * 1024];
+        Arrays.fill(chars, 'x');
+        final String description = new String(chars);
+
+        final Connection connection = factory.getConnection();
+        try {
+            connection.add(newAddRequest("cn=large,dc=example,dc=com")
+                    .addAttribute("objectClass", "person")
+                    .addAttribute("cn", "large")
+                    .addAttribute("sn", "large")
+                    .addAttribute("description", description));
+            final Entry entry = connection.readEntry("cn=large,dc=example,dc=com", "description");
+            assertThat(entry.getAttribute("description").firstValueAsString()).isEqualTo(description);
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        final Connection connection = factory.getConnection();
+        try {
+            final List<LdapPromise<Result>> promises = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                promises.add(connection.searchAsync(
+                        newSearchRequest("dc=example,dc=com", SearchScope.BASE_OBJECT, "(objectClass=*)"), null));
+            }
+            for (final LdapPromise<Result> promise : promises) {
+                assertThat(promise.getOrThrow().getResultCode()).isEqualTo(ResultCode.SUCCESS);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testSearchPublisherBackPressure() throws Exception {
+        final int entryCount = 500;
+        final char[] chars = new char[4096];
+        Arrays.fill(chars, 'x');
+        final String description = new String(chars);
+
+        final Connection connection = factory.getConnection();
+        try {
+            connection.add("dn: ou=publisher,dc=example,dc=com", "objectClass: organizationalUnit", "ou: publisher");
+            for (int i = 0; i < entryCount; i++) {
+                connection.add(newAddRequest("cn=user" + i + ",ou=publisher,dc=example,dc=com")
+                        .addAttribute("objectClass", "person")
+                        .addAttribute("cn", "user" + i)
+                        .addAttribute("sn", "user" + i)
+                        .addAttribute("description", description));
+            }
+
+            final List<SearchResultEntry> entries = Collections.synchronizedList(new ArrayList<SearchResultEntry>());
+            final CountDownLatch completed = new CountDownLatch(1);
+            final SearchResultSubscription[] subscription = new SearchResultSubscription[1];
+            connection.searchPublisher(
+                    newSearchRequest("ou=publisher,dc=example,dc=com", SearchScope.SINGLE_LEVEL, "(objectClass=*)"))
+                    .subscribe(new SearchResultSubscriber() {
+                        @Override
+                        public void onSubscribe(final SearchResultSubscription s) {
+                            subscription[0] = s;
+                        }
+
+                        @Override
+                        public void onNext(final SearchResultEntry entry) {
+                            entries.add(entry);
+                        }
+
+                        @Override
+                        public void onReference(final SearchResultReference reference) {
+                            // No references are returned.
+                        }
+
+                        @Override
+                        public void onError(final LdapException error) {
+                            completed.countDown();
+                        }
+
+                        @Override
+                        public void onComplete(final Result result) {
+                            completed.countDown();
+                        }
+                    });
+
+            subscription[0].request(1);
+            assertThat(completed.await(200, TimeUnit.MILLISECONDS)).isFalse();
+            assertThat(entries).hasSize(1);
+
+            subscription[0].request(entryCount / 2);
+            assertThat(completed.await(200, TimeUnit.MILLISECONDS)).isFalse();
+            assertThat(entries).hasSize(entryCount / 2 + 1);
+
+            // The connection must still be usable once reads have been resumed.
+            subscription[0].request(Long.MAX_VALUE);
+            assertThat(completed.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(entries).hasSize(entryCount);
+            assertThat(connection.readEntry("ou=publisher,dc=example,dc=com")).isNotNull();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testConnectionRefused() throws Exception {
+        final InetSocketAddress address = TestCaseUtils.findFreeSocketAddress();
+        final LDAPConnectionFactoryImpl refusingFactory =
+                new NIOLDAPConnectionFactory(address.getHostName(), address.getPort(), Options.defaultOptions());
+        try {
+            refusingFactory.getConnectionAsync().getOrThrow();
+            fail("The connection attempt should have failed");
+        } catch (final LdapException e) {
+            assertThat(e.getResult().getResultCode()).isEqualTo(ResultCode.CLIENT_SIDE_CONNECT_ERROR);
+        } finally {
+            refusingFactory.close();
+        }
+    }
+}
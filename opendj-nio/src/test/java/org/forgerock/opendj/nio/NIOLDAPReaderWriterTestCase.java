@@ -0,0 +1,50 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.nio;
+
+import static org.forgerock.opendj.ldap.LDAPConnectionFactory.LDAP_DECODE_OPTIONS;
+
+import org.forgerock.opendj.io.ASN1Reader;
+import org.forgerock.opendj.io.ASN1Writer;
+import org.forgerock.opendj.io.LDAP;
+import org.forgerock.opendj.io.LDAPReader;
+import org.forgerock.opendj.io.LDAPReaderWriterTestCase;
+import org.forgerock.opendj.io.LDAPWriter;
+import org.forgerock.util.Options;
+
+/**
+ * Tests for LDAPWriter / LDAPReader classes using the ASN1 writer and ASN1
+ * reader of the NIO transport provider.
+ */
+public class NIOLDAPReaderWriterTestCase extends LDAPReaderWriterTestCase {
+
+    @Override
+    protected LDAPWriter<? extends ASN1Writer> getLDAPWriter() {
+        return NIOUtils.getWriter();
+    }
+
+    @Override
+    protected LDAPReader<? extends ASN1Reader> getLDAPReader() {
+        return LDAP.getReader(new ASN1ByteBufferReader(0), Options.defaultOptions().get(LDAP_DECODE_OPTIONS));
+    }
+
+    @Override
+    protected void transferFromWriterToReader(LDAPWriter<? extends ASN1Writer> writer,
+            LDAPReader<? extends ASN1Reader> reader) {
+        ((ASN1ByteBufferReader) reader.getASN1Reader()).setBuffer(NIOUtils.getEncodedMessage());
+    }
+
+}
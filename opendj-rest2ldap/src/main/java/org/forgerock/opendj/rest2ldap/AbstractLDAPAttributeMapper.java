@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2013-2015 ForgeRock AS.
+ * Copyright 2013-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.rest2ldap;
 
@@ -105,25 +105,36 @@ abstract class AbstractLDAPAttributeMapper<T extends AbstractLDAPAttributeMapper
             new Function<Attribute, List<Attribute>, ResourceException>() {
                 @Override
                 public List<Attribute> apply(Attribute newLDAPAttribute) throws ResourceException {
-                    if (!writabilityPolicy.canCreate(ldapAttributeName)) {
-                        if (!newLDAPAttribute.isEmpty() && !writabilityPolicy.discardWrites()) {
-                            throw new BadRequestException(i18n("The request cannot be processed because it attempts "
-                                    + "to create the read-only field '%s'", path));
-                        }
-                        return Collections.emptyList();
-                    } else if (newLDAPAttribute.isEmpty()) {
-                        if (isRequired) {
-                            throw new BadRequestException(i18n("The request cannot be processed because it attempts "
-                                    + "to remove the required field '%s'", path));
-                        }
-                        return Collections.emptyList();
-                    }
-
-                    return singletonList(newLDAPAttribute);
+                    return toCreatedAttributes(path, newLDAPAttribute);
                 }
             });
     }
 
+    @Override
+    List<Attribute> createSync(final RequestState requestState, final JsonPointer path, final JsonValue v)
+            throws ResourceException {
+        return toCreatedAttributes(path, getNewLDAPAttributesSync(requestState, path, v));
+    }
+
+    private List<Attribute> toCreatedAttributes(final JsonPointer path, final Attribute newLDAPAttribute)
+            throws ResourceException {
+        if (!writabilityPolicy.canCreate(ldapAttributeName)) {
+            if (!newLDAPAttribute.isEmpty() && !writabilityPolicy.discardWrites()) {
+                throw new BadRequestException(i18n("The request cannot be processed because it attempts "
+                        + "to create the read-only field '%s'", path));
+            }
+            return Collections.emptyList();
+        } else if (newLDAPAttribute.isEmpty()) {
+            if (isRequired) {
+                throw new BadRequestException(i18n("The request cannot be processed because it attempts "
+                        + "to remove the required field '%s'", path));
+            }
+            return Collections.emptyList();
+        }
+
+        return singletonList(newLDAPAttribute);
+    }
+
     @Override
     void getLDAPAttributes(final RequestState requestState, final JsonPointer path,
             final JsonPointer subPath, final Set<String> ldapAttributes) {
@@ -133,134 +144,30 @@ abstract class AbstractLDAPAttributeMapper<T extends AbstractLDAPAttributeMapper
     abstract Promise<Attribute, ResourceException> getNewLDAPAttributes(
                 RequestState requestState, JsonPointer path, List<Object> newValues);
 
+    /**
+     * Synchronous version of
+     * {@link #getNewLDAPAttributes(RequestState, JsonPointer, List)} which must
+     * only be invoked if {@link #isSynchronous()} returns {@code true}. The
+     * default implementation returns the result of the promise returned by
+     * {@code getNewLDAPAttributes}.
+     */
+    Attribute getNewLDAPAttributesSync(final RequestState requestState, final JsonPointer path,
+            final List<Object> newValues) throws ResourceException {
+        return getCompletedResult(getNewLDAPAttributes(requestState, path, newValues));
+    }
+
     abstract T getThis();
 
     @Override
     Promise<List<Modification>, ResourceException> patch(
                 final RequestState requestState, final JsonPointer path, final PatchOperation operation) {
         try {
-            final JsonPointer field = operation.getField();
-            final JsonValue v = operation.getValue();
-
-            /*
-             * Reject any attempts to patch this field if it is read-only, even
-             * if it is configured to discard writes.
-             */
-            if (!writabilityPolicy.canWrite(ldapAttributeName)) {
-                throw new BadRequestException(i18n(
-                        "The request cannot be processed because it attempts to modify "
-                                + "the read-only field '%s'", path));
-            }
-
-            switch (field.size()) {
-            case 0:
-                /*
-                 * The patch operation targets the entire mapping. If this
-                 * mapping is multi-valued, then the patch value must be a list
-                 * of values to be added, removed, or replaced. If it is
-                 * single-valued then the patch value must not be a list.
-                 */
-                if (attributeIsSingleValued()) {
-                    if (v.isList()) {
-                        // Single-valued field violation.
-                        throw new BadRequestException(i18n(
-                                "The request cannot be processed because an array of values was "
-                                        + "provided for the single valued field '%s'", path));
-                    }
-                } else if (!v.isList() && !operation.isIncrement()
-                        && !(v.isNull() && (operation.isReplace() || operation.isRemove()))) {
-                    // Multi-valued field violation.
-                    throw new BadRequestException(i18n(
-                            "The request cannot be processed because an array of values was "
-                                    + "not provided for the multi-valued field '%s'", path));
-                }
-                break;
-            case 1:
-                /*
-                 * The patch operation targets a sub-field. If the sub-field
-                 * name is a number then it is an attempt to patch a single
-                 * value at a specific index. Rest2LDAP cannot support indexed
-                 * updates because LDAP attribute values are unordered. We will,
-                 * however, support the special index "-" indicating that a
-                 * value should be appended.
-                 */
-                final String fieldName = field.get(0);
-                if (fieldName.equals("-") && operation.isAdd()) {
-                    // Append a single value.
-                    if (attributeIsSingleValued()) {
-                        throw new BadRequestException(i18n(
-                                "The request cannot be processed because it attempts to append a "
-                                        + "value to the single valued field '%s'", path));
-                    } else if (v.isList()) {
-                        throw new BadRequestException(i18n(
-                                "The request cannot be processed because it attempts to "
-                                        + "perform an indexed append of an array of values to "
-                                        + "the multi-valued field '%s'", path.child(fieldName)));
-                    }
-                } else if (fieldName.matches("[0-9]+")) {
-                    // Array index - not allowed.
-                    throw new NotSupportedException(i18n(
-                            "The request cannot be processed because it included "
-                                    + "an indexed patch operation '%s' which is not supported "
-                                    + "by this resource provider", path.child(fieldName)));
-                } else {
-                    throw new BadRequestException(i18n(
-                            "The request cannot be processed because it included "
-                                    + "an unrecognized field '%s'", path.child(fieldName)));
-                }
-                break;
-            default:
-                /*
-                 * The patch operation targets the child of a sub-field. This is
-                 * not possible for a LDAP attribute mapper.
-                 */
-                throw new BadRequestException(i18n(
-                        "The request cannot be processed because it included "
-                                + "an unrecognized field '%s'", path.child(field.get(0))));
-            }
-
-            // Check that the values are compatible with the type of patch operation.
-            final List<Object> newValues = asList(v, Collections.emptyList());
-            final ModificationType modType;
-            if (operation.isAdd()) {
-                /*
-                 * Use a replace for single valued fields in case the underlying
-                 * LDAP attribute is multi-valued, or the attribute already
-                 * contains a value.
-                 */
-                modType =
-                        attributeIsSingleValued() ? ModificationType.REPLACE : ModificationType.ADD;
-                if (newValues.isEmpty()) {
-                    throw new BadRequestException(i18n(
-                            "The request cannot be processed because it included "
-                                    + "an add patch operation but no value(s) for field '%s'", path
-                                    .child(field.get(0))));
-                }
-            } else if (operation.isRemove()) {
-                modType = ModificationType.DELETE;
-            } else if (operation.isReplace()) {
-                modType = ModificationType.REPLACE;
-            } else if (operation.isIncrement()) {
-                modType = ModificationType.INCREMENT;
-            } else {
-                throw new NotSupportedException(i18n(
-                        "The request cannot be processed because it included "
-                                + "an unsupported type of patch operation '%s'", operation
-                                .getOperation()));
-            }
+            final ModificationType modType = getPatchModificationType(path, operation);
+            final List<Object> newValues = asList(operation.getValue(), Collections.emptyList());
 
             // Create the modification.
             if (newValues.isEmpty()) {
-                // Deleting the attribute.
-                if (isRequired) {
-                    return Promises.<List<Modification>, ResourceException> newExceptionPromise(
-                            new BadRequestException(i18n(
-                                "The request cannot be processed because it attempts to remove the required field '%s'",
-                                path)));
-                } else {
-                    return Promises.newResultPromise(
-                        singletonList(new Modification(modType, emptyAttribute(ldapAttributeName))));
-                }
+                return Promises.newResultPromise(deleteAttribute(path, modType));
             } else {
                 return getNewLDAPAttributes(requestState, path, newValues)
                         .then(new Function<Attribute, List<Modification>, ResourceException>() {
@@ -277,6 +184,144 @@ abstract class AbstractLDAPAttributeMapper<T extends AbstractLDAPAttributeMapper
         }
     }
 
+    @Override
+    List<Modification> patchSync(final RequestState requestState, final JsonPointer path,
+            final PatchOperation operation) throws ResourceException {
+        try {
+            final ModificationType modType = getPatchModificationType(path, operation);
+            final List<Object> newValues = asList(operation.getValue(), Collections.emptyList());
+            if (newValues.isEmpty()) {
+                return deleteAttribute(path, modType);
+            }
+            return singletonList(new Modification(modType, getNewLDAPAttributesSync(requestState, path, newValues)));
+        } catch (final RuntimeException e) {
+            throw asResourceException(e);
+        }
+    }
+
+    private ModificationType getPatchModificationType(final JsonPointer path, final PatchOperation operation)
+            throws ResourceException {
+        final JsonPointer field = operation.getField();
+        final JsonValue v = operation.getValue();
+
+        /*
+         * Reject any attempts to patch this field if it is read-only, even
+         * if it is configured to discard writes.
+         */
+        if (!writabilityPolicy.canWrite(ldapAttributeName)) {
+            throw new BadRequestException(i18n(
+                    "The request cannot be processed because it attempts to modify "
+                            + "the read-only field '%s'", path));
+        }
+
+        switch (field.size()) {
+        case 0:
+            /*
+             * The patch operation targets the entire mapping. If this
+             * mapping is multi-valued, then the patch value must be a list
+             * of values to be added, removed, or replaced. If it is
+             * single-valued then the patch value must not be a list.
+             */
+            if (attributeIsSingleValued()) {
+                if (v.isList()) {
+                    // Single-valued field violation.
+                    throw new BadRequestException(i18n(
+                            "The request cannot be processed because an array of values was "
+                                    + "provided for the single valued field '%s'", path));
+                }
+            } else if (!v.isList() && !operation.isIncrement()
+                    && !(v.isNull() && (operation.isReplace() || operation.isRemove()))) {
+                // Multi-valued field violation.
+                throw new BadRequestException(i18n(
+                        "The request cannot be processed because an array of values was "
+                                + "not provided for the multi-valued field '%s'", path));
+            }
+            break;
+        case 1:
+            /*
+             * The patch operation targets a sub-field. If the sub-field
+             * name is a number then it is an attempt to patch a single
+             * value at a specific index. Rest2LDAP cannot support indexed
+             * updates because LDAP attribute values are unordered. We will,
+             * however, support the special index "-" indicating that a
+             * value should be appended.
+             */
+            final String fieldName = field.get(0);
+            if (fieldName.equals("-") && operation.isAdd()) {
+                // Append a single value.
+                if (attributeIsSingleValued()) {
+                    throw new BadRequestException(i18n(
+                            "The request cannot be processed because it attempts to append a "
+                                    + "value to the single valued field '%s'", path));
+                } else if (v.isList()) {
+                    throw new BadRequestException(i18n(
+                            "The request cannot be processed because it attempts to "
+                                    + "perform an indexed append of an array of values to "
+                                    + "the multi-valued field '%s'", path.child(fieldName)));
+                }
+            } else if (fieldName.matches("[0-9]+")) {
+                // Array index - not allowed.
+                throw new NotSupportedException(i18n(
+                        "The request cannot be processed because it included "
+                                + "an indexed patch operation '%s' which is not supported "
+                                + "by this resource provider", path.child(fieldName)));
+            } else {
+                throw new BadRequestException(i18n(
+                        "The request cannot be processed because it included "
+                                + "an unrecognized field '%s'", path.child(fieldName)));
+            }
+            break;
+        default:
+            /*
+             * The patch operation targets the child of a sub-field. This is
+             * not possible for a LDAP attribute mapper.
+             */
+            throw new BadRequestException(i18n(
+                    "The request cannot be processed because it included "
+                            + "an unrecognized field '%s'", path.child(field.get(0))));
+        }
+
+        // Check that the values are compatible with the type of patch operation.
+        final ModificationType modType;
+        if (operation.isAdd()) {
+            /*
+             * Use a replace for single valued fields in case the underlying
+             * LDAP attribute is multi-valued, or the attribute already
+             * contains a value.
+             */
+            modType =
+                    attributeIsSingleValued() ? ModificationType.REPLACE : ModificationType.ADD;
+            if (isNullOrEmpty(v)) {
+                throw new BadRequestException(i18n(
+                        "The request cannot be processed because it included "
+                                + "an add patch operation but no value(s) for field '%s'", path
+                                .child(field.get(0))));
+            }
+        } else if (operation.isRemove()) {
+            modType = ModificationType.DELETE;
+        } else if (operation.isReplace()) {
+            modType = ModificationType.REPLACE;
+        } else if (operation.isIncrement()) {
+            modType = ModificationType.INCREMENT;
+        } else {
+            throw new NotSupportedException(i18n(
+                    "The request cannot be processed because it included "
+                            + "an unsupported type of patch operation '%s'", operation
+                            .getOperation()));
+        }
+        return modType;
+    }
+
+    private List<Modification> deleteAttribute(final JsonPointer path, final ModificationType modType)
+            throws BadRequestException {
+        // Deleting the attribute.
+        if (isRequired) {
+            throw new BadRequestException(i18n(
+                "The request cannot be processed because it attempts to remove the required field '%s'", path));
+        }
+        return singletonList(new Modification(modType, emptyAttribute(ldapAttributeName)));
+    }
+
     @Override
     Promise<List<Modification>, ResourceException> update(
             final RequestState requestState, final JsonPointer path, final Entry e, final JsonValue v) {
@@ -284,66 +329,77 @@ abstract class AbstractLDAPAttributeMapper<T extends AbstractLDAPAttributeMapper
             new Function<Attribute, List<Modification>, ResourceException>() {
                 @Override
                 public List<Modification> apply(final Attribute newLDAPAttribute) throws ResourceException {
-                    // Get the existing LDAP attribute.
-                    final Attribute tmp = e.getAttribute(ldapAttributeName);
-                    final Attribute oldLDAPAttribute = tmp != null ? tmp : emptyAttribute(ldapAttributeName);
-                    /*
-                     * If the attribute is read-only then handle the following cases:
-                     * 1) new values are provided and they are the same as the existing values
-                     * 2) no new values are provided.
-                     */
-                    if (!writabilityPolicy.canWrite(ldapAttributeName)) {
-                        if (newLDAPAttribute.isEmpty()
-                                || newLDAPAttribute.equals(oldLDAPAttribute)
-                                || writabilityPolicy.discardWrites()) {
-                            // No change.
-                            return Collections.emptyList();
-                        }
-                        throw new BadRequestException(i18n(
-                            "The request cannot be processed because it attempts to modify the read-only field '%s'",
-                            path));
-                    }
-
-                    if (oldLDAPAttribute.isEmpty() && newLDAPAttribute.isEmpty()) {
-                        // No change.
-                        return Collections.emptyList();
-                    } else if (oldLDAPAttribute.isEmpty()) {
-                        // The attribute is being added.
-                        return singletonList(new Modification(ModificationType.REPLACE, newLDAPAttribute));
-                    } else if (newLDAPAttribute.isEmpty()) {
-                        // The attribute is being deleted - this is not allowed if the attribute is required.
-                        if (isRequired) {
-                            throw new BadRequestException(i18n(
-                                "The request cannot be processed because it attempts to remove the required field '%s'",
-                                path));
-                        }
-                        return singletonList(new Modification(ModificationType.REPLACE, newLDAPAttribute));
-                    } else {
-                        /*
-                         * We could do a replace, but try to save bandwidth and send diffs instead.
-                         * Perform deletes first in case we don't have an appropriate normalizer:
-                         * permissive add(x) followed by delete(x) is destructive, whereas
-                         * delete(x) followed by add(x) is idempotent when adding/removing the same value.
-                         */
-                        final List<Modification> modifications = new ArrayList<>(2);
-
-                        final Attribute deletedValues = new LinkedAttribute(oldLDAPAttribute);
-                        deletedValues.removeAll(newLDAPAttribute);
-                        if (!deletedValues.isEmpty()) {
-                            modifications.add(new Modification(ModificationType.DELETE, deletedValues));
-                        }
-
-                        final Attribute addedValues = new LinkedAttribute(newLDAPAttribute);
-                        addedValues.removeAll(oldLDAPAttribute);
-                        if (!addedValues.isEmpty()) {
-                            modifications.add(new Modification(ModificationType.ADD, addedValues));
-                        }
-                        return modifications;
-                    }
+                    return toModifications(path, e, newLDAPAttribute);
                 }
             });
     }
 
+    @Override
+    List<Modification> updateSync(final RequestState requestState, final JsonPointer path, final Entry e,
+            final JsonValue v) throws ResourceException {
+        return toModifications(path, e, getNewLDAPAttributesSync(requestState, path, v));
+    }
+
+    private List<Modification> toModifications(final JsonPointer path, final Entry e,
+            final Attribute newLDAPAttribute) throws ResourceException {
+        // Get the existing LDAP attribute.
+        final Attribute tmp = e.getAttribute(ldapAttributeName);
+        final Attribute oldLDAPAttribute = tmp != null ? tmp : emptyAttribute(ldapAttributeName);
+        /*
+         * If the attribute is read-only then handle the following cases:
+         * 1) new values are provided and they are the same as the existing values
+         * 2) no new values are provided.
+         */
+        if (!writabilityPolicy.canWrite(ldapAttributeName)) {
+            if (newLDAPAttribute.isEmpty()
+                    || newLDAPAttribute.equals(oldLDAPAttribute)
+                    || writabilityPolicy.discardWrites()) {
+                // No change.
+                return Collections.emptyList();
+            }
+            throw new BadRequestException(i18n(
+                "The request cannot be processed because it attempts to modify the read-only field '%s'",
+                path));
+        }
+
+        if (oldLDAPAttribute.isEmpty() && newLDAPAttribute.isEmpty()) {
+            // No change.
+            return Collections.emptyList();
+        } else if (oldLDAPAttribute.isEmpty()) {
+            // The attribute is being added.
+            return singletonList(new Modification(ModificationType.REPLACE, newLDAPAttribute));
+        } else if (newLDAPAttribute.isEmpty()) {
+            // The attribute is being deleted - this is not allowed if the attribute is required.
+            if (isRequired) {
+                throw new BadRequestException(i18n(
+                    "The request cannot be processed because it attempts to remove the required field '%s'",
+                    path));
+            }
+            return singletonList(new Modification(ModificationType.REPLACE, newLDAPAttribute));
+        } else {
+            /*
+             * We could do a replace, but try to save bandwidth and send diffs instead.
+             * Perform deletes first in case we don't have an appropriate normalizer:
+             * permissive add(x) followed by delete(x) is destructive, whereas
+             * delete(x) followed by add(x) is idempotent when adding/removing the same value.
+             */
+            final List<Modification> modifications = new ArrayList<>(2);
+
+            final Attribute deletedValues = new LinkedAttribute(oldLDAPAttribute);
+            deletedValues.removeAll(newLDAPAttribute);
+            if (!deletedValues.isEmpty()) {
+                modifications.add(new Modification(ModificationType.DELETE, deletedValues));
+            }
+
+            final Attribute addedValues = new LinkedAttribute(newLDAPAttribute);
+            addedValues.removeAll(oldLDAPAttribute);
+            if (!addedValues.isEmpty()) {
+                modifications.add(new Modification(ModificationType.ADD, addedValues));
+            }
+            return modifications;
+        }
+    }
+
     private List<Object> asList(final JsonValue v, final List<Object> defaultValues) {
         if (isNullOrEmpty(v)) {
             return defaultValues;
@@ -387,4 +443,21 @@ abstract class AbstractLDAPAttributeMapper<T extends AbstractLDAPAttributeMapper
         }
     }
 
+    private Attribute getNewLDAPAttributesSync(final RequestState requestState, final JsonPointer path,
+            final JsonValue v) throws ResourceException {
+        try {
+            // Ensure that the value is of the correct type.
+            checkSchema(path, v);
+            final List<Object> newValues = asList(v, defaultJSONValues);
+            if (newValues.isEmpty()) {
+                // Skip sub-class implementation if there are no values.
+                return emptyAttribute(ldapAttributeName);
+            } else {
+                return getNewLDAPAttributesSync(requestState, path, newValues);
+            }
+        } catch (final RuntimeException ex) {
+            throw asResourceException(ex);
+        }
+    }
+
 }
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2012-2015 ForgeRock AS.
+ * Copyright 2012-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.rest2ldap;
 
@@ -65,6 +65,34 @@ public abstract class AttributeMapper {
     abstract Promise<List<Attribute>, ResourceException> create(
             RequestState requestState, JsonPointer path, JsonValue v);
 
+    /**
+     * Synchronous version of {@link #create(RequestState, JsonPointer, JsonValue)}
+     * which must only be invoked if {@link #isSynchronous()} returns
+     * {@code true}.
+     * <p>
+     * The default implementation returns the result of the promise returned by
+     * {@code create}, which synchronous mappers complete immediately.
+     * Synchronous mappers may override it in order to avoid allocating a
+     * promise.
+     *
+     * @param requestState
+     *            The request state.
+     * @param path
+     *            The pointer from the root of the JSON resource to this
+     *            attribute mapper. This may be used when constructing error
+     *            messages.
+     * @param v
+     *            The JSON value to be converted to LDAP attributes, which may
+     *            be {@code null} indicating that the JSON value was not present
+     *            in the resource.
+     * @return The LDAP attributes.
+     * @throws ResourceException
+     *             If the JSON value could not be mapped.
+     */
+    List<Attribute> createSync(RequestState requestState, JsonPointer path, JsonValue v) throws ResourceException {
+        return getCompletedResult(create(requestState, path, v));
+    }
+
     /**
      * Adds the names of the LDAP attributes required by this attribute mapper
      * to the provided set.
@@ -122,6 +150,21 @@ public abstract class AttributeMapper {
     abstract Promise<Filter, ResourceException> getLDAPFilter(RequestState requestState, JsonPointer path,
             JsonPointer subPath, FilterType type, String operator, Object valueAssertion);
 
+    /**
+     * Returns {@code true} if this attribute mapper never needs to perform any
+     * I/O in order to map JSON values to and from LDAP attributes. The
+     * synchronous versions of the mapping methods, which do not allocate any
+     * promises, may only be invoked on synchronous attribute mappers.
+     * <p>
+     * The default implementation is to return {@code false}.
+     *
+     * @return {@code true} if this attribute mapper supports synchronous
+     *         mapping.
+     */
+    boolean isSynchronous() {
+        return false;
+    }
+
     /**
      * Maps a JSON patch operation to one or more LDAP modifications, returning
      * a promise once the transformation has completed. This method is invoked
@@ -143,6 +186,30 @@ public abstract class AttributeMapper {
     abstract Promise<List<Modification>, ResourceException> patch(
             RequestState requestState, JsonPointer path, PatchOperation operation);
 
+    /**
+     * Synchronous version of {@link #patch(RequestState, JsonPointer, PatchOperation)}
+     * which must only be invoked if {@link #isSynchronous()} returns
+     * {@code true}. The default implementation returns the result of the
+     * promise returned by {@code patch}.
+     *
+     * @param requestState
+     *            The request state.
+     * @param path
+     *            The pointer from the root of the JSON resource to this
+     *            attribute mapper. This may be used when constructing error
+     *            messages.
+     * @param operation
+     *            The JSON patch operation to be converted to LDAP
+     *            modifications.
+     * @return The LDAP modifications.
+     * @throws ResourceException
+     *             If the patch operation could not be mapped.
+     */
+    List<Modification> patchSync(RequestState requestState, JsonPointer path, PatchOperation operation)
+            throws ResourceException {
+        return getCompletedResult(patch(requestState, path, operation));
+    }
+
     /**
      * Maps one or more LDAP attributes to their JSON representation, returning
      * a promise once the transformation has completed.
@@ -170,6 +237,29 @@ public abstract class AttributeMapper {
      */
     abstract Promise<JsonValue, ResourceException> read(RequestState requestState, JsonPointer path, Entry e);
 
+    /**
+     * Synchronous version of {@link #read(RequestState, JsonPointer, Entry)}
+     * which must only be invoked if {@link #isSynchronous()} returns
+     * {@code true}. The default implementation returns the result of the
+     * promise returned by {@code read}.
+     *
+     * @param requestState
+     *            The request state.
+     * @param path
+     *            The pointer from the root of the JSON resource to this
+     *            attribute mapper. This may be used when constructing error
+     *            messages.
+     * @param e
+     *            The LDAP entry to be converted to JSON.
+     * @return The JSON value, which may be {@code null} if the LDAP attributes
+     *         are not present in the entry.
+     * @throws ResourceException
+     *             If the LDAP attributes could not be mapped.
+     */
+    JsonValue readSync(RequestState requestState, JsonPointer path, Entry e) throws ResourceException {
+        return getCompletedResult(read(requestState, path, e));
+    }
+
     /**
      * Maps a JSON value to one or more LDAP modifications, returning a promise
      * once the transformation has completed. This method is invoked when a REST
@@ -192,6 +282,48 @@ public abstract class AttributeMapper {
     abstract Promise<List<Modification>, ResourceException> update(
             RequestState requestState, JsonPointer path, Entry e, JsonValue v);
 
+    /**
+     * Synchronous version of
+     * {@link #update(RequestState, JsonPointer, Entry, JsonValue)} which must
+     * only be invoked if {@link #isSynchronous()} returns {@code true}. The
+     * default implementation returns the result of the promise returned by
+     * {@code update}.
+     *
+     * @param requestState
+     *            The request state.
+     * @param path
+     *            The pointer from the root of the JSON resource to this
+     *            attribute mapper. This may be used when constructing error
+     *            messages.
+     * @param e
+     *            The LDAP entry being updated.
+     * @param v
+     *            The JSON value to be converted to LDAP attributes, which may
+     *            be {@code null} indicating that the JSON value was not present
+     *            in the resource.
+     * @return The LDAP modifications.
+     * @throws ResourceException
+     *             If the JSON value could not be mapped.
+     */
+    List<Modification> updateSync(RequestState requestState, JsonPointer path, Entry e, JsonValue v)
+            throws ResourceException {
+        return getCompletedResult(update(requestState, path, e, v));
+    }
+
+    /**
+     * Returns the result of a promise returned by a synchronous mapper.
+     *
+     * @throws IllegalStateException
+     *             If the promise has not completed, meaning that this mapper
+     *             is not synchronous.
+     */
+    final <T> T getCompletedResult(final Promise<T, ResourceException> promise) throws ResourceException {
+        if (!promise.isDone()) {
+            throw new IllegalStateException("The attribute mapper " + this + " is not synchronous");
+        }
+        return promise.getOrThrowUninterruptibly();
+    }
+
     // TODO: methods for obtaining schema information (e.g. name, description, type information).
     // TODO: methods for creating sort controls.
 }
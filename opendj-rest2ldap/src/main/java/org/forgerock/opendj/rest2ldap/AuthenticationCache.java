@@ -0,0 +1,263 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.rest2ldap;
+
+import static org.forgerock.services.context.SecurityContext.AUTHZID_DN;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.util.Reject;
+import org.forgerock.util.time.TimeService;
+
+/**
+ * A bounded cache of successful HTTP authentications, allowing the {@link HttpAuthenticationFilter} to skip the LDAP
+ * search and bind operations for clients which repeatedly send the same credentials.
+ * <p>
+ * Cached authentications are keyed by user name and only contain a salted PBKDF2 hash of the password. They expire
+ * after a fixed time to live, regardless of how often they are used. In addition, the cache keeps track of recent
+ * authentication failures so that user names which are the target of repeated failed attempts are rejected without
+ * contacting the directory server.
+ */
+final class AuthenticationCache {
+    /** A successful authentication. */
+    private static final class CachedAuthentication {
+        private final Map<String, Object> authzid;
+        /** The DN of the authenticated user, or {@code null} if it is not known. */
+        private final DN dn;
+        private final long expirationTime;
+        private final byte[] passwordHash;
+        private final byte[] salt;
+
+        private CachedAuthentication(final Map<String, Object> authzid, final byte[] salt, final byte[] passwordHash,
+                final long expirationTime) {
+            this.authzid = authzid;
+            final Object authzDN = authzid.get(AUTHZID_DN);
+            this.dn = authzDN != null ? DN.valueOf(authzDN.toString()) : null;
+            this.salt = salt;
+            this.passwordHash = passwordHash;
+            this.expirationTime = expirationTime;
+        }
+    }
+
+    /** The authentication failures which occurred for a user name during the current period. */
+    private static final class FailedAttempts {
+        private int count;
+        private final long periodStartTime;
+
+        private FailedAttempts(final long periodStartTime) {
+            this.periodStartTime = periodStartTime;
+        }
+    }
+
+    private static final String PASSWORD_HASH_ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int PASSWORD_HASH_ITERATIONS = 1024;
+    private static final int PASSWORD_HASH_LENGTH = 160;
+    private static final int SALT_LENGTH = 16;
+
+    private final Map<String, CachedAuthentication> authentications;
+    private final Map<String, FailedAttempts> failedAttempts;
+    private final int maxFailedAttempts;
+    private final long failedAttemptsPeriodMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final TimeService timeService;
+    private final long timeToLiveMillis;
+
+    /**
+     * Creates a new authentication cache.
+     *
+     * @param maxSize
+     *            The maximum number of cached authentications, as well as the maximum number of user names for which
+     *            authentication failures are tracked.
+     * @param timeToLiveMillis
+     *            The length of time in milliseconds during which a successful authentication will be reused.
+     * @param maxFailedAttempts
+     *            The number of authentication failures after which authentication attempts for a user name will be
+     *            rejected until the end of the period, or {@code 0} if failures should not be rate limited.
+     * @param failedAttemptsPeriodMillis
+     *            The length of the period in milliseconds during which authentication failures are counted.
+     * @param timeService
+     *            The time service.
+     */
+    AuthenticationCache(final int maxSize, final long timeToLiveMillis, final int maxFailedAttempts,
+            final long failedAttemptsPeriodMillis, final TimeService timeService) {
+        Reject.ifTrue(maxSize <= 0, "maxSize must be positive");
+        Reject.ifTrue(timeToLiveMillis <= 0, "timeToLiveMillis must be positive");
+        Reject.ifTrue(maxFailedAttempts < 0, "maxFailedAttempts must not be negative");
+        Reject.ifTrue(maxFailedAttempts > 0 && failedAttemptsPeriodMillis <= 0,
+                "failedAttemptsPeriodMillis must be positive");
+        this.authentications = newBoundedMap(maxSize);
+        this.failedAttempts = newBoundedMap(maxSize);
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.maxFailedAttempts = maxFailedAttempts;
+        this.failedAttemptsPeriodMillis = failedAttemptsPeriodMillis;
+        this.timeService = timeService;
+    }
+
+    private static <V> Map<String, V> newBoundedMap(final int maxSize) {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the authorization principals of a cached successful authentication using the provided credentials.
+     *
+     * @param username
+     *            The user name.
+     * @param password
+     *            The password.
+     * @return The authorization principals, or {@code null} if the credentials are not present in the cache or if
+     *         the cached authentication has expired.
+     */
+    Map<String, Object> get(final String username, final char[] password) {
+        final CachedAuthentication authentication;
+        synchronized (this) {
+            authentication = authentications.get(username);
+            if (authentication == null) {
+                return null;
+            }
+            if (timeService.now() >= authentication.expirationTime) {
+                authentications.remove(username);
+                return null;
+            }
+        }
+        final byte[] passwordHash = hash(password, authentication.salt);
+        return MessageDigest.isEqual(passwordHash, authentication.passwordHash) ? authentication.authzid : null;
+    }
+
+    /**
+     * Caches a successful authentication and forgets any previous authentication failures for the user name.
+     *
+     * @param username
+     *            The user name.
+     * @param password
+     *            The password.
+     * @param authzid
+     *            The authorization principals resulting from the authentication.
+     */
+    void put(final String username, final char[] password, final Map<String, Object> authzid) {
+        final byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        final byte[] passwordHash = hash(password, salt);
+        final long expirationTime = timeService.now() + timeToLiveMillis;
+        synchronized (this) {
+            authentications.put(username, new CachedAuthentication(authzid, salt, passwordHash, expirationTime));
+            failedAttempts.remove(username);
+        }
+    }
+
+    /**
+     * Records a failed authentication attempt for the user name. The cached authentication for the user name is only
+     * removed if it used the same password, which is no longer valid: failed attempts using other passwords must not
+     * prevent the user from authenticating with the cached credentials.
+     *
+     * @param username
+     *            The user name.
+     * @param password
+     *            The password of the failed authentication attempt.
+     */
+    void recordFailedAttempt(final String username, final char[] password) {
+        if (get(username, password) != null) {
+            synchronized (this) {
+                authentications.remove(username);
+            }
+        }
+        if (maxFailedAttempts == 0) {
+            return;
+        }
+        synchronized (this) {
+            final long now = timeService.now();
+            FailedAttempts attempts = failedAttempts.get(username);
+            if (attempts == null || now - attempts.periodStartTime >= failedAttemptsPeriodMillis) {
+                attempts = new FailedAttempts(now);
+                failedAttempts.put(username, attempts);
+            }
+            attempts.count++;
+        }
+    }
+
+    /**
+     * Returns {@code true} if too many authentication attempts have failed for the user name during the current
+     * period, in which case the authentication should be rejected without contacting the directory server.
+     *
+     * @param username
+     *            The user name.
+     * @return {@code true} if authentication attempts for the user name should be rejected.
+     */
+    synchronized boolean isRateLimited(final String username) {
+        final FailedAttempts attempts = failedAttempts.get(username);
+        if (attempts == null) {
+            return false;
+        }
+        if (timeService.now() - attempts.periodStartTime >= failedAttemptsPeriodMillis) {
+            failedAttempts.remove(username);
+            return false;
+        }
+        return attempts.count >= maxFailedAttempts;
+    }
+
+    /**
+     * Removes all the cached authentications. This must be invoked whenever a password is modified by a
+     * passwordModify action, so that old passwords are no longer accepted.
+     */
+    synchronized void invalidateAll() {
+        authentications.clear();
+    }
+
+    /**
+     * Removes the cached authentications of the user whose password has been modified by a PUT or PATCH request, so
+     * that the old password is no longer accepted. Cached authentications whose DN is not known, such as SASL PLAIN
+     * authentications using a {@code u:} authorization ID, are removed as well.
+     *
+     * @param name
+     *            The DN of the entry whose password has been modified.
+     */
+    synchronized void invalidate(final DN name) {
+        final Iterator<CachedAuthentication> iterator = authentications.values().iterator();
+        while (iterator.hasNext()) {
+            final DN dn = iterator.next().dn;
+            if (dn == null || dn.equals(name)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static byte[] hash(final char[] password, final byte[] salt) {
+        final PBEKeySpec spec = new PBEKeySpec(password, salt, PASSWORD_HASH_ITERATIONS, PASSWORD_HASH_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(PASSWORD_HASH_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (final GeneralSecurityException e) {
+            // PBKDF2WithHmacSHA1 is supported by all the Java platforms which we support.
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.rest2ldap;
+
+import static org.forgerock.opendj.rest2ldap.Utils.*;
+
+import org.forgerock.services.context.AbstractContext;
+import org.forgerock.services.context.Context;
+
+/**
+ * A {@link Context} containing the {@link AuthenticationCache} of the {@link HttpAuthenticationFilter} which
+ * authenticated the request. It allows the cached authentications of a user to be removed when the password of the
+ * user is modified by a PUT or PATCH request.
+ */
+final class AuthenticationCacheContext extends AbstractContext {
+    private final AuthenticationCache authenticationCache;
+
+    /**
+     * Creates a new authentication cache context having the provided parent.
+     *
+     * @param parent
+     *            The parent context.
+     * @param authenticationCache
+     *            The authentication cache of the HTTP authentication filter.
+     */
+    AuthenticationCacheContext(final Context parent, final AuthenticationCache authenticationCache) {
+        super(ensureNotNull(parent), "authentication cache");
+        this.authenticationCache = authenticationCache;
+    }
+
+    /**
+     * Returns the authentication cache of the HTTP authentication filter.
+     *
+     * @return The authentication cache of the HTTP authentication filter.
+     */
+    AuthenticationCache getAuthenticationCache() {
+        return authenticationCache;
+    }
+}
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2013-2015 ForgeRock AS.
+ * Copyright 2013-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.rest2ldap;
 
@@ -31,9 +31,11 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Form;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
 import org.forgerock.http.protocol.Status;
@@ -63,6 +65,8 @@ import org.forgerock.util.AsyncFunction;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.promise.Promises;
+import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.time.TimeService;
 
 /** An LDAP based HTTP authentication filter. */
 final class HttpAuthenticationFilter implements org.forgerock.http.Filter, Closeable {
@@ -77,6 +81,7 @@ final class HttpAuthenticationFilter implements org.forgerock.http.Filter, Close
     private final Schema schema = Schema.getDefaultSchema();
     private final String altAuthenticationPasswordHeader;
     private final String altAuthenticationUsernameHeader;
+    private final AuthenticationCache authenticationCache;
     private final AuthenticationMethod authenticationMethod;
     private final ConnectionFactory bindLDAPConnectionFactory;
     private final boolean reuseAuthenticatedConnection;
@@ -143,6 +148,22 @@ final class HttpAuthenticationFilter implements org.forgerock.http.Filter, Close
         final String ldapFactoryName = authnConfig.get("bindLDAPConnectionFactory").required().asString();
         bindLDAPConnectionFactory = Rest2LDAP.configureConnectionFactory(
             configuration.get("ldapConnectionFactories").required(), ldapFactoryName);
+
+        // Optionally cache successful authentications in order to avoid repeating the same search and bind.
+        authenticationCache = parseAuthenticationCache(authnConfig.get("authenticationCache"));
+    }
+
+    private static AuthenticationCache parseAuthenticationCache(final JsonValue configuration) {
+        if (configuration.isNull() || !configuration.get("enabled").defaultTo(true).asBoolean()) {
+            return null;
+        }
+        final int maxSize = configuration.get("maxSize").defaultTo(10000).asInteger();
+        final long timeToLiveSeconds = configuration.get("timeToLiveSeconds").defaultTo(60L).asLong();
+        final int maxFailedAttempts = configuration.get("maxFailedAttempts").defaultTo(5).asInteger();
+        final long failedAttemptsPeriodSeconds =
+                configuration.get("failedAttemptsPeriodSeconds").defaultTo(60L).asLong();
+        return new AuthenticationCache(maxSize, TimeUnit.SECONDS.toMillis(timeToLiveSeconds), maxFailedAttempts,
+                TimeUnit.SECONDS.toMillis(failedAttemptsPeriodSeconds), TimeService.SYSTEM);
     }
 
     private static AuthenticationMethod parseAuthenticationMethod(final JsonValue configuration) {
@@ -221,14 +242,33 @@ final class HttpAuthenticationFilter implements org.forgerock.http.Filter, Close
             }
 
             // If we've got here then we have a username and password.
+            if (authenticationCache != null) {
+                // Valid cached credentials are accepted even when the user name is rate limited, so that failed
+                // attempts by anyone else cannot lock the user out.
+                final Map<String, Object> authzid = authenticationCache.get(username, password);
+                if (authzid != null) {
+                    if (!reuseAuthenticatedConnection) {
+                        return chain(context, request, next, username, authzid, null);
+                    } else if (authenticationMethod == AuthenticationMethod.SEARCH_SIMPLE) {
+                        // An authenticated connection is still needed, but the search can be skipped.
+                        final String bindDN = (String) authzid.get(AUTHZID_DN);
+                        return doBind(context, request, next, newSimpleBindRequest(bindDN, password), username,
+                                password, authzid);
+                    }
+                } else if (authenticationCache.isRateLimited(username)) {
+                    // Too many recent failures: don't bother the directory server.
+                    throw newResourceException(401);
+                }
+            }
+
             switch (authenticationMethod) {
             case SIMPLE: {
                 final Map<String, Object> authzid;
                 authzid = new LinkedHashMap<>(2);
                 authzid.put(AUTHZID_DN, username);
                 authzid.put(AUTHZID_ID, username);
-                return doBind(
-                    context, request, next, Requests.newSimpleBindRequest(username, password), username, authzid);
+                return doBind(context, request, next, Requests.newSimpleBindRequest(username, password), username,
+                    password, authzid);
             }
             case SASL_PLAIN: {
                 final Map<String, Object> authzid;
@@ -243,14 +283,15 @@ final class HttpAuthenticationFilter implements org.forgerock.http.Filter, Close
                     bindId = String.format(saslAuthzIdTemplate, username);
                     authzid = Collections.singletonMap(AUTHZID_ID, (Object) username);
                 }
-                return doBind(context, request, next, newPlainSASLBindRequest(bindId, password), username, authzid);
+                return doBind(context, request, next, newPlainSASLBindRequest(bindId, password), username, password,
+                    authzid);
             }
             default: // SEARCH_SIMPLE
                 final AtomicReference<Connection> savedConnection = new AtomicReference<>();
                 return searchLDAPConnectionFactory.getConnectionAsync()
                     .thenAsync(doSearchForUser(username, savedConnection))
                     .thenAsync(doBindAfterSearch(context, request, next, username, password, savedConnection),
-                        returnErrorAfterFailedSearch(savedConnection));
+                        returnErrorAfterFailedSearch(username, password, savedConnection));
             }
         } catch (final Throwable t) {
             return asErrorResponse(t);
@@ -280,7 +321,8 @@ final class HttpAuthenticationFilter implements org.forgerock.http.Filter, Close
                 final Map<String, Object> authzid = new LinkedHashMap<>(2);
                 authzid.put(AUTHZID_DN, bindDN);
                 authzid.put(AUTHZID_ID, username);
-                return doBind(context, request, next, newSimpleBindRequest(bindDN, password), username, authzid);
+                return doBind(context, request, next, newSimpleBindRequest(bindDN, password), username, password,
+                    authzid);
             }
         };
     }
@@ -291,7 +333,7 @@ final class HttpAuthenticationFilter implements org.forgerock.http.Filter, Close
      */
     private Promise<Response, NeverThrowsException> doBind(
             final Context context, final Request request, final Handler next, final BindRequest bindRequest,
-            final String authcid, final Map<String, Object> authzid) {
+            final String authcid, final char[] password, final Map<String, Object> authzid) {
         final AtomicReference<Connection> savedConnection = new AtomicReference<>();
         return bindLDAPConnectionFactory.getConnectionAsync()
             .thenAsync(new AsyncFunction<Connection, BindResult, LdapException>() {
@@ -301,8 +343,8 @@ final class HttpAuthenticationFilter implements org.forgerock.http.Filter, Close
                     return connection.bindAsync(bindRequest);
                 }
             })
-            .thenAsync(doChain(context, request, next, authcid, authzid, savedConnection),
-                       returnErrorAfterFailedBind())
+            .thenAsync(doChain(context, request, next, authcid, password, authzid, savedConnection),
+                       returnErrorAfterFailedBind(authcid, password))
             .thenFinally(new Runnable() {
                 @Override
                 public void run() {
@@ -313,33 +355,70 @@ final class HttpAuthenticationFilter implements org.forgerock.http.Filter, Close
 
     private AsyncFunction<BindResult, Response, NeverThrowsException> doChain(
             final Context context, final Request request, final Handler next, final String authcid,
-            final Map<String, Object> authzid, final AtomicReference<Connection> savedConnection) {
+            final char[] password, final Map<String, Object> authzid,
+            final AtomicReference<Connection> savedConnection) {
         return new AsyncFunction<BindResult, Response, NeverThrowsException>() {
             @Override
             public Promise<Response, NeverThrowsException> apply(final BindResult result) {
-                // Pass through the authentication ID and authorization principals.
-                Context forwardedContext = new SecurityContext(context, authcid, authzid);
-
-                // Cache the pre-authenticated connection and prevent downstream
-                // components from closing it since this filter will close it.
-                if (reuseAuthenticatedConnection) {
-                    forwardedContext = new AuthenticatedConnectionContext(
-                            forwardedContext, uncloseable(savedConnection.get()));
+                if (authenticationCache != null) {
+                    authenticationCache.put(authcid, password, authzid);
                 }
-
-                return next.handle(forwardedContext, request);
+                return chain(context, request, next, authcid, authzid, savedConnection.get());
             }
         };
     }
 
+    /**
+     * Forwards the request to the next handler once the user has been authenticated. The authenticated connection may
+     * be {@code null} if it is not going to be reused.
+     */
+    private Promise<Response, NeverThrowsException> chain(final Context context, final Request request,
+            final Handler next, final String authcid, final Map<String, Object> authzid,
+            final Connection authenticatedConnection) {
+        // Pass through the authentication ID and authorization principals.
+        Context forwardedContext = new SecurityContext(context, authcid, authzid);
+
+        // Cache the pre-authenticated connection and prevent downstream
+        // components from closing it since this filter will close it.
+        if (reuseAuthenticatedConnection) {
+            forwardedContext = new AuthenticatedConnectionContext(
+                    forwardedContext, uncloseable(authenticatedConnection));
+        }
+
+        if (authenticationCache != null) {
+            // Allow PUT and PATCH requests which modify a password to remove the cached authentications of the user.
+            forwardedContext = new AuthenticationCacheContext(forwardedContext, authenticationCache);
+        }
+
+        final Promise<Response, NeverThrowsException> response = next.handle(forwardedContext, request);
+        if (authenticationCache != null && isPasswordModifyRequest(request)) {
+            // Old passwords must not be accepted once they have been modified.
+            return response.thenOnResult(new ResultHandler<Response>() {
+                @Override
+                public void handleResult(final Response result) {
+                    if (result.getStatus().isSuccessful()) {
+                        authenticationCache.invalidateAll();
+                    }
+                }
+            });
+        }
+        return response;
+    }
+
+    private static boolean isPasswordModifyRequest(final Request request) {
+        return "POST".equalsIgnoreCase(request.getMethod())
+                && "passwordModify".equals(new Form().fromRequestQuery(request).getFirst("_action"));
+    }
+
     private AsyncFunction<LdapException, Response, NeverThrowsException> returnErrorAfterFailedSearch(
-            final AtomicReference<Connection> savedConnection) {
+            final String username, final char[] password, final AtomicReference<Connection> savedConnection) {
         return new AsyncFunction<LdapException, Response, NeverThrowsException>() {
             @Override
             public Promise<Response, NeverThrowsException> apply(final LdapException e) {
                 if (closeConnection(savedConnection)) {
                     // The search error should not be passed as-is back to the user.
                     if (e instanceof EntryNotFoundException || e instanceof MultipleEntriesFoundException) {
+                        recordFailedAttempt(username, password);
                         return asErrorResponse(newLdapException(ResultCode.INVALID_CREDENTIALS, e));
                     } else if (e instanceof AuthenticationException || e instanceof AuthorizationException) {
                         return asErrorResponse(newLdapException(ResultCode.CLIENT_SIDE_LOCAL_ERROR, e));
@@ -353,15 +432,25 @@ final class HttpAuthenticationFilter implements org.forgerock.http.Filter, Close
         };
     }
 
-    private AsyncFunction<LdapException, Response, NeverThrowsException> returnErrorAfterFailedBind() {
+    private AsyncFunction<LdapException, Response, NeverThrowsException> returnErrorAfterFailedBind(
+            final String authcid, final char[] password) {
         return new AsyncFunction<LdapException, Response, NeverThrowsException>() {
             @Override
             public Promise<Response, NeverThrowsException> apply(final LdapException e) {
+                if (e.getResult().getResultCode() == ResultCode.INVALID_CREDENTIALS) {
+                    recordFailedAttempt(authcid, password);
+                }
                 return asErrorResponse(e);
             }
         };
     }
 
+    private void recordFailedAttempt(final String username, final char[] password) {
+        if (authenticationCache != null) {
+            authenticationCache.recordFailedAttempt(username, password);
+        }
+    }
+
     private Promise<Response, NeverThrowsException> asErrorResponse(final Throwable t) {
         final ResourceException e = asResourceException(t);
         final Response response =
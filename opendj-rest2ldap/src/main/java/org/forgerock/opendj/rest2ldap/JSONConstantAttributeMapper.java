@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2012-2015 ForgeRock AS.
+ * Copyright 2012-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.rest2ldap;
 
@@ -56,12 +56,21 @@ final class JSONConstantAttributeMapper extends AttributeMapper {
     @Override
     Promise<List<Attribute>, ResourceException> create(
             final RequestState requestState, final JsonPointer path, final JsonValue v) {
+        try {
+            return Promises.newResultPromise(createSync(requestState, path, v));
+        } catch (final ResourceException e) {
+            return Promises.newExceptionPromise(e);
+        }
+    }
+
+    @Override
+    List<Attribute> createSync(final RequestState requestState, final JsonPointer path, final JsonValue v)
+            throws ResourceException {
         if (!isNullOrEmpty(v) && !v.getObject().equals(value.getObject())) {
-            return Promises.<List<Attribute>, ResourceException> newExceptionPromise(new BadRequestException(i18n(
-                    "The request cannot be processed because it attempts to create the read-only field '%s'", path)));
-        } else {
-            return Promises.newResultPromise(Collections.<Attribute> emptyList());
+            throw new BadRequestException(i18n(
+                    "The request cannot be processed because it attempts to create the read-only field '%s'", path));
         }
+        return Collections.emptyList();
     }
 
     @Override
@@ -108,27 +117,56 @@ final class JSONConstantAttributeMapper extends AttributeMapper {
         return Promises.newResultPromise(filter);
     }
 
+    @Override
+    boolean isSynchronous() {
+        return true;
+    }
+
     @Override
     Promise<List<Modification>, ResourceException> patch(final RequestState requestState, final JsonPointer path,
             final PatchOperation operation) {
-        return Promises.<List<Modification>, ResourceException> newExceptionPromise(new BadRequestException(i18n(
-                "The request cannot be processed because it attempts to patch the read-only field '%s'", path)));
+        try {
+            return Promises.newResultPromise(patchSync(requestState, path, operation));
+        } catch (final ResourceException e) {
+            return Promises.newExceptionPromise(e);
+        }
+    }
+
+    @Override
+    List<Modification> patchSync(final RequestState requestState, final JsonPointer path,
+            final PatchOperation operation) throws ResourceException {
+        throw new BadRequestException(i18n(
+                "The request cannot be processed because it attempts to patch the read-only field '%s'", path));
     }
 
     @Override
     Promise<JsonValue, ResourceException> read(final RequestState requestState, final JsonPointer path, final Entry e) {
-        return Promises.newResultPromise(value.copy());
+        return Promises.newResultPromise(readSync(requestState, path, e));
+    }
+
+    @Override
+    JsonValue readSync(final RequestState requestState, final JsonPointer path, final Entry e) {
+        return value.copy();
     }
 
     @Override
     Promise<List<Modification>, ResourceException> update(
             final RequestState requestState, final JsonPointer path, final Entry e, final JsonValue v) {
+        try {
+            return Promises.newResultPromise(updateSync(requestState, path, e, v));
+        } catch (final ResourceException ex) {
+            return Promises.newExceptionPromise(ex);
+        }
+    }
+
+    @Override
+    List<Modification> updateSync(final RequestState requestState, final JsonPointer path, final Entry e,
+            final JsonValue v) throws ResourceException {
         if (!isNullOrEmpty(v) && !v.getObject().equals(value.getObject())) {
-            return Promises.<List<Modification>, ResourceException> newExceptionPromise(new BadRequestException(i18n(
-                    "The request cannot be processed because it attempts to modify the read-only field '%s'", path)));
-        } else {
-            return Promises.newResultPromise(Collections.<Modification> emptyList());
+            throw new BadRequestException(i18n(
+                    "The request cannot be processed because it attempts to modify the read-only field '%s'", path));
         }
+        return Collections.emptyList();
     }
 
     private <T extends Comparable<T>> Filter compare(final FilterType type, final T v1, final T v2) {
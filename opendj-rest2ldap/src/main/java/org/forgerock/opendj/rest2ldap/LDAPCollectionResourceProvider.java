@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2012-2015 ForgeRock AS.
+ * Copyright 2012-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.rest2ldap;
 
@@ -28,6 +28,7 @@ import static org.forgerock.opendj.rest2ldap.Utils.i18n;
 import static org.forgerock.opendj.rest2ldap.Utils.toFilter;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -35,6 +36,7 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -69,6 +71,7 @@ import org.forgerock.opendj.ldap.DecodeOptions;
 import org.forgerock.opendj.ldap.Entry;
 import org.forgerock.opendj.ldap.Filter;
 import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.LdapPromise;
 import org.forgerock.opendj.ldap.Modification;
 import org.forgerock.opendj.ldap.SearchResultHandler;
 import org.forgerock.opendj.ldap.SearchScope;
@@ -592,8 +595,9 @@ final class LDAPCollectionResourceProvider implements CollectionResourceProvider
             private final Object sequenceLock = new Object();
             private String cookie;
             private ResourceException pendingResult;
-            private int pendingResourceCount;
+            private final Queue<PendingResource> pendingResources = new ArrayDeque<>();
             private boolean resultSent;
+            private LdapPromise<Result> searchPromise;
             private int totalResourceCount;
 
             @Override
@@ -632,11 +636,13 @@ final class LDAPCollectionResourceProvider implements CollectionResourceProvider
                     pageResultStartIndex = 0;
                 }
 
-                connection.searchAsync(searchRequest, new SearchResultHandler() {
+                final boolean isSynchronousMapper = attributeMapper.isSynchronous();
+                final LdapPromise<Result> search = connection.searchAsync(searchRequest, new SearchResultHandler() {
                     @Override
                     public boolean handleEntry(final SearchResultEntry entry) {
                         // Search result entries will be returned before the search result/error so the only reason
-                        // pendingResult will be non-null is if a mapping error has occurred.
+                        // pendingResult will be non-null is if a mapping error has occurred or if the client does
+                        // not want any more resources.
                         synchronized (sequenceLock) {
                             if (pendingResult != null) {
                                 return false;
@@ -645,33 +651,51 @@ final class LDAPCollectionResourceProvider implements CollectionResourceProvider
                                 // Haven't reached paged results threshold yet.
                                 return true;
                             }
-                            pendingResourceCount++;
                         }
 
-                        /*
-                         * FIXME: secondary asynchronous searches will complete in a non-deterministic order and
-                         * may cause the JSON resources to be returned in a different order to the order in which
-                         * the primary LDAP search results were received. This is benign at the moment, but will
-                         * need resolving when we implement server side sorting. A possible fix will be to use a
-                         * queue of pending resources (promises?). However, the queue cannot be unbounded in case
-                         * it grows very large, but it cannot be bounded either since that could cause a deadlock
-                         * between rest2ldap and the LDAP server (imagine the case where the server has a single
-                         * worker thread which is occupied processing the primary search).
-                         * The best solution is probably to process the primary search results in batches using
-                         * the paged results control.
-                         */
                         final String id = nameStrategy.getResourceId(requestState, entry);
                         final String revision = getRevisionFromEntry(entry);
+                        if (isSynchronousMapper) {
+                            /*
+                             * Fast path: map the entry and stream the resource to the client straight away from the
+                             * LDAP connection's thread. Nothing is buffered, and a slow client will naturally hold
+                             * back the reading of further search results from the LDAP connection.
+                             */
+                            try {
+                                final JsonValue content =
+                                        attributeMapper.readSync(requestState, new JsonPointer(), entry);
+                                synchronized (sequenceLock) {
+                                    sendResource(Responses.newResourceResponse(id, revision, content));
+                                    completeIfNecessary(promise);
+                                    return pendingResult == null;
+                                }
+                            } catch (final ResourceException e) {
+                                synchronized (sequenceLock) {
+                                    completeIfNecessary(e, promise);
+                                }
+                                return false;
+                            }
+                        }
+
+                        /*
+                         * Secondary asynchronous searches may complete in a non-deterministic order, so resources
+                         * are queued and sent to the client in the order in which the primary LDAP search results
+                         * were received. The queue only holds resources which are still being mapped, or which are
+                         * waiting for a resource received before them to be mapped.
+                         */
+                        final PendingResource pendingResource = new PendingResource();
+                        synchronized (sequenceLock) {
+                            pendingResources.add(pendingResource);
+                        }
                         attributeMapper.read(requestState, new JsonPointer(), entry)
                                        .thenOnResult(new ResultHandler<JsonValue>() {
                                            @Override
                                            public void handleResult(final JsonValue result) {
                                                synchronized (sequenceLock) {
-                                                   pendingResourceCount--;
-                                                   if (!resultSent) {
-                                                       resourceHandler.handleResource(
-                                                               Responses.newResourceResponse(id, revision, result));
-                                                   }
+                                                   pendingResource.resource =
+                                                           Responses.newResourceResponse(id, revision, result);
+                                                   pendingResource.isMapped = true;
+                                                   sendPendingResources();
                                                    completeIfNecessary(promise);
                                                }
                                            }
@@ -679,8 +703,12 @@ final class LDAPCollectionResourceProvider implements CollectionResourceProvider
                                            @Override
                                            public void handleException(ResourceException exception) {
                                                synchronized (sequenceLock) {
-                                                   pendingResourceCount--;
-                                                   completeIfNecessary(exception, promise);
+                                                   pendingResource.isMapped = true;
+                                                   if (pendingResult == null) {
+                                                       pendingResult = exception;
+                                                   }
+                                                   sendPendingResources();
+                                                   completeIfNecessary(promise);
                                                }
                                            }
                                        });
@@ -720,10 +748,49 @@ final class LDAPCollectionResourceProvider implements CollectionResourceProvider
                         }
                     }
                 });
+                synchronized (sequenceLock) {
+                    searchPromise = search;
+                    if (pendingResult == SUCCESS && !search.isDone()) {
+                        // The client stopped the query before the search promise was available.
+                        search.cancel(true);
+                    }
+                }
 
                 return promise;
             }
 
+            /**
+             * Sends the resources at the head of the queue which have been mapped.
+             * This method must be invoked with the sequenceLock held.
+             */
+            private void sendPendingResources() {
+                while (!pendingResources.isEmpty() && pendingResources.peek().isMapped) {
+                    final PendingResource pendingResource = pendingResources.remove();
+                    if (pendingResource.resource != null) {
+                        sendResource(pendingResource.resource);
+                    }
+                }
+            }
+
+            /**
+             * Sends a resource to the client, stopping the search if the client does not want any more
+             * resources. This method must be invoked with the sequenceLock held.
+             */
+            private void sendResource(final ResourceResponse resource) {
+                if (resultSent || (pendingResult != null && pendingResult != SUCCESS)) {
+                    return;
+                }
+                if (!resourceHandler.handleResource(resource)) {
+                    pendingResources.clear();
+                    if (pendingResult == null) {
+                        pendingResult = SUCCESS;
+                        if (searchPromise != null) {
+                            searchPromise.cancel(true);
+                        }
+                    }
+                }
+            }
+
             /** This method must be invoked with the sequenceLock held. */
             private void completeIfNecessary(
                     final ResourceException e, final PromiseImpl<QueryResponse, ResourceException> handler) {
@@ -739,7 +806,7 @@ final class LDAPCollectionResourceProvider implements CollectionResourceProvider
              * This method must be invoked with the sequenceLock held.
              */
             private void completeIfNecessary(final PromiseImpl<QueryResponse, ResourceException> handler) {
-                if (pendingResourceCount == 0 && pendingResult != null && !resultSent) {
+                if (pendingResources.isEmpty() && pendingResult != null && !resultSent) {
                     if (pendingResult == SUCCESS) {
                         handler.handleResult(Responses.newQueryResponse(cookie));
                     } else {
@@ -751,6 +818,12 @@ final class LDAPCollectionResourceProvider implements CollectionResourceProvider
         };
     }
 
+    /** A resource returned by a query whose mapping may still be in progress. */
+    private static final class PendingResource {
+        private boolean isMapped;
+        private ResourceResponse resource;
+    }
+
     @Override
     public Promise<ResourceResponse, ResourceException> readInstance(
             final Context context, final String resourceId, final ReadRequest request) {
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2012-2015 ForgeRock AS.
+ * Copyright 2012-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.rest2ldap;
 
@@ -21,7 +21,6 @@ import static org.forgerock.opendj.rest2ldap.Rest2LDAP.asResourceException;
 import static org.forgerock.opendj.rest2ldap.Utils.i18n;
 import static org.forgerock.opendj.rest2ldap.Utils.toLowerCase;
 
-import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -60,6 +59,47 @@ public final class ObjectAttributeMapper extends AttributeMapper {
         }
     }
 
+    /**
+     * Accumulates the results of the subordinate mappings, in order. Results of
+     * synchronous mappers are stored directly and promises are only created
+     * for the mappers which need to perform I/O.
+     */
+    private static final class Results<T> {
+        private final List<List<T>> results = new ArrayList<>();
+        private List<Promise<Void, ResourceException>> promises;
+
+        private void add(final List<T> result) {
+            results.add(result);
+        }
+
+        private void add(final Promise<List<T>, ResourceException> promise) {
+            final int index = results.size();
+            results.add(null);
+            if (promises == null) {
+                promises = new ArrayList<>();
+            }
+            promises.add(promise.then(new Function<List<T>, Void, ResourceException>() {
+                @Override
+                public Void apply(final List<T> result) {
+                    results.set(index, result);
+                    return null;
+                }
+            }));
+        }
+
+        private Promise<List<T>, ResourceException> getAsync() {
+            if (promises == null) {
+                return Promises.newResultPromise(accumulateResults(results));
+            }
+            return Promises.when(promises).then(new Function<List<Void>, List<T>, ResourceException>() {
+                @Override
+                public List<T> apply(final List<Void> value) {
+                    return accumulateResults(results);
+                }
+            });
+        }
+    }
+
     private final Map<String, Mapping> mappings = new LinkedHashMap<>();
 
     ObjectAttributeMapper() {
@@ -97,24 +137,33 @@ public final class ObjectAttributeMapper extends AttributeMapper {
             final Map<String, Mapping> missingMappings = checkMapping(path, v);
 
             // Accumulate the results of the subordinate mappings.
-            final List<Promise<List<Attribute>, ResourceException>> promises = new ArrayList<>();
+            final Results<Attribute> results = new Results<>();
 
             // Invoke mappings for which there are values provided.
             if (v != null && !v.isNull()) {
                 for (final Map.Entry<String, Object> me : v.asMap().entrySet()) {
                     final Mapping mapping = getMapping(me.getKey());
                     final JsonValue subValue = new JsonValue(me.getValue());
-                    promises.add(mapping.mapper.create(requestState, path.child(me.getKey()), subValue));
+                    final JsonPointer subPath = path.child(me.getKey());
+                    if (mapping.mapper.isSynchronous()) {
+                        results.add(mapping.mapper.createSync(requestState, subPath, subValue));
+                    } else {
+                        results.add(mapping.mapper.create(requestState, subPath, subValue));
+                    }
                 }
             }
 
             // Invoke mappings for which there were no values provided.
             for (final Mapping mapping : missingMappings.values()) {
-                promises.add(mapping.mapper.create(requestState, path.child(mapping.name), null));
+                final JsonPointer subPath = path.child(mapping.name);
+                if (mapping.mapper.isSynchronous()) {
+                    results.add(mapping.mapper.createSync(requestState, subPath, null));
+                } else {
+                    results.add(mapping.mapper.create(requestState, subPath, null));
+                }
             }
 
-            return Promises.when(promises)
-                           .then(this.<Attribute> accumulateResults());
+            return results.getAsync();
         } catch (final Exception e) {
             return Promises.newExceptionPromise(asResourceException(e));
         }
@@ -155,6 +204,17 @@ public final class ObjectAttributeMapper extends AttributeMapper {
         }
     }
 
+    /** Returns {@code true} if none of the subordinate mappers need to perform I/O. */
+    @Override
+    boolean isSynchronous() {
+        for (final Mapping mapping : mappings.values()) {
+            if (!mapping.mapper.isSynchronous()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     Promise<List<Modification>, ResourceException> patch(
             final RequestState requestState, final JsonPointer path, final PatchOperation operation) {
@@ -171,7 +231,7 @@ public final class ObjectAttributeMapper extends AttributeMapper {
                 checkMapping(path, v);
 
                 // Accumulate the results of the subordinate mappings.
-                final List<Promise<List<Modification>, ResourceException>> promises = new ArrayList<>();
+                final Results<Modification> results = new Results<>();
 
                 // Invoke mappings for which there are values provided.
                 if (!v.isNull()) {
@@ -180,12 +240,16 @@ public final class ObjectAttributeMapper extends AttributeMapper {
                         final JsonValue subValue = new JsonValue(me.getValue());
                         final PatchOperation subOperation =
                                 operation(operation.getOperation(), field /* empty */, subValue);
-                        promises.add(mapping.mapper.patch(requestState, path.child(me.getKey()), subOperation));
+                        final JsonPointer subPath = path.child(me.getKey());
+                        if (mapping.mapper.isSynchronous()) {
+                            results.add(mapping.mapper.patchSync(requestState, subPath, subOperation));
+                        } else {
+                            results.add(mapping.mapper.patch(requestState, subPath, subOperation));
+                        }
                     }
                 }
 
-                return Promises.when(promises)
-                               .then(this.<Modification> accumulateResults());
+                return results.getAsync();
             } else {
                 /*
                  * The patch operation targets a subordinate field. Create a new
@@ -193,12 +257,7 @@ public final class ObjectAttributeMapper extends AttributeMapper {
                  * appropriate mapper.
                  */
                 final String fieldName = field.get(0);
-                final Mapping mapping = getMapping(fieldName);
-                if (mapping == null) {
-                    throw new BadRequestException(i18n(
-                            "The request cannot be processed because it included "
-                                    + "an unrecognized field '%s'", path.child(fieldName)));
-                }
+                final Mapping mapping = getMapping(path, fieldName);
                 final PatchOperation subOperation =
                         operation(operation.getOperation(), field.relativePointer(), v);
                 return mapping.mapper.patch(requestState, path.child(fieldName), subOperation);
@@ -211,46 +270,61 @@ public final class ObjectAttributeMapper extends AttributeMapper {
     @Override
     Promise<JsonValue, ResourceException> read(final RequestState requestState, final JsonPointer path, final Entry e) {
         /*
-         * Use an accumulator which will aggregate the results from the
-         * subordinate mappers into a single list. On completion, the
-         * accumulator combines the results into a single JSON map object.
+         * The values of the subordinate mappers are stored in mapping order.
+         * Promises are only created for the mappers which need to perform I/O.
+         * On completion, the values are combined into a single JSON map object.
          */
-        final List<Promise<Map.Entry<String, JsonValue>, ResourceException>> promises =
-                new ArrayList<>(mappings.size());
-
+        final JsonValue[] values = new JsonValue[mappings.size()];
+        final List<Promise<Void, ResourceException>> promises = new ArrayList<>();
+        int i = 0;
         for (final Mapping mapping : mappings.values()) {
-            promises.add(mapping.mapper.read(requestState, path.child(mapping.name), e)
-                    .then(new Function<JsonValue, Map.Entry<String, JsonValue>, ResourceException>() {
-                        @Override
-                        public Map.Entry<String, JsonValue> apply(final JsonValue value) {
-                            return value != null ? new SimpleImmutableEntry<String, JsonValue>(mapping.name, value)
-                                                 : null;
-                        }
-                    }));
+            final JsonPointer subPath = path.child(mapping.name);
+            if (mapping.mapper.isSynchronous()) {
+                try {
+                    values[i] = mapping.mapper.readSync(requestState, subPath, e);
+                } catch (final ResourceException ex) {
+                    return Promises.newExceptionPromise(ex);
+                }
+            } else {
+                final int index = i;
+                promises.add(mapping.mapper.read(requestState, subPath, e)
+                        .then(new Function<JsonValue, Void, ResourceException>() {
+                            @Override
+                            public Void apply(final JsonValue value) {
+                                values[index] = value;
+                                return null;
+                            }
+                        }));
+            }
+            i++;
         }
 
-        return Promises.when(promises)
-                .then(new Function<List<Map.Entry<String, JsonValue>>, JsonValue, ResourceException>() {
-                    @Override
-                    public JsonValue apply(final List<Map.Entry<String, JsonValue>> value) {
-                        if (value.isEmpty()) {
-                            /*
-                             * No subordinate attributes, so omit the entire
-                             * JSON object from the resource.
-                             */
-                            return null;
-                        } else {
-                            // Combine the sub-attributes into a single JSON object.
-                            final Map<String, Object> result = new LinkedHashMap<>(value.size());
-                            for (final Map.Entry<String, JsonValue> e : value) {
-                                if (e != null) {
-                                    result.put(e.getKey(), e.getValue().getObject());
-                                }
-                            }
-                            return new JsonValue(result);
-                        }
-                    }
-                });
+        if (promises.isEmpty()) {
+            return Promises.newResultPromise(toJsonObject(values));
+        }
+        return Promises.when(promises).then(new Function<List<Void>, JsonValue, ResourceException>() {
+            @Override
+            public JsonValue apply(final List<Void> value) {
+                return toJsonObject(values);
+            }
+        });
+    }
+
+    private JsonValue toJsonObject(final JsonValue[] values) {
+        if (values.length == 0) {
+            // No subordinate attributes, so omit the entire JSON object from the resource.
+            return null;
+        }
+        // Combine the sub-attributes into a single JSON object.
+        final Map<String, Object> result = new LinkedHashMap<>(values.length);
+        int i = 0;
+        for (final Mapping mapping : mappings.values()) {
+            final JsonValue value = values[i++];
+            if (value != null) {
+                result.put(mapping.name, value.getObject());
+            }
+        }
+        return new JsonValue(result);
     }
 
     @Override
@@ -262,47 +336,51 @@ public final class ObjectAttributeMapper extends AttributeMapper {
             final Map<String, Mapping> missingMappings = checkMapping(path, v);
 
             // Accumulate the results of the subordinate mappings.
-            final List<Promise<List<Modification>, ResourceException>> promises = new ArrayList<>();
+            final Results<Modification> results = new Results<>();
 
             // Invoke mappings for which there are values provided.
             if (v != null && !v.isNull()) {
                 for (final Map.Entry<String, Object> me : v.asMap().entrySet()) {
                     final Mapping mapping = getMapping(me.getKey());
                     final JsonValue subValue = new JsonValue(me.getValue());
-                    promises.add(mapping.mapper.update(requestState, path.child(me.getKey()), e, subValue));
+                    final JsonPointer subPath = path.child(me.getKey());
+                    if (mapping.mapper.isSynchronous()) {
+                        results.add(mapping.mapper.updateSync(requestState, subPath, e, subValue));
+                    } else {
+                        results.add(mapping.mapper.update(requestState, subPath, e, subValue));
+                    }
                 }
             }
 
             // Invoke mappings for which there were no values provided.
             for (final Mapping mapping : missingMappings.values()) {
-                promises.add(mapping.mapper.update(requestState, path.child(mapping.name), e, null));
+                final JsonPointer subPath = path.child(mapping.name);
+                if (mapping.mapper.isSynchronous()) {
+                    results.add(mapping.mapper.updateSync(requestState, subPath, e, null));
+                } else {
+                    results.add(mapping.mapper.update(requestState, subPath, e, null));
+                }
             }
 
-            return Promises.when(promises)
-                           .then(this.<Modification> accumulateResults());
+            return results.getAsync();
         } catch (final Exception ex) {
             return Promises.newExceptionPromise(asResourceException(ex));
         }
     }
 
-    private <T> Function<List<List<T>>, List<T>, ResourceException> accumulateResults() {
-        return new Function<List<List<T>>, List<T>, ResourceException>() {
-            @Override
-            public List<T> apply(final List<List<T>> value) {
-                switch (value.size()) {
-                case 0:
-                    return Collections.emptyList();
-                case 1:
-                    return value.get(0);
-                default:
-                    final List<T> attributes = new ArrayList<>(value.size());
-                    for (final List<T> a : value) {
-                        attributes.addAll(a);
-                    }
-                    return attributes;
-                }
+    private static <T> List<T> accumulateResults(final List<List<T>> value) {
+        switch (value.size()) {
+        case 0:
+            return Collections.emptyList();
+        case 1:
+            return value.get(0);
+        default:
+            final List<T> attributes = new ArrayList<>(value.size());
+            for (final List<T> a : value) {
+                attributes.addAll(a);
             }
-        };
+            return attributes;
+        }
     }
 
     /** Fail immediately if the JSON value has the wrong type or contains unknown attributes. */
@@ -332,6 +410,16 @@ public final class ObjectAttributeMapper extends AttributeMapper {
         return jsonAttribute.isEmpty() ? null : getMapping(jsonAttribute.get(0));
     }
 
+    private Mapping getMapping(final JsonPointer path, final String fieldName) throws BadRequestException {
+        final Mapping mapping = getMapping(fieldName);
+        if (mapping == null) {
+            throw new BadRequestException(i18n(
+                    "The request cannot be processed because it included "
+                            + "an unrecognized field '%s'", path.child(fieldName)));
+        }
+        return mapping;
+    }
+
     private Mapping getMapping(final String jsonAttribute) {
         return mappings.get(toLowerCase(jsonAttribute));
     }
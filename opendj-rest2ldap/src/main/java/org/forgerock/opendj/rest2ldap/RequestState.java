@@ -31,6 +31,7 @@ import org.forgerock.opendj.ldap.LdapException;
 import org.forgerock.opendj.ldap.LdapPromise;
 import org.forgerock.opendj.ldap.IntermediateResponseHandler;
 import org.forgerock.opendj.ldap.LdapResultHandler;
+import org.forgerock.opendj.ldap.Modification;
 import org.forgerock.opendj.ldap.SearchResultHandler;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.controls.Control;
@@ -52,6 +53,7 @@ import org.forgerock.opendj.ldap.responses.ExtendedResult;
 import org.forgerock.opendj.ldap.responses.Result;
 import org.forgerock.opendj.ldap.responses.SearchResultEntry;
 import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.SecurityContext;
 import org.forgerock.util.promise.ExceptionHandler;
@@ -60,6 +62,10 @@ import org.forgerock.util.promise.PromiseImpl;
 import org.forgerock.util.promise.Promises;
 import org.forgerock.util.promise.ResultHandler;
 
+import static org.forgerock.opendj.ldap.schema.CoreSchema.getAuthPasswordAttributeType;
+import static org.forgerock.opendj.ldap.schema.CoreSchema.getUserPasswordAttributeType;
+import static org.forgerock.opendj.ldap.schema.SchemaConstants.SYNTAX_AUTH_PASSWORD_OID;
+import static org.forgerock.opendj.ldap.schema.SchemaConstants.SYNTAX_USER_PASSWORD_OID;
 import static org.forgerock.opendj.rest2ldap.Rest2LDAP.*;
 import static org.forgerock.opendj.rest2ldap.Utils.*;
 
@@ -355,7 +361,20 @@ final class RequestState implements Closeable {
             public LdapPromise<Result> modifyAsync(final ModifyRequest request,
                 final IntermediateResponseHandler intermediateResponseHandler) {
                 evict(request.getName());
-                return connection.modifyAsync(withControls(request), intermediateResponseHandler);
+                final LdapPromise<Result> promise =
+                        connection.modifyAsync(withControls(request), intermediateResponseHandler);
+                if (context.containsContext(AuthenticationCacheContext.class) && isPasswordModification(request)) {
+                    // Old passwords must not be accepted once they have been modified.
+                    final AuthenticationCache authenticationCache =
+                            context.asContext(AuthenticationCacheContext.class).getAuthenticationCache();
+                    return promise.thenOnResult(new ResultHandler<Result>() {
+                        @Override
+                        public void handleResult(final Result result) {
+                            authenticationCache.invalidate(request.getName());
+                        }
+                    });
+                }
+                return promise;
             }
 
             @Override
@@ -424,6 +443,19 @@ final class RequestState implements Closeable {
                 }
             }
 
+            private boolean isPasswordModification(final ModifyRequest request) {
+                for (final Modification modification : request.getModifications()) {
+                    final AttributeType type = modification.getAttribute().getAttributeDescription().getAttributeType();
+                    if (type.isSubTypeOf(getUserPasswordAttributeType())
+                            || type.isSubTypeOf(getAuthPasswordAttributeType())
+                            || type.getSyntax().getOID().equals(SYNTAX_USER_PASSWORD_OID)
+                            || type.getSyntax().getOID().equals(SYNTAX_AUTH_PASSWORD_OID)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
             private <R extends Request> R withControls(final R request) {
                 if (proxiedAuthzControl != null) {
                     request.addControl(proxiedAuthzControl);
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2012-2015 ForgeRock AS.
+ * Copyright 2012-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.rest2ldap;
 
@@ -138,11 +138,21 @@ public final class SimpleAttributeMapper extends AbstractLDAPAttributeMapper<Sim
     Promise<Attribute, ResourceException> getNewLDAPAttributes(
             final RequestState requestState, final JsonPointer path, final List<Object> newValues) {
         try {
-            return newResultPromise(jsonToAttribute(newValues, ldapAttributeName, encoder()));
+            return newResultPromise(getNewLDAPAttributesSync(requestState, path, newValues));
+        } catch (final ResourceException ex) {
+            return newExceptionPromise(ex);
+        }
+    }
+
+    @Override
+    Attribute getNewLDAPAttributesSync(final RequestState requestState, final JsonPointer path,
+            final List<Object> newValues) throws ResourceException {
+        try {
+            return jsonToAttribute(newValues, ldapAttributeName, encoder());
         } catch (final Exception ex) {
-            return newExceptionPromise((ResourceException) new BadRequestException(i18n(
+            throw new BadRequestException(i18n(
                     "The request cannot be processed because an error occurred while "
-                            + "encoding the values for the field '%s': %s", path, ex.getMessage())));
+                            + "encoding the values for the field '%s': %s", path, ex.getMessage()));
         }
     }
 
@@ -151,8 +161,23 @@ public final class SimpleAttributeMapper extends AbstractLDAPAttributeMapper<Sim
         return this;
     }
 
+    @Override
+    boolean isSynchronous() {
+        return true;
+    }
+
     @Override
     Promise<JsonValue, ResourceException> read(final RequestState requestState, final JsonPointer path, final Entry e) {
+        try {
+            return newResultPromise(readSync(requestState, path, e));
+        } catch (final ResourceException ex) {
+            return newExceptionPromise(ex);
+        }
+    }
+
+    @Override
+    JsonValue readSync(final RequestState requestState, final JsonPointer path, final Entry e)
+            throws ResourceException {
         try {
             final Object value;
             if (attributeIsSingleValued()) {
@@ -164,10 +189,10 @@ public final class SimpleAttributeMapper extends AbstractLDAPAttributeMapper<Sim
                         e.parseAttribute(ldapAttributeName).asSetOf(decoder(), defaultJSONValues);
                 value = s.isEmpty() ? null : new ArrayList<>(s);
             }
-            return newResultPromise(value != null ? new JsonValue(value) : null);
+            return value != null ? new JsonValue(value) : null;
         } catch (final Exception ex) {
             // The LDAP attribute could not be decoded.
-            return newExceptionPromise(asResourceException(ex));
+            throw asResourceException(ex);
         }
     }
 
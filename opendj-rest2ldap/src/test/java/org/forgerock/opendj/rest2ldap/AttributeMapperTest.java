@@ -0,0 +1,248 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.rest2ldap;
+
+import static java.util.Arrays.asList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.PatchOperation.add;
+import static org.forgerock.json.resource.PatchOperation.remove;
+import static org.forgerock.json.resource.PatchOperation.replace;
+import static org.forgerock.opendj.rest2ldap.Rest2LDAP.constant;
+import static org.forgerock.opendj.rest2ldap.Rest2LDAP.object;
+import static org.forgerock.opendj.rest2ldap.Rest2LDAP.simple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.BadRequestException;
+import org.forgerock.json.resource.PatchOperation;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.opendj.ldap.Attribute;
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.Filter;
+import org.forgerock.opendj.ldap.LinkedHashMapEntry;
+import org.forgerock.opendj.ldap.Modification;
+import org.forgerock.testng.ForgeRockTestCase;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.Promises;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the synchronous and asynchronous versions of the attribute mapper
+ * methods produce the same results.
+ */
+@SuppressWarnings({ "javadoc" })
+@Test
+public final class AttributeMapperTest extends ForgeRockTestCase {
+    private static final JsonPointer ROOT = new JsonPointer();
+
+    private final ObjectAttributeMapper mapper = object()
+            .attribute("schemas", constant(asList("urn:scim:schemas:core:1.0")))
+            .attribute("_id", simple("uid").isSingleValued().isRequired())
+            .attribute("displayName", simple("cn").isSingleValued().isRequired())
+            .attribute("name", object()
+                    .attribute("givenName", simple("givenName").isSingleValued())
+                    .attribute("familyName", simple("sn").isSingleValued().isRequired()))
+            .attribute("mail", simple("mail"))
+            .attribute("description", simple("description").isSingleValued());
+
+    private final Entry entry = new LinkedHashMapEntry(
+            "dn: uid=bjensen,ou=people,dc=example,dc=com",
+            "objectClass: inetOrgPerson",
+            "uid: bjensen",
+            "cn: Barbara Jensen",
+            "givenName: Barbara",
+            "sn: Jensen",
+            "mail: bjensen@example.com",
+            "mail: barbara@example.com");
+
+    @Test
+    public void objectMappersShouldBeSynchronousWhenAllTheirMappersAre() {
+        assertThat(mapper.isSynchronous()).isTrue();
+        assertThat(object().attribute("manager", new AsyncAttributeMapper()).isSynchronous()).isFalse();
+    }
+
+    @Test
+    public void readShouldMatch() throws Exception {
+        final JsonValue async = mapper.read(null, ROOT, entry).getOrThrow();
+        final JsonValue sync = mapper.readSync(null, ROOT, entry);
+        assertThat(sync.getObject()).isEqualTo(async.getObject());
+        assertThat(sync.get("name").get("familyName").asString()).isEqualTo("Jensen");
+        assertThat(sync.get("mail").asList()).hasSize(2);
+    }
+
+    @Test
+    public void createShouldMatch() throws Exception {
+        final JsonValue resource = newResource();
+        final List<Attribute> async = mapper.create(null, ROOT, resource).getOrThrow();
+        final List<Attribute> sync = mapper.createSync(null, ROOT, resource);
+        assertThat(sync).isEqualTo(async);
+        assertThat(sync).hasSize(6);
+    }
+
+    @Test
+    public void updateShouldMatch() throws Exception {
+        final JsonValue resource = newResource();
+        final List<Modification> async = mapper.update(null, ROOT, entry, resource).getOrThrow();
+        final List<Modification> sync = mapper.updateSync(null, ROOT, entry, resource);
+        assertThat(toStrings(sync)).isEqualTo(toStrings(async));
+        assertThat(sync).isNotEmpty();
+    }
+
+    @DataProvider
+    public Object[][] patchOperations() {
+        return new Object[][] {
+            { replace("/displayName", "Babs Jensen") },
+            { add("/mail", asList("babs@example.com")) },
+            { remove("/description") },
+            { replace("/name/givenName", "Babs") },
+            { replace("/name", object(field("givenName", "Babs"), field("familyName", "Jensen"))) },
+            { replace("", object(field("displayName", "Babs Jensen"), field("mail", asList("a@example.com")))) },
+        };
+    }
+
+    @Test(dataProvider = "patchOperations")
+    public void patchShouldMatch(final PatchOperation operation) throws Exception {
+        final List<Modification> async = mapper.patch(null, ROOT, operation).getOrThrow();
+        final List<Modification> sync = mapper.patchSync(null, ROOT, operation);
+        assertThat(toStrings(sync)).isEqualTo(toStrings(async));
+        assertThat(sync).isNotEmpty();
+    }
+
+    @DataProvider
+    public Object[][] invalidResources() {
+        return new Object[][] {
+            // Unrecognized field.
+            { json(object(field("_id", "bjensen"), field("unknown", "value"))) },
+            // Missing required field.
+            { json(object(field("_id", "bjensen"), field("displayName", "Barbara Jensen"))) },
+            // Multiple values for a single valued field.
+            { json(object(field("_id", "bjensen"), field("displayName", asList("a", "b")))) },
+            // Read-only constant.
+            { json(object(field("_id", "bjensen"), field("schemas", asList("other")))) },
+        };
+    }
+
+    @Test(dataProvider = "invalidResources")
+    public void createErrorsShouldMatch(final JsonValue resource) throws Exception {
+        final ResourceException asyncError = getError(mapper.create(null, ROOT, resource));
+        try {
+            mapper.createSync(null, ROOT, resource);
+            fail("The resource was unexpectedly mapped");
+        } catch (final ResourceException syncError) {
+            assertThat(syncError).isInstanceOf(BadRequestException.class);
+            assertThat(syncError.getClass()).isEqualTo(asyncError.getClass());
+            assertThat(syncError.getMessage()).isEqualTo(asyncError.getMessage());
+        }
+    }
+
+    @Test
+    public void syncMethodsShouldDefaultToTheCompletedAsyncResult() throws Exception {
+        final AttributeMapper asyncOnly = new AsyncAttributeMapper(Promises.<JsonValue, ResourceException>
+                newResultPromise(json("value")));
+        assertThat(asyncOnly.readSync(null, ROOT, entry).asString()).isEqualTo("value");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void syncMethodsShouldRejectIncompletePromises() throws Exception {
+        new AsyncAttributeMapper().readSync(null, ROOT, entry);
+    }
+
+    private JsonValue newResource() {
+        return json(object(
+                field("_id", "bjensen"),
+                field("displayName", "Babs Jensen"),
+                field("name", object(field("givenName", "Babs"), field("familyName", "Jensen"))),
+                field("mail", asList("bjensen@example.com")),
+                field("description", "Sales")));
+    }
+
+    private static ResourceException getError(final Promise<?, ResourceException> promise) throws Exception {
+        try {
+            promise.getOrThrow();
+            fail("The resource was unexpectedly mapped");
+            return null;
+        } catch (final ResourceException e) {
+            return e;
+        }
+    }
+
+    private static List<String> toStrings(final List<Modification> modifications) {
+        final List<String> strings = new ArrayList<>();
+        for (final Modification modification : modifications) {
+            strings.add(modification.getModificationType() + " " + modification.getAttribute());
+        }
+        return strings;
+    }
+
+    /** A mapper which only implements the promise based methods. */
+    private static final class AsyncAttributeMapper extends AttributeMapper {
+        private final Promise<JsonValue, ResourceException> readResult;
+
+        private AsyncAttributeMapper() {
+            this(PromiseImpl.<JsonValue, ResourceException> create());
+        }
+
+        private AsyncAttributeMapper(final Promise<JsonValue, ResourceException> readResult) {
+            this.readResult = readResult;
+        }
+
+        @Override
+        Promise<List<Attribute>, ResourceException> create(final RequestState requestState, final JsonPointer path,
+                final JsonValue v) {
+            return PromiseImpl.create();
+        }
+
+        @Override
+        void getLDAPAttributes(final RequestState requestState, final JsonPointer path, final JsonPointer subPath,
+                final Set<String> ldapAttributes) {
+            // Nothing to do.
+        }
+
+        @Override
+        Promise<Filter, ResourceException> getLDAPFilter(final RequestState requestState, final JsonPointer path,
+                final JsonPointer subPath, final FilterType type, final String operator,
+                final Object valueAssertion) {
+            return PromiseImpl.create();
+        }
+
+        @Override
+        Promise<List<Modification>, ResourceException> patch(final RequestState requestState, final JsonPointer path,
+                final PatchOperation operation) {
+            return PromiseImpl.create();
+        }
+
+        @Override
+        Promise<JsonValue, ResourceException> read(final RequestState requestState, final JsonPointer path, final Entry e) {
+            return readResult;
+        }
+
+        @Override
+        Promise<List<Modification>, ResourceException> update(final RequestState requestState, final JsonPointer path,
+                final Entry e, final JsonValue v) {
+            return PromiseImpl.create();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.rest2ldap;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.forgerock.services.context.SecurityContext.AUTHZID_DN;
+import static org.forgerock.services.context.SecurityContext.AUTHZID_ID;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.testng.ForgeRockTestCase;
+import org.forgerock.util.time.TimeService;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the AuthenticationCache class.
+ */
+@SuppressWarnings({ "javadoc" })
+@Test
+public final class AuthenticationCacheTest extends ForgeRockTestCase {
+    private static final Map<String, Object> AUTHZID =
+            Collections.<String, Object> singletonMap(AUTHZID_DN, "uid=bjensen,ou=people,dc=example,dc=com");
+
+    private long now;
+    private final TimeService timeService = new TimeService() {
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public long since(final long past) {
+            return now - past;
+        }
+    };
+    private AuthenticationCache cache;
+
+    @BeforeMethod
+    public void setUp() {
+        now = 1000;
+        cache = new AuthenticationCache(2, 60000, 3, 10000, timeService);
+    }
+
+    @Test
+    public void cachedAuthenticationsShouldMatchThePassword() {
+        cache.put("bjensen", "password".toCharArray(), AUTHZID);
+        assertThat(cache.get("bjensen", "password".toCharArray())).isEqualTo(AUTHZID);
+        assertThat(cache.get("bjensen", "wrong".toCharArray())).isNull();
+        assertThat(cache.get("scarter", "password".toCharArray())).isNull();
+    }
+
+    @Test
+    public void cachedAuthenticationsShouldExpire() {
+        cache.put("bjensen", "password".toCharArray(), AUTHZID);
+        now += 59999;
+        assertThat(cache.get("bjensen", "password".toCharArray())).isEqualTo(AUTHZID);
+        now += 1;
+        assertThat(cache.get("bjensen", "password".toCharArray())).isNull();
+    }
+
+    @Test
+    public void cacheShouldBeBounded() {
+        cache.put("user.0", "password".toCharArray(), AUTHZID);
+        cache.put("user.1", "password".toCharArray(), AUTHZID);
+        cache.put("user.2", "password".toCharArray(), AUTHZID);
+        assertThat(cache.get("user.0", "password".toCharArray())).isNull();
+        assertThat(cache.get("user.1", "password".toCharArray())).isEqualTo(AUTHZID);
+        assertThat(cache.get("user.2", "password".toCharArray())).isEqualTo(AUTHZID);
+    }
+
+    @Test
+    public void invalidateAllShouldRemoveCachedAuthentications() {
+        cache.put("bjensen", "password".toCharArray(), AUTHZID);
+        cache.invalidateAll();
+        assertThat(cache.get("bjensen", "password".toCharArray())).isNull();
+    }
+
+    @Test
+    public void invalidateShouldOnlyRemoveTheAuthenticationsOfTheModifiedUser() {
+        final Map<String, Object> otherAuthzid =
+                Collections.<String, Object> singletonMap(AUTHZID_DN, "uid=scarter,ou=people,dc=example,dc=com");
+        cache.put("bjensen", "password".toCharArray(), AUTHZID);
+        cache.put("scarter", "password".toCharArray(), otherAuthzid);
+        cache.invalidate(DN.valueOf("UID=bjensen, ou=People, dc=example, dc=com"));
+        assertThat(cache.get("bjensen", "password".toCharArray())).isNull();
+        assertThat(cache.get("scarter", "password".toCharArray())).isEqualTo(otherAuthzid);
+    }
+
+    @Test
+    public void invalidateShouldRemoveAuthenticationsWithoutDN() {
+        final Map<String, Object> authzid = Collections.<String, Object> singletonMap(AUTHZID_ID, "bjensen");
+        cache.put("bjensen", "password".toCharArray(), authzid);
+        cache.invalidate(DN.valueOf("uid=scarter,ou=people,dc=example,dc=com"));
+        assertThat(cache.get("bjensen", "password".toCharArray())).isNull();
+    }
+
+    @Test
+    public void repeatedFailuresShouldBeRateLimited() {
+        cache.recordFailedAttempt("bjensen", "wrong".toCharArray());
+        cache.recordFailedAttempt("bjensen", "wrong".toCharArray());
+        assertThat(cache.isRateLimited("bjensen")).isFalse();
+        cache.recordFailedAttempt("bjensen", "wrong".toCharArray());
+        assertThat(cache.isRateLimited("bjensen")).isTrue();
+        assertThat(cache.isRateLimited("scarter")).isFalse();
+
+        // The failures are forgotten at the end of the period.
+        now += 10000;
+        assertThat(cache.isRateLimited("bjensen")).isFalse();
+        cache.recordFailedAttempt("bjensen", "wrong".toCharArray());
+        assertThat(cache.isRateLimited("bjensen")).isFalse();
+    }
+
+    @Test
+    public void failuresWithOtherPasswordsShouldNotRemoveCachedAuthentications() {
+        cache.put("bjensen", "password".toCharArray(), AUTHZID);
+        cache.recordFailedAttempt("bjensen", "wrong".toCharArray());
+        cache.recordFailedAttempt("bjensen", "wrong".toCharArray());
+        cache.recordFailedAttempt("bjensen", "wrong".toCharArray());
+        assertThat(cache.isRateLimited("bjensen")).isTrue();
+        assertThat(cache.get("bjensen", "password".toCharArray())).isEqualTo(AUTHZID);
+    }
+
+    @Test
+    public void failuresWithTheCachedPasswordShouldRemoveCachedAuthentications() {
+        cache.put("bjensen", "password".toCharArray(), AUTHZID);
+        cache.recordFailedAttempt("bjensen", "password".toCharArray());
+        assertThat(cache.get("bjensen", "password".toCharArray())).isNull();
+    }
+
+    @Test
+    public void successfulAuthenticationsShouldResetFailures() {
+        cache.recordFailedAttempt("bjensen", "wrong".toCharArray());
+        cache.recordFailedAttempt("bjensen", "wrong".toCharArray());
+        cache.put("bjensen", "password".toCharArray(), AUTHZID);
+        cache.recordFailedAttempt("bjensen", "wrong".toCharArray());
+        assertThat(cache.isRateLimited("bjensen")).isFalse();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rateLimitingShouldRequireAPositivePeriod() {
+        new AuthenticationCache(2, 60000, 3, 0, timeService);
+    }
+
+    @Test
+    public void disabledRateLimitingShouldNotRequireAPeriod() {
+        cache = new AuthenticationCache(2, 60000, 0, 0, timeService);
+        cache.recordFailedAttempt("bjensen", "wrong".toCharArray());
+        assertThat(cache.isRateLimited("bjensen")).isFalse();
+    }
+}
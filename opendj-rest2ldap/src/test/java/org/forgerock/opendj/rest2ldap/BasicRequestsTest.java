@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2013-2015 ForgeRock AS.
+ * Copyright 2013-2016 ForgeRock AS.
  */
 package org.forgerock.opendj.rest2ldap;
 
@@ -39,26 +39,40 @@ import static org.forgerock.opendj.rest2ldap.Rest2LDAP.simple;
 import static org.forgerock.opendj.rest2ldap.TestUtils.asResource;
 import static org.forgerock.opendj.rest2ldap.TestUtils.content;
 import static org.forgerock.opendj.rest2ldap.TestUtils.ctx;
+import static org.forgerock.services.context.SecurityContext.AUTHZID_DN;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
+import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.json.JsonPointer;
 import org.forgerock.json.JsonValue;
 import org.forgerock.json.resource.BadRequestException;
 import org.forgerock.json.resource.Connection;
 import org.forgerock.json.resource.NotFoundException;
 import org.forgerock.json.resource.NotSupportedException;
+import org.forgerock.json.resource.PatchOperation;
 import org.forgerock.json.resource.PreconditionFailedException;
+import org.forgerock.json.resource.QueryResourceHandler;
 import org.forgerock.json.resource.QueryResponse;
 import org.forgerock.json.resource.Requests;
+import org.forgerock.json.resource.ResourceException;
 import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.opendj.ldap.Attribute;
+import org.forgerock.opendj.ldap.CancelRequestListener;
 import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.Filter;
 import org.forgerock.opendj.ldap.IntermediateResponseHandler;
+import org.forgerock.opendj.ldap.LdapException;
 import org.forgerock.opendj.ldap.LdapResultHandler;
 import org.forgerock.opendj.ldap.MemoryBackend;
+import org.forgerock.opendj.ldap.Modification;
 import org.forgerock.opendj.ldap.RequestContext;
 import org.forgerock.opendj.ldap.RequestHandler;
 import org.forgerock.opendj.ldap.SearchResultHandler;
@@ -77,8 +91,12 @@ import org.forgerock.opendj.ldap.responses.ExtendedResult;
 import org.forgerock.opendj.ldap.responses.Result;
 import org.forgerock.opendj.ldif.LDIFEntryReader;
 import org.forgerock.opendj.rest2ldap.Rest2LDAP.Builder;
+import org.forgerock.services.context.Context;
 import org.forgerock.testng.ForgeRockTestCase;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
 import org.forgerock.util.query.QueryFilter;
+import org.forgerock.util.time.TimeService;
 import org.testng.annotations.Test;
 
 /** Tests that CREST requests are correctly mapped to LDAP. */
@@ -160,6 +178,46 @@ public final class BasicRequestsTest extends ForgeRockTestCase {
         assertThat(resources.get(1).getId()).isEqualTo("test4");
     }
 
+    @Test
+    public void testQueryAsynchronousMappingKeepsOrder() throws Exception {
+        final OutOfOrderAttributeMapper outOfOrderMapper = new OutOfOrderAttributeMapper(5);
+        final Connection connection = newInternalConnection(newCollection(builder(new LinkedList<Request>())
+                .mapper(object().attribute("_id", simple("uid").isSingleValued())
+                                .attribute("outOfOrder", outOfOrderMapper))
+                .build()));
+        final List<ResourceResponse> resources = new ArrayList<>();
+        connection.query(ctx(), newQueryRequest("").setQueryFilter(NO_FILTER), resources);
+        assertThat(outOfOrderMapper.mappedUids).containsExactly("test5", "test4", "test3", "test2", "test1");
+        assertThat(resources).hasSize(5);
+        for (int i = 0; i < resources.size(); i++) {
+            final ResourceResponse resource = resources.get(i);
+            assertThat(resource.getId()).isEqualTo("test" + (i + 1));
+            assertThat(resource.getContent().get("outOfOrder").asString()).isEqualTo(resource.getId());
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testQueryCancelsSearchWhenHandlerStops() throws Exception {
+        final CountDownLatch searchCancelled = new CountDownLatch(1);
+        final Connection connection = newInternalConnection(newCollection(builder(new LinkedList<Request>())
+                .ldapConnectionFactory(newInternalConnectionFactory(suspendSearches(newBackend(), searchCancelled)))
+                .build()));
+        final List<ResourceResponse> resources = new ArrayList<>();
+        final QueryResponse result = connection.query(ctx(), newQueryRequest("").setQueryFilter(NO_FILTER),
+                new QueryResourceHandler() {
+                    @Override
+                    public boolean handleResource(final ResourceResponse resource) {
+                        resources.add(resource);
+                        return false;
+                    }
+                });
+        assertThat(resources).hasSize(1);
+        assertThat(resources.get(0).getId()).isEqualTo("test1");
+        assertThat(result.getPagedResultsCookie()).isNull();
+        // The search is never completed by the backend, so it must have been abandoned.
+        searchCancelled.await();
+    }
+
     @Test(expectedExceptions = NotFoundException.class)
     public void testDelete() throws Exception {
         final Connection connection = newConnection();
@@ -331,6 +389,18 @@ public final class BasicRequestsTest extends ForgeRockTestCase {
         newConnection().patch(ctx(), newPatchRequest("/missing", add("/name/displayName", "changed")));
     }
 
+    @Test
+    public void testPatchPasswordInvalidatesCachedAuthentications() throws Exception {
+        final AuthenticationCache cache = newAuthenticationCache();
+        final Context context = new AuthenticationCacheContext(ctx(), cache);
+        final Connection connection = newPasswordConnection();
+        connection.patch(context, newPatchRequest("/test1", add("/description", asList("one"))));
+        assertThat(cache.get("test1", "password".toCharArray())).isNotNull();
+        connection.patch(context, newPatchRequest("/test1", replace("/password", "changed")));
+        assertThat(cache.get("test1", "password".toCharArray())).isNull();
+        assertThat(cache.get("test2", "password".toCharArray())).isNotNull();
+    }
+
     @Test(expectedExceptions = BadRequestException.class)
     public void testPatchReadOnlyAttribute() throws Exception {
         // Etag is read-only.
@@ -461,6 +531,16 @@ public final class BasicRequestsTest extends ForgeRockTestCase {
         checkResourcesAreEqual(resource2, getTestUser1Updated(12345));
     }
 
+    @Test
+    public void testUpdatePasswordInvalidatesCachedAuthentications() throws Exception {
+        final AuthenticationCache cache = newAuthenticationCache();
+        final Context context = new AuthenticationCacheContext(ctx(), cache);
+        newPasswordConnection().update(context,
+                newUpdateRequest("/test2", json(object(field("_id", "test2"), field("password", "changed")))));
+        assertThat(cache.get("test2", "password".toCharArray())).isNull();
+        assertThat(cache.get("test1", "password".toCharArray())).isNotNull();
+    }
+
     @Test
     public void testUpdateNoChange() throws Exception {
         final List<Request> requests = new LinkedList<>();
@@ -618,10 +698,33 @@ public final class BasicRequestsTest extends ForgeRockTestCase {
                 expectedResource.getContent().getObject());
     }
 
+    private Connection newPasswordConnection() throws IOException {
+        return newInternalConnection(newCollection(builder(new LinkedList<Request>())
+                .mapper(object()
+                        .attribute("_id", simple("uid").isSingleValued()
+                                                       .isRequired()
+                                                       .writability(WritabilityPolicy.CREATE_ONLY))
+                        .attribute("password", simple("userPassword").isSingleValued())
+                        .attribute("description", simple("description")))
+                .build()));
+    }
+
+    private AuthenticationCache newAuthenticationCache() {
+        final AuthenticationCache cache = new AuthenticationCache(10, 60000, 0, 60000, TimeService.SYSTEM);
+        for (final String uid : asList("test1", "test2")) {
+            cache.put(uid, "password".toCharArray(),
+                    Collections.<String, Object> singletonMap(AUTHZID_DN, "uid=" + uid + ",dc=test"));
+        }
+        return cache;
+    }
+
     private ConnectionFactory getConnectionFactory(final List<Request> requests) throws IOException {
+        return newInternalConnectionFactory(recordRequests(newBackend(), requests));
+    }
+
+    private MemoryBackend newBackend() throws IOException {
         // @formatter:off
-        final MemoryBackend backend =
-                new MemoryBackend(new LDIFEntryReader(
+        return new MemoryBackend(new LDIFEntryReader(
                         "dn: dc=test",
                         "objectClass: domain",
                         "objectClass: top",
@@ -673,8 +776,6 @@ public final class BasicRequestsTest extends ForgeRockTestCase {
                         "etag: 55555"
                 ));
         // @formatter:on
-
-        return newInternalConnectionFactory(recordRequests(backend, requests));
     }
 
     private RequestHandler<RequestContext> recordRequests(
@@ -756,6 +857,144 @@ public final class BasicRequestsTest extends ForgeRockTestCase {
         };
     }
 
+    /** Returns a handler whose searches return their entries but never complete, unless they are cancelled. */
+    private RequestHandler<RequestContext> suspendSearches(
+            final RequestHandler<RequestContext> handler, final CountDownLatch searchCancelled) {
+        return new RequestHandler<RequestContext>() {
+            @Override
+            public void handleAdd(RequestContext requestContext, AddRequest request,
+                    IntermediateResponseHandler intermediateResponseHandler,
+                    LdapResultHandler<Result> resultHandler) {
+                handler.handleAdd(requestContext, request, intermediateResponseHandler, resultHandler);
+            }
+
+            @Override
+            public void handleBind(RequestContext requestContext, int version, BindRequest request,
+                    IntermediateResponseHandler intermediateResponseHandler,
+                    LdapResultHandler<BindResult> resultHandler) {
+                handler.handleBind(requestContext, version, request, intermediateResponseHandler, resultHandler);
+            }
+
+            @Override
+            public void handleCompare(RequestContext requestContext, CompareRequest request,
+                    IntermediateResponseHandler intermediateResponseHandler,
+                    LdapResultHandler<CompareResult> resultHandler) {
+                handler.handleCompare(requestContext, request, intermediateResponseHandler, resultHandler);
+            }
+
+            @Override
+            public void handleDelete(RequestContext requestContext, DeleteRequest request,
+                    IntermediateResponseHandler intermediateResponseHandler,
+                    LdapResultHandler<Result> resultHandler) {
+                handler.handleDelete(requestContext, request, intermediateResponseHandler, resultHandler);
+            }
+
+            @Override
+            public <R extends ExtendedResult> void handleExtendedRequest(
+                    RequestContext requestContext, ExtendedRequest<R> request,
+                    IntermediateResponseHandler intermediateResponseHandler,
+                    LdapResultHandler<R> resultHandler) {
+                handler.handleExtendedRequest(requestContext, request, intermediateResponseHandler, resultHandler);
+            }
+
+            @Override
+            public void handleModify(RequestContext requestContext, ModifyRequest request,
+                    IntermediateResponseHandler intermediateResponseHandler,
+                    LdapResultHandler<Result> resultHandler) {
+                handler.handleModify(requestContext, request, intermediateResponseHandler, resultHandler);
+            }
+
+            @Override
+            public void handleModifyDN(RequestContext requestContext, ModifyDNRequest request,
+                    IntermediateResponseHandler intermediateResponseHandler,
+                    LdapResultHandler<Result> resultHandler) {
+                handler.handleModifyDN(requestContext, request, intermediateResponseHandler, resultHandler);
+            }
+
+            @Override
+            public void handleSearch(RequestContext requestContext, SearchRequest request,
+                IntermediateResponseHandler intermediateResponseHandler, SearchResultHandler entryHandler,
+                final LdapResultHandler<Result> resultHandler) {
+                requestContext.addCancelRequestListener(new CancelRequestListener() {
+                    @Override
+                    public void handleCancelRequest(LocalizableMessage cancellationReason) {
+                        searchCancelled.countDown();
+                    }
+                });
+                handler.handleSearch(requestContext, request, intermediateResponseHandler, entryHandler,
+                    new LdapResultHandler<Result>() {
+                        @Override
+                        public void handleResult(Result result) {
+                            // The search remains pending.
+                        }
+
+                        @Override
+                        public void handleException(LdapException exception) {
+                            resultHandler.handleException(exception);
+                        }
+                    });
+            }
+        };
+    }
+
+    /** Maps the uid of entries, completing the mappings in the reverse order once all the entries have been read. */
+    private static final class OutOfOrderAttributeMapper extends AttributeMapper {
+        private final int entryCount;
+        private final List<String> uids = new ArrayList<>();
+        private final List<PromiseImpl<JsonValue, ResourceException>> promises = new ArrayList<>();
+        private final List<String> mappedUids = new ArrayList<>();
+
+        private OutOfOrderAttributeMapper(final int entryCount) {
+            this.entryCount = entryCount;
+        }
+
+        @Override
+        Promise<List<Attribute>, ResourceException> create(final RequestState requestState, final JsonPointer path,
+                final JsonValue v) {
+            return PromiseImpl.create();
+        }
+
+        @Override
+        void getLDAPAttributes(final RequestState requestState, final JsonPointer path, final JsonPointer subPath,
+                final Set<String> ldapAttributes) {
+            ldapAttributes.add("uid");
+        }
+
+        @Override
+        Promise<Filter, ResourceException> getLDAPFilter(final RequestState requestState, final JsonPointer path,
+                final JsonPointer subPath, final FilterType type, final String operator,
+                final Object valueAssertion) {
+            return PromiseImpl.create();
+        }
+
+        @Override
+        Promise<List<Modification>, ResourceException> patch(final RequestState requestState, final JsonPointer path,
+                final PatchOperation operation) {
+            return PromiseImpl.create();
+        }
+
+        @Override
+        Promise<JsonValue, ResourceException> read(final RequestState requestState, final JsonPointer path,
+                final Entry e) {
+            final PromiseImpl<JsonValue, ResourceException> promise = PromiseImpl.create();
+            uids.add(e.parseAttribute("uid").asString());
+            promises.add(promise);
+            if (promises.size() == entryCount) {
+                for (int i = entryCount - 1; i >= 0; i--) {
+                    mappedUids.add(uids.get(i));
+                    promises.get(i).handleResult(new JsonValue(uids.get(i)));
+                }
+            }
+            return promise;
+        }
+
+        @Override
+        Promise<List<Modification>, ResourceException> update(final RequestState requestState, final JsonPointer path,
+                final Entry e, final JsonValue v) {
+            return PromiseImpl.create();
+        }
+    }
+
     private JsonValue getTestUser1(final int rev) {
         return content(object(
                 field("schemas", asList("urn:scim:schemas:core:1.0")),